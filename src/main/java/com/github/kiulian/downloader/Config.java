@@ -1,9 +1,14 @@
 package com.github.kiulian.downloader;
 
+import com.github.kiulian.downloader.downloader.BandwidthMeter;
+import com.github.kiulian.downloader.downloader.BufferPool;
+import com.github.kiulian.downloader.downloader.WriterPipeline;
+import com.github.kiulian.downloader.downloader.client.ClientScoreboard;
 import com.github.kiulian.downloader.downloader.proxy.ProxyAuthenticator;
 import com.github.kiulian.downloader.downloader.proxy.ProxyCredentials;
 import com.github.kiulian.downloader.downloader.proxy.ProxyCredentialsImpl;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.HashMap;
@@ -14,26 +19,29 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Config {
-    private static final ThreadFactory threadFactory = new ThreadFactory() {
-        private static final String NAME_PREFIX = "yt-downloader-";
-        private final AtomicInteger threadNumber = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            final Thread thread = new Thread(r, NAME_PREFIX + this.threadNumber.getAndIncrement());
-            thread.setDaemon(true);
-            return thread;
-        }
-    };
+    private static final ThreadFactory threadFactory = daemonThreadFactory("yt-downloader-");
+    private static final ThreadFactory workerThreadFactory = daemonThreadFactory("yt-downloader-worker-");
 
     private static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/72.0.3626.121 Safari/537.36";
     private static final String DEFAULT_ACCEPT_LANG = "en-US,en;";
     private static final int DEFAULT_RETRY_ON_FAILURE = 0;
+    private static final int DEFAULT_DOWNLOAD_CONCURRENCY = 1;
+    private static final long DEFAULT_STREAM_BUFFER_SIZE = 32 * 1024 * 1024;
 
     private Map<String, String> headers;
     private int maxRetries;
     private boolean compressionEnabled;
     private ExecutorService executorService;
+    private ExecutorService workerExecutorService;
     private Proxy proxy;
+    private BandwidthMeter bandwidthMeter;
+    private int downloadConcurrency;
+    private long streamBufferSize;
+    private boolean sharedTransfers;
+    private File spillDirectory;
+    private BufferPool bufferPool;
+    private WriterPipeline writerPipeline;
+    private ClientScoreboard clientScoreboard;
 
     private Config(Builder builder) {
         this.headers = builder.headers;
@@ -41,6 +49,14 @@ public class Config {
         this.compressionEnabled = builder.compressionEnabled;
         this.executorService = builder.executorService;
         this.proxy = builder.proxy;
+        this.bandwidthMeter = builder.bandwidthMeter != null ? builder.bandwidthMeter : new BandwidthMeter();
+        this.downloadConcurrency = builder.downloadConcurrency;
+        this.streamBufferSize = builder.streamBufferSize;
+        this.sharedTransfers = builder.sharedTransfers;
+        this.spillDirectory = builder.spillDirectory;
+        this.bufferPool = builder.bufferPool != null ? builder.bufferPool : new BufferPool();
+        this.writerPipeline = builder.writerPipeline;
+        this.clientScoreboard = builder.clientScoreboard != null ? builder.clientScoreboard : new ClientScoreboard();
     }
 
     private Config() {
@@ -48,6 +64,11 @@ public class Config {
         this.maxRetries = DEFAULT_RETRY_ON_FAILURE;
         this.compressionEnabled = true;
         this.executorService = null;
+        this.bandwidthMeter = new BandwidthMeter();
+        this.downloadConcurrency = DEFAULT_DOWNLOAD_CONCURRENCY;
+        this.streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+        this.bufferPool = new BufferPool();
+        this.clientScoreboard = new ClientScoreboard();
 
         setHeader("User-Agent", DEFAULT_USER_AGENT);
         setHeader("Accept-language", DEFAULT_ACCEPT_LANG);
@@ -85,6 +106,57 @@ public class Config {
         this.executorService = executorService;
     }
 
+    public void setBandwidthMeter(BandwidthMeter bandwidthMeter) {
+        this.bandwidthMeter = bandwidthMeter;
+    }
+
+    /**
+     * @param downloadConcurrency amount of parts of a file downloaded in parallel, 1 (default) - single stream download
+     */
+    public void setDownloadConcurrency(int downloadConcurrency) {
+        this.downloadConcurrency = downloadConcurrency;
+    }
+
+    /**
+     * @param streamBufferSize max bytes of parts held in memory by a parallel stream download
+     */
+    public void setStreamBufferSize(long streamBufferSize) {
+        this.streamBufferSize = streamBufferSize;
+    }
+
+    /**
+     * Concurrent downloads of the same format share one upstream transfer: later requesters replay the
+     * bytes received so far from a spill file and then follow the live transfer. Disabled by default.
+     */
+    public void setSharedTransfers(boolean sharedTransfers) {
+        this.sharedTransfers = sharedTransfers;
+    }
+
+    /**
+     * @param spillDirectory directory of the spill files of shared transfers, {@code null} - default temp directory
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @param writerPipeline moves output writes of sequential downloads off the network threads, {@code null} - disabled (default)
+     */
+    public void setWriterPipeline(WriterPipeline writerPipeline) {
+        this.writerPipeline = writerPipeline;
+    }
+
+    /**
+     * @param clientScoreboard health of the clients used by the requests of this config, can be shared by several configs
+     */
+    public void setClientScoreboard(ClientScoreboard clientScoreboard) {
+        this.clientScoreboard = clientScoreboard;
+    }
+
     public void setProxyAuthenticator(ProxyCredentials credentials) {
         ProxyAuthenticator.setDefault(new ProxyAuthenticator(credentials));
     }
@@ -96,6 +168,18 @@ public class Config {
         return this.executorService;
     }
 
+    /**
+     * @return unbounded pool of the workers a running task waits for (raced requests, parts of a download),
+     * kept apart from {@link #getExecutorService()} so that a task of a bounded executor never waits for
+     * work queued behind it
+     */
+    public synchronized ExecutorService getWorkerExecutorService() {
+        if (this.workerExecutorService == null) {
+            this.workerExecutorService = Executors.newCachedThreadPool(workerThreadFactory);
+        }
+        return this.workerExecutorService;
+    }
+
     public int getMaxRetries() {
         return maxRetries;
     }
@@ -108,16 +192,77 @@ public class Config {
         return proxy;
     }
 
+    public BandwidthMeter getBandwidthMeter() {
+        return bandwidthMeter;
+    }
+
+    public int getDownloadConcurrency() {
+        return downloadConcurrency;
+    }
+
+    public long getStreamBufferSize() {
+        return streamBufferSize;
+    }
+
+    public boolean isSharedTransfers() {
+        return sharedTransfers;
+    }
+
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @return pool of the transfer buffers, exposes utilization and misses
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return writer stage of downloads, exposes queue depth and stalls, {@code null} if disabled
+     */
+    public WriterPipeline getWriterPipeline() {
+        return writerPipeline;
+    }
+
+    /**
+     * @return health of the clients, ranks the clients of requests without a client type
+     */
+    public ClientScoreboard getClientScoreboard() {
+        return clientScoreboard;
+    }
+
     public Map<String, String> getHeaders() {
         return headers;
     }
 
+    private static ThreadFactory daemonThreadFactory(String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, namePrefix + this.threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     public static class Builder {
         private Map<String, String> headers = new HashMap<>();
         private int maxRetries = DEFAULT_RETRY_ON_FAILURE;
         private boolean compressionEnabled = true;
         private ExecutorService executorService;
         private Proxy proxy;
+        private BandwidthMeter bandwidthMeter;
+        private int downloadConcurrency = DEFAULT_DOWNLOAD_CONCURRENCY;
+        private long streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+        private boolean sharedTransfers;
+        private File spillDirectory;
+        private BufferPool bufferPool;
+        private WriterPipeline writerPipeline;
+        private ClientScoreboard clientScoreboard;
 
         public Builder maxRetries(int maxRetries) {
             this.maxRetries = maxRetries;
@@ -159,6 +304,46 @@ public class Config {
             return this;
         }
 
+        public Builder bandwidthMeter(BandwidthMeter bandwidthMeter) {
+            this.bandwidthMeter = bandwidthMeter;
+            return this;
+        }
+
+        public Builder downloadConcurrency(int downloadConcurrency) {
+            this.downloadConcurrency = downloadConcurrency;
+            return this;
+        }
+
+        public Builder streamBufferSize(long streamBufferSize) {
+            this.streamBufferSize = streamBufferSize;
+            return this;
+        }
+
+        public Builder sharedTransfers(boolean sharedTransfers) {
+            this.sharedTransfers = sharedTransfers;
+            return this;
+        }
+
+        public Builder spillDirectory(File spillDirectory) {
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        public Builder bufferPool(BufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
+        public Builder writerPipeline(WriterPipeline writerPipeline) {
+            this.writerPipeline = writerPipeline;
+            return this;
+        }
+
+        public Builder clientScoreboard(ClientScoreboard clientScoreboard) {
+            this.clientScoreboard = clientScoreboard;
+            return this;
+        }
+
         public Builder proxyCredentialsManager(ProxyCredentials credentials) {
             ProxyAuthenticator.setDefault(new ProxyAuthenticator(credentials));
             return this;
@@ -6,19 +6,28 @@ import static com.github.kiulian.downloader.model.Utils.createOutDir;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.Proxy;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.github.kiulian.downloader.cipher.CachedCipherFactory;
 import com.github.kiulian.downloader.downloader.Downloader;
 import com.github.kiulian.downloader.downloader.DownloaderImpl;
 import com.github.kiulian.downloader.downloader.request.*;
+import com.github.kiulian.downloader.downloader.response.BatchIterator;
+import com.github.kiulian.downloader.downloader.response.DownloadedBytes;
+import com.github.kiulian.downloader.downloader.response.PagedIterator;
 import com.github.kiulian.downloader.downloader.response.Response;
 import com.github.kiulian.downloader.downloader.response.ResponseImpl;
 import com.github.kiulian.downloader.extractor.ExtractorImpl;
 import com.github.kiulian.downloader.model.playlist.PlaylistInfo;
+import com.github.kiulian.downloader.model.playlist.PlaylistVideoDetails;
 import com.github.kiulian.downloader.model.search.SearchResult;
+import com.github.kiulian.downloader.model.search.SearchResultItem;
 import com.github.kiulian.downloader.model.subtitles.SubtitlesInfo;
 import com.github.kiulian.downloader.model.videos.VideoInfo;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+import com.github.kiulian.downloader.model.videos.formats.ResolvedFormat;
 import com.github.kiulian.downloader.parser.Parser;
 import com.github.kiulian.downloader.parser.ParserImpl;
 
@@ -56,6 +65,29 @@ public class YoutubeDownloader {
         return parser.parseVideo(request);
     }
 
+    /**
+     * Resolves video info for many videos with at most {@link RequestVideoInfoBatch#concurrency(int)}
+     * videos in flight. Results are returned in completion order with per-video errors,
+     * the iterator reports throughput and must be closed if not consumed till the end.
+     */
+    public BatchIterator<VideoInfo> getVideoInfoBatch(RequestVideoInfoBatch request) {
+        return parser.parseVideoBatch(request);
+    }
+
+    /**
+     * Deciphered stream urls of the requested itags, without video details, captions and other formats.
+     */
+    public Response<List<ResolvedFormat>> getFormatUrls(RequestFormatUrls request) {
+        return parser.resolveFormatUrls(request);
+    }
+
+    /**
+     * Deciphered stream urls of the requested itags for many videos, see {@link #getVideoInfoBatch(RequestVideoInfoBatch)}.
+     */
+    public BatchIterator<List<ResolvedFormat>> getFormatUrlsBatch(RequestFormatUrlsBatch request) {
+        return parser.resolveFormatUrlsBatch(request);
+    }
+
     public Response<List<SubtitlesInfo>> getSubtitlesInfo(RequestSubtitlesInfo request) {
         return parser.parseSubtitlesInfo(request);
     }
@@ -68,6 +100,21 @@ public class YoutubeDownloader {
         return parser.parsePlaylist(request);
     }
 
+    /**
+     * Lazily iterates over playlist videos, pages are loaded in background while the previous one is consumed.
+     * Callback and async settings of the request are ignored, the iterator must be closed if not fully consumed.
+     */
+    public PagedIterator<PlaylistVideoDetails> iteratePlaylist(RequestPlaylistInfo request) {
+        return parser.iteratePlaylist(request);
+    }
+
+    /**
+     * Lazily iterates over channel uploads, see {@link #iteratePlaylist(RequestPlaylistInfo)}.
+     */
+    public PagedIterator<PlaylistVideoDetails> iterateChannelUploads(RequestChannelUploads request) {
+        return parser.iterateChannelUploads(request);
+    }
+
     public Response<SearchResult> search(RequestSearchResult request) {
         return parser.parseSearchResult(request);
     }
@@ -76,6 +123,15 @@ public class YoutubeDownloader {
         return parser.parseSearchContinuation(request);
     }
 
+    /**
+     * Lazily iterates over search result items across continuations. Next continuations are loaded
+     * in background, up to {@link RequestSearchResult#prefetch(int)} pages ahead.
+     * Callback and async settings of the request are ignored, the iterator must be closed if not fully consumed.
+     */
+    public PagedIterator<SearchResultItem> iterateSearch(RequestSearchResult request) {
+        return parser.iterateSearchResult(request);
+    }
+
     public Response<SearchResult> search(RequestSearchable request) {
         return parser.parseSearcheable(request);
     }
@@ -95,6 +151,35 @@ public class YoutubeDownloader {
         return downloader.downloadVideoAsStream(request);
     }
 
+    /**
+     * Downloads the format to memory, the result holds pooled buffers and must be released once consumed.
+     */
+    public Response<DownloadedBytes> downloadVideoToMemory(RequestVideoMemoryDownload request) {
+        return downloader.downloadVideoToMemory(request);
+    }
+
+    /**
+     * Downloads the format straight into a storage sink, e.g. {@link com.github.kiulian.downloader.downloader.storage.S3StorageSink},
+     * parts are downloaded and written in parallel and the object is committed at the end.
+     */
+    public Response<String> downloadVideoToStorage(RequestVideoStorageDownload request) {
+        return downloader.downloadVideoToStorage(request);
+    }
+
+    /**
+     * Picks the best candidate expected to download before the deadline with the measured bandwidth
+     * of the configured proxy, see {@link com.github.kiulian.downloader.downloader.BandwidthMeter#select}.
+     *
+     * @param candidates formats ordered from best to worst, e.g. {@code videoInfo.catalog().videoWithAudioFormats()}
+     */
+    public <F extends Format> F selectFormat(List<F> candidates, long deadline, TimeUnit unit) {
+        return selectFormat(candidates, config.getProxy(), deadline, unit);
+    }
+
+    public <F extends Format> F selectFormat(List<F> candidates, Proxy route, long deadline, TimeUnit unit) {
+        return config.getBandwidthMeter().select(candidates, route, unit.toMillis(deadline));
+    }
+
     public Response<String> downloadSubtitle(RequestWebpage request) {
         return downloader.downloadWebpage(request);
     }
@@ -2,9 +2,13 @@ package com.github.kiulian.downloader.cipher;
 
 
 import com.github.kiulian.downloader.YoutubeException;
+import com.github.kiulian.downloader.cipher.js.JsException;
+import com.github.kiulian.downloader.cipher.js.JsInterpreter;
 import com.github.kiulian.downloader.downloader.Downloader;
 import com.github.kiulian.downloader.downloader.request.RequestWebpage;
 import com.github.kiulian.downloader.downloader.response.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.regex.Matcher;
@@ -12,6 +16,8 @@ import java.util.regex.Pattern;
 
 public class CachedCipherFactory implements CipherFactory {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedCipherFactory.class);
+
     private static final String[] INITIAL_FUNCTION_PATTERNS = new String[]{
             "\\b[cs]\\s*&&\\s*[adf]\\.set\\([^,]+\\s*,\\s*encodeURIComponent\\s*\\(\\s*([a-zA-Z0-9$]+)\\(",
             "\\b[a-zA-Z0-9]+\\s*&&\\s*[a-zA-Z0-9]+\\.set\\([^,]+\\s*,\\s*encodeURIComponent\\s*\\(\\s*([a-zA-Z0-9$]+)\\(",
@@ -37,11 +43,29 @@ public class CachedCipherFactory implements CipherFactory {
             Pattern.compile("\\w+\\[(\\\"\\w+\\\")\\]\\(\\w,(\\d+)\\)")
     };
 
+    // group 1 - function name or name of the array holding it, group 2 - optional index in that array
+    private static final Pattern[] THROTTLING_FUNCTION_PATTERNS = new Pattern[]{
+            Pattern.compile("\\.get\\(\"n\"\\)\\)&&\\(b=([a-zA-Z0-9$]+)(?:\\[(\\d+)\\])?\\([a-zA-Z0-9]\\)"),
+            Pattern.compile("\\(b=String\\.fromCharCode\\(110\\),c=a\\.get\\(b\\)\\)&&\\(c=([a-zA-Z0-9$]+)(?:\\[(\\d+)\\])?\\([a-zA-Z0-9]\\)"),
+            Pattern.compile("\\b[a-zA-Z0-9$]+=([a-zA-Z0-9$]+)(?:\\[(\\d+)\\])?\\([a-zA-Z]\\),[a-zA-Z0-9$]+\\.set\\((?:\"n+\"|[a-zA-Z0-9$]+),[a-zA-Z0-9$]+\\)"),
+            Pattern.compile("([a-zA-Z0-9$]+)(?:\\[(\\d+)\\])?\\([a-zA-Z0-9]\\),[a-zA-Z0-9$]+\\.set\\(\"n\",")
+    };
+    // string literals returned by the throttling function from its catch block
+    private static final String[] THROTTLING_FUNCTION_MARKERS = new String[]{"\"enhanced_except_", "\"_w8_"};
+    // early return which makes the function a no-op when evaluated outside of the player
+    private static final Pattern THROTTLING_TYPEOF_GUARD = Pattern.compile(
+            ";\\s*if\\s*\\(\\s*typeof\\s+[a-zA-Z0-9_$]+\\s*===?\\s*([\"'])undefined\\1\\s*\\)\\s*return\\s+[a-zA-Z0-9_$]+;");
+    // global lookup table declared at the top of newer player scripts, e.g. 'use strict';var XY="...".split(";")
+    private static final Pattern GLOBAL_VAR_PATTERN = Pattern.compile("([\"'])use\\s+strict\\1;\\s*var\\s+([a-zA-Z0-9_$]+)\\s*=");
+    private static final Pattern PLAYER_VERSION_PATTERN = Pattern.compile("/s/player/([^/]+)/");
+    private static final ThrottlingCipher NO_THROTTLING_CIPHER = n -> n;
+
     private Downloader downloader;
 
     private List<Pattern> knownInitialFunctionPatterns = new ArrayList<>();
     private Map<Pattern, CipherFunction> functionsEquivalentMap = new HashMap<>();
     private Map<String, Cipher> ciphers = new HashMap<>();
+    private Map<String, ThrottlingCipher> throttlingCiphers = new HashMap<>();
 
     public CachedCipherFactory(Downloader downloader) {
         this.downloader = downloader;
@@ -71,30 +95,86 @@ public class CachedCipherFactory implements CipherFactory {
 
     @Override
     public Cipher createCipher(String jsUrl) throws YoutubeException {
-        Cipher cipher = ciphers.get(jsUrl);
+        String playerVersion = getPlayerVersion(jsUrl);
+        Cipher cipher = ciphers.get(playerVersion);
 
         if (cipher == null) {
-            Response<String> response = downloader.downloadWebpage(new RequestWebpage(jsUrl));
-            if (!response.ok()) {
-                throw new YoutubeException.DownloadException(String.format("Could not load url: %s, exception: %s", jsUrl, response.error().getMessage()));
+            String js = downloadJs(jsUrl);
+            cipher = parseCipher(js);
+            ciphers.put(playerVersion, cipher);
+
+            // the same script is needed for the throttling parameter, avoid a second download
+            if (!throttlingCiphers.containsKey(playerVersion)) {
+                try {
+                    throttlingCiphers.put(playerVersion, parseThrottlingCipher(js));
+                } catch (YoutubeException e) {
+                    LOGGER.warn("Throttling cipher not available for player {}: {}", playerVersion, e.getMessage());
+                    throttlingCiphers.put(playerVersion, NO_THROTTLING_CIPHER);
+                }
             }
-            String js = response.data();
+        }
 
-            List<JsFunction> transformFunctions = getTransformFunctions(js);
-            String var = transformFunctions.get(0).getVar();
+        return cipher;
+    }
 
-            String[] transformObject = getTransformObject(var, js);
-            Map<String, CipherFunction> transformFunctionsMap = getTransformFunctionsMap(transformObject);
+    /**
+     * Throttling ciphers are cached per player version. If the transform function could not be
+     * extracted the exception is thrown once, afterwards a cipher which returns "n" unchanged is
+     * returned for that player version.
+     */
+    @Override
+    public ThrottlingCipher createThrottlingCipher(String jsUrl) throws YoutubeException {
+        String playerVersion = getPlayerVersion(jsUrl);
+        ThrottlingCipher throttlingCipher = throttlingCiphers.get(playerVersion);
+
+        if (throttlingCipher == null) {
+            String js = downloadJs(jsUrl);
+            try {
+                throttlingCipher = parseThrottlingCipher(js);
+            } catch (YoutubeException e) {
+                throttlingCiphers.put(playerVersion, NO_THROTTLING_CIPHER);
+                throw e;
+            }
+            throttlingCiphers.put(playerVersion, throttlingCipher);
 
-            cipher = new DefaultCipher(transformFunctions, transformFunctionsMap);
-            ciphers.put(jsUrl, cipher);
+            if (!ciphers.containsKey(playerVersion)) {
+                try {
+                    ciphers.put(playerVersion, parseCipher(js));
+                } catch (YoutubeException ignored) {
+                    // will be reported by createCipher if deciphering is ever required
+                }
+            }
         }
 
-        return cipher;
+        return throttlingCipher;
     }
 
     public void clearCache() {
         ciphers.clear();
+        throttlingCiphers.clear();
+    }
+
+    private String downloadJs(String jsUrl) throws YoutubeException {
+        Response<String> response = downloader.downloadWebpage(new RequestWebpage(jsUrl));
+        if (!response.ok()) {
+            throw new YoutubeException.DownloadException(String.format("Could not load url: %s, exception: %s", jsUrl, response.error().getMessage()));
+        }
+        return response.data();
+    }
+
+    private Cipher parseCipher(String js) throws YoutubeException {
+        List<JsFunction> transformFunctions = getTransformFunctions(js);
+        String var = transformFunctions.get(0).getVar();
+
+        String[] transformObject = getTransformObject(var, js);
+        Map<String, CipherFunction> transformFunctionsMap = getTransformFunctionsMap(transformObject);
+
+        return new DefaultCipher(transformFunctions, transformFunctionsMap);
+    }
+
+    private static String getPlayerVersion(String jsUrl) {
+        Matcher matcher = PLAYER_VERSION_PATTERN.matcher(jsUrl);
+        return matcher.find() ? matcher.group(1) : jsUrl;
     }
 
     /**
@@ -251,4 +331,199 @@ public class CachedCipherFactory implements CipherFactory {
         throw new YoutubeException.CipherException("Map function not found");
     }
 
+
+    /**
+     * Extract the "n" parameter transform function and compile it with {@link JsInterpreter}.
+     * <p>
+     * Example of the function:
+     * Xka=function(a){var b=a.split(""),c=[...];...try{c[40](c[7],c[22]),...}catch(d){return"enhanced_except_"+a}return b.join("")}
+     *
+     * @param js The content of the base.js file.
+     * @return throttling cipher backed by the interpreted function
+     * @throws YoutubeException if function not found or could not be compiled
+     */
+    private ThrottlingCipher parseThrottlingCipher(String js) throws YoutubeException {
+        String code = null;
+        String name = getThrottlingFunctionName(js);
+        if (name != null) {
+            code = getFunctionCode(js, name);
+        }
+        if (code == null) {
+            code = getFunctionCodeByMarker(js);
+        }
+        if (code == null) {
+            throw new YoutubeException.CipherException("Throttling function not found");
+        }
+        code = THROTTLING_TYPEOF_GUARD.matcher(code).replaceAll(";");
+
+        JsInterpreter interpreter = new JsInterpreter();
+        defineGlobalVar(js, code, interpreter);
+        try {
+            return new InterpretedThrottlingCipher(interpreter.compileFunction(code));
+        } catch (JsException e) {
+            throw new YoutubeException.CipherException("Could not compile throttling function: " + e.getMessage());
+        }
+    }
+
+    private String getThrottlingFunctionName(String js) {
+        for (Pattern pattern : THROTTLING_FUNCTION_PATTERNS) {
+            Matcher matcher = pattern.matcher(js);
+            if (!matcher.find()) {
+                continue;
+            }
+            String name = matcher.group(1);
+            if (matcher.group(2) == null) {
+                return name;
+            }
+            // case: b=Xy[0](a), where var Xy=[Xka]
+            int index = Integer.parseInt(matcher.group(2));
+            Matcher arrayMatcher = Pattern.compile("var " + Pattern.quote(name) + "\\s*=\\s*\\[(.+?)]").matcher(js);
+            if (arrayMatcher.find()) {
+                String[] elements = arrayMatcher.group(1).split(",");
+                if (index < elements.length) {
+                    return elements[index].trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return source of the function assigned to or declared with the given name, or {@code null}
+     */
+    private static String getFunctionCode(String js, String name) {
+        String[] anchors = {name + "=function(", "function " + name + "("};
+        for (String anchor : anchors) {
+            int from = 0;
+            int index;
+            while ((index = js.indexOf(anchor, from)) >= 0) {
+                from = index + 1;
+                if (index > 0 && isIdentifierPart(js.charAt(index - 1))) {
+                    continue; // anchor is a suffix of another identifier
+                }
+                int functionStart = js.indexOf("function", index);
+                int bodyStart = js.indexOf('{', functionStart);
+                int bodyEnd = findClosingBrace(js, bodyStart);
+                if (bodyEnd > 0) {
+                    String code = js.substring(functionStart, bodyEnd + 1);
+                    // declarations are turned into expressions for the interpreter
+                    return code.startsWith("function " + name) ? "function" + code.substring(("function " + name).length()) : code;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fallback when the call site of the function could not be matched: find the function
+     * containing one of the {@link #THROTTLING_FUNCTION_MARKERS}.
+     */
+    private static String getFunctionCodeByMarker(String js) {
+        for (String marker : THROTTLING_FUNCTION_MARKERS) {
+            int markerIndex = js.indexOf(marker);
+            if (markerIndex < 0) {
+                continue;
+            }
+            int index = markerIndex;
+            for (int attempt = 0; attempt < 50; attempt++) {
+                index = js.lastIndexOf("=function(", index - 1);
+                if (index < 0) {
+                    break;
+                }
+                int bodyStart = js.indexOf('{', index);
+                int bodyEnd = findClosingBrace(js, bodyStart);
+                if (bodyEnd > markerIndex) {
+                    return js.substring(index + 1, bodyEnd + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void defineGlobalVar(String js, String code, JsInterpreter interpreter) {
+        Matcher matcher = GLOBAL_VAR_PATTERN.matcher(js);
+        if (!matcher.find() || !code.contains(matcher.group(2))) {
+            return;
+        }
+        int start = matcher.end();
+        int end = findExpressionEnd(js, start);
+        if (end < 0) {
+            return;
+        }
+        try {
+            interpreter.execute("var " + matcher.group(2) + "=" + js.substring(start, end) + ";");
+        } catch (JsException e) {
+            LOGGER.debug("Could not evaluate global {}: {}", matcher.group(2), e.getMessage());
+        }
+    }
+
+    /**
+     * @param js   script
+     * @param open index of an opening curly brace
+     * @return index of the matching closing brace, or -1
+     */
+    private static int findClosingBrace(String js, int open) {
+        if (open < 0 || js.charAt(open) != '{') {
+            return -1;
+        }
+        int depth = 0;
+        for (int i = open; i < js.length(); i++) {
+            char c = js.charAt(i);
+            if (c == '"' || c == '\'' || c == '`') {
+                i = skipString(js, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the first ';' or ',' outside of brackets and strings, or -1
+     */
+    private static int findExpressionEnd(String js, int start) {
+        int depth = 0;
+        for (int i = start; i < js.length(); i++) {
+            char c = js.charAt(i);
+            if (c == '"' || c == '\'' || c == '`') {
+                i = skipString(js, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{' || c == '[' || c == '(') {
+                depth++;
+            } else if (c == '}' || c == ']' || c == ')') {
+                depth--;
+            } else if ((c == ';' || c == ',') && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the closing quote of the string literal starting at {@code quoteIndex}, or -1
+     */
+    private static int skipString(String js, int quoteIndex) {
+        char quote = js.charAt(quoteIndex);
+        for (int i = quoteIndex + 1; i < js.length(); i++) {
+            char c = js.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
 }
\ No newline at end of file
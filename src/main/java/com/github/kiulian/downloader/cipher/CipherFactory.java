@@ -7,6 +7,8 @@ public interface CipherFactory {
 
     Cipher createCipher(String jsUrl) throws YoutubeException;
 
+    ThrottlingCipher createThrottlingCipher(String jsUrl) throws YoutubeException;
+
     void addInitialFunctionPattern(int priority, String regex);
 
     void addFunctionEquivalent(String regex, CipherFunction function);
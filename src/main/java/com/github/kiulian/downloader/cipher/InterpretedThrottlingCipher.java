@@ -0,0 +1,47 @@
+package com.github.kiulian.downloader.cipher;
+
+
+import com.github.kiulian.downloader.cipher.js.JsCallable;
+import com.github.kiulian.downloader.cipher.js.JsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the transform function extracted from the player script with {@link com.github.kiulian.downloader.cipher.js.JsInterpreter}.
+ */
+public class InterpretedThrottlingCipher implements ThrottlingCipher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InterpretedThrottlingCipher.class);
+
+    // the transform function catches its own errors and returns one of these prefixes followed by the input
+    private static final String[] FAILURE_PREFIXES = {"enhanced_except_", "_w8_"};
+
+    private final JsCallable function;
+
+    public InterpretedThrottlingCipher(JsCallable function) {
+        this.function = function;
+    }
+
+    @Override
+    public synchronized String transformN(String n) {
+        Object result;
+        try {
+            result = function.call(null, n);
+        } catch (JsException e) {
+            LOGGER.warn("n parameter transform failed: {}", e.getMessage());
+            return n;
+        }
+        if (!(result instanceof String)) {
+            LOGGER.warn("n parameter transform returned non-string value");
+            return n;
+        }
+        String transformed = (String) result;
+        for (String prefix : FAILURE_PREFIXES) {
+            if (transformed.startsWith(prefix)) {
+                LOGGER.warn("n parameter transform failed inside player script");
+                return n;
+            }
+        }
+        return transformed;
+    }
+}
@@ -0,0 +1,14 @@
+package com.github.kiulian.downloader.cipher;
+
+
+public interface ThrottlingCipher {
+
+    /**
+     * Transforms the value of the "n" query parameter of a stream url. Streams requested
+     * with the untransformed value are throttled by the server to about realtime speed.
+     *
+     * @param n value of the "n" query parameter
+     * @return transformed value, or {@code n} itself if the transform could not be applied
+     */
+    String transformN(String n);
+}
@@ -0,0 +1,7 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+public interface JsCallable {
+
+    Object call(Object thisArg, Object... args);
+}
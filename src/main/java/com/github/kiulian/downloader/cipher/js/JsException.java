@@ -0,0 +1,26 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+/**
+ * Raised when a script can not be parsed or evaluated by {@link JsInterpreter}.
+ * Values thrown by the script itself ({@code throw x}) are carried in {@link #value()}.
+ */
+public class JsException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object value;
+
+    public JsException(String message) {
+        this(message, message);
+    }
+
+    JsException(String message, Object value) {
+        super(message, null, false, false);
+        this.value = value;
+    }
+
+    public Object value() {
+        return value;
+    }
+}
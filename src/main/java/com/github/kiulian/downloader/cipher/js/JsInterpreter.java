@@ -0,0 +1,91 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+import com.github.kiulian.downloader.cipher.js.JsNodes.Closure;
+import com.github.kiulian.downloader.cipher.js.JsNodes.FunctionDef;
+
+import java.util.Map;
+
+/**
+ * Minimal JavaScript interpreter for the self-contained functions found in the player script
+ * (such as the "n" parameter transform). Supported: function expressions and declarations,
+ * var/let/const, if, for, while, do-while, switch, try/catch/finally, throw, the usual
+ * operators, array and object literals, and the array, string, Math and String built-ins
+ * such functions rely on. Not supported: regular expressions, prototypes, classes, arrow
+ * functions, getters/setters.
+ * <p>
+ * Sources are parsed once; the returned {@link JsCallable} walks the parsed tree on every call.
+ * Instances are not thread-safe.
+ */
+public class JsInterpreter {
+
+    private static final long DEFAULT_STEP_LIMIT = 1_000_000;
+
+    private final long stepLimit;
+    private final JsScope.Budget budget;
+    private final JsScope globals;
+
+    public JsInterpreter() {
+        this(DEFAULT_STEP_LIMIT);
+    }
+
+    /**
+     * @param stepLimit maximum amount of loop iterations for a single call, guards against
+     *                  scripts which never terminate
+     */
+    public JsInterpreter(long stepLimit) {
+        this.stepLimit = stepLimit;
+        this.budget = new JsScope.Budget(stepLimit);
+        this.globals = new JsScope(budget);
+        for (Map.Entry<String, Object> global : JsRuntime.createGlobals().properties.entrySet()) {
+            globals.declare(global.getKey(), global.getValue());
+        }
+    }
+
+    /**
+     * Executes a program in the global scope, its top level declarations become globals.
+     *
+     * @param source JavaScript statements
+     * @throws JsException if the program could not be parsed or failed
+     */
+    public void execute(String source) {
+        FunctionDef program = new JsParser(source).parseProgram();
+        for (String var : program.vars) {
+            if (!globals.isDeclared(var)) {
+                globals.declare(var, JsRuntime.UNDEFINED);
+            }
+        }
+        for (FunctionDef declaration : program.declarations) {
+            globals.declare(declaration.name, new Closure(declaration, globals));
+        }
+        budget.reset(stepLimit);
+        program.body.exec(globals);
+    }
+
+    /**
+     * Parses a function expression, e.g. {@code function(a){return a.split("").reverse().join("")}}
+     *
+     * @param source JavaScript function expression
+     * @return callable function, which resolves free variables against the globals of this interpreter
+     * @throws JsException if the function could not be parsed
+     */
+    public JsCallable compileFunction(String source) {
+        Object function = new JsParser(source).parseStandaloneExpression().eval(globals);
+        if (!(function instanceof JsCallable)) {
+            throw new JsException("Source is not a function expression");
+        }
+        JsCallable callable = (JsCallable) function;
+        return (thisArg, args) -> {
+            budget.reset(stepLimit);
+            return callable.call(thisArg, args);
+        };
+    }
+
+    /**
+     * Converts the value to a string the way JavaScript {@code String(value)} does.
+     */
+    public static String toJsString(Object value) {
+        return JsRuntime.toJsString(value);
+    }
+
+}
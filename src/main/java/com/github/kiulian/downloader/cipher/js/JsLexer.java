@@ -0,0 +1,177 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+/**
+ * Tokenizer for the subset of JavaScript found in player transform functions.
+ * Regular expression and template literals are not supported.
+ */
+final class JsLexer {
+
+    static final int EOF = 0;
+    static final int NAME = 1;
+    static final int NUMBER = 2;
+    static final int STRING = 3;
+    static final int PUNCT = 4;
+
+    // longest first, so that greedy matching picks ">>>=" before ">>" etc.
+    private static final String[] PUNCTUATORS = {
+            ">>>=", "===", "!==", ">>>", "<<=", ">>=", "**=",
+            "**", "==", "!=", "<=", ">=", "&&", "||", "++", "--", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<", ">>",
+            "{", "}", "(", ")", "[", "]", ";", ",", "<", ">", "+", "-", "*", "/", "%", "&", "|", "^", "!", "~", "?", ":", "=", "."
+    };
+
+    private final String src;
+    private int pos;
+
+    int type;
+    String text;
+    double number;
+    boolean newlineBefore;
+
+    JsLexer(String src) {
+        this.src = src;
+        next();
+    }
+
+    boolean is(String punct) {
+        return (type == PUNCT || type == NAME) && text.equals(punct);
+    }
+
+    void next() {
+        newlineBefore = false;
+        skipWhitespaceAndComments();
+        if (pos >= src.length()) {
+            type = EOF;
+            text = "<eof>";
+            return;
+        }
+        char c = src.charAt(pos);
+        if (isIdentifierStart(c)) {
+            int start = pos;
+            while (pos < src.length() && isIdentifierPart(src.charAt(pos))) {
+                pos++;
+            }
+            type = NAME;
+            text = src.substring(start, pos);
+        } else if (isDigit(c) || (c == '.' && pos + 1 < src.length() && isDigit(src.charAt(pos + 1)))) {
+            readNumber();
+        } else if (c == '"' || c == '\'') {
+            readString(c);
+        } else {
+            for (String punct : PUNCTUATORS) {
+                if (src.startsWith(punct, pos)) {
+                    pos += punct.length();
+                    type = PUNCT;
+                    text = punct;
+                    return;
+                }
+            }
+            throw new JsException("Unexpected character '" + c + "' at " + pos);
+        }
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+            if (c == '\n' || c == '\r') {
+                newlineBefore = true;
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '/' && src.startsWith("//", pos)) {
+                while (pos < src.length() && src.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (c == '/' && src.startsWith("/*", pos)) {
+                int end = src.indexOf("*/", pos + 2);
+                pos = end < 0 ? src.length() : end + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void readNumber() {
+        int start = pos;
+        type = NUMBER;
+        if (src.startsWith("0x", pos) || src.startsWith("0X", pos)) {
+            pos += 2;
+            while (pos < src.length() && Character.digit(src.charAt(pos), 16) >= 0) {
+                pos++;
+            }
+            text = src.substring(start, pos);
+            number = Long.parseLong(text.substring(2), 16);
+            return;
+        }
+        while (pos < src.length() && (isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) {
+            pos++;
+        }
+        if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) {
+                pos++;
+            }
+            while (pos < src.length() && isDigit(src.charAt(pos))) {
+                pos++;
+            }
+        }
+        text = src.substring(start, pos);
+        number = Double.parseDouble(text);
+    }
+
+    private void readString(char quote) {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= src.length()) {
+                throw new JsException("Unterminated string literal");
+            }
+            char c = src.charAt(pos++);
+            if (c == quote) {
+                break;
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = src.charAt(pos++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'v': sb.append('\u000B'); break;
+                case '0': sb.append('\0'); break;
+                case 'x':
+                    sb.append((char) Integer.parseInt(src.substring(pos, pos + 2), 16));
+                    pos += 2;
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(src.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                case '\r':
+                case '\n':
+                    break; // line continuation
+                default:
+                    sb.append(e);
+            }
+        }
+        type = STRING;
+        text = sb.toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+}
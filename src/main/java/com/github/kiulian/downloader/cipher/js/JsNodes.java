@@ -0,0 +1,735 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+import com.github.kiulian.downloader.cipher.js.JsRuntime.JsArray;
+import com.github.kiulian.downloader.cipher.js.JsRuntime.JsObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static com.github.kiulian.downloader.cipher.js.JsRuntime.UNDEFINED;
+import static com.github.kiulian.downloader.cipher.js.JsRuntime.toBoolean;
+import static com.github.kiulian.downloader.cipher.js.JsRuntime.toInt32;
+import static com.github.kiulian.downloader.cipher.js.JsRuntime.toNumber;
+import static com.github.kiulian.downloader.cipher.js.JsRuntime.toUint32;
+
+/**
+ * Syntax tree produced by {@link JsParser}. Expressions evaluate to a value, statements
+ * return {@code null} on normal completion or one of the abrupt completion markers.
+ */
+final class JsNodes {
+
+    private JsNodes() {
+    }
+
+    static final Object BREAK = new Object();
+    static final Object CONTINUE = new Object();
+
+    static final class Return {
+        final Object value;
+
+        Return(Object value) {
+            this.value = value;
+        }
+    }
+
+    /* Expressions */
+
+    abstract static class Expr {
+        abstract Object eval(JsScope scope);
+    }
+
+    static final class Literal extends Expr {
+        final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            return value;
+        }
+    }
+
+    static final class Identifier extends Expr {
+        final String name;
+
+        Identifier(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            return scope.lookup(name);
+        }
+    }
+
+    static final class This extends Expr {
+        @Override
+        Object eval(JsScope scope) {
+            return scope.thisValue();
+        }
+    }
+
+    static final class ArrayLiteral extends Expr {
+        final List<Expr> elements;
+
+        ArrayLiteral(List<Expr> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            List<Object> list = new ArrayList<>(elements.size());
+            for (Expr element : elements) {
+                list.add(element == null ? UNDEFINED : element.eval(scope));
+            }
+            return new JsArray(list);
+        }
+    }
+
+    static final class ObjectLiteral extends Expr {
+        final List<String> keys;
+        final List<Expr> values;
+
+        ObjectLiteral(List<String> keys, List<Expr> values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            JsObject object = new JsObject();
+            for (int i = 0; i < keys.size(); i++) {
+                object.put(keys.get(i), values.get(i).eval(scope));
+            }
+            return object;
+        }
+    }
+
+    static final class FunctionExpr extends Expr {
+        final FunctionDef def;
+
+        FunctionExpr(FunctionDef def) {
+            this.def = def;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            return new Closure(def, scope);
+        }
+    }
+
+    static final class Member extends Expr {
+        final Expr object;
+        final Expr key;
+
+        Member(Expr object, Expr key) {
+            this.object = object;
+            this.key = key;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            return JsRuntime.getMember(object.eval(scope), key.eval(scope));
+        }
+    }
+
+    static final class Call extends Expr {
+        final Expr callee;
+        final List<Expr> arguments;
+
+        Call(Expr callee, List<Expr> arguments) {
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            if (callee instanceof Member) {
+                Member member = (Member) callee;
+                Object target = member.object.eval(scope);
+                Object key = member.key.eval(scope);
+                return JsRuntime.invokeMethod(target, key, evalArguments(scope));
+            }
+            Object function = callee.eval(scope);
+            Object name = callee instanceof Identifier ? ((Identifier) callee).name : "expression";
+            return JsRuntime.call(function, UNDEFINED, evalArguments(scope), name);
+        }
+
+        private Object[] evalArguments(JsScope scope) {
+            Object[] args = new Object[arguments.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = arguments.get(i).eval(scope);
+            }
+            return args;
+        }
+    }
+
+    static final class New extends Expr {
+        final Expr callee;
+        final List<Expr> arguments;
+
+        New(Expr callee, List<Expr> arguments) {
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            if (callee instanceof Identifier && ((Identifier) callee).name.equals("Array")) {
+                JsArray array = new JsArray();
+                if (arguments.size() == 1) {
+                    Object length = arguments.get(0).eval(scope);
+                    if (length instanceof Double) {
+                        array.setLength((int) (double) (Double) length);
+                        return array;
+                    }
+                    array.list.add(length);
+                    return array;
+                }
+                for (Expr argument : arguments) {
+                    array.list.add(argument.eval(scope));
+                }
+                return array;
+            }
+            throw new JsException("TypeError: constructor calls are not supported");
+        }
+    }
+
+    static final class Unary extends Expr {
+        final String operator;
+        final Expr operand;
+
+        Unary(String operator, Expr operand) {
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            switch (operator) {
+                case "typeof":
+                    if (operand instanceof Identifier && !scope.isDeclared(((Identifier) operand).name)) {
+                        return "undefined";
+                    }
+                    return JsRuntime.typeOf(operand.eval(scope));
+                case "delete":
+                    if (operand instanceof Member) {
+                        Member member = (Member) operand;
+                        return JsRuntime.deleteMember(member.object.eval(scope), member.key.eval(scope));
+                    }
+                    return true;
+                case "!":
+                    return !toBoolean(operand.eval(scope));
+                case "-":
+                    return -toNumber(operand.eval(scope));
+                case "+":
+                    return toNumber(operand.eval(scope));
+                case "~":
+                    return (double) ~toInt32(operand.eval(scope));
+                case "void":
+                    operand.eval(scope);
+                    return UNDEFINED;
+                default:
+                    throw new JsException("Unsupported unary operator " + operator);
+            }
+        }
+    }
+
+    static final class Update extends Expr {
+        final boolean increment;
+        final boolean prefix;
+        final Expr target;
+
+        Update(boolean increment, boolean prefix, Expr target) {
+            this.increment = increment;
+            this.prefix = prefix;
+            this.target = target;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            if (target instanceof Identifier) {
+                String name = ((Identifier) target).name;
+                double old = toNumber(scope.lookup(name));
+                double updated = increment ? old + 1 : old - 1;
+                scope.assign(name, updated);
+                return prefix ? updated : old;
+            }
+            Member member = (Member) target;
+            Object object = member.object.eval(scope);
+            Object key = member.key.eval(scope);
+            double old = toNumber(JsRuntime.getMember(object, key));
+            double updated = increment ? old + 1 : old - 1;
+            JsRuntime.setMember(object, key, updated);
+            return prefix ? updated : old;
+        }
+    }
+
+    static final class Binary extends Expr {
+        final String operator;
+        final Expr left;
+        final Expr right;
+
+        Binary(String operator, Expr left, Expr right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            return apply(operator, left.eval(scope), right.eval(scope));
+        }
+
+        static Object apply(String operator, Object a, Object b) {
+            switch (operator) {
+                case "+":
+                    return JsRuntime.add(a, b);
+                case "-":
+                    return toNumber(a) - toNumber(b);
+                case "*":
+                    return toNumber(a) * toNumber(b);
+                case "/":
+                    return toNumber(a) / toNumber(b);
+                case "%":
+                    return toNumber(a) % toNumber(b);
+                case "**":
+                    return JsRuntime.pow(toNumber(a), toNumber(b));
+                case "==":
+                    return JsRuntime.looseEquals(a, b);
+                case "!=":
+                    return !JsRuntime.looseEquals(a, b);
+                case "===":
+                    return JsRuntime.strictEquals(a, b);
+                case "!==":
+                    return !JsRuntime.strictEquals(a, b);
+                case "<": {
+                    int c = JsRuntime.compare(a, b);
+                    return c != Integer.MIN_VALUE && c < 0;
+                }
+                case ">": {
+                    int c = JsRuntime.compare(a, b);
+                    return c != Integer.MIN_VALUE && c > 0;
+                }
+                case "<=": {
+                    int c = JsRuntime.compare(a, b);
+                    return c != Integer.MIN_VALUE && c <= 0;
+                }
+                case ">=": {
+                    int c = JsRuntime.compare(a, b);
+                    return c != Integer.MIN_VALUE && c >= 0;
+                }
+                case "&":
+                    return (double) (toInt32(a) & toInt32(b));
+                case "|":
+                    return (double) (toInt32(a) | toInt32(b));
+                case "^":
+                    return (double) (toInt32(a) ^ toInt32(b));
+                case "<<":
+                    return (double) (toInt32(a) << (toUint32(b) & 31));
+                case ">>":
+                    return (double) (toInt32(a) >> (toUint32(b) & 31));
+                case ">>>":
+                    return (double) (toUint32(a) >>> (toUint32(b) & 31));
+                case "in":
+                    return JsRuntime.hasMember(b, a);
+                case "instanceof":
+                    return false;
+                default:
+                    throw new JsException("Unsupported binary operator " + operator);
+            }
+        }
+    }
+
+    static final class Logical extends Expr {
+        final boolean and;
+        final Expr left;
+        final Expr right;
+
+        Logical(boolean and, Expr left, Expr right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            Object value = left.eval(scope);
+            if (toBoolean(value) == and) {
+                return right.eval(scope);
+            }
+            return value;
+        }
+    }
+
+    static final class Conditional extends Expr {
+        final Expr test;
+        final Expr consequent;
+        final Expr alternate;
+
+        Conditional(Expr test, Expr consequent, Expr alternate) {
+            this.test = test;
+            this.consequent = consequent;
+            this.alternate = alternate;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            return toBoolean(test.eval(scope)) ? consequent.eval(scope) : alternate.eval(scope);
+        }
+    }
+
+    static final class Assign extends Expr {
+        // null for plain assignment, otherwise the binary operator of a compound assignment
+        final String operator;
+        final Expr target;
+        final Expr value;
+
+        Assign(String operator, Expr target, Expr value) {
+            this.operator = operator;
+            this.target = target;
+            this.value = value;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            if (target instanceof Identifier) {
+                String name = ((Identifier) target).name;
+                Object result = operator == null
+                        ? value.eval(scope)
+                        : Binary.apply(operator, scope.lookup(name), value.eval(scope));
+                scope.assign(name, result);
+                return result;
+            }
+            Member member = (Member) target;
+            Object object = member.object.eval(scope);
+            Object key = member.key.eval(scope);
+            Object result = operator == null
+                    ? value.eval(scope)
+                    : Binary.apply(operator, JsRuntime.getMember(object, key), value.eval(scope));
+            JsRuntime.setMember(object, key, result);
+            return result;
+        }
+    }
+
+    static final class Sequence extends Expr {
+        final List<Expr> expressions;
+
+        Sequence(List<Expr> expressions) {
+            this.expressions = expressions;
+        }
+
+        @Override
+        Object eval(JsScope scope) {
+            Object result = UNDEFINED;
+            for (Expr expression : expressions) {
+                result = expression.eval(scope);
+            }
+            return result;
+        }
+    }
+
+    /* Functions */
+
+    static final class FunctionDef {
+        final String name;
+        final List<String> params;
+        final Set<String> vars;
+        final List<FunctionDef> declarations;
+        final Block body;
+
+        FunctionDef(String name, List<String> params, Set<String> vars, List<FunctionDef> declarations, Block body) {
+            this.name = name;
+            this.params = params;
+            this.vars = vars;
+            this.declarations = declarations;
+            this.body = body;
+        }
+    }
+
+    static final class Closure implements JsCallable {
+        final FunctionDef def;
+        final JsScope scope;
+
+        Closure(FunctionDef def, JsScope scope) {
+            this.def = def;
+            this.scope = scope;
+        }
+
+        @Override
+        public Object call(Object thisArg, Object... args) {
+            JsScope local = new JsScope(scope, thisArg);
+            for (String var : def.vars) {
+                local.declare(var, UNDEFINED);
+            }
+            for (int i = 0; i < def.params.size(); i++) {
+                local.declare(def.params.get(i), JsRuntime.arg(args, i));
+            }
+            local.declare("arguments", new JsArray(new ArrayList<>(java.util.Arrays.asList(args))));
+            for (FunctionDef declaration : def.declarations) {
+                local.declare(declaration.name, new Closure(declaration, local));
+            }
+            Object completion = def.body.exec(local);
+            if (completion instanceof Return) {
+                return ((Return) completion).value;
+            }
+            return UNDEFINED;
+        }
+    }
+
+    /* Statements */
+
+    abstract static class Stmt {
+        abstract Object exec(JsScope scope);
+    }
+
+    static final class ExprStmt extends Stmt {
+        final Expr expression;
+
+        ExprStmt(Expr expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            expression.eval(scope);
+            return null;
+        }
+    }
+
+    static final class VarDecl extends Stmt {
+        final List<String> names;
+        final List<Expr> initializers;
+
+        VarDecl(List<String> names, List<Expr> initializers) {
+            this.names = names;
+            this.initializers = initializers;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            for (int i = 0; i < names.size(); i++) {
+                Expr initializer = initializers.get(i);
+                if (initializer != null) {
+                    scope.assign(names.get(i), initializer.eval(scope));
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class Block extends Stmt {
+        final List<Stmt> statements;
+
+        Block(List<Stmt> statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            for (Stmt statement : statements) {
+                Object completion = statement.exec(scope);
+                if (completion != null) {
+                    return completion;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class If extends Stmt {
+        final Expr test;
+        final Stmt consequent;
+        final Stmt alternate;
+
+        If(Expr test, Stmt consequent, Stmt alternate) {
+            this.test = test;
+            this.consequent = consequent;
+            this.alternate = alternate;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            if (toBoolean(test.eval(scope))) {
+                return consequent.exec(scope);
+            }
+            return alternate == null ? null : alternate.exec(scope);
+        }
+    }
+
+    static final class Loop extends Stmt {
+        final Stmt init;
+        final Expr test;
+        final Expr update;
+        final Stmt body;
+        final boolean testFirst;
+
+        Loop(Stmt init, Expr test, Expr update, Stmt body, boolean testFirst) {
+            this.init = init;
+            this.test = test;
+            this.update = update;
+            this.body = body;
+            this.testFirst = testFirst;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            if (init != null) {
+                init.exec(scope);
+            }
+            JsScope.Budget budget = scope.budget();
+            boolean first = true;
+            while (true) {
+                budget.tick();
+                if ((testFirst || !first) && test != null && !toBoolean(test.eval(scope))) {
+                    return null;
+                }
+                first = false;
+                Object completion = body.exec(scope);
+                if (completion == BREAK) {
+                    return null;
+                }
+                if (completion != null && completion != CONTINUE) {
+                    return completion;
+                }
+                if (update != null) {
+                    update.eval(scope);
+                }
+            }
+        }
+    }
+
+    static final class Switch extends Stmt {
+        final Expr discriminant;
+        // null test marks the default clause
+        final List<Expr> tests;
+        final List<List<Stmt>> bodies;
+
+        Switch(Expr discriminant, List<Expr> tests, List<List<Stmt>> bodies) {
+            this.discriminant = discriminant;
+            this.tests = tests;
+            this.bodies = bodies;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            Object value = discriminant.eval(scope);
+            int start = -1;
+            for (int i = 0; i < tests.size(); i++) {
+                Expr test = tests.get(i);
+                if (test != null && JsRuntime.strictEquals(value, test.eval(scope))) {
+                    start = i;
+                    break;
+                }
+            }
+            if (start < 0) {
+                start = tests.indexOf(null);
+                if (start < 0) {
+                    return null;
+                }
+            }
+            for (int i = start; i < bodies.size(); i++) {
+                for (Stmt statement : bodies.get(i)) {
+                    Object completion = statement.exec(scope);
+                    if (completion == BREAK) {
+                        return null;
+                    }
+                    if (completion != null) {
+                        return completion;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class Jump extends Stmt {
+        final Object marker;
+
+        Jump(Object marker) {
+            this.marker = marker;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            return marker;
+        }
+    }
+
+    static final class ReturnStmt extends Stmt {
+        final Expr value;
+
+        ReturnStmt(Expr value) {
+            this.value = value;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            return new Return(value == null ? UNDEFINED : value.eval(scope));
+        }
+    }
+
+    static final class Throw extends Stmt {
+        final Expr value;
+
+        Throw(Expr value) {
+            this.value = value;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            Object thrown = value.eval(scope);
+            throw new JsException("Uncaught " + JsRuntime.toJsString(thrown), thrown);
+        }
+    }
+
+    static final class Try extends Stmt {
+        final Block block;
+        final String param;
+        final Block handler;
+        final Block finalizer;
+
+        Try(Block block, String param, Block handler, Block finalizer) {
+            this.block = block;
+            this.param = param;
+            this.handler = handler;
+            this.finalizer = finalizer;
+        }
+
+        @Override
+        Object exec(JsScope scope) {
+            Object completion;
+            try {
+                completion = block.exec(scope);
+            } catch (JsException e) {
+                if (handler == null) {
+                    throw e;
+                }
+                JsScope catchScope = new JsScope(scope);
+                if (param != null) {
+                    catchScope.declare(param, e.value());
+                }
+                completion = handler.exec(catchScope);
+            } finally {
+                if (finalizer != null) {
+                    Object finalCompletion = finalizer.exec(scope);
+                    if (finalCompletion != null) {
+                        return finalCompletion;
+                    }
+                }
+            }
+            return completion;
+        }
+    }
+
+    static final class Empty extends Stmt {
+        @Override
+        Object exec(JsScope scope) {
+            return null;
+        }
+    }
+}
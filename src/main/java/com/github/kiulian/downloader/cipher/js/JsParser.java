@@ -0,0 +1,539 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+import com.github.kiulian.downloader.cipher.js.JsNodes.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recursive descent parser producing {@link JsNodes} trees.
+ */
+final class JsParser {
+
+    private static final Map<String, Integer> BINARY_PRECEDENCE = new HashMap<>();
+    private static final Set<String> ASSIGNMENT_OPERATORS = new LinkedHashSet<>(Arrays.asList(
+            "=", "+=", "-=", "*=", "/=", "%=", "**=", "<<=", ">>=", ">>>=", "&=", "|=", "^="));
+
+    static {
+        String[][] levels = {
+                {"||"}, {"&&"}, {"|"}, {"^"}, {"&"},
+                {"==", "!=", "===", "!=="},
+                {"<", ">", "<=", ">=", "in", "instanceof"},
+                {"<<", ">>", ">>>"},
+                {"+", "-"},
+                {"*", "/", "%"},
+                {"**"}
+        };
+        for (int i = 0; i < levels.length; i++) {
+            for (String operator : levels[i]) {
+                BINARY_PRECEDENCE.put(operator, i + 1);
+            }
+        }
+    }
+
+    private final JsLexer lexer;
+
+    // declarations of the function currently being parsed
+    private Set<String> vars = new LinkedHashSet<>();
+    private List<FunctionDef> declarations = new ArrayList<>();
+
+    JsParser(String source) {
+        this.lexer = new JsLexer(source);
+    }
+
+    /**
+     * Parses a whole program, returning it as the body of an anonymous function.
+     */
+    FunctionDef parseProgram() {
+        List<Stmt> statements = new ArrayList<>();
+        while (lexer.type != JsLexer.EOF) {
+            statements.add(parseStatement());
+        }
+        return new FunctionDef(null, new ArrayList<>(), vars, declarations, new Block(statements));
+    }
+
+    Expr parseStandaloneExpression() {
+        Expr expression = parseExpression();
+        consumeIf(";");
+        if (lexer.type != JsLexer.EOF) {
+            throw unexpected();
+        }
+        return expression;
+    }
+
+    /* Statements */
+
+    private Stmt parseStatement() {
+        if (lexer.type == JsLexer.PUNCT) {
+            if (lexer.is("{")) {
+                return parseBlock();
+            }
+            if (lexer.is(";")) {
+                lexer.next();
+                return new Empty();
+            }
+        } else if (lexer.type == JsLexer.NAME) {
+            switch (lexer.text) {
+                case "var":
+                case "let":
+                case "const": {
+                    Stmt declaration = parseVarDeclaration();
+                    consumeSemicolon();
+                    return declaration;
+                }
+                case "if":
+                    return parseIf();
+                case "for":
+                    return parseFor();
+                case "while": {
+                    lexer.next();
+                    Expr test = parseParenthesized();
+                    return new Loop(null, test, null, parseStatement(), true);
+                }
+                case "do": {
+                    lexer.next();
+                    Stmt body = parseStatement();
+                    expect("while");
+                    Expr test = parseParenthesized();
+                    consumeIf(";");
+                    return new Loop(null, test, null, body, false);
+                }
+                case "switch":
+                    return parseSwitch();
+                case "break":
+                    lexer.next();
+                    consumeSemicolon();
+                    return new Jump(JsNodes.BREAK);
+                case "continue":
+                    lexer.next();
+                    consumeSemicolon();
+                    return new Jump(JsNodes.CONTINUE);
+                case "return": {
+                    lexer.next();
+                    Expr value = null;
+                    if (!lexer.is(";") && !lexer.is("}") && lexer.type != JsLexer.EOF && !lexer.newlineBefore) {
+                        value = parseExpression();
+                    }
+                    consumeSemicolon();
+                    return new ReturnStmt(value);
+                }
+                case "throw": {
+                    lexer.next();
+                    Expr value = parseExpression();
+                    consumeSemicolon();
+                    return new Throw(value);
+                }
+                case "try":
+                    return parseTry();
+                case "function": {
+                    lexer.next();
+                    String name = expectName();
+                    declarations.add(parseFunctionRest(name));
+                    return new Empty();
+                }
+                default:
+                    break;
+            }
+        }
+        Expr expression = parseExpression();
+        consumeSemicolon();
+        return new ExprStmt(expression);
+    }
+
+    private Block parseBlock() {
+        expect("{");
+        List<Stmt> statements = new ArrayList<>();
+        while (!lexer.is("}")) {
+            if (lexer.type == JsLexer.EOF) {
+                throw unexpected();
+            }
+            statements.add(parseStatement());
+        }
+        lexer.next();
+        return new Block(statements);
+    }
+
+    private Stmt parseVarDeclaration() {
+        lexer.next(); // var / let / const
+        List<String> names = new ArrayList<>();
+        List<Expr> initializers = new ArrayList<>();
+        do {
+            String name = expectName();
+            vars.add(name);
+            names.add(name);
+            if (consumeIf("=")) {
+                initializers.add(parseAssignment());
+            } else {
+                initializers.add(null);
+            }
+        } while (consumeIf(","));
+        return new VarDecl(names, initializers);
+    }
+
+    private Stmt parseIf() {
+        lexer.next();
+        Expr test = parseParenthesized();
+        Stmt consequent = parseStatement();
+        Stmt alternate = null;
+        if (lexer.is("else")) {
+            lexer.next();
+            alternate = parseStatement();
+        }
+        return new If(test, consequent, alternate);
+    }
+
+    private Stmt parseFor() {
+        lexer.next();
+        expect("(");
+        Stmt init = null;
+        if (lexer.is("var") || lexer.is("let") || lexer.is("const")) {
+            init = parseVarDeclaration();
+        } else if (!lexer.is(";")) {
+            init = new ExprStmt(parseExpression());
+        }
+        if (lexer.is("in") || lexer.is("of")) {
+            throw new JsException("for-in and for-of loops are not supported");
+        }
+        expect(";");
+        Expr test = lexer.is(";") ? null : parseExpression();
+        expect(";");
+        Expr update = lexer.is(")") ? null : parseExpression();
+        expect(")");
+        return new Loop(init, test, update, parseStatement(), true);
+    }
+
+    private Stmt parseSwitch() {
+        lexer.next();
+        Expr discriminant = parseParenthesized();
+        expect("{");
+        List<Expr> tests = new ArrayList<>();
+        List<List<Stmt>> bodies = new ArrayList<>();
+        while (!consumeIf("}")) {
+            if (consumeIf("case")) {
+                tests.add(parseExpression());
+            } else {
+                expect("default");
+                tests.add(null);
+            }
+            expect(":");
+            List<Stmt> body = new ArrayList<>();
+            while (!lexer.is("case") && !lexer.is("default") && !lexer.is("}")) {
+                body.add(parseStatement());
+            }
+            bodies.add(body);
+        }
+        return new Switch(discriminant, tests, bodies);
+    }
+
+    private Stmt parseTry() {
+        lexer.next();
+        Block block = parseBlock();
+        String param = null;
+        Block handler = null;
+        Block finalizer = null;
+        if (consumeIf("catch")) {
+            if (consumeIf("(")) {
+                param = expectName();
+                expect(")");
+            }
+            handler = parseBlock();
+        }
+        if (consumeIf("finally")) {
+            finalizer = parseBlock();
+        }
+        return new Try(block, param, handler, finalizer);
+    }
+
+    /* Expressions */
+
+    private Expr parseParenthesized() {
+        expect("(");
+        Expr expression = parseExpression();
+        expect(")");
+        return expression;
+    }
+
+    private Expr parseExpression() {
+        Expr first = parseAssignment();
+        if (!lexer.is(",")) {
+            return first;
+        }
+        List<Expr> expressions = new ArrayList<>();
+        expressions.add(first);
+        while (consumeIf(",")) {
+            expressions.add(parseAssignment());
+        }
+        return new Sequence(expressions);
+    }
+
+    private Expr parseAssignment() {
+        Expr left = parseConditional();
+        if (lexer.type == JsLexer.PUNCT && ASSIGNMENT_OPERATORS.contains(lexer.text)) {
+            String operator = lexer.text;
+            if (!(left instanceof Identifier) && !(left instanceof Member)) {
+                throw new JsException("Invalid assignment target");
+            }
+            lexer.next();
+            Expr value = parseAssignment();
+            return new Assign(operator.equals("=") ? null : operator.substring(0, operator.length() - 1), left, value);
+        }
+        return left;
+    }
+
+    private Expr parseConditional() {
+        Expr test = parseBinary(1);
+        if (consumeIf("?")) {
+            Expr consequent = parseAssignment();
+            expect(":");
+            Expr alternate = parseAssignment();
+            return new Conditional(test, consequent, alternate);
+        }
+        return test;
+    }
+
+    private Expr parseBinary(int minPrecedence) {
+        Expr left = parseUnary();
+        while (true) {
+            Integer precedence = lexer.type == JsLexer.PUNCT || lexer.type == JsLexer.NAME
+                    ? BINARY_PRECEDENCE.get(lexer.text) : null;
+            if (precedence == null || precedence < minPrecedence) {
+                return left;
+            }
+            String operator = lexer.text;
+            lexer.next();
+            // exponentiation is right associative
+            Expr right = parseBinary(operator.equals("**") ? precedence : precedence + 1);
+            if (operator.equals("&&") || operator.equals("||")) {
+                left = new Logical(operator.equals("&&"), left, right);
+            } else {
+                left = new Binary(operator, left, right);
+            }
+        }
+    }
+
+    private Expr parseUnary() {
+        if (lexer.type == JsLexer.PUNCT) {
+            switch (lexer.text) {
+                case "!":
+                case "-":
+                case "+":
+                case "~": {
+                    String operator = lexer.text;
+                    lexer.next();
+                    return new Unary(operator, parseUnary());
+                }
+                case "++":
+                case "--": {
+                    boolean increment = lexer.text.equals("++");
+                    lexer.next();
+                    return new Update(increment, true, checkTarget(parseUnary()));
+                }
+                default:
+                    break;
+            }
+        } else if (lexer.is("typeof") || lexer.is("void") || lexer.is("delete")) {
+            String operator = lexer.text;
+            lexer.next();
+            return new Unary(operator, parseUnary());
+        }
+        Expr expression = parseCallOrMember();
+        if ((lexer.is("++") || lexer.is("--")) && !lexer.newlineBefore) {
+            boolean increment = lexer.text.equals("++");
+            lexer.next();
+            return new Update(increment, false, checkTarget(expression));
+        }
+        return expression;
+    }
+
+    private Expr parseCallOrMember() {
+        Expr expression;
+        if (lexer.is("new")) {
+            lexer.next();
+            Expr callee = parsePrimary();
+            while (lexer.is(".")) {
+                lexer.next();
+                callee = new Member(callee, new Literal(expectName()));
+            }
+            List<Expr> arguments = lexer.is("(") ? parseArguments() : new ArrayList<>();
+            expression = new New(callee, arguments);
+        } else {
+            expression = parsePrimary();
+        }
+        while (true) {
+            if (consumeIf(".")) {
+                expression = new Member(expression, new Literal(expectName()));
+            } else if (consumeIf("[")) {
+                Expr key = parseExpression();
+                expect("]");
+                expression = new Member(expression, key);
+            } else if (lexer.is("(")) {
+                expression = new Call(expression, parseArguments());
+            } else {
+                return expression;
+            }
+        }
+    }
+
+    private List<Expr> parseArguments() {
+        expect("(");
+        List<Expr> arguments = new ArrayList<>();
+        if (!consumeIf(")")) {
+            do {
+                arguments.add(parseAssignment());
+            } while (consumeIf(","));
+            expect(")");
+        }
+        return arguments;
+    }
+
+    private Expr parsePrimary() {
+        switch (lexer.type) {
+            case JsLexer.NUMBER: {
+                Expr literal = new Literal(lexer.number);
+                lexer.next();
+                return literal;
+            }
+            case JsLexer.STRING: {
+                Expr literal = new Literal(lexer.text);
+                lexer.next();
+                return literal;
+            }
+            case JsLexer.NAME: {
+                String name = lexer.text;
+                lexer.next();
+                switch (name) {
+                    case "true":
+                        return new Literal(Boolean.TRUE);
+                    case "false":
+                        return new Literal(Boolean.FALSE);
+                    case "null":
+                        return new Literal(null);
+                    case "this":
+                        return new This();
+                    case "function": {
+                        String functionName = lexer.type == JsLexer.NAME ? expectName() : null;
+                        return new FunctionExpr(parseFunctionRest(functionName));
+                    }
+                    default:
+                        return new Identifier(name);
+                }
+            }
+            case JsLexer.PUNCT:
+                if (consumeIf("(")) {
+                    Expr expression = parseExpression();
+                    expect(")");
+                    return expression;
+                }
+                if (consumeIf("[")) {
+                    List<Expr> elements = new ArrayList<>();
+                    while (!consumeIf("]")) {
+                        if (lexer.is(",")) {
+                            lexer.next();
+                            elements.add(null); // elision
+                            continue;
+                        }
+                        elements.add(parseAssignment());
+                        if (!lexer.is("]")) {
+                            expect(",");
+                        }
+                    }
+                    return new ArrayLiteral(elements);
+                }
+                if (consumeIf("{")) {
+                    List<String> keys = new ArrayList<>();
+                    List<Expr> values = new ArrayList<>();
+                    while (!consumeIf("}")) {
+                        if (lexer.type == JsLexer.NUMBER) {
+                            keys.add(JsRuntime.numberToString(lexer.number));
+                        } else if (lexer.type == JsLexer.NAME || lexer.type == JsLexer.STRING) {
+                            keys.add(lexer.text);
+                        } else {
+                            throw unexpected();
+                        }
+                        lexer.next();
+                        expect(":");
+                        values.add(parseAssignment());
+                        if (!lexer.is("}")) {
+                            expect(",");
+                        }
+                    }
+                    return new ObjectLiteral(keys, values);
+                }
+                break;
+            default:
+                break;
+        }
+        throw unexpected();
+    }
+
+    private FunctionDef parseFunctionRest(String name) {
+        Set<String> outerVars = vars;
+        List<FunctionDef> outerDeclarations = declarations;
+        vars = new LinkedHashSet<>();
+        declarations = new ArrayList<>();
+        try {
+            expect("(");
+            List<String> params = new ArrayList<>();
+            if (!consumeIf(")")) {
+                do {
+                    params.add(expectName());
+                } while (consumeIf(","));
+                expect(")");
+            }
+            Block body = parseBlock();
+            return new FunctionDef(name, params, vars, declarations, body);
+        } finally {
+            vars = outerVars;
+            declarations = outerDeclarations;
+        }
+    }
+
+    /* Helpers */
+
+    private Expr checkTarget(Expr expression) {
+        if (!(expression instanceof Identifier) && !(expression instanceof Member)) {
+            throw new JsException("Invalid update target");
+        }
+        return expression;
+    }
+
+    private void consumeSemicolon() {
+        if (consumeIf(";") || lexer.is("}") || lexer.type == JsLexer.EOF || lexer.newlineBefore) {
+            return;
+        }
+        throw unexpected();
+    }
+
+    private boolean consumeIf(String token) {
+        if (lexer.is(token)) {
+            lexer.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!consumeIf(token)) {
+            throw unexpected();
+        }
+    }
+
+    private String expectName() {
+        if (lexer.type != JsLexer.NAME) {
+            throw unexpected();
+        }
+        String name = lexer.text;
+        lexer.next();
+        return name;
+    }
+
+    private JsException unexpected() {
+        return new JsException("SyntaxError: unexpected token '" + lexer.text + "'");
+    }
+}
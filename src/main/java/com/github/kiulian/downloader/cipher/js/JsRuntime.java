@@ -0,0 +1,830 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Value model, type conversions and built-ins of the interpreter.
+ * <p>
+ * JavaScript values are represented as: {@code undefined} - {@link #UNDEFINED},
+ * {@code null} - java {@code null}, numbers - {@link Double}, strings - {@link String},
+ * booleans - {@link Boolean}, arrays - {@link JsArray}, objects - {@link JsObject}
+ * and functions - {@link JsCallable}.
+ */
+final class JsRuntime {
+
+    static final Object UNDEFINED = new Object() {
+        @Override
+        public String toString() {
+            return "undefined";
+        }
+    };
+
+    private static final Double NAN = Double.NaN;
+
+    private JsRuntime() {
+    }
+
+    static final class JsArray {
+        final List<Object> list;
+
+        JsArray() {
+            this.list = new ArrayList<>();
+        }
+
+        JsArray(List<Object> list) {
+            this.list = list;
+        }
+
+        Object get(int index) {
+            return index >= 0 && index < list.size() ? list.get(index) : UNDEFINED;
+        }
+
+        void set(int index, Object value) {
+            while (list.size() <= index) {
+                list.add(UNDEFINED);
+            }
+            list.set(index, value);
+        }
+
+        void setLength(int length) {
+            while (list.size() > length) {
+                list.remove(list.size() - 1);
+            }
+            while (list.size() < length) {
+                list.add(UNDEFINED);
+            }
+        }
+    }
+
+    static final class JsObject {
+        final Map<String, Object> properties = new LinkedHashMap<>();
+
+        JsObject put(String key, Object value) {
+            properties.put(key, value);
+            return this;
+        }
+    }
+
+    @FunctionalInterface
+    interface NativeFunction extends JsCallable {
+    }
+
+    /**
+     * Built-in function with properties of its own, such as {@code String} and {@code String.fromCharCode}.
+     */
+    static final class NativeConstructor implements JsCallable {
+        final JsCallable function;
+        final JsObject statics = new JsObject();
+
+        NativeConstructor(JsCallable function) {
+            this.function = function;
+        }
+
+        NativeConstructor put(String key, Object value) {
+            statics.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Object call(Object thisArg, Object... args) {
+            return function.call(thisArg, args);
+        }
+    }
+
+    /* Conversions */
+
+    static boolean toBoolean(Object value) {
+        if (value == null || value == UNDEFINED) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Double) {
+            double d = (Double) value;
+            return d != 0 && !Double.isNaN(d);
+        }
+        if (value instanceof String) {
+            return !((String) value).isEmpty();
+        }
+        return true;
+    }
+
+    static double toNumber(Object value) {
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        if (value == null) {
+            return 0;
+        }
+        if (value == UNDEFINED) {
+            return Double.NaN;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        if (value instanceof String) {
+            String s = ((String) value).trim();
+            if (s.isEmpty()) {
+                return 0;
+            }
+            try {
+                if (s.startsWith("0x") || s.startsWith("0X")) {
+                    return Long.parseLong(s.substring(2), 16);
+                }
+                if (s.equals("Infinity") || s.equals("+Infinity")) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                if (s.equals("-Infinity")) {
+                    return Double.NEGATIVE_INFINITY;
+                }
+                char last = s.charAt(s.length() - 1);
+                if (!Character.isDigit(last) && last != '.') {
+                    return Double.NaN; // java accepts suffixes like "1d", javascript does not
+                }
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return toNumber(toPrimitive(value));
+    }
+
+    static int toInt32(Object value) {
+        double d = toNumber(value);
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return 0;
+        }
+        return (int) (long) (d % 4294967296.0);
+    }
+
+    static long toUint32(Object value) {
+        return toInt32(value) & 0xFFFFFFFFL;
+    }
+
+    static Object toPrimitive(Object value) {
+        if (value instanceof JsArray || value instanceof JsObject || value instanceof JsCallable) {
+            return toJsString(value);
+        }
+        return value;
+    }
+
+    static String toJsString(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Double) {
+            return numberToString((Double) value);
+        }
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof JsArray) {
+            return join((JsArray) value, ",");
+        }
+        if (value instanceof JsObject) {
+            return "[object Object]";
+        }
+        if (value instanceof JsCallable) {
+            return "function(){}";
+        }
+        return String.valueOf(value);
+    }
+
+    static String numberToString(double d) {
+        if (Double.isNaN(d)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(d)) {
+            return d > 0 ? "Infinity" : "-Infinity";
+        }
+        if (d == 0) {
+            return "0";
+        }
+        if (d == Math.rint(d) && Math.abs(d) <= 9007199254740992.0) {
+            return Long.toString((long) d);
+        }
+        // Number.prototype.toString: shortest digits, exponent notation outside [1e-6, 1e21)
+        BigDecimal decimal = new BigDecimal(Double.toString(Math.abs(d))).stripTrailingZeros();
+        String digits = decimal.unscaledValue().toString();
+        int k = digits.length();
+        int n = k - decimal.scale();
+        StringBuilder sb = new StringBuilder(d < 0 ? "-" : "");
+        if (k <= n && n <= 21) {
+            sb.append(digits);
+            for (int i = k; i < n; i++) {
+                sb.append('0');
+            }
+        } else if (0 < n && n <= 21) {
+            sb.append(digits, 0, n).append('.').append(digits, n, k);
+        } else if (-6 < n && n <= 0) {
+            sb.append("0.");
+            for (int i = n; i < 0; i++) {
+                sb.append('0');
+            }
+            sb.append(digits);
+        } else {
+            sb.append(digits.charAt(0));
+            if (k > 1) {
+                sb.append('.').append(digits, 1, k);
+            }
+            sb.append('e').append(n - 1 > 0 ? "+" : "-").append(Math.abs(n - 1));
+        }
+        return sb.toString();
+    }
+
+    static double pow(double base, double exponent) {
+        // java returns 1 for these, javascript NaN
+        if (Math.abs(base) == 1 && Double.isInfinite(exponent)) {
+            return Double.NaN;
+        }
+        return Math.pow(base, exponent);
+    }
+
+    static String typeOf(Object value) {
+        if (value == UNDEFINED) {
+            return "undefined";
+        }
+        if (value instanceof Double) {
+            return "number";
+        }
+        if (value instanceof String) {
+            return "string";
+        }
+        if (value instanceof Boolean) {
+            return "boolean";
+        }
+        if (value instanceof JsCallable) {
+            return "function";
+        }
+        return "object";
+    }
+
+    static boolean strictEquals(Object a, Object b) {
+        if (a instanceof Double && b instanceof Double) {
+            return ((Double) a).doubleValue() == ((Double) b).doubleValue();
+        }
+        if (a instanceof String && b instanceof String || a instanceof Boolean && b instanceof Boolean) {
+            return a.equals(b);
+        }
+        return a == b;
+    }
+
+    static boolean looseEquals(Object a, Object b) {
+        boolean aNullish = a == null || a == UNDEFINED;
+        boolean bNullish = b == null || b == UNDEFINED;
+        if (aNullish || bNullish) {
+            return aNullish && bNullish;
+        }
+        if (a.getClass() == b.getClass()) {
+            return strictEquals(a, b);
+        }
+        if (a instanceof Boolean || a instanceof Double && b instanceof String) {
+            return toNumber(a) == toNumber(b);
+        }
+        if (b instanceof Boolean || b instanceof Double && a instanceof String) {
+            return toNumber(a) == toNumber(b);
+        }
+        boolean aObject = a instanceof JsArray || a instanceof JsObject || a instanceof JsCallable;
+        boolean bObject = b instanceof JsArray || b instanceof JsObject || b instanceof JsCallable;
+        if (aObject != bObject) {
+            return looseEquals(toPrimitive(a), toPrimitive(b));
+        }
+        return false;
+    }
+
+    static Object add(Object a, Object b) {
+        Object pa = toPrimitive(a);
+        Object pb = toPrimitive(b);
+        if (pa instanceof String || pb instanceof String) {
+            return toJsString(pa).concat(toJsString(pb));
+        }
+        return toNumber(pa) + toNumber(pb);
+    }
+
+    static int compare(Object a, Object b) {
+        Object pa = toPrimitive(a);
+        Object pb = toPrimitive(b);
+        if (pa instanceof String && pb instanceof String) {
+            return ((String) pa).compareTo((String) pb);
+        }
+        double da = toNumber(pa);
+        double db = toNumber(pb);
+        if (Double.isNaN(da) || Double.isNaN(db)) {
+            return Integer.MIN_VALUE; // "undefined" comparison result, false for every relational operator
+        }
+        return Double.compare(da == 0 ? 0 : da, db == 0 ? 0 : db);
+    }
+
+    /**
+     * @return array index represented by the key, or -1 if the key is not an array index
+     */
+    static int toIndex(Object key) {
+        if (key instanceof Double) {
+            double d = (Double) key;
+            return d >= 0 && d == Math.rint(d) && d < Integer.MAX_VALUE ? (int) d : -1;
+        }
+        if (key instanceof String) {
+            String s = (String) key;
+            if (s.isEmpty() || s.length() > 9) {
+                return -1;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (!Character.isDigit(s.charAt(i))) {
+                    return -1;
+                }
+            }
+            return Integer.parseInt(s);
+        }
+        return -1;
+    }
+
+    /* Property access */
+
+    static Object getMember(Object target, Object key) {
+        if (target == null || target == UNDEFINED) {
+            throw new JsException("TypeError: cannot read property '" + toJsString(key) + "' of " + target);
+        }
+        if (target instanceof JsArray) {
+            JsArray array = (JsArray) target;
+            int index = toIndex(key);
+            if (index >= 0) {
+                return array.get(index);
+            }
+            String name = toJsString(key);
+            if (name.equals("length")) {
+                return (double) array.list.size();
+            }
+            return bind(target, name);
+        }
+        if (target instanceof String) {
+            String s = (String) target;
+            int index = toIndex(key);
+            if (index >= 0) {
+                return index < s.length() ? String.valueOf(s.charAt(index)) : UNDEFINED;
+            }
+            String name = toJsString(key);
+            if (name.equals("length")) {
+                return (double) s.length();
+            }
+            return bind(target, name);
+        }
+        if (target instanceof JsObject) {
+            Object value = ((JsObject) target).properties.get(toJsString(key));
+            return value != null || ((JsObject) target).properties.containsKey(toJsString(key)) ? value : UNDEFINED;
+        }
+        if (target instanceof NativeConstructor && ((NativeConstructor) target).statics.properties.containsKey(toJsString(key))) {
+            return ((NativeConstructor) target).statics.properties.get(toJsString(key));
+        }
+        if (target instanceof JsCallable || target instanceof Double || target instanceof Boolean) {
+            return bind(target, toJsString(key));
+        }
+        return UNDEFINED;
+    }
+
+    static void setMember(Object target, Object key, Object value) {
+        if (target instanceof JsArray) {
+            JsArray array = (JsArray) target;
+            int index = toIndex(key);
+            if (index >= 0) {
+                array.set(index, value);
+            } else if ("length".equals(toJsString(key))) {
+                array.setLength((int) toNumber(value));
+            }
+            // other properties on arrays are silently ignored
+        } else if (target instanceof JsObject) {
+            ((JsObject) target).properties.put(toJsString(key), value);
+        } else if (target == null || target == UNDEFINED) {
+            throw new JsException("TypeError: cannot set property '" + toJsString(key) + "' of " + target);
+        }
+    }
+
+    static boolean deleteMember(Object target, Object key) {
+        if (target instanceof JsObject) {
+            ((JsObject) target).properties.remove(toJsString(key));
+        } else if (target instanceof JsArray) {
+            int index = toIndex(key);
+            if (index >= 0 && index < ((JsArray) target).list.size()) {
+                ((JsArray) target).list.set(index, UNDEFINED);
+            }
+        }
+        return true;
+    }
+
+    static boolean hasMember(Object target, Object key) {
+        if (target instanceof JsObject) {
+            return ((JsObject) target).properties.containsKey(toJsString(key));
+        }
+        if (target instanceof JsArray) {
+            int index = toIndex(key);
+            return index >= 0 ? index < ((JsArray) target).list.size() : "length".equals(toJsString(key));
+        }
+        throw new JsException("TypeError: 'in' operator applied to non-object");
+    }
+
+    /**
+     * Calls method {@code name} of {@code target} without materializing a bound function
+     * for built-in array and string methods.
+     */
+    static Object invokeMethod(Object target, Object key, Object[] args) {
+        if (target instanceof JsArray && toIndex(key) < 0) {
+            return arrayMethod((JsArray) target, toJsString(key), args);
+        }
+        if (target instanceof String && toIndex(key) < 0) {
+            return stringMethod((String) target, toJsString(key), args);
+        }
+        Object function = getMember(target, key);
+        return call(function, target, args, key);
+    }
+
+    static Object call(Object function, Object thisArg, Object[] args, Object name) {
+        if (!(function instanceof JsCallable)) {
+            throw new JsException("TypeError: " + toJsString(name) + " is not a function");
+        }
+        return ((JsCallable) function).call(thisArg, args);
+    }
+
+    private static Object bind(Object target, String name) {
+        if (target instanceof JsCallable) {
+            JsCallable function = (JsCallable) target;
+            switch (name) {
+                case "call":
+                    return (NativeFunction) (self, args) -> function.call(arg(args, 0), tail(args));
+                case "apply":
+                    return (NativeFunction) (self, args) -> {
+                        Object list = arg(args, 1);
+                        Object[] applied = list instanceof JsArray ? ((JsArray) list).list.toArray() : new Object[0];
+                        return function.call(arg(args, 0), applied);
+                    };
+                default:
+                    return UNDEFINED;
+            }
+        }
+        if (target instanceof JsArray) {
+            if (!ARRAY_METHODS.contains(name)) {
+                return UNDEFINED;
+            }
+            return (NativeFunction) (self, args) -> arrayMethod((JsArray) target, name, args);
+        }
+        if (target instanceof String) {
+            if (!STRING_METHODS.contains(name)) {
+                return UNDEFINED;
+            }
+            return (NativeFunction) (self, args) -> stringMethod((String) target, name, args);
+        }
+        if (target instanceof Double && name.equals("toString")) {
+            return (NativeFunction) (self, args) -> {
+                Object radix = arg(args, 0);
+                if (radix == UNDEFINED) {
+                    return numberToString((Double) target);
+                }
+                return Long.toString((long) (double) (Double) target, (int) toNumber(radix));
+            };
+        }
+        return UNDEFINED;
+    }
+
+    private static final List<String> ARRAY_METHODS = java.util.Arrays.asList(
+            "push", "pop", "shift", "unshift", "splice", "reverse", "forEach", "map", "filter",
+            "join", "indexOf", "slice", "concat", "includes", "sort");
+
+    private static final List<String> STRING_METHODS = java.util.Arrays.asList(
+            "split", "charAt", "charCodeAt", "indexOf", "lastIndexOf", "slice", "substring", "substr",
+            "concat", "toLowerCase", "toUpperCase", "replace", "includes", "startsWith", "endsWith", "trim");
+
+    static Object arrayMethod(JsArray array, String name, Object[] args) {
+        List<Object> list = array.list;
+        switch (name) {
+            case "push":
+                Collections.addAll(list, args);
+                return (double) list.size();
+            case "pop":
+                return list.isEmpty() ? UNDEFINED : list.remove(list.size() - 1);
+            case "shift":
+                return list.isEmpty() ? UNDEFINED : list.remove(0);
+            case "unshift":
+                for (int i = args.length - 1; i >= 0; i--) {
+                    list.add(0, args[i]);
+                }
+                return (double) list.size();
+            case "splice": {
+                int size = list.size();
+                int start = relativeIndex(arg(args, 0), size, 0);
+                int deleteCount = args.length < 2 ? size - start : clamp((int) toInteger(args[1]), 0, size - start);
+                List<Object> range = list.subList(start, start + deleteCount);
+                JsArray removed = new JsArray(new ArrayList<>(range));
+                range.clear();
+                for (int i = 2; i < args.length; i++) {
+                    list.add(start + i - 2, args[i]);
+                }
+                return removed;
+            }
+            case "reverse":
+                Collections.reverse(list);
+                return array;
+            case "forEach":
+            case "map":
+            case "filter": {
+                Object callback = arg(args, 0);
+                Object thisArg = arg(args, 1);
+                JsArray result = new JsArray();
+                for (int i = 0; i < list.size(); i++) {
+                    Object element = list.get(i);
+                    Object value = call(callback, thisArg, new Object[]{element, (double) i, array}, name);
+                    if (name.equals("map")) {
+                        result.list.add(value);
+                    } else if (name.equals("filter") && toBoolean(value)) {
+                        result.list.add(element);
+                    }
+                }
+                return name.equals("forEach") ? UNDEFINED : result;
+            }
+            case "join":
+                return join(array, args.length == 0 || args[0] == UNDEFINED ? "," : toJsString(args[0]));
+            case "indexOf": {
+                Object searched = arg(args, 0);
+                for (int i = relativeIndex(arg(args, 1), list.size(), 0); i < list.size(); i++) {
+                    if (strictEquals(list.get(i), searched)) {
+                        return (double) i;
+                    }
+                }
+                return -1.0;
+            }
+            case "includes":
+                return toNumber(arrayMethod(array, "indexOf", args)) >= 0;
+            case "sort":
+                sort(list, arg(args, 0));
+                return array;
+            case "slice": {
+                int start = relativeIndex(arg(args, 0), list.size(), 0);
+                int end = relativeIndex(arg(args, 1), list.size(), list.size());
+                return new JsArray(new ArrayList<>(start < end ? list.subList(start, end) : Collections.emptyList()));
+            }
+            case "concat": {
+                JsArray result = new JsArray(new ArrayList<>(list));
+                for (Object a : args) {
+                    if (a instanceof JsArray) {
+                        result.list.addAll(((JsArray) a).list);
+                    } else {
+                        result.list.add(a);
+                    }
+                }
+                return result;
+            }
+            default:
+                throw new JsException("TypeError: array method " + name + " is not supported");
+        }
+    }
+
+    static Object stringMethod(String s, String name, Object[] args) {
+        switch (name) {
+            case "split": {
+                Object separator = arg(args, 0);
+                JsArray result = new JsArray();
+                if (separator == UNDEFINED) {
+                    result.list.add(s);
+                } else {
+                    String sep = toJsString(separator);
+                    if (sep.isEmpty()) {
+                        for (int i = 0; i < s.length(); i++) {
+                            result.list.add(String.valueOf(s.charAt(i)));
+                        }
+                    } else {
+                        int from = 0;
+                        int index;
+                        while ((index = s.indexOf(sep, from)) >= 0) {
+                            result.list.add(s.substring(from, index));
+                            from = index + sep.length();
+                        }
+                        result.list.add(s.substring(from));
+                    }
+                }
+                return result;
+            }
+            case "charAt": {
+                int index = (int) toInteger(arg(args, 0));
+                return index >= 0 && index < s.length() ? String.valueOf(s.charAt(index)) : "";
+            }
+            case "charCodeAt": {
+                int index = (int) toInteger(arg(args, 0));
+                return index >= 0 && index < s.length() ? (double) s.charAt(index) : NAN;
+            }
+            case "indexOf":
+                return (double) s.indexOf(toJsString(arg(args, 0)), (int) toInteger(arg(args, 1)));
+            case "lastIndexOf":
+                return (double) s.lastIndexOf(toJsString(arg(args, 0)));
+            case "includes":
+                return s.contains(toJsString(arg(args, 0)));
+            case "startsWith":
+                return s.startsWith(toJsString(arg(args, 0)));
+            case "endsWith":
+                return s.endsWith(toJsString(arg(args, 0)));
+            case "slice": {
+                int start = relativeIndex(arg(args, 0), s.length(), 0);
+                int end = relativeIndex(arg(args, 1), s.length(), s.length());
+                return start < end ? s.substring(start, end) : "";
+            }
+            case "substring": {
+                int start = clamp((int) toInteger(arg(args, 0)), 0, s.length());
+                int end = arg(args, 1) == UNDEFINED ? s.length() : clamp((int) toInteger(args[1]), 0, s.length());
+                return s.substring(Math.min(start, end), Math.max(start, end));
+            }
+            case "substr": {
+                int start = relativeIndex(arg(args, 0), s.length(), 0);
+                int length = arg(args, 1) == UNDEFINED ? s.length() - start : clamp((int) toInteger(args[1]), 0, s.length() - start);
+                return s.substring(start, start + length);
+            }
+            case "concat": {
+                StringBuilder sb = new StringBuilder(s);
+                for (Object a : args) {
+                    sb.append(toJsString(a));
+                }
+                return sb.toString();
+            }
+            case "toLowerCase":
+                return s.toLowerCase();
+            case "toUpperCase":
+                return s.toUpperCase();
+            case "trim":
+                return s.trim();
+            case "replace": {
+                // only string patterns are supported, which replace the first occurrence
+                String pattern = toJsString(arg(args, 0));
+                int index = s.indexOf(pattern);
+                if (index < 0) {
+                    return s;
+                }
+                Object replacement = arg(args, 1);
+                String value = replacement instanceof JsCallable
+                        ? toJsString(((JsCallable) replacement).call(UNDEFINED, pattern, (double) index, s))
+                        : toJsString(replacement);
+                return s.substring(0, index) + value + s.substring(index + pattern.length());
+            }
+            default:
+                throw new JsException("TypeError: string method " + name + " is not supported");
+        }
+    }
+
+    /**
+     * Stable merge sort, tolerates inconsistent comparators unlike {@link Collections#sort}.
+     * Undefined elements go last, without a comparator elements are compared as strings.
+     */
+    private static void sort(List<Object> list, Object comparator) {
+        if (comparator != UNDEFINED && !(comparator instanceof JsCallable)) {
+            throw new JsException("TypeError: the comparison function must be a function");
+        }
+        List<Object> defined = new ArrayList<>(list.size());
+        int undefined = 0;
+        for (Object element : list) {
+            if (element == UNDEFINED) {
+                undefined++;
+            } else {
+                defined.add(element);
+            }
+        }
+        Object[] elements = defined.toArray();
+        mergeSort(elements, new Object[elements.length], 0, elements.length, comparator);
+        list.clear();
+        Collections.addAll(list, elements);
+        for (int i = 0; i < undefined; i++) {
+            list.add(UNDEFINED);
+        }
+    }
+
+    private static void mergeSort(Object[] elements, Object[] buffer, int from, int to, Object comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(elements, buffer, from, middle, comparator);
+        mergeSort(elements, buffer, middle, to, comparator);
+        System.arraycopy(elements, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && sortCompare(buffer[left], buffer[right], comparator) <= 0) {
+                elements[i] = buffer[left++];
+            } else {
+                elements[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static double sortCompare(Object a, Object b, Object comparator) {
+        if (comparator == UNDEFINED) {
+            return toJsString(a).compareTo(toJsString(b));
+        }
+        double result = toNumber(((JsCallable) comparator).call(UNDEFINED, a, b));
+        return Double.isNaN(result) ? 0 : result;
+    }
+
+    static String join(JsArray array, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < array.list.size(); i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            Object element = array.list.get(i);
+            if (element != null && element != UNDEFINED) {
+                sb.append(element == array ? "" : toJsString(element));
+            }
+        }
+        return sb.toString();
+    }
+
+    /* Globals */
+
+    static JsObject createGlobals() {
+        NativeConstructor string = new NativeConstructor((self, args) -> args.length == 0 ? "" : toJsString(args[0]))
+                .put("fromCharCode", (NativeFunction) (self, args) -> {
+                    StringBuilder sb = new StringBuilder(args.length);
+                    for (Object a : args) {
+                        sb.append((char) toUint32(a));
+                    }
+                    return sb.toString();
+                });
+        JsObject math = new JsObject()
+                .put("pow", (NativeFunction) (self, args) -> pow(toNumber(arg(args, 0)), toNumber(arg(args, 1))))
+                .put("floor", (NativeFunction) (self, args) -> Math.floor(toNumber(arg(args, 0))))
+                .put("ceil", (NativeFunction) (self, args) -> Math.ceil(toNumber(arg(args, 0))))
+                .put("round", (NativeFunction) (self, args) -> Math.floor(toNumber(arg(args, 0)) + 0.5))
+                .put("abs", (NativeFunction) (self, args) -> Math.abs(toNumber(arg(args, 0))))
+                .put("max", (NativeFunction) (self, args) -> {
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (Object a : args) {
+                        max = Math.max(max, toNumber(a));
+                    }
+                    return max;
+                })
+                .put("min", (NativeFunction) (self, args) -> {
+                    double min = Double.POSITIVE_INFINITY;
+                    for (Object a : args) {
+                        min = Math.min(min, toNumber(a));
+                    }
+                    return min;
+                });
+        return new JsObject()
+                .put("String", string)
+                .put("Math", math)
+                .put("NaN", NAN)
+                .put("Infinity", Double.POSITIVE_INFINITY)
+                .put("undefined", UNDEFINED)
+                .put("parseInt", (NativeFunction) (self, args) -> {
+                    String s = toJsString(arg(args, 0)).trim();
+                    int radix = arg(args, 1) == UNDEFINED ? 10 : toInt32(args[1]);
+                    int end = 0;
+                    if (end < s.length() && (s.charAt(end) == '-' || s.charAt(end) == '+')) {
+                        end++;
+                    }
+                    while (end < s.length() && Character.digit(s.charAt(end), radix) >= 0) {
+                        end++;
+                    }
+                    try {
+                        return (double) Long.parseLong(s.substring(0, end), radix);
+                    } catch (NumberFormatException e) {
+                        return NAN;
+                    }
+                });
+    }
+
+    /* Helpers */
+
+    static Object arg(Object[] args, int index) {
+        return index < args.length ? args[index] : UNDEFINED;
+    }
+
+    private static Object[] tail(Object[] args) {
+        if (args.length <= 1) {
+            return new Object[0];
+        }
+        Object[] tail = new Object[args.length - 1];
+        System.arraycopy(args, 1, tail, 0, tail.length);
+        return tail;
+    }
+
+    private static double toInteger(Object value) {
+        double d = toNumber(value);
+        return Double.isNaN(d) ? 0 : (d < 0 ? Math.ceil(d) : Math.floor(d));
+    }
+
+    private static int relativeIndex(Object value, int length, int defaultValue) {
+        if (value == UNDEFINED) {
+            return defaultValue;
+        }
+        double d = toInteger(value);
+        if (d < 0) {
+            return (int) Math.max(0, length + d);
+        }
+        return (int) Math.min(d, length);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.kiulian.downloader.cipher.js;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Variable environment. Function scopes also carry {@code this}; block scopes
+ * (only created for {@code catch} parameters) inherit it from their parent.
+ */
+final class JsScope {
+
+    private final JsScope parent;
+    private final Map<String, Object> vars = new HashMap<>();
+    private final Object thisValue;
+    private final Budget budget;
+
+    static final class Budget {
+        private long remaining;
+
+        Budget(long steps) {
+            this.remaining = steps;
+        }
+
+        void reset(long steps) {
+            this.remaining = steps;
+        }
+
+        void tick() {
+            if (--remaining < 0) {
+                throw new JsException("Execution step limit exceeded");
+            }
+        }
+    }
+
+    JsScope(Budget budget) {
+        this.parent = null;
+        this.thisValue = JsRuntime.UNDEFINED;
+        this.budget = budget;
+    }
+
+    JsScope(JsScope parent, Object thisValue) {
+        this.parent = parent;
+        this.thisValue = thisValue;
+        this.budget = parent.budget;
+    }
+
+    JsScope(JsScope parent) {
+        this(parent, parent.thisValue);
+    }
+
+    Object thisValue() {
+        return thisValue;
+    }
+
+    Budget budget() {
+        return budget;
+    }
+
+    void declare(String name, Object value) {
+        vars.put(name, value);
+    }
+
+    boolean isDeclared(String name) {
+        for (JsScope scope = this; scope != null; scope = scope.parent) {
+            if (scope.vars.containsKey(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Object lookup(String name) {
+        for (JsScope scope = this; scope != null; scope = scope.parent) {
+            Object value = scope.vars.get(name);
+            if (value != null || scope.vars.containsKey(name)) {
+                return value;
+            }
+        }
+        throw new JsException("ReferenceError: " + name + " is not defined");
+    }
+
+    void assign(String name, Object value) {
+        JsScope scope = this;
+        while (true) {
+            if (scope.vars.containsKey(name)) {
+                scope.vars.put(name, value);
+                return;
+            }
+            if (scope.parent == null) {
+                // implicit global
+                scope.vars.put(name, value);
+                return;
+            }
+            scope = scope.parent;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.kiulian.downloader.downloader;
+
+import com.github.kiulian.downloader.model.videos.formats.Format;
+
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput of recent downloads per route (direct connection or proxy).
+ * <p>
+ * Every response body read by the downloader is recorded, the estimate is an exponentially
+ * weighted average of the observed bytes per second. Transfers shorter than {@link #MIN_SAMPLE_BYTES}
+ * are dominated by latency and ignored, estimates older than the max age are treated as unknown.
+ */
+public class BandwidthMeter {
+
+    public static final long MIN_SAMPLE_BYTES = 64 * 1024;
+
+    private static final double DEFAULT_ALPHA = 0.3;
+    private static final long DEFAULT_MAX_AGE_MILLIS = 10 * 60_000;
+    // share of the measured bandwidth a deadline is planned with
+    private static final double DEFAULT_HEADROOM = 0.8;
+    private static final String DIRECT = "direct";
+
+    private final double alpha;
+    private final long maxAgeMillis;
+    private final double headroom;
+    private final Map<String, Estimate> estimates = new HashMap<>();
+
+    public BandwidthMeter() {
+        this(DEFAULT_ALPHA, DEFAULT_MAX_AGE_MILLIS, DEFAULT_HEADROOM);
+    }
+
+    /**
+     * @param alpha        weight of a new observation, 0 &lt; alpha &lt;= 1
+     * @param maxAgeMillis time after which an estimate without new observations is discarded
+     * @param headroom     share of the estimated bandwidth used to plan downloads, 0 &lt; headroom &lt;= 1
+     */
+    public BandwidthMeter(double alpha, long maxAgeMillis, double headroom) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        if (headroom <= 0 || headroom > 1) {
+            throw new IllegalArgumentException("headroom must be in (0, 1]");
+        }
+        this.alpha = alpha;
+        this.maxAgeMillis = maxAgeMillis;
+        this.headroom = headroom;
+    }
+
+    /**
+     * @param route        proxy used for the transfer, {@code null} for a direct connection
+     * @param bytes        amount of bytes received
+     * @param elapsedNanos duration of the transfer including the time to first byte
+     */
+    public synchronized void record(Proxy route, long bytes, long elapsedNanos) {
+        if (bytes < MIN_SAMPLE_BYTES || elapsedNanos <= 0) {
+            return;
+        }
+        double bytesPerSecond = bytes * 1e9 / elapsedNanos;
+        long now = System.currentTimeMillis();
+        String key = routeKey(route);
+        Estimate estimate = estimates.get(key);
+        if (estimate == null || now - estimate.updatedAt > maxAgeMillis) {
+            estimate = new Estimate();
+            estimate.bytesPerSecond = bytesPerSecond;
+            estimates.put(key, estimate);
+        } else {
+            estimate.bytesPerSecond += alpha * (bytesPerSecond - estimate.bytesPerSecond);
+        }
+        estimate.updatedAt = now;
+    }
+
+    /**
+     * @return estimated bytes per second of the route or -1 if unknown
+     */
+    public synchronized long bytesPerSecond(Proxy route) {
+        Estimate estimate = estimates.get(routeKey(route));
+        if (estimate == null || System.currentTimeMillis() - estimate.updatedAt > maxAgeMillis) {
+            return -1;
+        }
+        return (long) estimate.bytesPerSecond;
+    }
+
+    /**
+     * @return expected download time of the format in milliseconds or -1 if the bandwidth or the size is unknown
+     */
+    public long estimateMillis(Format format, Proxy route) {
+        long bytesPerSecond = bytesPerSecond(route);
+        long size = format.expectedSize();
+        if (bytesPerSecond <= 0 || size <= 0) {
+            return -1;
+        }
+        return (long) (size * 1000 / (bytesPerSecond * headroom));
+    }
+
+    /**
+     * Picks the first candidate which is expected to finish before the deadline. If none of them does,
+     * the smallest candidate is returned. Candidates of unknown size are never expected to finish in time,
+     * they are returned only if no size is known at all, as is the first candidate without an estimate for the route.
+     *
+     * @param candidates     formats ordered from best to worst, e.g. the lists of {@code FormatCatalog}
+     * @param route          proxy used for the download, {@code null} for a direct connection
+     * @param deadlineMillis time budget for the download
+     * @return selected format or {@code null} if there are no candidates
+     */
+    public <F extends Format> F select(List<F> candidates, Proxy route, long deadlineMillis) {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        long bytesPerSecond = bytesPerSecond(route);
+        if (bytesPerSecond <= 0) {
+            return candidates.get(0);
+        }
+        long budget = (long) (bytesPerSecond * headroom * deadlineMillis / 1000);
+
+        F smallest = null;
+        long smallestSize = Long.MAX_VALUE;
+        for (F candidate : candidates) {
+            long size = candidate.expectedSize();
+            if (size <= 0) {
+                continue;
+            }
+            if (size <= budget) {
+                return candidate;
+            }
+            if (size < smallestSize) {
+                smallest = candidate;
+                smallestSize = size;
+            }
+        }
+        return smallest != null ? smallest : candidates.get(0);
+    }
+
+    public synchronized void reset() {
+        estimates.clear();
+    }
+
+    private static String routeKey(Proxy route) {
+        if (route == null || route.type() == Proxy.Type.DIRECT || route.address() == null) {
+            return DIRECT;
+        }
+        return route.type() + "@" + route.address();
+    }
+
+    private static class Estimate {
+        double bytesPerSecond;
+        long updatedAt;
+    }
+}
@@ -0,0 +1,235 @@
+package com.github.kiulian.downloader.downloader;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of transfer buffers of a fixed size.
+ * <p>
+ * Direct buffers serve file channels and writer stages, heap buffers serve plain streams so their
+ * bytes reach {@link OutputStream#write(byte[], int, int)} without an extra copy; each kind is kept
+ * apart. Every thread caches a few buffers of its own, the rest are kept in a shared array split into
+ * stripes; a thread starts looking in the stripe picked by its id. Both levels are lock-free. When
+ * the pool is empty a new buffer is allocated (a miss), when it is full a returned buffer is dropped.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int DEFAULT_THREAD_CACHE_SIZE = 2;
+    private static final int STRIPE_SIZE = 8;
+
+    private final int bufferSize;
+    private final Tier direct;
+    private final Tier heap;
+    // copy of direct buffers written to streams without a channel, one per thread
+    private final ThreadLocal<byte[]> scratch;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public BufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_CAPACITY, DEFAULT_THREAD_CACHE_SIZE);
+    }
+
+    /**
+     * @param bufferSize      size of every buffer in bytes
+     * @param capacity        max buffers of each kind kept in the shared part of the pool
+     * @param threadCacheSize max buffers of each kind kept by every thread
+     */
+    public BufferPool(int bufferSize, int capacity, int threadCacheSize) {
+        if (bufferSize <= 0 || capacity < 0 || threadCacheSize < 0) {
+            throw new IllegalArgumentException("Invalid buffer pool size");
+        }
+        this.bufferSize = bufferSize;
+        this.direct = new Tier(capacity, threadCacheSize);
+        this.heap = new Tier(capacity, threadCacheSize);
+        this.scratch = ThreadLocal.withInitial(() -> new byte[bufferSize]);
+    }
+
+    /**
+     * @return cleared direct buffer, has to be given back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire() {
+        return acquire(direct, true);
+    }
+
+    /**
+     * @return cleared heap buffer, has to be given back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquireHeap() {
+        return acquire(heap, false);
+    }
+
+    /**
+     * @return cleared buffer of the kind written to the stream without a copy: direct for file
+     * streams and writer stages, heap otherwise
+     */
+    public ByteBuffer acquireFor(OutputStream os) {
+        return prefersDirect(os) ? acquire() : acquireHeap();
+    }
+
+    static boolean prefersDirect(OutputStream os) {
+        return os instanceof FileOutputStream || os instanceof WriterPipeline.Stage;
+    }
+
+    private ByteBuffer acquire(Tier tier, boolean isDirect) {
+        acquired.increment();
+        ByteBuffer buffer = tier.take();
+        if (buffer != null) {
+            buffer.clear();
+            return buffer;
+        }
+        misses.increment();
+        return isDirect ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isReadOnly()) {
+            return;
+        }
+        released.increment();
+        if (!(buffer.isDirect() ? direct : heap).put(buffer)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer: through the channel of file streams, straight from the
+     * backing array of heap buffers, otherwise through a per thread heap copy.
+     */
+    public void write(ByteBuffer buffer, OutputStream os) throws IOException {
+        if (os instanceof FileOutputStream) {
+            while (buffer.hasRemaining()) {
+                ((FileOutputStream) os).getChannel().write(buffer);
+            }
+            return;
+        }
+        if (buffer.hasArray()) {
+            os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] bytes = scratch.get();
+        while (buffer.hasRemaining()) {
+            int length = Math.min(bytes.length, buffer.remaining());
+            buffer.get(bytes, 0, length);
+            os.write(bytes, 0, length);
+        }
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return buffers acquired and not released yet
+     */
+    public long inUse() {
+        return acquired.sum() - released.sum();
+    }
+
+    public long acquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * @return acquisitions which had to allocate a new buffer
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return released buffers which did not fit into the pool
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return share of acquisitions served from the pool
+     */
+    public double hitRate() {
+        long acquired = this.acquired.sum();
+        return acquired == 0 ? 1 : 1 - (double) misses.sum() / acquired;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{bufferSize=" + bufferSize + ", inUse=" + inUse() + ", acquired=" + acquired()
+                + ", misses=" + misses() + ", dropped=" + dropped() + "}";
+    }
+
+    // Buffers of one kind: a per thread cache in front of the shared striped array
+    private static final class Tier {
+        private final int threadCacheSize;
+        private final AtomicReferenceArray<ByteBuffer> shared;
+        private final int stripes;
+        private final ThreadLocal<ByteBuffer[]> threadCache;
+
+        Tier(int capacity, int threadCacheSize) {
+            this.threadCacheSize = threadCacheSize;
+            this.shared = new AtomicReferenceArray<>(capacity);
+            this.stripes = Math.max(1, capacity / STRIPE_SIZE);
+            this.threadCache = ThreadLocal.withInitial(() -> new ByteBuffer[threadCacheSize]);
+        }
+
+        ByteBuffer take() {
+            ByteBuffer[] cache = threadCache.get();
+            for (int i = 0; i < threadCacheSize; i++) {
+                ByteBuffer buffer = cache[i];
+                if (buffer != null) {
+                    cache[i] = null;
+                    return buffer;
+                }
+            }
+
+            int capacity = shared.length();
+            int start = stripeStart();
+            for (int i = 0; i < capacity; i++) {
+                int slot = (start + i) % capacity;
+                if (shared.get(slot) != null) {
+                    ByteBuffer buffer = shared.getAndSet(slot, null);
+                    if (buffer != null) {
+                        return buffer;
+                    }
+                }
+            }
+            return null;
+        }
+
+        // false when the buffer did not fit
+        boolean put(ByteBuffer buffer) {
+            ByteBuffer[] cache = threadCache.get();
+            for (int i = 0; i < threadCacheSize; i++) {
+                if (cache[i] == null) {
+                    cache[i] = buffer;
+                    return true;
+                }
+            }
+
+            int capacity = shared.length();
+            int start = stripeStart();
+            for (int i = 0; i < capacity; i++) {
+                int slot = (start + i) % capacity;
+                if (shared.get(slot) == null && shared.compareAndSet(slot, null, buffer)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int stripeStart() {
+            int stripe = (int) (Thread.currentThread().getId() % stripes);
+            return stripe * STRIPE_SIZE % Math.max(1, shared.length());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.kiulian.downloader.downloader;
+
+import okhttp3.Call;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cancels the http calls of the webpage requests it is attached to. Interrupting a thread does not
+ * stop a blocking OkHttp call, cancelling the call does. Calls started after {@link #cancel()} are
+ * cancelled right away.
+ */
+public class Cancellation {
+
+    private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void register(Call call) {
+        calls.add(call);
+        if (cancelled) {
+            call.cancel();
+        }
+    }
+
+    void unregister(Call call) {
+        calls.remove(call);
+    }
+}
@@ -1,8 +1,11 @@
 package com.github.kiulian.downloader.downloader;
 
 import com.github.kiulian.downloader.downloader.request.RequestVideoFileDownload;
+import com.github.kiulian.downloader.downloader.request.RequestVideoMemoryDownload;
+import com.github.kiulian.downloader.downloader.request.RequestVideoStorageDownload;
 import com.github.kiulian.downloader.downloader.request.RequestVideoStreamDownload;
 import com.github.kiulian.downloader.downloader.request.RequestWebpage;
+import com.github.kiulian.downloader.downloader.response.DownloadedBytes;
 import com.github.kiulian.downloader.downloader.response.Response;
 
 import java.io.File;
@@ -15,4 +18,8 @@ public interface Downloader {
 
     Response<Void> downloadVideoAsStream(RequestVideoStreamDownload request);
 
+    Response<DownloadedBytes> downloadVideoToMemory(RequestVideoMemoryDownload request);
+
+    Response<String> downloadVideoToStorage(RequestVideoStorageDownload request);
+
 }
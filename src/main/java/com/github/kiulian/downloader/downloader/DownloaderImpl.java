@@ -2,29 +2,49 @@ package com.github.kiulian.downloader.downloader;
 
 import com.github.kiulian.downloader.Config;
 import com.github.kiulian.downloader.YoutubeException;
+import com.github.kiulian.downloader.downloader.dash.SegmentIndex;
 import com.github.kiulian.downloader.downloader.request.*;
+import com.github.kiulian.downloader.downloader.response.DownloadedBytes;
 import com.github.kiulian.downloader.downloader.response.ResponseImpl;
+import com.github.kiulian.downloader.downloader.storage.StorageUpload;
+import com.github.kiulian.downloader.model.videos.formats.ByteRange;
 import com.github.kiulian.downloader.model.videos.formats.Format;
+import com.github.kiulian.downloader.model.videos.formats.StreamUrl;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.*;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.*;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Okio;
 import java.util.concurrent.TimeUnit;
 
 import static com.github.kiulian.downloader.model.Utils.closeSilently;
 
 public class DownloaderImpl implements Downloader {
 
-    private static final int BUFFER_SIZE = 4096;
     private static final int PART_LENGTH = 2 * 1024 * 1024;
+    // stream url parameters which tell the content of one video and itag apart, the client included
+    private static final String[] TRANSFER_KEY_PARAMETERS = {"xtags", "lmt", "c"};
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json; charset=utf-8");
 
     private final Config config;
     private final OkHttpClient httpClient;
+    private final ConcurrentMap<String, SharedTransfer> transfers = new ConcurrentHashMap<>();
+    private final WriterPipeline sinkPipeline = new WriterPipeline();
 
     public DownloaderImpl(Config config) {
         this.config = config;
@@ -84,20 +104,25 @@ public class DownloaderImpl implements Downloader {
         YoutubeCallback<String> callback = request.getCallback();
         int maxRetries = request.getMaxRetries() != null ? request.getMaxRetries() : config.getMaxRetries();
         Proxy requestProxy = request.getProxy();
+        Cancellation cancellation = request.getCancellation();
 
+        // built once and written again by every attempt
+        RequestBody body = "POST".equalsIgnoreCase(request.getMethod()) && request.getBodyBytes() != null
+                ? RequestBody.create(request.getBodyBytes(), JSON_MEDIA_TYPE)
+                : null;
         IOException exception = null;
         String result = null;
         int attempts = maxRetries + 1;
         
         do {
             try {
-                result = downloadWithOkHttp(downloadUrl, headers, requestProxy, config.isCompressionEnabled(), request.getMethod(), request.getBody());
+                result = downloadWithOkHttp(downloadUrl, headers, requestProxy, config.isCompressionEnabled(), body, cancellation);
                 exception = null; // reset on success
             } catch (IOException e) {
                 exception = e;
                 attempts--;
             }
-        } while (exception != null && attempts > 0);
+        } while (exception != null && attempts > 0 && (cancellation == null || !cancellation.isCancelled()));
 
         if (exception != null) {
             if (callback != null) {
@@ -115,7 +140,7 @@ public class DownloaderImpl implements Downloader {
     /**
      * 使用OkHttp下载网页内容
      */
-    private String downloadWithOkHttp(String downloadUrl, Map<String, String> headers, Proxy requestProxy, boolean acceptCompression, String method, String body) throws IOException {
+    private String downloadWithOkHttp(String downloadUrl, Map<String, String> headers, Proxy requestProxy, boolean acceptCompression, RequestBody body, Cancellation cancellation) throws IOException {
         OkHttpClient client = httpClient;
         
         // 如果请求指定了不同的代理，创建新的客户端
@@ -127,9 +152,8 @@ public class DownloaderImpl implements Downloader {
             .url(downloadUrl);
 
         // 设置请求方法和body
-        if ("POST".equalsIgnoreCase(method) && body != null) {
-            RequestBody requestBody = RequestBody.create(body, MediaType.parse("application/json; charset=utf-8"));
-            requestBuilder.post(requestBody);
+        if (body != null) {
+            requestBuilder.post(body);
         } else {
             requestBuilder.get();
         }
@@ -152,7 +176,11 @@ public class DownloaderImpl implements Downloader {
 
         okhttp3.Request okRequest = requestBuilder.build();
         
-        try (okhttp3.Response response = client.newCall(okRequest).execute()) {
+        Call call = client.newCall(okRequest);
+        if (cancellation != null) {
+            cancellation.register(call);
+        }
+        try (okhttp3.Response response = call.execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to download: HTTP " + response.code());
             }
@@ -162,21 +190,52 @@ public class DownloaderImpl implements Downloader {
                 throw new IOException("Failed to download: Response is empty");
             }
 
-            InputStream in = responseBody.byteStream();
+            // okio decodes from its pooled segments, no intermediate line copies
+            BufferedSource source = responseBody.source();
             if (acceptCompression && "gzip".equals(response.header("content-encoding"))) {
-                in = new GZIPInputStream(in);
+                source = Okio.buffer(new GzipSource(source));
             }
-            
-            StringBuilder result = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-                String inputLine;
-                while ((inputLine = br.readLine()) != null) {
-                    result.append(inputLine).append('\n');
+            try {
+                return terminateLines(source.readString(StandardCharsets.UTF_8));
+            } finally {
+                closeSilently(source);
+            }
+        } finally {
+            if (cancellation != null) {
+                cancellation.unregister(call);
+            }
+        }
+    }
+
+    /**
+     * Same text as reading line by line and appending '\n' to every line: "\r\n" and "\r" become "\n"
+     * and the last line is terminated. Text without '\r' and with a final '\n' is returned as it is.
+     */
+    static String terminateLines(String text) {
+        if (text.isEmpty()) {
+            return text;
+        }
+        char last = text.charAt(text.length() - 1);
+        boolean terminated = last == '\n' || last == '\r';
+        if (terminated && text.indexOf('\r') < 0) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length() + 1);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\r') {
+                result.append('\n');
+                if (i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                    i++;
                 }
+            } else {
+                result.append(c);
             }
-            
-            return result.toString();
         }
+        if (!terminated) {
+            result.append('\n');
+        }
+        return result.toString();
     }
 
     /**
@@ -238,13 +297,67 @@ public class DownloaderImpl implements Downloader {
         }
     }
 
+    @Override
+    public ResponseImpl<DownloadedBytes> downloadVideoToMemory(RequestVideoMemoryDownload request) {
+        if (request.isAsync()) {
+            ExecutorService executorService = config.getExecutorService();
+            Future<DownloadedBytes> result = executorService.submit(() -> download(request));
+            return ResponseImpl.fromFuture(result);
+        }
+        try {
+            DownloadedBytes result = download(request);
+            return ResponseImpl.from(result);
+        } catch (IOException e) {
+            return ResponseImpl.error(e);
+        }
+    }
+
+    @Override
+    public ResponseImpl<String> downloadVideoToStorage(RequestVideoStorageDownload request) {
+        if (request.isAsync()) {
+            ExecutorService executorService = config.getExecutorService();
+            Future<String> result = executorService.submit(() -> download(request));
+            return ResponseImpl.fromFuture(result);
+        }
+        try {
+            String result = download(request);
+            return ResponseImpl.from(result);
+        } catch (IOException e) {
+            return ResponseImpl.error(e);
+        }
+    }
+
     private File download(RequestVideoFileDownload request) throws IOException {
         Format format = request.getFormat();
         File outputFile = request.getOutputFile();
         YoutubeCallback<File> callback = request.getCallback();
-        OutputStream os = new FileOutputStream(outputFile);
+        int concurrency = request.getConcurrency() != null ? request.getConcurrency() : config.getDownloadConcurrency();
+        FanOutStream fanOut = null;
 
-        download(request, format, os);
+        try {
+            if (!request.getSinks().isEmpty()) {
+                // parts written at their positions can't be copied to sinks, download in order
+                fanOut = fanOut(new FileOutputStream(outputFile), request.getSinks());
+                if (!request.isClip() && config.isSharedTransfers()) {
+                    downloadShared(request, format, fanOut);
+                } else {
+                    download(request, format, fanOut, request.getClipStartMillis(), request.getClipEndMillis());
+                }
+                fanOut.finish();
+            } else if (!request.isClip() && config.isSharedTransfers()) {
+                downloadShared(request, format, new FileOutputStream(outputFile));
+            } else if (!request.isClip() && concurrency > 1) {
+                downloadParallel(request, format, outputFile, concurrency);
+            } else {
+                OutputStream os = new FileOutputStream(outputFile);
+                download(request, format, os, request.getClipStartMillis(), request.getClipEndMillis());
+            }
+        } catch (IOException | RuntimeException e) {
+            if (fanOut != null) {
+                fanOut.abort(e);
+            }
+            throw e;
+        }
         if (callback != null) {
             callback.onFinished(outputFile);
         }
@@ -255,27 +368,197 @@ public class DownloaderImpl implements Downloader {
         Format format = request.getFormat();
         YoutubeCallback<Void> callback = request.getCallback();
         OutputStream os = request.getOutputStream();
+        int concurrency = request.getConcurrency() != null ? request.getConcurrency() : config.getDownloadConcurrency();
+        FanOutStream fanOut = request.getSinks().isEmpty() ? null : fanOut(os, request.getSinks());
+        if (fanOut != null) {
+            os = fanOut;
+        }
 
-        download(request, format, os);
+        try {
+            if (!request.isClip() && config.isSharedTransfers()) {
+                downloadShared(request, format, os);
+            } else if (!request.isClip() && concurrency > 1) {
+                downloadParallel(request, format, os, concurrency);
+            } else {
+                download(request, format, os, request.getClipStartMillis(), request.getClipEndMillis());
+            }
+            if (fanOut != null) {
+                fanOut.finish();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (fanOut != null) {
+                fanOut.abort(e);
+            }
+            throw e;
+        }
         if (callback != null) {
             callback.onFinished(null);
         }
         return null;
     }
 
-    private void download(com.github.kiulian.downloader.downloader.request.Request<?, ?> request, Format format, OutputStream os) throws IOException {
+    private String download(RequestVideoStorageDownload request) throws IOException {
+        Format format = request.getFormat();
         Map<String, String> headers = request.getHeaders();
-        YoutubeCallback<?> callback = request.getCallback();
+        YoutubeCallback<String> callback = request.getCallback();
         int maxRetries = request.getMaxRetries() != null ? request.getMaxRetries() : config.getMaxRetries();
+        int concurrency = request.getConcurrency() != null ? request.getConcurrency() : config.getDownloadConcurrency();
         Proxy proxy = request.getProxy();
 
+        StorageUpload upload = null;
+        String location;
+        try {
+            long contentLength = contentLength(format, headers, proxy);
+            upload = request.getSink().begin(request.getKey(), contentLength);
+            if (upload.partSize() > Integer.MAX_VALUE) {
+                throw new IOException("Storage part of " + upload.partSize() + " bytes does not fit into memory");
+            }
+            if (contentLength > 0) {
+                uploadParallel(format, contentLength, upload, concurrency, headers, proxy, maxRetries, new Progress(contentLength, callback));
+            } else {
+                uploadStraight(format, upload, headers, proxy);
+            }
+            location = upload.commit();
+        } catch (IOException | RuntimeException e) {
+            if (upload != null) {
+                upload.abort();
+            }
+            if (callback != null) {
+                callback.onError(e);
+            }
+            throw e;
+        }
+        if (callback != null) {
+            callback.onFinished(location);
+        }
+        return location;
+    }
+
+    // Downloads the storage parts concurrently, each one in requests of PART_LENGTH, and writes every part once complete
+    private void uploadParallel(Format format, long contentLength, StorageUpload upload, int concurrency,
+                                Map<String, String> headers, Proxy proxy, int maxRetries, Progress progress) throws IOException {
+        BufferPool pool = config.getBufferPool();
+        long partSize = upload.partSize();
+        long parts = (contentLength + partSize - 1) / partSize;
+        int workers = (int) Math.min(concurrency, parts);
+        AtomicLong nextPart = new AtomicLong();
+        AtomicLong requestNumber = new AtomicLong();
+        PartWorkers partWorkers = new PartWorkers(config.getWorkerExecutorService(), workers);
+
+        IOException exception = null;
+        try {
+            partWorkers.start(() -> {
+                long part;
+                while (!partWorkers.isStopped() && (part = nextPart.getAndIncrement()) < parts) {
+                    long first = part * partSize;
+                    long last = Math.min(first + partSize, contentLength) - 1;
+                    // the upload consumes the part before writePart returns, the chunks go back to the pool
+                    List<ByteBuffer> data = new ArrayList<>();
+                    try {
+                        for (long from = first; from <= last; from += PART_LENGTH) {
+                            long to = Math.min(from + PART_LENGTH, last + 1) - 1;
+                            data.addAll(downloadPart(format, from, to, (int) requestNumber.incrementAndGet(), true, headers, proxy, maxRetries));
+                            progress.add(to - from + 1);
+                        }
+                        upload.writePart((int) part + 1, first, data);
+                    } finally {
+                        releaseChunks(data, pool);
+                    }
+                }
+                return null;
+            });
+            partWorkers.await();
+        } catch (IOException e) {
+            exception = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exception = new InterruptedIOException("Download interrupted");
+        } finally {
+            // the upload is aborted by the caller, no worker may write to it afterwards
+            partWorkers.stop();
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    // Downloads content of unknown length in one single request, cut into storage parts on the fly
+    private void uploadStraight(Format format, StorageUpload upload, Map<String, String> headers, Proxy proxy) throws IOException {
+        okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
+                .url(format.url());
+        addHeaders(requestBuilder, headers);
+
+        BufferPool pool = config.getBufferPool();
+        long partSize = upload.partSize();
+        List<ByteBuffer> data = new ArrayList<>();
+        long start = System.nanoTime();
+        long done = 0;
+        try (okhttp3.Response response = clientFor(proxy).newCall(requestBuilder.build()).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Failed to download: HTTP " + response.code());
+            }
+            BufferedSource source = response.body().source();
+            int partNumber = 0;
+            long length;
+            do {
+                length = 0;
+                ByteBuffer chunk = null;
+                int read = 0;
+                while (length < partSize && read != -1) {
+                    if (chunk == null || !chunk.hasRemaining()) {
+                        chunk = pool.acquire();
+                        data.add(chunk);
+                        chunk.limit((int) Math.min(chunk.capacity(), partSize - length));
+                    }
+                    read = source.read(chunk);
+                    if (Thread.interrupted()) {
+                        throw new CancellationException();
+                    }
+                    if (read > 0) {
+                        length += read;
+                    }
+                }
+                if (length > 0) {
+                    for (ByteBuffer buffer : data) {
+                        buffer.flip();
+                    }
+                    upload.writePart(++partNumber, done, data);
+                    done += length;
+                }
+                releaseChunks(data, pool);
+            } while (length == partSize);
+        } finally {
+            releaseChunks(data, pool);
+        }
+        recordBandwidth(proxy, done, System.nanoTime() - start);
+    }
+
+    // Every sink gets a writer stage of its own, of the configured writer pipeline if any
+    private FanOutStream fanOut(OutputStream os, List<DownloadSink> sinks) {
+        WriterPipeline pipeline = config.getWriterPipeline() != null ? config.getWriterPipeline() : sinkPipeline;
+        return new FanOutStream(os, sinks, pipeline, config.getBufferPool());
+    }
+
+    private DownloadedBytes download(RequestVideoMemoryDownload request) throws IOException {
+        Format format = request.getFormat();
+        Map<String, String> headers = request.getHeaders();
+        YoutubeCallback<DownloadedBytes> callback = request.getCallback();
+        int maxRetries = request.getMaxRetries() != null ? request.getMaxRetries() : config.getMaxRetries();
+        Proxy proxy = request.getProxy();
+
+        DownloadedBytes result = null;
         IOException exception;
         do {
             try {
-                if (format.isAdaptive() && format.contentLength() != null) {
-                    downloadByPart(format, os, headers, proxy, callback);
+                long contentLength = contentLength(format, headers, proxy);
+                if (contentLength > request.getMaxSize()) {
+                    throw new IOException("Content of " + contentLength + " bytes exceeds max size of " + request.getMaxSize());
+                }
+                if (contentLength > 0 && contentLength <= Integer.MAX_VALUE) {
+                    result = DownloadedBytes.of(downloadToBuffer(format, contentLength, headers, proxy, callback));
                 } else {
-                    downloadStraight(format, os, headers, proxy, callback);
+                    result = downloadToChunks(format, request.getMaxSize(), headers, proxy, callback);
                 }
                 // reset error in case of successful retry
                 exception = null;
@@ -284,7 +567,165 @@ public class DownloaderImpl implements Downloader {
             }
         } while (exception != null && maxRetries-- > 0);
 
-        closeSilently(os);
+        if (exception != null) {
+            if (callback != null) {
+                callback.onError(exception);
+            }
+            throw exception;
+        }
+        if (callback != null) {
+            callback.onFinished(result);
+        }
+        return result;
+    }
+
+    // Reads the parts of a format of known length straight into one presized buffer
+    private ByteBuffer downloadToBuffer(Format format, long contentLength, Map<String, String> headers, Proxy proxy, YoutubeCallback<?> listener) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) contentLength);
+        Progress progress = new Progress(contentLength, listener);
+        OkHttpClient client = clientFor(proxy);
+        int partNumber = 0;
+
+        while (buffer.hasRemaining()) {
+            long first = buffer.position();
+            long last = Math.min(first + PART_LENGTH, contentLength) - 1;
+            partNumber++;
+
+            long start = System.nanoTime();
+            try (okhttp3.Response response = executePart(client, format, first, last, partNumber, headers)) {
+                BufferedSource source = response.body().source();
+                buffer.limit((int) (last + 1));
+                int read;
+                while (buffer.hasRemaining() && (read = source.read(buffer)) != -1) {
+                    if (Thread.interrupted()) {
+                        throw new CancellationException();
+                    }
+                    progress.add(read);
+                }
+                if (buffer.position() == first) {
+                    throw new IOException("Empty part " + first + "-" + last);
+                }
+                recordBandwidth(proxy, buffer.position() - first, System.nanoTime() - start);
+            }
+            buffer.limit(buffer.capacity());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Reads a format of unknown length in one single request into a chain of pooled chunks
+    private DownloadedBytes downloadToChunks(Format format, long maxSize, Map<String, String> headers, Proxy proxy, YoutubeCallback<?> listener) throws IOException {
+        BufferPool pool = config.getBufferPool();
+        List<ByteBuffer> chunks = new ArrayList<>();
+        okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
+                .url(format.url());
+        addHeaders(requestBuilder, headers);
+
+        long start = System.nanoTime();
+        long done = 0;
+        try (okhttp3.Response response = clientFor(proxy).newCall(requestBuilder.build()).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Failed to download: HTTP " + response.code());
+            }
+            long total = response.body().contentLength();
+            Progress progress = total > 0 ? new Progress(total, listener) : null;
+            BufferedSource source = response.body().source();
+            ByteBuffer chunk = null;
+            int read;
+            do {
+                if (chunk == null || !chunk.hasRemaining()) {
+                    chunk = pool.acquire();
+                    chunks.add(chunk);
+                }
+                read = source.read(chunk);
+                if (read > 0) {
+                    done += read;
+                    if (done > maxSize) {
+                        throw new IOException("Content exceeds max size of " + maxSize);
+                    }
+                    if (progress != null) {
+                        progress.add(read);
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new CancellationException();
+                }
+            } while (read != -1);
+        } catch (IOException | RuntimeException e) {
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+            throw e;
+        }
+        recordBandwidth(proxy, done, System.nanoTime() - start);
+
+        ByteBuffer tail = chunks.get(chunks.size() - 1);
+        if (tail.position() == 0 && chunks.size() > 1) {
+            chunks.remove(chunks.size() - 1);
+            pool.release(tail);
+        }
+        for (ByteBuffer chunk : chunks) {
+            chunk.flip();
+        }
+        return DownloadedBytes.ofPooled(chunks, pool);
+    }
+
+    private void download(com.github.kiulian.downloader.downloader.request.Request<?, ?> request, Format format, OutputStream os, long clipStartMillis, long clipEndMillis) throws IOException {
+        Map<String, String> headers = request.getHeaders();
+        YoutubeCallback<?> callback = request.getCallback();
+        int maxRetries = request.getMaxRetries() != null ? request.getMaxRetries() : config.getMaxRetries();
+        Proxy proxy = request.getProxy();
+
+        // network reads hand buffers over to a writer thread if the pipeline is enabled
+        WriterPipeline pipeline = config.getWriterPipeline();
+        WriterPipeline.Stage stage = pipeline != null ? pipeline.open(os, config.getBufferPool()) : null;
+        OutputStream sink = stage != null ? stage : os;
+
+        // counts the bytes written so far, a retry resumes from there instead of writing them twice
+        long contentLength = clipStartMillis >= 0 ? -1 : contentLength(format, headers, proxy);
+        Progress progress = new Progress(contentLength, callback);
+        IOException exception = null;
+        try {
+            do {
+                try {
+                    if (clipStartMillis >= 0) {
+                        downloadClip(format, clipStartMillis, clipEndMillis, sink, headers, proxy, progress);
+                    } else if (contentLength > 0) {
+                        downloadByPart(format, progress.done(), contentLength - 1, sink, headers, proxy, progress);
+                    } else {
+                        downloadStraight(format, sink, headers, proxy, progress);
+                    }
+                    // reset error in case of successful retry
+                    exception = null;
+                } catch (IOException e) {
+                    exception = e;
+                    if (clipStartMillis < 0 && contentLength <= 0 && progress.done() > 0) {
+                        // a single request of unknown length can not be resumed
+                        break;
+                    }
+                }
+            } while (exception != null && maxRetries-- > 0);
+
+            if (stage != null) {
+                if (exception == null) {
+                    try {
+                        stage.close();
+                    } catch (IOException e) {
+                        exception = e;
+                    }
+                } else {
+                    // the queued bytes of a failed download are not worth writing
+                    stage.abort();
+                }
+                stage = null;
+            }
+        } finally {
+            // still set only if the download threw before the stage was completed
+            if (stage != null) {
+                stage.abort();
+            }
+            closeSilently(os);
+        }
 
         if (exception != null) {
             if (callback != null) {
@@ -294,34 +735,444 @@ public class DownloaderImpl implements Downloader {
         }
     }
 
-    // Downloads the format in one single request
-    private void downloadStraight(Format format, OutputStream os, Map<String, String> headers, Proxy proxy, YoutubeCallback<?> callback) throws IOException {
-        OkHttpClient client = httpClient;
-        
-        // 如果请求指定了不同的代理，创建新的客户端
-        if (proxy != null && !proxy.equals(config.getProxy())) {
-            client = createHttpClientWithProxy(proxy);
+    /**
+     * @return length from the format, the "clen" url parameter or a one byte range probe, -1 if unknown
+     */
+    private long contentLength(Format format, Map<String, String> headers, Proxy proxy) {
+        if (format.contentLength() != null) {
+            return format.contentLength();
+        }
+        long clen = format.streamUrl().contentLength();
+        if (clen > 0) {
+            return clen;
         }
 
-        okhttp3.Request request = new okhttp3.Request.Builder()
-            .url(format.url())
-            .build();
+        okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
+                .url(format.url())
+                .header("Range", "bytes=0-0");
+        addHeaders(requestBuilder, headers);
+        try (okhttp3.Response response = clientFor(proxy).newCall(requestBuilder.build()).execute()) {
+            String contentRange = response.header("Content-Range");
+            if (response.code() == 206 && contentRange != null) {
+                // bytes 0-0/12345
+                int slash = contentRange.lastIndexOf('/');
+                if (slash > 0 && slash + 1 < contentRange.length() && contentRange.charAt(slash + 1) != '*') {
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+                }
+            } else if (response.isSuccessful() && response.body() != null) {
+                // range ignored, the length of the whole body is the length of the format
+                return response.body().contentLength();
+            }
+        } catch (IOException | NumberFormatException e) {
+            // fall back to a single request
+        }
+        return -1;
+    }
 
-        // 添加配置的headers
-        okhttp3.Request.Builder requestBuilder = request.newBuilder();
-        for (Map.Entry<String, String> entry : config.getHeaders().entrySet()) {
-            requestBuilder.header(entry.getKey(), entry.getValue());
+    // Follows the in-flight transfer of the same format or starts a new one
+    private void downloadShared(com.github.kiulian.downloader.downloader.request.Request<?, ?> request, Format format, OutputStream os) throws IOException {
+        Map<String, String> headers = request.getHeaders();
+        YoutubeCallback<?> callback = request.getCallback();
+        int maxRetries = request.getMaxRetries() != null ? request.getMaxRetries() : config.getMaxRetries();
+        Proxy proxy = request.getProxy();
+        String key = transferKey(format, headers, proxy);
+
+        IOException exception = null;
+        try {
+            SharedTransfer transfer = null;
+            while (transfer == null) {
+                SharedTransfer existing = transfers.get(key);
+                if (existing == null) {
+                    long contentLength = contentLength(format, headers, proxy);
+                    SharedTransfer.Source source = (sink, offset) -> {
+                        if (contentLength > 0) {
+                            downloadByPart(format, offset, contentLength - 1, sink, headers, proxy, new Progress(contentLength, null));
+                        } else {
+                            downloadStraight(format, sink, headers, proxy, new Progress(-1, null));
+                        }
+                    };
+                    synchronized (transfers) {
+                        existing = transfers.get(key);
+                        if (existing == null) {
+                            // created attached, the upstream waits for this block before it unregisters
+                            transfer = SharedTransfer.start(config.getSpillDirectory(), contentLength, source,
+                                    config.getWorkerExecutorService(), maxRetries, () -> {
+                                        synchronized (transfers) {
+                                            transfers.remove(key);
+                                        }
+                                    });
+                            transfers.put(key, transfer);
+                            continue;
+                        }
+                    }
+                }
+                if (existing.attach()) {
+                    transfer = existing;
+                } else {
+                    // released between lookup and attach
+                    transfers.remove(key, existing);
+                }
+            }
+            transfer.follow(os, callback, config.getBufferPool());
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            closeSilently(os);
         }
-        
-        // 添加请求特定的headers
-        if (headers != null) {
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                requestBuilder.header(entry.getKey(), entry.getValue());
+
+        if (exception != null) {
+            if (callback != null) {
+                callback.onError(exception);
             }
+            throw exception;
         }
+    }
 
-        request = requestBuilder.build();
-        
+    // the upstream is fetched with the headers and proxy of the first request, only identical ones may share it
+    private static String transferKey(Format format, Map<String, String> headers, Proxy proxy) {
+        StreamUrl streamUrl = format.streamUrl();
+        StringBuilder key = new StringBuilder();
+        String id = streamUrl.parameter("id");
+        String itag = streamUrl.parameter("itag");
+        if (id != null && itag != null) {
+            // xtags tell audio tracks of other languages apart, lmt changes with the content
+            key.append(id).append('/').append(itag);
+            for (String name : TRANSFER_KEY_PARAMETERS) {
+                String value = streamUrl.parameter(name);
+                if (value != null) {
+                    key.append('&').append(name).append('=').append(value);
+                }
+            }
+        } else {
+            key.append(streamUrl.base()).append('/').append(format.itagId());
+        }
+        key.append('|').append(format.clientVersion());
+        key.append('|').append(proxy != null ? proxy : Proxy.NO_PROXY);
+        if (headers != null && !headers.isEmpty()) {
+            key.append('|').append(new TreeMap<>(headers));
+        }
+        return key.toString();
+    }
+
+    // Downloads parts concurrently straight to their offsets in the file
+    private void downloadParallel(RequestVideoFileDownload request, Format format, File outputFile, int concurrency) throws IOException {
+        Map<String, String> headers = request.getHeaders();
+        YoutubeCallback<File> callback = request.getCallback();
+        int maxRetries = request.getMaxRetries() != null ? request.getMaxRetries() : config.getMaxRetries();
+        Proxy proxy = request.getProxy();
+
+        long contentLength = contentLength(format, headers, proxy);
+        if (contentLength <= PART_LENGTH) {
+            download(request, format, new FileOutputStream(outputFile), -1, -1);
+            return;
+        }
+
+        long parts = (contentLength + PART_LENGTH - 1) / PART_LENGTH;
+        AtomicLong nextPart = new AtomicLong();
+        Progress progress = new Progress(contentLength, callback);
+
+        IOException exception = null;
+        try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+            file.setLength(contentLength);
+            FileChannel channel = file.getChannel();
+            PartWorkers workers = new PartWorkers(config.getWorkerExecutorService(), (int) Math.min(concurrency, parts));
+            try {
+                workers.start(() -> {
+                    long part;
+                    while (!workers.isStopped() && (part = nextPart.getAndIncrement()) < parts) {
+                        long first = part * PART_LENGTH;
+                        long last = Math.min(first + PART_LENGTH, contentLength) - 1;
+                        downloadPartToChannel(format, first, last, (int) part + 1, channel, headers, proxy, maxRetries, progress);
+                    }
+                    return null;
+                });
+                workers.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exception = new InterruptedIOException("Download interrupted");
+            } finally {
+                // no worker may write to the channel once the file is closed
+                workers.stop();
+            }
+        } catch (IOException e) {
+            exception = e;
+        }
+
+        if (exception != null) {
+            if (callback != null) {
+                callback.onError(exception);
+            }
+            throw exception;
+        }
+    }
+
+    // Downloads parts concurrently into a bounded reorder buffer and writes them to the stream in order
+    private void downloadParallel(RequestVideoStreamDownload request, Format format, OutputStream os, int concurrency) throws IOException {
+        Map<String, String> headers = request.getHeaders();
+        YoutubeCallback<Void> callback = request.getCallback();
+        int maxRetries = request.getMaxRetries() != null ? request.getMaxRetries() : config.getMaxRetries();
+        Proxy proxy = request.getProxy();
+
+        long contentLength = contentLength(format, headers, proxy);
+        if (contentLength <= PART_LENGTH) {
+            download(request, format, os, -1, -1);
+            return;
+        }
+
+        long parts = (contentLength + PART_LENGTH - 1) / PART_LENGTH;
+        // every part being fetched or waiting for its turn holds a permit
+        int window = (int) Math.max(1, Math.min(parts, config.getStreamBufferSize() / PART_LENGTH));
+        int workers = Math.min(concurrency, window);
+        Semaphore permits = new Semaphore(window);
+        AtomicLong nextPart = new AtomicLong();
+        BufferPool pool = config.getBufferPool();
+        boolean direct = BufferPool.prefersDirect(os);
+        Map<Long, List<ByteBuffer>> ready = new HashMap<>();
+        Object lock = new Object();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        PartWorkers partWorkers = new PartWorkers(config.getWorkerExecutorService(), workers);
+
+        IOException exception = null;
+        try {
+            partWorkers.start(() -> {
+                try {
+                    while (true) {
+                        permits.acquire();
+                        long part = nextPart.getAndIncrement();
+                        if (part >= parts || failure.get() != null) {
+                            permits.release();
+                            return null;
+                        }
+                        long first = part * PART_LENGTH;
+                        long last = Math.min(first + PART_LENGTH, contentLength) - 1;
+                        List<ByteBuffer> data = downloadPart(format, first, last, (int) part + 1, direct, headers, proxy, maxRetries);
+                        synchronized (lock) {
+                            ready.put(part, data);
+                            lock.notifyAll();
+                        }
+                    }
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                } catch (InterruptedException | CancellationException e) {
+                    failure.compareAndSet(null, new InterruptedIOException("Download interrupted"));
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, new IOException(e));
+                }
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+                return null;
+            });
+
+            long done = 0;
+            int lastProgress = 0;
+            for (long part = 0; part < parts; part++) {
+                List<ByteBuffer> data;
+                synchronized (lock) {
+                    while ((data = ready.remove(part)) == null && failure.get() == null) {
+                        lock.wait();
+                    }
+                }
+                if (data == null) {
+                    throw failure.get();
+                }
+                done += writeChunks(data, os, pool);
+                permits.release();
+                int progress = (int) (done * 100 / contentLength);
+                if (progress > lastProgress && callback instanceof YoutubeProgressCallback) {
+                    ((YoutubeProgressCallback<?>) callback).onDownloading(progress);
+                }
+                lastProgress = progress;
+            }
+        } catch (IOException e) {
+            exception = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exception = new InterruptedIOException("Download interrupted");
+        } finally {
+            failure.compareAndSet(null, new InterruptedIOException("Download stopped"));
+            partWorkers.stop();
+            for (List<ByteBuffer> data : ready.values()) {
+                releaseChunks(data, pool);
+            }
+            closeSilently(os);
+        }
+
+        if (exception != null) {
+            if (callback != null) {
+                callback.onError(exception);
+            }
+            throw exception;
+        }
+    }
+
+    // Reads bytes first..last of the format into pooled chunks, direct or heap ones
+    private List<ByteBuffer> downloadPart(Format format, long first, long last, int partNumber, boolean direct,
+                                          Map<String, String> headers, Proxy proxy, int maxRetries) throws IOException {
+        OkHttpClient client = clientFor(proxy);
+        BufferPool pool = config.getBufferPool();
+        int attempts = maxRetries + 1;
+        while (true) {
+            List<ByteBuffer> chunks = new ArrayList<>();
+            long position = first;
+            try {
+                long start = System.nanoTime();
+                try (okhttp3.Response response = executePart(client, format, first, last, partNumber, headers)) {
+                    BufferedSource source = response.body().source();
+                    ByteBuffer chunk = null;
+                    while (position <= last) {
+                        if (chunk == null || !chunk.hasRemaining()) {
+                            chunk = direct ? pool.acquire() : pool.acquireHeap();
+                            chunks.add(chunk);
+                            chunk.limit((int) Math.min(chunk.capacity(), last - position + 1));
+                        }
+                        int read = source.read(chunk);
+                        if (read == -1) {
+                            break;
+                        }
+                        if (Thread.interrupted()) {
+                            throw new CancellationException();
+                        }
+                        position += read;
+                    }
+                }
+                if (position <= last) {
+                    throw new IOException("Part " + first + "-" + last + " ended at " + position);
+                }
+                recordBandwidth(proxy, last - first + 1, System.nanoTime() - start);
+                for (ByteBuffer chunk : chunks) {
+                    chunk.flip();
+                }
+                return chunks;
+            } catch (IOException e) {
+                releaseChunks(chunks, pool);
+                if (--attempts <= 0) {
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                releaseChunks(chunks, pool);
+                throw e;
+            }
+        }
+    }
+
+    // Writes the flipped chunks and gives them back to the pool, a writer stage takes them over
+    private static long writeChunks(List<ByteBuffer> chunks, OutputStream os, BufferPool pool) throws IOException {
+        long written = 0;
+        try {
+            while (!chunks.isEmpty()) {
+                ByteBuffer chunk = chunks.get(0);
+                int length = chunk.remaining();
+                if (os instanceof WriterPipeline.Stage) {
+                    ((WriterPipeline.Stage) os).submit(chunk);
+                    chunks.remove(0);
+                } else {
+                    pool.write(chunk, os);
+                    pool.release(chunks.remove(0));
+                }
+                written += length;
+            }
+        } finally {
+            releaseChunks(chunks, pool);
+        }
+        return written;
+    }
+
+    private static void releaseChunks(List<ByteBuffer> chunks, BufferPool pool) {
+        for (ByteBuffer chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+    }
+
+    // Reads bytes first..last of the format into data starting at offset
+    private void downloadPart(Format format, long first, long last, int partNumber, byte[] data, int offset,
+                              Map<String, String> headers, Proxy proxy, int maxRetries) throws IOException {
+        OkHttpClient client = clientFor(proxy);
+        int end = offset + (int) (last - first + 1);
+        int attempts = maxRetries + 1;
+        while (true) {
+            int position = offset;
+            try {
+                long start = System.nanoTime();
+                try (okhttp3.Response response = executePart(client, format, first, last, partNumber, headers)) {
+                    InputStream is = response.body().byteStream();
+                    int read;
+                    while (position < end && (read = is.read(data, position, end - position)) != -1) {
+                        if (Thread.interrupted()) {
+                            throw new CancellationException();
+                        }
+                        position += read;
+                    }
+                }
+                if (position < end) {
+                    throw new IOException("Part " + first + "-" + last + " ended at " + (first + position - offset));
+                }
+                recordBandwidth(proxy, end - offset, System.nanoTime() - start);
+                return;
+            } catch (IOException e) {
+                if (--attempts <= 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void downloadPartToChannel(Format format, long first, long last, int partNumber, FileChannel channel,
+                                       Map<String, String> headers, Proxy proxy, int maxRetries, Progress progress) throws IOException {
+        OkHttpClient client = clientFor(proxy);
+        BufferPool pool = config.getBufferPool();
+        int attempts = maxRetries + 1;
+        while (true) {
+            long position = first;
+            ByteBuffer buffer = pool.acquire();
+            try {
+                long start = System.nanoTime();
+                try (okhttp3.Response response = executePart(client, format, first, last, partNumber, headers)) {
+                    BufferedSource source = response.body().source();
+                    while (position <= last) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), last - position + 1));
+                        int read = source.read(buffer);
+                        if (read == -1) {
+                            break;
+                        }
+                        if (Thread.interrupted()) {
+                            throw new CancellationException();
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            position += channel.write(buffer, position);
+                        }
+                        progress.add(read);
+                    }
+                }
+                if (position <= last) {
+                    throw new IOException("Part " + first + "-" + last + " ended at " + position);
+                }
+                recordBandwidth(proxy, last - first + 1, System.nanoTime() - start);
+                return;
+            } catch (IOException e) {
+                progress.add(first - position);
+                if (--attempts <= 0) {
+                    throw e;
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    // Downloads the format in one single request
+    private void downloadStraight(Format format, OutputStream os, Map<String, String> headers, Proxy proxy, Progress progress) throws IOException {
+        OkHttpClient client = clientFor(proxy);
+
+        okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
+            .url(format.url());
+        addHeaders(requestBuilder, headers);
+        okhttp3.Request request = requestBuilder.build();
+
+        long start = System.nanoTime();
         try (okhttp3.Response response = client.newCall(request).execute()) {
             if (!response.isSuccessful()) {
                 throw new RuntimeException("Failed to download: HTTP " + response.code());
@@ -332,124 +1183,196 @@ public class DownloaderImpl implements Downloader {
                 throw new RuntimeException("Response body is null");
             }
             
-            int contentLength = (int) responseBody.contentLength();
-            InputStream is = responseBody.byteStream();
+            progress.expect(responseBody.contentLength());
+            long done = copyAndClose(responseBody.source(), os, progress);
+            recordBandwidth(proxy, done, System.nanoTime() - start);
+        }
+    }
 
-            byte[] buffer = new byte[BUFFER_SIZE];
-            if (callback == null) {
-                copyAndCloseInput(is, os, buffer);
-            } else {
-                copyAndCloseInput(is, os, buffer, 0, contentLength, callback);
-            }
+    // Downloads the init segment and only the segments of the index which cover the clip, skips what progress counted already
+    private void downloadClip(Format format, long startMillis, long endMillis, OutputStream os, Map<String, String> headers, Proxy proxy, Progress progress) throws IOException {
+        ByteRange initRange = format.initRange();
+        ByteRange indexRange = format.indexRange();
+        if (initRange == null || indexRange == null) {
+            throw new IOException("Clip download requires an adaptive format with a segment index, itag " + format.itag());
         }
+
+        byte[] init;
+        byte[] index;
+        if (indexRange.start() == initRange.end() + 1) {
+            // usually adjacent, one request for both
+            byte[] head = downloadRange(format, initRange.start(), indexRange.end(), headers, proxy);
+            int initLength = (int) initRange.length();
+            init = Arrays.copyOfRange(head, 0, initLength);
+            index = Arrays.copyOfRange(head, initLength, head.length);
+        } else {
+            init = downloadRange(format, initRange.start(), initRange.end(), headers, proxy);
+            index = downloadRange(format, indexRange.start(), indexRange.end(), headers, proxy);
+        }
+
+        SegmentIndex segments = SegmentIndex.parse(format, init, index);
+        ByteRange media = segments.rangeOf(startMillis, endMillis);
+        if (media == null) {
+            throw new IOException("Clip " + startMillis + "-" + endMillis + " ms is out of the stream");
+        }
+
+        progress.expect(init.length + media.length());
+        long written = progress.done();
+        if (written < init.length) {
+            os.write(init, (int) written, init.length - (int) written);
+            progress.add(init.length - written);
+            written = init.length;
+        }
+        downloadByPart(format, media.start() + written - init.length, media.end(), os, headers, proxy, progress);
     }
 
-    // Downloads the format part by part, with as many requests as needed
-    private void downloadByPart(Format format, OutputStream os, Map<String, String> headers, Proxy proxy, YoutubeCallback<?> listener) throws IOException {
-        long done = 0;
+    // Reads the range straight into an array of its size, in requests of PART_LENGTH
+    private byte[] downloadRange(Format format, long first, long last, Map<String, String> headers, Proxy proxy) throws IOException {
+        byte[] data = new byte[(int) (last - first + 1)];
         int partNumber = 0;
+        for (long from = first; from <= last; from += PART_LENGTH) {
+            long to = Math.min(from + PART_LENGTH, last + 1) - 1;
+            downloadPart(format, from, to, ++partNumber, data, (int) (from - first), headers, proxy, config.getMaxRetries());
+        }
+        return data;
+    }
 
-        final String pathPrefix = "&cver=" + format.clientVersion() + "&range=";
-        final long contentLength = format.contentLength();
-        byte[] buffer = new byte[BUFFER_SIZE];
+    // Downloads bytes first..last (inclusive) of the format part by part, with as many requests as needed
+    private void downloadByPart(Format format, long first, long last, OutputStream os, Map<String, String> headers, Proxy proxy, Progress progress) throws IOException {
+        long done = first;
+        int partNumber = 0;
 
-        OkHttpClient client = httpClient;
-        
-        // 如果请求指定了不同的代理，创建新的客户端
-        if (proxy != null && !proxy.equals(config.getProxy())) {
-            client = createHttpClientWithProxy(proxy);
-        }
+        final long contentLength = last + 1;
 
-        while (done < contentLength) {
-            long toRead = PART_LENGTH;
-            if (done + toRead > contentLength) {
-                toRead = (int) (contentLength - done);
-            }
+        OkHttpClient client = clientFor(proxy);
 
+        while (done < contentLength) {
+            long toRead = Math.min(PART_LENGTH, contentLength - done);
             partNumber++;
-            String partUrl = format.url() + pathPrefix
-                    + done + "-" + (done + toRead - 1)    // range first-last byte positions
-                    + "&rn=" + partNumber;                // part number
 
-            okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
-                .url(partUrl);
-
-            // 添加配置的headers
-            for (Map.Entry<String, String> entry : config.getHeaders().entrySet()) {
-                requestBuilder.header(entry.getKey(), entry.getValue());
-            }
-            
-            // 添加请求特定的headers
-            if (headers != null) {
-                for (Map.Entry<String, String> entry : headers.entrySet()) {
-                    requestBuilder.header(entry.getKey(), entry.getValue());
+            long start = System.nanoTime();
+            try (okhttp3.Response response = executePart(client, format, done, done + toRead - 1, partNumber, headers)) {
+                long read = copyAndClose(response.body().source(), os, progress);
+                if (read == 0) {
+                    throw new IOException("Empty part " + done + "-" + (done + toRead - 1));
                 }
+                done += read;
+                recordBandwidth(proxy, read, System.nanoTime() - start);
             }
+        }
+    }
 
-            okhttp3.Request request = requestBuilder.build();
-            
-            try (okhttp3.Response response = client.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    throw new RuntimeException("Failed to download: HTTP " + response.code());
-                }
+    private okhttp3.Response executePart(OkHttpClient client, Format format, long first, long last, int partNumber, Map<String, String> headers) throws IOException {
+        String partUrl = format.streamUrl().rangeUrl(format.clientVersion(), first, last, partNumber);
 
-                ResponseBody responseBody = response.body();
-                if (responseBody == null) {
-                    throw new RuntimeException("Response body is null");
-                }
-                
-                InputStream is = responseBody.byteStream();
-                if (listener == null) {
-                    done += copyAndCloseInput(is, os, buffer);
-                } else {
-                    done += copyAndCloseInput(is, os, buffer, done, contentLength, listener);
-                }
+        okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
+            .url(partUrl);
+        addHeaders(requestBuilder, headers);
+
+        okhttp3.Response response = client.newCall(requestBuilder.build()).execute();
+        if (!response.isSuccessful() || response.body() == null) {
+            response.close();
+            throw new IOException("Failed to download part " + first + "-" + last + ": HTTP " + response.code());
+        }
+        return response;
+    }
+
+    private void addHeaders(okhttp3.Request.Builder requestBuilder, Map<String, String> headers) {
+        // 添加配置的headers
+        for (Map.Entry<String, String> entry : config.getHeaders().entrySet()) {
+            requestBuilder.header(entry.getKey(), entry.getValue());
+        }
+        // 添加请求特定的headers
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                requestBuilder.header(entry.getKey(), entry.getValue());
             }
         }
     }
 
-    // Copies as many bytes as possible then closes input stream
-    private static long copyAndCloseInput(InputStream is, OutputStream os, byte[] buffer, long offset, long totalLength, final YoutubeCallback<?> listener) throws IOException {
-        long done = 0;
+    private OkHttpClient clientFor(Proxy proxy) {
+        // 如果请求指定了不同的代理，创建新的客户端
+        if (proxy != null && !proxy.equals(config.getProxy())) {
+            return createHttpClientWithProxy(proxy);
+        }
+        return httpClient;
+    }
 
-        try {
-            int read = 0;
-            long lastProgress = offset == 0 ? 0 : (offset * 100) / totalLength;
+    // Progress of concurrent parts, reported in whole percents
+    private static class Progress {
+        private volatile long total;
+        private final YoutubeCallback<?> listener;
+        private final AtomicLong done = new AtomicLong();
+        private int lastProgress;
 
-            while ((read = is.read(buffer)) != -1) {
-                if (Thread.interrupted()) {
-                    throw new CancellationException();
-                }
-                os.write(buffer, 0, read);
-                done += read;
-                long progress = ((offset + done) * 100) / totalLength;
+        /**
+         * @param total bytes expected, unknown if not positive
+         */
+        Progress(long total, YoutubeCallback<?> listener) {
+            this.total = total;
+            this.listener = listener instanceof YoutubeProgressCallback ? listener : null;
+        }
+
+        // sets the total once it is known
+        void expect(long total) {
+            if (this.total <= 0) {
+                this.total = total;
+            }
+        }
+
+        long done() {
+            return done.get();
+        }
+
+        void add(long bytes) {
+            long current = done.addAndGet(bytes);
+            long total = this.total;
+            if (listener == null || bytes <= 0 || total <= 0) {
+                return;
+            }
+            int progress = (int) (current * 100 / total);
+            synchronized (this) {
                 if (progress > lastProgress) {
-                    if (listener instanceof YoutubeProgressCallback) {
-                        ((YoutubeProgressCallback<?>) listener).onDownloading((int) progress);
-                    }
                     lastProgress = progress;
+                    ((YoutubeProgressCallback<?>) listener).onDownloading(progress);
                 }
             }
-        } finally {
-            closeSilently(is);
         }
-        return done;
     }
 
-    private static long copyAndCloseInput(InputStream is, OutputStream os, byte[] buffer) throws IOException {
-        long done = 0;
+    private void recordBandwidth(Proxy proxy, long bytes, long elapsedNanos) {
+        BandwidthMeter meter = config.getBandwidthMeter();
+        if (meter != null) {
+            meter.record(proxy != null ? proxy : config.getProxy(), bytes, elapsedNanos);
+        }
+    }
 
+    // Copies as many bytes as possible through a pooled buffer then closes the source, every written buffer counts in progress
+    private long copyAndClose(BufferedSource source, OutputStream os, Progress progress) throws IOException {
+        BufferPool pool = config.getBufferPool();
+        ByteBuffer buffer = pool.acquireFor(os);
+        long done = 0;
         try {
-            int count = 0;
-            while ((count = is.read(buffer)) != -1) {
+            int read;
+            while ((read = source.read(buffer)) != -1) {
                 if (Thread.interrupted()) {
                     throw new CancellationException();
                 }
-                os.write(buffer, 0, count);
-                done += count;
+                buffer.flip();
+                if (os instanceof WriterPipeline.Stage) {
+                    // the stage owns the buffer from now on
+                    ((WriterPipeline.Stage) os).submit(buffer);
+                    buffer = pool.acquireFor(os);
+                } else {
+                    pool.write(buffer, os);
+                    buffer.clear();
+                }
+                done += read;
+                progress.add(read);
             }
         } finally {
-            closeSilently(is);
+            pool.release(buffer);
+            closeSilently(source);
         }
         return done;
     }
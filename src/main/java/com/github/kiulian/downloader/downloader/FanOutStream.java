@@ -0,0 +1,103 @@
+package com.github.kiulian.downloader.downloader;
+
+import com.github.kiulian.downloader.downloader.request.DownloadSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.github.kiulian.downloader.model.Utils.closeSilently;
+
+/**
+ * Writes to the main output synchronously and copies every write to the additional sinks, each
+ * through a writer stage of its own. A failure of the main output fails the write, a failure of
+ * a sink only detaches it. {@link #close()} closes the main output, sinks are completed with
+ * {@link #finish()} or {@link #abort(Throwable)} once the download is over.
+ */
+final class FanOutStream extends OutputStream {
+
+    private final OutputStream os;
+    private final List<Branch> branches;
+
+    FanOutStream(OutputStream os, List<DownloadSink> sinks, WriterPipeline pipeline, BufferPool pool) {
+        this.os = os;
+        this.branches = new ArrayList<>(sinks.size());
+        for (DownloadSink sink : sinks) {
+            branches.add(new Branch(sink, pipeline.open(sink.getOutputStream(), pool)));
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        os.write(b, off, len);
+        Iterator<Branch> iterator = branches.iterator();
+        while (iterator.hasNext()) {
+            Branch branch = iterator.next();
+            try {
+                branch.stage.write(b, off, len);
+            } catch (IOException e) {
+                iterator.remove();
+                branch.fail(e);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        os.close();
+    }
+
+    // Waits for every sink to write the queued bytes
+    synchronized void finish() {
+        for (Branch branch : branches) {
+            try {
+                branch.stage.close();
+            } catch (IOException e) {
+                branch.fail(e);
+                continue;
+            }
+            closeSilently(branch.sink.getOutputStream());
+            if (branch.sink.getCallback() != null) {
+                branch.sink.getCallback().onFinished(branch.sink.getOutputStream());
+            }
+        }
+        branches.clear();
+    }
+
+    synchronized void abort(Throwable cause) {
+        for (Branch branch : branches) {
+            branch.fail(cause);
+        }
+        branches.clear();
+    }
+
+    private static class Branch {
+        private final DownloadSink sink;
+        private final WriterPipeline.Stage stage;
+
+        Branch(DownloadSink sink, WriterPipeline.Stage stage) {
+            this.sink = sink;
+            this.stage = stage;
+        }
+
+        void fail(Throwable cause) {
+            stage.abort();
+            closeSilently(sink.getOutputStream());
+            if (sink.getCallback() != null) {
+                sink.getCallback().onError(cause);
+            }
+        }
+    }
+}
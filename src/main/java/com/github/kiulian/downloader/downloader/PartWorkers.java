@@ -0,0 +1,134 @@
+package com.github.kiulian.downloader.downloader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Workers of a single download. The first failure stops the others, {@link #stop()} interrupts the
+ * running workers and returns only once every worker has returned, so the file or the upload they
+ * write to can be closed afterwards.
+ */
+final class PartWorkers {
+
+    private final ExecutorService executorService;
+    private final int count;
+    private final CountDownLatch finished;
+    private final Set<Thread> running = new HashSet<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean stopped;
+
+    /**
+     * @param executorService pool which never queues the workers behind the task waiting for them
+     * @param count           amount of workers
+     */
+    PartWorkers(ExecutorService executorService, int count) {
+        this.executorService = executorService;
+        this.count = count;
+        this.finished = new CountDownLatch(count);
+    }
+
+    /**
+     * Runs the task by every worker, the task should return once {@link #isStopped()}.
+     */
+    void start(Callable<?> task) {
+        for (int i = 0; i < count; i++) {
+            try {
+                executorService.submit(() -> run(task));
+            } catch (RejectedExecutionException e) {
+                failure.compareAndSet(null, e);
+                stop(false);
+                finished.countDown();
+            }
+        }
+    }
+
+    private void run(Callable<?> task) {
+        Thread thread = Thread.currentThread();
+        synchronized (running) {
+            running.add(thread);
+        }
+        try {
+            if (!stopped) {
+                task.call();
+            }
+        } catch (Throwable e) {
+            if (failure.compareAndSet(null, e)) {
+                stop(false);
+            }
+        } finally {
+            synchronized (running) {
+                running.remove(thread);
+                // an interrupt meant for this download must not hit the next task of the pool thread
+                Thread.interrupted();
+            }
+            finished.countDown();
+        }
+    }
+
+    /**
+     * @return {@code true} once a worker failed or the workers were stopped
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Waits until every worker has returned.
+     *
+     * @throws IOException failure of the first failed worker
+     */
+    void await() throws IOException, InterruptedException {
+        finished.await();
+        Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw new InterruptedIOException("Download interrupted");
+        }
+        if (cause != null) {
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Interrupts the running workers and waits until every worker has returned.
+     */
+    void stop() {
+        stop(true);
+    }
+
+    private void stop(boolean join) {
+        stopped = true;
+        synchronized (running) {
+            Thread current = Thread.currentThread();
+            for (Thread thread : running) {
+                if (thread != current) {
+                    thread.interrupt();
+                }
+            }
+        }
+        if (!join) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
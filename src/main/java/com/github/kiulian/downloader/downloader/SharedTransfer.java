@@ -0,0 +1,218 @@
+package com.github.kiulian.downloader.downloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+
+import static com.github.kiulian.downloader.model.Utils.closeSilently;
+
+/**
+ * Single upstream transfer of a format shared by concurrent requesters.
+ * <p>
+ * Upstream bytes are appended to a spill file once; every follower replays the file from the
+ * beginning and then tails it until the transfer is finished. After a failure the upstream is
+ * resumed from the last received byte. The spill file is deleted when the transfer is finished
+ * and the last follower is done.
+ */
+final class SharedTransfer {
+
+    interface Source {
+        /**
+         * Writes the bytes of the format starting at offset to the stream.
+         */
+        void copyTo(OutputStream os, long offset) throws IOException;
+    }
+
+    private final File spill;
+    private final long length;
+    private long written;
+    private boolean finished;
+    private IOException error;
+    private int followers;
+    private boolean released;
+
+    private SharedTransfer(File spill, long length) {
+        this.spill = spill;
+        this.length = length;
+        // the creator, so the spill file is kept even if the upstream finishes before it follows
+        this.followers = 1;
+    }
+
+    /**
+     * Starts the upstream transfer on the executor. The creator is attached already and must
+     * {@link #follow} the transfer without calling {@link #attach()}.
+     *
+     * @param executorService executor which never queues the upstream behind its followers
+     * @param length          length of the format, -1 if unknown (the transfer can not be resumed then)
+     * @param maxRetries      amount of resumes after upstream failures
+     * @param onFinished      called once the upstream is finished or failed, before followers are notified
+     */
+    static SharedTransfer start(File directory, long length, Source source, ExecutorService executorService,
+                                int maxRetries, Runnable onFinished) throws IOException {
+        File spill = File.createTempFile("yt-transfer-", ".part", directory);
+        SharedTransfer transfer = new SharedTransfer(spill, length);
+        executorService.submit(() -> transfer.run(source, maxRetries, onFinished));
+        return transfer;
+    }
+
+    private void run(Source source, int maxRetries, Runnable onFinished) {
+        IOException exception = null;
+        try (OutputStream os = new SpillOutputStream(new FileOutputStream(spill))) {
+            int attempts = maxRetries + 1;
+            while (true) {
+                long offset = written();
+                try {
+                    source.copyTo(os, offset);
+                    exception = null;
+                    break;
+                } catch (IOException e) {
+                    exception = e;
+                    // only ranged sources can resume
+                    if (--attempts <= 0 || length <= 0) {
+                        break;
+                    }
+                }
+            }
+            if (exception == null && length > 0 && written() != length) {
+                exception = new IOException("Transfer ended at " + written() + " of " + length + " bytes");
+            }
+        } catch (IOException e) {
+            exception = e;
+        } catch (RuntimeException e) {
+            exception = new IOException(e);
+        }
+
+        onFinished.run();
+        synchronized (this) {
+            finished = true;
+            error = exception;
+            notifyAll();
+            if (followers == 0) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * @return false if the transfer has already been released and can not be followed anymore
+     */
+    synchronized boolean attach() {
+        if (released) {
+            return false;
+        }
+        followers++;
+        return true;
+    }
+
+    long length() {
+        return length;
+    }
+
+    private synchronized long written() {
+        return written;
+    }
+
+    /**
+     * Copies the whole transfer to the stream, blocks until the upstream is finished. Must be preceded
+     * by a successful {@link #attach()} unless called by the creator.
+     */
+    void follow(OutputStream os, YoutubeCallback<?> listener, BufferPool pool) throws IOException {
+        ByteBuffer buffer = pool.acquireFor(os);
+        try (RandomAccessFile in = new RandomAccessFile(spill, "r")) {
+            FileChannel channel = in.getChannel();
+            long position = 0;
+            int lastProgress = 0;
+            while (true) {
+                long available;
+                synchronized (this) {
+                    while (written == position && !finished) {
+                        wait();
+                    }
+                    available = written;
+                    if (available == position) {
+                        if (error != null) {
+                            throw error;
+                        }
+                        return;
+                    }
+                }
+
+                while (position < available) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), available - position));
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("Spill file truncated at " + position);
+                    }
+                    buffer.flip();
+                    pool.write(buffer, os);
+                    position += read;
+                }
+                if (length > 0 && listener instanceof YoutubeProgressCallback) {
+                    int progress = (int) (position * 100 / length);
+                    if (progress > lastProgress) {
+                        ((YoutubeProgressCallback<?>) listener).onDownloading(progress);
+                        lastProgress = progress;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        } finally {
+            pool.release(buffer);
+            detach();
+        }
+    }
+
+    private synchronized void detach() {
+        followers--;
+        if (followers == 0 && finished) {
+            release();
+        }
+    }
+
+    private void release() {
+        released = true;
+        if (!spill.delete()) {
+            spill.deleteOnExit();
+        }
+    }
+
+    private class SpillOutputStream extends OutputStream {
+        private final OutputStream os;
+
+        SpillOutputStream(OutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (Thread.interrupted()) {
+                throw new CancellationException();
+            }
+            os.write(b, off, len);
+            synchronized (SharedTransfer.this) {
+                written += len;
+                SharedTransfer.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            closeSilently(os);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.github.kiulian.downloader.downloader;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples network reads from output writes.
+ * <p>
+ * Every download gets a stage: the network thread hands filled pooled buffers over to a bounded
+ * lock-free ring and goes on reading, a dedicated writer thread drains the ring and writes several
+ * buffers at once (a gathering write for file streams, one coalesced copy otherwise). The network
+ * thread only waits when the ring is full, such stalls are counted along with the queue depth.
+ */
+public class WriterPipeline {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final int DEFAULT_COALESCE_BYTES = 1024 * 1024;
+    private static final long PARK_NANOS = 1_000_000;
+
+    private static final ThreadFactory threadFactory = new ThreadFactory() {
+        private static final String NAME_PREFIX = "yt-downloader-writer-";
+        private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, NAME_PREFIX + this.threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final int queueCapacity;
+    private final int coalesceBytes;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final LongAccumulator maxQueued = new LongAccumulator(Math::max, 0);
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder buffersWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public WriterPipeline() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_COALESCE_BYTES);
+    }
+
+    /**
+     * @param queueCapacity max buffers queued per download, rounded up to a power of two
+     * @param coalesceBytes max bytes written at once
+     */
+    public WriterPipeline(int queueCapacity, int coalesceBytes) {
+        if (queueCapacity <= 0 || coalesceBytes <= 0) {
+            throw new IllegalArgumentException("Invalid writer pipeline size");
+        }
+        this.queueCapacity = queueCapacity == 1 ? 1 : Integer.highestOneBit(queueCapacity - 1) << 1;
+        this.coalesceBytes = coalesceBytes;
+    }
+
+    Stage open(OutputStream os, BufferPool pool) {
+        Stage stage = new Stage(os, pool);
+        stage.writer.start();
+        return stage;
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return buffers currently queued by all downloads
+     */
+    public long queueDepth() {
+        return queued.get();
+    }
+
+    public long maxQueueDepth() {
+        return maxQueued.get();
+    }
+
+    /**
+     * @return times a network thread waited for a full queue
+     */
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    public long stallMillis() {
+        return stallNanos.sum() / 1_000_000;
+    }
+
+    public long writes() {
+        return writes.sum();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * @return average buffers per write
+     */
+    public double coalescing() {
+        long writes = this.writes.sum();
+        return writes == 0 ? 0 : (double) buffersWritten.sum() / writes;
+    }
+
+    @Override
+    public String toString() {
+        return "WriterPipeline{queueDepth=" + queueDepth() + ", maxQueueDepth=" + maxQueueDepth() + ", stalls=" + stalls()
+                + ", stallMillis=" + stallMillis() + ", writes=" + writes() + ", bytesWritten=" + bytesWritten() + "}";
+    }
+
+    /**
+     * Single producer single consumer ring of one download. Submitted buffers are owned by the stage
+     * and given back to the pool once written. {@link #flush()} does not wait, {@link #close()} waits
+     * for the queued buffers and rethrows a write failure, the underlying stream is left open.
+     */
+    final class Stage extends OutputStream implements Runnable {
+
+        private final OutputStream os;
+        private final FileChannel channel;
+        private final BufferPool pool;
+        private final AtomicReferenceArray<ByteBuffer> slots = new AtomicReferenceArray<>(queueCapacity);
+        private final int mask = queueCapacity - 1;
+        // next slot to write, next slot to fill
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Thread writer;
+        // coalesced copy for streams without a channel, used by the writer only
+        private byte[] scratch;
+
+        private volatile Thread producer;
+        private volatile boolean producerParked;
+        private volatile boolean writerParked;
+        private volatile boolean closed;
+        private volatile IOException failure;
+
+        private Stage(OutputStream os, BufferPool pool) {
+            this.os = os;
+            this.channel = os instanceof FileOutputStream ? ((FileOutputStream) os).getChannel() : null;
+            this.pool = pool;
+            this.writer = threadFactory.newThread(this);
+        }
+
+        /**
+         * @param buffer flipped buffer, owned by the stage unless an exception is thrown
+         */
+        void submit(ByteBuffer buffer) throws IOException {
+            checkFailure();
+            long t = tail.get();
+            if (t - head.get() >= queueCapacity) {
+                long start = System.nanoTime();
+                producer = Thread.currentThread();
+                while (t - head.get() >= queueCapacity) {
+                    producerParked = true;
+                    if (t - head.get() >= queueCapacity) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    producerParked = false;
+                    if (Thread.interrupted()) {
+                        throw new CancellationException();
+                    }
+                    checkFailure();
+                }
+                stalls.increment();
+                stallNanos.add(System.nanoTime() - start);
+            }
+            slots.set((int) t & mask, buffer);
+            tail.set(t + 1);
+            maxQueued.accumulate(queued.incrementAndGet());
+            if (writerParked) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                ByteBuffer buffer = pool.acquire();
+                int length = Math.min(buffer.remaining(), len);
+                buffer.put(b, off, length);
+                buffer.flip();
+                try {
+                    submit(buffer);
+                } catch (IOException | RuntimeException e) {
+                    pool.release(buffer);
+                    throw e;
+                }
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            checkFailure();
+        }
+
+        // Stops the writer dropping the queued buffers, no effect once closed
+        void abort() {
+            if (failure == null && !closed) {
+                failure = new IOException("Download aborted");
+            }
+            finish();
+        }
+
+        private void finish() {
+            closed = true;
+            LockSupport.unpark(writer);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            IOException failure = this.failure;
+            if (failure != null) {
+                throw new IOException("Failed to write: " + failure.getMessage(), failure);
+            }
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer[] batch = new ByteBuffer[queueCapacity];
+            try {
+                while (true) {
+                    long h = head.get();
+                    long t = tail.get();
+                    if (h == t) {
+                        if (closed && h == tail.get()) {
+                            break;
+                        }
+                        writerParked = true;
+                        if (head.get() == tail.get() && !closed) {
+                            LockSupport.parkNanos(this, PARK_NANOS);
+                        }
+                        writerParked = false;
+                        continue;
+                    }
+
+                    int count = 0;
+                    long bytes = 0;
+                    while (h + count < t) {
+                        ByteBuffer buffer = slots.get((int) (h + count) & mask);
+                        if (count > 0 && bytes + buffer.remaining() > coalesceBytes) {
+                            break;
+                        }
+                        batch[count++] = buffer;
+                        bytes += buffer.remaining();
+                    }
+                    if (failure == null) {
+                        try {
+                            write(batch, count);
+                            writes.increment();
+                            buffersWritten.add(count);
+                            bytesWritten.add(bytes);
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    for (int i = 0; i < count; i++) {
+                        slots.set((int) (h + i) & mask, null);
+                        pool.release(batch[i]);
+                        batch[i] = null;
+                    }
+                    head.set(h + count);
+                    queued.addAndGet(-count);
+                    if (producerParked) {
+                        LockSupport.unpark(producer);
+                    }
+                }
+                if (failure == null) {
+                    os.flush();
+                }
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void write(ByteBuffer[] batch, int count) throws IOException {
+            if (channel != null) {
+                long remaining = 0;
+                for (int i = 0; i < count; i++) {
+                    remaining += batch[i].remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(batch, 0, count);
+                }
+                return;
+            }
+            if (scratch == null) {
+                scratch = new byte[coalesceBytes];
+            }
+            byte[] bytes = scratch;
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = batch[i];
+                while (buffer.hasRemaining()) {
+                    if (length == bytes.length) {
+                        os.write(bytes, 0, length);
+                        length = 0;
+                    }
+                    int chunk = Math.min(bytes.length - length, buffer.remaining());
+                    buffer.get(bytes, length, chunk);
+                    length += chunk;
+                }
+            }
+            os.write(bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.kiulian.downloader.downloader.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Live health of clients built from real player api outcomes.
+ * <p>
+ * Every client tracks exponentially weighted success rate, latency and usable format yield
+ * (formats with a url / formats in the response). Observations decay towards the optimistic
+ * prior of a healthy client with the configured half-life, so a client which failed a while
+ * ago gets another chance. Clients are ranked by score, ties are resolved by the static
+ * priority of {@link Clients#defaultClients()}.
+ */
+public class ClientScoreboard {
+
+    private static final double DEFAULT_ALPHA = 0.5;
+    private static final long DEFAULT_HALF_LIFE_MILLIS = 60_000;
+    // latency does not matter below this value and is penalized by at most MAX_LATENCY_PENALTY
+    private static final double LATENCY_SCALE_MILLIS = 10_000;
+    private static final double MAX_LATENCY_PENALTY = 0.2;
+
+    private final double alpha;
+    private final long halfLifeMillis;
+    private final Map<ClientType, Score> scores = new HashMap<>();
+
+    public ClientScoreboard() {
+        this(DEFAULT_ALPHA, DEFAULT_HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * @param alpha          weight of a new observation, 0 &lt; alpha &lt;= 1
+     * @param halfLifeMillis time after which half of the observed deviation from a healthy client is forgotten
+     */
+    public ClientScoreboard(double alpha, long halfLifeMillis) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        this.alpha = alpha;
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    /**
+     * @param client        client used for the request
+     * @param success       whether the response was playable
+     * @param latencyMillis duration of the request
+     * @param formats       amount of formats in the response
+     * @param usableFormats amount of formats which could be used for download
+     */
+    public synchronized void record(ClientType client, boolean success, long latencyMillis, int formats, int usableFormats) {
+        long now = System.currentTimeMillis();
+        Score score = scores.get(client);
+        if (score == null) {
+            score = new Score();
+            scores.put(client, score);
+        }
+        score.decay(now, halfLifeMillis);
+        score.success += alpha * ((success ? 1 : 0) - score.success);
+        score.latencyMillis = score.observations == 0 ? latencyMillis : score.latencyMillis + alpha * (latencyMillis - score.latencyMillis);
+        if (formats > 0) {
+            score.yield += alpha * ((double) usableFormats / formats - score.yield);
+        } else if (!success) {
+            score.yield += alpha * (0 - score.yield);
+        }
+        score.observations++;
+    }
+
+    /**
+     * @return score in [0, 1], 1 - healthy fast client
+     */
+    public synchronized double score(ClientType client) {
+        Score score = scores.get(client);
+        if (score == null) {
+            return 1 - MAX_LATENCY_PENALTY;
+        }
+        score.decay(System.currentTimeMillis(), halfLifeMillis);
+        return score.value();
+    }
+
+    /**
+     * @return client types of {@link Clients#defaultClients()} ordered from best to worst
+     */
+    public List<ClientType> ranked() {
+        List<ClientType> types = new ArrayList<>(Clients.defaultClients().size());
+        for (Client client : Clients.defaultClients()) {
+            types.add(client.getType());
+        }
+        Map<ClientType, Double> values = new HashMap<>();
+        for (ClientType type : types) {
+            values.put(type, score(type));
+        }
+        // stable sort keeps the priority order for equal scores
+        types.sort((o1, o2) -> Double.compare(values.get(o2), values.get(o1)));
+        return types;
+    }
+
+    public ClientType best() {
+        ClientType best = null;
+        double bestScore = -1;
+        for (Client client : Clients.defaultClients()) {
+            double score = score(client.getType());
+            if (score > bestScore) {
+                best = client.getType();
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    public synchronized void reset() {
+        scores.clear();
+    }
+
+    private static class Score {
+        double success = 1;
+        double yield = 1;
+        double latencyMillis;
+        int observations;
+        long updatedAt = System.currentTimeMillis();
+
+        void decay(long now, long halfLifeMillis) {
+            if (now <= updatedAt || halfLifeMillis <= 0) {
+                return;
+            }
+            double keep = Math.pow(0.5, (double) (now - updatedAt) / halfLifeMillis);
+            success = 1 - (1 - success) * keep;
+            yield = 1 - (1 - yield) * keep;
+            updatedAt = now;
+        }
+
+        double value() {
+            double latencyPenalty = observations == 0
+                    ? MAX_LATENCY_PENALTY
+                    : Math.min(MAX_LATENCY_PENALTY, MAX_LATENCY_PENALTY * latencyMillis / LATENCY_SCALE_MILLIS);
+            return Math.max(0, success * yield - latencyPenalty);
+        }
+    }
+}
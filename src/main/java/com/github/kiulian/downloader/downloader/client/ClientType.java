@@ -3,6 +3,9 @@ package com.github.kiulian.downloader.downloader.client;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 public class ClientType {
     public static final ClientType WEB = new ClientType("WEB", "2.20220918", baseJson());
     public static final ClientType MWEB = new ClientType("MWEB", "2.20220918", baseJson());
@@ -66,9 +69,18 @@ public class ClientType {
     public static final ClientType MEDIA_CONNECT_FRONTEND = new ClientType("MEDIA_CONNECT_FRONTEND", "0.1", baseJson());
 
 
+    private static final byte[] VISITOR_DATA_KEY = ascii("\"visitorData\":\"");
+    private static final byte[] VIDEO_ID_KEY = ascii(",\"videoId\":\"");
+    private static final byte[] CONTINUATION_KEY = ascii(",\"continuation\":\"");
+    private static final byte[] CLICK_TRACKING_KEY = ascii(",\"clickTracking\":{\"clickTrackingParams\":\"");
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+
     private final String body;
     private final String version;
     private final String name;
+    // body split at the start of the context.client object and before the closing brace
+    private byte[] bodyHead;
+    private byte[] bodyMiddle;
 
     public ClientType(String name, String version, JSONObject body, QueryParameter... parameters) {
         this.name = name;
@@ -80,6 +92,7 @@ public class ClientType {
             processQueryParameter(body, param);
         }
         this.body = body.toJSONString();
+        compileTemplate();
     }
 
     private void processQueryParameter(JSONObject body, QueryParameter param) {
@@ -106,7 +119,15 @@ public class ClientType {
         client.fluentPut("clientName", name);
         client.fluentPut("clientVersion", version);
         this.body = body.toJSONString();
+        compileTemplate();
+    }
 
+    private void compileTemplate() {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        byte[] clientStart = ascii("\"client\":{");
+        int split = indexOf(bytes, clientStart) + clientStart.length;
+        this.bodyHead = Arrays.copyOfRange(bytes, 0, split);
+        this.bodyMiddle = Arrays.copyOfRange(bytes, split, bytes.length - 1);
     }
 
     public String getVersion() {
@@ -125,6 +146,60 @@ public class ClientType {
         return JSON.parseObject(body);
     }
 
+    /**
+     * @return utf-8 request body for the player endpoint
+     */
+    public byte[] createBody(String videoId) {
+        return createBody(videoId, null, null, null);
+    }
+
+    /**
+     * @return utf-8 request body for browse/search continuation endpoints
+     */
+    public byte[] createContinuationBody(String continuation, String clickTrackingParams) {
+        return createBody(null, continuation, clickTrackingParams, null);
+    }
+
+    /**
+     * Writes the request body from the precompiled template, {@code null} values are omitted.
+     *
+     * @param videoId             top level "videoId"
+     * @param continuation        top level "continuation"
+     * @param clickTrackingParams "clickTracking.clickTrackingParams", only written together with continuation
+     * @param visitorData         "context.client.visitorData"
+     * @return utf-8 json
+     */
+    public byte[] createBody(String videoId, String continuation, String clickTrackingParams, String visitorData) {
+        BodyWriter writer = new BodyWriter(bodyHead.length + bodyMiddle.length + 128
+                + length(videoId) + length(continuation) + length(clickTrackingParams) + length(visitorData));
+        writer.write(bodyHead);
+        if (visitorData != null) {
+            writer.write(VISITOR_DATA_KEY);
+            writer.writeEscaped(visitorData);
+            writer.write((byte) '"');
+            writer.write((byte) ',');
+        }
+        writer.write(bodyMiddle);
+        if (videoId != null) {
+            writer.write(VIDEO_ID_KEY);
+            writer.writeEscaped(videoId);
+            writer.write((byte) '"');
+        }
+        if (continuation != null) {
+            writer.write(CONTINUATION_KEY);
+            writer.writeEscaped(continuation);
+            writer.write((byte) '"');
+            if (clickTrackingParams != null) {
+                writer.write(CLICK_TRACKING_KEY);
+                writer.writeEscaped(clickTrackingParams);
+                writer.write((byte) '"');
+                writer.write((byte) '}');
+            }
+        }
+        writer.write((byte) '}');
+        return writer.toByteArray();
+    }
+
     public static JSONObject baseJson() {
         /*
         {
@@ -141,6 +216,101 @@ public class ClientType {
         return new JSONObject().fluentPut("context", context);
     }
 
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target) {
+        outer:
+        for (int i = 0; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalStateException("Client object not found in body template");
+    }
+
+    private static class BodyWriter {
+        private byte[] buffer;
+        private int size;
+
+        BodyWriter(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void write(byte b) {
+            ensureCapacity(1);
+            buffer[size++] = b;
+        }
+
+        void write(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Writes the content of a json string literal as utf-8, escaped the way fastjson escapes it.
+         */
+        void writeEscaped(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    write((byte) '\\');
+                    write((byte) c);
+                } else if (c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') {
+                    write((byte) '\\');
+                    write((byte) (c == '\n' ? 'n' : c == '\r' ? 'r' : c == '\t' ? 't' : c == '\b' ? 'b' : 'f'));
+                } else if (c < 0x20) {
+                    ensureCapacity(6);
+                    buffer[size++] = '\\';
+                    buffer[size++] = 'u';
+                    buffer[size++] = '0';
+                    buffer[size++] = '0';
+                    buffer[size++] = HEX[c >> 4];
+                    buffer[size++] = HEX[c & 0xF];
+                } else if (c < 0x80) {
+                    write((byte) c);
+                } else if (c < 0x800) {
+                    ensureCapacity(2);
+                    buffer[size++] = (byte) (0xC0 | (c >> 6));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    ensureCapacity(4);
+                    buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    write((byte) '?');
+                } else {
+                    ensureCapacity(3);
+                    buffer[size++] = (byte) (0xE0 | (c >> 12));
+                    buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+        }
+    }
+
     public static QueryParameter queryParam(String path, String key, String value) {
         return new QueryParameter(path, key, value);
     }
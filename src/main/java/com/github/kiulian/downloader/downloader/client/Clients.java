@@ -6,6 +6,7 @@ public class Clients {
 
     private static final SortedSet<Client> defaultClients;
     private static Client HIGHEST_PRIORITY_CLIENT;
+    private static volatile boolean highestPriorityClientPinned;
     private static final int MANUALLY_DETERMINED_PRIORITY = Integer.MAX_VALUE;
 
     static {
@@ -109,8 +110,23 @@ public class Clients {
         return HIGHEST_PRIORITY_CLIENT.getType();
     }
 
+    /**
+     * @return the client set by {@link #setHighestPriorityClientType(ClientType)}, otherwise the
+     * currently best client according to the scoreboard
+     */
+    public static ClientType highestPriorityClientType(ClientScoreboard scoreboard) {
+        if (highestPriorityClientPinned) {
+            return HIGHEST_PRIORITY_CLIENT.getType();
+        }
+        return scoreboard.best();
+    }
+
+    /**
+     * Pins the client used by default requests, disables dynamic ordering.
+     */
     public static void setHighestPriorityClientType(ClientType clientType) {
         HIGHEST_PRIORITY_CLIENT = new Client(clientType);
+        highestPriorityClientPinned = true;
     }
 
 }
@@ -0,0 +1,190 @@
+package com.github.kiulian.downloader.downloader.dash;
+
+import java.io.IOException;
+
+/**
+ * Parses the WebM (Matroska) Cues element. Cluster positions are relative to the data of the
+ * Segment element, its offset and the timecode scale are read from the initialization segment.
+ */
+final class CuesParser {
+
+    private static final int SEGMENT = 0x18538067;
+    private static final int INFO = 0x1549A966;
+    private static final int TIMECODE_SCALE = 0x2AD7B1;
+    private static final int CUES = 0x1C53BB6B;
+    private static final int CUE_POINT = 0xBB;
+    private static final int CUE_TIME = 0xB3;
+    private static final int CUE_TRACK_POSITIONS = 0xB7;
+    private static final int CUE_CLUSTER_POSITION = 0xF1;
+
+    private static final long DEFAULT_TIMECODE_SCALE = 1_000_000;
+
+    private CuesParser() {
+    }
+
+    /**
+     * @param init          bytes of the initialization segment
+     * @param initOffset    absolute offset of the initialization segment
+     * @param cues          bytes of the index range
+     * @param durationMillis duration of the stream
+     * @param contentLength length of the stream
+     */
+    static SegmentIndex parse(byte[] init, long initOffset, byte[] cues, long durationMillis, long contentLength) throws IOException {
+        try {
+            long segmentDataOffset = -1;
+            long timecodeScale = DEFAULT_TIMECODE_SCALE;
+
+            int pos = 0;
+            while (pos < init.length) {
+                Element element = Element.read(init, pos);
+                if (element.id == SEGMENT) {
+                    segmentDataOffset = initOffset + element.dataStart;
+                    // children of the segment, the init segment ends before the first cluster
+                    pos = element.dataStart;
+                    try {
+                        while (pos < init.length) {
+                            Element child = Element.read(init, pos);
+                            if (child.id == INFO) {
+                                timecodeScale = findTimecodeScale(init, child);
+                            }
+                            if (child.unknownSize) {
+                                break;
+                            }
+                            pos = child.end();
+                        }
+                    } catch (ArrayIndexOutOfBoundsException ignored) {
+                        // init range cut inside an element header, nothing of interest follows
+                    }
+                    break;
+                }
+                if (element.unknownSize) {
+                    break;
+                }
+                pos = element.end();
+            }
+            if (segmentDataOffset < 0) {
+                throw new IOException("Segment element not found in init range");
+            }
+
+            Element cuesElement = Element.read(cues, 0);
+            if (cuesElement.id != CUES) {
+                throw new IOException("Cues element not found in index range");
+            }
+            int end = Math.min(cues.length, cuesElement.end());
+            int count = 0;
+            for (pos = cuesElement.dataStart; pos < end; ) {
+                Element element = Element.read(cues, pos);
+                if (element.id == CUE_POINT) {
+                    count++;
+                }
+                pos = element.end();
+            }
+            if (count == 0) {
+                throw new IOException("Empty cues");
+            }
+
+            long[] startMillis = new long[count];
+            long[] offsets = new long[count];
+            int i = 0;
+            for (pos = cuesElement.dataStart; pos < end; ) {
+                Element point = Element.read(cues, pos);
+                if (point.id == CUE_POINT) {
+                    long time = 0;
+                    long position = -1;
+                    for (int p = point.dataStart; p < point.end(); ) {
+                        Element child = Element.read(cues, p);
+                        if (child.id == CUE_TIME) {
+                            time = child.readUnsigned(cues);
+                        } else if (child.id == CUE_TRACK_POSITIONS && position < 0) {
+                            for (int q = child.dataStart; q < child.end(); ) {
+                                Element track = Element.read(cues, q);
+                                if (track.id == CUE_CLUSTER_POSITION) {
+                                    position = track.readUnsigned(cues);
+                                }
+                                q = track.end();
+                            }
+                        }
+                        p = child.end();
+                    }
+                    if (position < 0) {
+                        throw new IOException("Cue point without cluster position");
+                    }
+                    startMillis[i] = time * timecodeScale / 1_000_000;
+                    offsets[i] = segmentDataOffset + position;
+                    i++;
+                }
+                pos = point.end();
+            }
+            return new SegmentIndex(startMillis, offsets, durationMillis, contentLength - 1);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated webm element", e);
+        }
+    }
+
+    private static long findTimecodeScale(byte[] data, Element info) {
+        int end = Math.min(data.length, info.end());
+        for (int pos = info.dataStart; pos < end; ) {
+            Element element = Element.read(data, pos);
+            if (element.id == TIMECODE_SCALE) {
+                return element.readUnsigned(data);
+            }
+            pos = element.end();
+        }
+        return DEFAULT_TIMECODE_SCALE;
+    }
+
+    private static final class Element {
+        final int id;
+        final int dataStart;
+        final long size;
+        final boolean unknownSize;
+
+        private Element(int id, int dataStart, long size, boolean unknownSize) {
+            this.id = id;
+            this.dataStart = dataStart;
+            this.size = size;
+            this.unknownSize = unknownSize;
+        }
+
+        // ids keep their length marker, sizes do not
+        static Element read(byte[] data, int pos) {
+            int first = data[pos] & 0xff;
+            int idLength = Integer.numberOfLeadingZeros(first) - 23;
+            if (idLength < 1 || idLength > 4) {
+                throw new ArrayIndexOutOfBoundsException("Invalid element id at " + pos);
+            }
+            int id = 0;
+            for (int i = 0; i < idLength; i++) {
+                id = (id << 8) | (data[pos + i] & 0xff);
+            }
+            pos += idLength;
+
+            first = data[pos] & 0xff;
+            int sizeLength = Integer.numberOfLeadingZeros(first) - 23;
+            if (sizeLength < 1 || sizeLength > 8) {
+                throw new ArrayIndexOutOfBoundsException("Invalid element size at " + pos);
+            }
+            long size = first & (0xff >> sizeLength);
+            boolean allOnes = size == (0xff >> sizeLength);
+            for (int i = 1; i < sizeLength; i++) {
+                int b = data[pos + i] & 0xff;
+                allOnes &= b == 0xff;
+                size = (size << 8) | b;
+            }
+            return new Element(id, pos + sizeLength, size, allOnes);
+        }
+
+        int end() {
+            long end = dataStart + size;
+            return unknownSize || end > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) end;
+        }
+
+        long readUnsigned(byte[] data) {
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = (value << 8) | (data[dataStart + i] & 0xff);
+            }
+            return value;
+        }
+    }
+}
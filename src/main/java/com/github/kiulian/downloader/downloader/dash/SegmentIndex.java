@@ -0,0 +1,118 @@
+package com.github.kiulian.downloader.downloader.dash;
+
+import com.github.kiulian.downloader.model.Extension;
+import com.github.kiulian.downloader.model.videos.formats.ByteRange;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+
+import java.io.IOException;
+
+/**
+ * Segments of an adaptive format as described by its index: MP4 {@code sidx} box or WebM {@code Cues}.
+ * Segments are contiguous and start with a key frame, so any time range maps to a single byte range
+ * which can be appended to the initialization segment.
+ */
+public class SegmentIndex {
+
+    private final long[] startMillis;
+    private final long[] offsets;
+    private final long endMillis;
+    private final long endOffset;
+
+    /**
+     * @param startMillis start time of every segment, ascending
+     * @param offsets     absolute byte offset of every segment, ascending
+     * @param endMillis   end time of the last segment
+     * @param endOffset   last byte (inclusive) of the last segment
+     */
+    SegmentIndex(long[] startMillis, long[] offsets, long endMillis, long endOffset) {
+        if (startMillis.length == 0 || startMillis.length != offsets.length) {
+            throw new IllegalArgumentException("Empty or inconsistent segment index");
+        }
+        this.startMillis = startMillis;
+        this.offsets = offsets;
+        this.endMillis = endMillis;
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * @param format adaptive mp4 or webm format with init and index ranges
+     * @param init   bytes of the initialization segment
+     * @param index  bytes of the index range
+     * @throws IOException if the index is malformed or the container is not supported
+     */
+    public static SegmentIndex parse(Format format, byte[] init, byte[] index) throws IOException {
+        ByteRange initRange = format.initRange();
+        ByteRange indexRange = format.indexRange();
+        if (initRange == null || indexRange == null) {
+            throw new IOException("Format " + format.itag() + " has no segment index");
+        }
+        Extension extension = format.extension();
+        if (extension == Extension.MPEG4 || extension == Extension.M4A) {
+            return SidxParser.parse(index, indexRange.start());
+        }
+        if (extension == Extension.WEBM || extension == Extension.WEBA) {
+            if (format.contentLength() == null) {
+                throw new IOException("Content length is required to index webm format " + format.itag());
+            }
+            long duration = format.duration() != null ? format.duration() : Long.MAX_VALUE;
+            return CuesParser.parse(init, initRange.start(), index, duration, format.contentLength());
+        }
+        throw new IOException("Unsupported container for segment index: " + format.mimeType());
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public long startMillis(int segment) {
+        return startMillis[segment];
+    }
+
+    public long endMillis(int segment) {
+        return segment + 1 < startMillis.length ? startMillis[segment + 1] : endMillis;
+    }
+
+    public ByteRange range(int segment) {
+        long end = segment + 1 < offsets.length ? offsets[segment + 1] - 1 : endOffset;
+        return new ByteRange(offsets[segment], end);
+    }
+
+    /**
+     * @return first segment which ends after the time, -1 if the time is past the end
+     */
+    public int segmentAt(long millis) {
+        int low = 0;
+        int high = startMillis.length - 1;
+        if (millis >= endMillis(high)) {
+            return -1;
+        }
+        // last segment starting at or before millis
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (startMillis[middle] <= millis) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return bytes of the segments overlapping [startMillis, endMillis) or {@code null} if none does
+     */
+    public ByteRange rangeOf(long startMillis, long endMillis) {
+        if (endMillis <= startMillis) {
+            return null;
+        }
+        int first = segmentAt(Math.max(0, startMillis));
+        if (first < 0) {
+            return null;
+        }
+        int last = segmentAt(endMillis - 1);
+        if (last < 0) {
+            last = offsets.length - 1;
+        }
+        return new ByteRange(offsets[first], range(last).end());
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.kiulian.downloader.downloader.dash;
+
+import java.io.IOException;
+
+/**
+ * Parses the MP4 segment index box (ISO/IEC 14496-12 8.16.3).
+ */
+final class SidxParser {
+
+    private static final int SIDX = 0x73696478;
+
+    private SidxParser() {
+    }
+
+    /**
+     * @param data       bytes of the index range
+     * @param dataOffset absolute offset of the first byte of data in the stream
+     */
+    static SegmentIndex parse(byte[] data, long dataOffset) throws IOException {
+        int pos = 0;
+        while (pos + 8 <= data.length) {
+            long size = readUnsigned(data, pos, 4);
+            int type = (int) readUnsigned(data, pos + 4, 4);
+            int header = 8;
+            if (size == 1) {
+                size = readUnsigned(data, pos + 8, 8);
+                header = 16;
+            } else if (size == 0) {
+                size = data.length - pos;
+            }
+            if (size < header || pos + size > data.length) {
+                break;
+            }
+            if (type == SIDX) {
+                return parseBox(data, pos + header, dataOffset + pos + size);
+            }
+            pos += (int) size;
+        }
+        throw new IOException("sidx box not found in index range");
+    }
+
+    // anchor is the absolute offset of the first byte after the sidx box
+    private static SegmentIndex parseBox(byte[] data, int pos, long anchor) throws IOException {
+        try {
+            int version = data[pos] & 0xff;
+            pos += 4; // version, flags
+            pos += 4; // reference id
+            long timescale = readUnsigned(data, pos, 4);
+            pos += 4;
+            long time;
+            long offset;
+            if (version == 0) {
+                time = readUnsigned(data, pos, 4);
+                offset = readUnsigned(data, pos + 4, 4);
+                pos += 8;
+            } else {
+                time = readUnsigned(data, pos, 8);
+                offset = readUnsigned(data, pos + 8, 8);
+                pos += 16;
+            }
+            pos += 2; // reserved
+            int count = (int) readUnsigned(data, pos, 2);
+            pos += 2;
+            if (timescale == 0 || count == 0) {
+                throw new IOException("Empty sidx box");
+            }
+
+            long[] startMillis = new long[count];
+            long[] offsets = new long[count];
+            offset += anchor;
+            for (int i = 0; i < count; i++, pos += 12) {
+                long reference = readUnsigned(data, pos, 4);
+                if ((reference & 0x80000000L) != 0) {
+                    throw new IOException("Hierarchical sidx is not supported");
+                }
+                startMillis[i] = time * 1000 / timescale;
+                offsets[i] = offset;
+                offset += reference & 0x7fffffffL;
+                time += readUnsigned(data, pos + 4, 4);
+            }
+            return new SegmentIndex(startMillis, offsets, time * 1000 / timescale, offset - 1);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated sidx box", e);
+        }
+    }
+
+    private static long readUnsigned(byte[] data, int pos, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (data[pos + i] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.kiulian.downloader.downloader.request;
+
+import com.github.kiulian.downloader.downloader.YoutubeCallback;
+
+import java.io.OutputStream;
+
+/**
+ * Additional destination of a download, receives the same bytes as the main output.
+ */
+public class DownloadSink {
+
+    private final OutputStream outputStream;
+    private final YoutubeCallback<OutputStream> callback;
+
+    /**
+     * @param callback notified when the sink got the whole content or failed and was detached, may be {@code null}
+     */
+    public DownloadSink(OutputStream outputStream, YoutubeCallback<OutputStream> callback) {
+        if (outputStream == null) {
+            throw new IllegalArgumentException("outputStream must not be null");
+        }
+        this.outputStream = outputStream;
+        this.callback = callback;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public YoutubeCallback<OutputStream> getCallback() {
+        return callback;
+    }
+}
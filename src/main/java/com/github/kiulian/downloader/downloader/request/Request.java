@@ -1,6 +1,7 @@
 package com.github.kiulian.downloader.downloader.request;
 
 import com.github.kiulian.downloader.downloader.YoutubeCallback;
+import com.github.kiulian.downloader.downloader.client.ClientScoreboard;
 import com.github.kiulian.downloader.downloader.client.ClientType;
 import com.github.kiulian.downloader.downloader.client.Clients;
 import com.github.kiulian.downloader.downloader.proxy.ProxyAuthenticator;
@@ -17,7 +18,7 @@ public abstract class Request<T extends Request<T, S>, S> {
     private boolean async;
     private Integer maxRetries;
     private Proxy proxy;
-    private ClientType clientType = Clients.highestPriorityClientType();
+    private ClientType clientType;
 
     public T proxy(String host, int port) {
         this.proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, port));
@@ -33,6 +34,14 @@ public abstract class Request<T extends Request<T, S>, S> {
         return (T) this;
     }
 
+    /**
+     * @param proxy any proxy type, credentials of an authenticated proxy are kept by the {@link ProxyAuthenticator}
+     */
+    public T proxy(Proxy proxy) {
+        this.proxy = proxy;
+        return (T) this;
+    }
+
     public Proxy getProxy() {
         return proxy;
     }
@@ -82,6 +91,13 @@ public abstract class Request<T extends Request<T, S>, S> {
     }
 
     public ClientType getClientType() {
-        return clientType;
+        return clientType != null ? clientType : Clients.highestPriorityClientType();
+    }
+
+    /**
+     * @return client set by {@link #clientType(ClientType)}, otherwise the best client of the scoreboard at the time of the call
+     */
+    public ClientType getClientType(ClientScoreboard scoreboard) {
+        return clientType != null ? clientType : Clients.highestPriorityClientType(scoreboard);
     }
 }
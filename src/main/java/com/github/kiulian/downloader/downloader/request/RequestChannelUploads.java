@@ -5,6 +5,7 @@ import com.github.kiulian.downloader.model.playlist.PlaylistInfo;
 public class RequestChannelUploads extends Request<RequestPlaylistInfo, PlaylistInfo>  {
 
     private final String channelId;
+    private int prefetch = 1;
 
     public RequestChannelUploads(String channelId) {
         this.channelId = channelId;
@@ -14,4 +15,18 @@ public class RequestChannelUploads extends Request<RequestPlaylistInfo, Playlist
         return channelId;
     }
 
+    /**
+     * Amount of pages loaded ahead when iterating, see {@link com.github.kiulian.downloader.downloader.response.PagedIterator}.
+     */
+    public RequestChannelUploads prefetch(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("prefetch must be positive");
+        }
+        this.prefetch = pages;
+        return this;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
 }
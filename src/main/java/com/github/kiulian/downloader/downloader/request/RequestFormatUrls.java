@@ -0,0 +1,33 @@
+package com.github.kiulian.downloader.downloader.request;
+
+import com.github.kiulian.downloader.model.videos.formats.ResolvedFormat;
+
+import java.util.List;
+
+/**
+ * Stream urls of the given itags only, video details, captions and other formats are skipped.
+ */
+public class RequestFormatUrls extends Request<RequestFormatUrls, List<ResolvedFormat>> {
+
+    private final String videoId;
+    private final int[] itags;
+
+    /**
+     * @param itags requested itags in order of preference, itags not offered for the video are omitted from the result
+     */
+    public RequestFormatUrls(String videoId, int... itags) {
+        if (itags.length == 0) {
+            throw new IllegalArgumentException("At least one itag is required");
+        }
+        this.videoId = videoId;
+        this.itags = itags.clone();
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public int[] getItags() {
+        return itags.clone();
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.kiulian.downloader.downloader.request;
+
+import com.github.kiulian.downloader.downloader.client.ClientType;
+import com.github.kiulian.downloader.model.videos.formats.ResolvedFormat;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Stream urls of the given itags for many videos, see {@link RequestFormatUrls}.
+ * Proxy, headers, retries and client type of the batch are applied to the request of every video.
+ */
+public class RequestFormatUrlsBatch extends Request<RequestFormatUrlsBatch, List<ResolvedFormat>> {
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    private final Iterator<String> videoIds;
+    private final int[] itags;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private boolean clientTypeSet;
+
+    public RequestFormatUrlsBatch(Iterable<String> videoIds, int... itags) {
+        this(videoIds.iterator(), itags);
+    }
+
+    public RequestFormatUrlsBatch(Stream<String> videoIds, int... itags) {
+        this(videoIds.iterator(), itags);
+    }
+
+    public RequestFormatUrlsBatch(Iterator<String> videoIds, int... itags) {
+        if (itags.length == 0) {
+            throw new IllegalArgumentException("At least one itag is required");
+        }
+        this.videoIds = videoIds;
+        this.itags = itags.clone();
+    }
+
+    /**
+     * @param concurrency maximum amount of videos resolved at the same time
+     */
+    public RequestFormatUrlsBatch concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    @Override
+    public RequestFormatUrlsBatch clientType(ClientType client) {
+        this.clientTypeSet = true;
+        return super.clientType(client);
+    }
+
+    public Iterator<String> getVideoIds() {
+        return videoIds;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return request for a single video of this batch
+     */
+    public RequestFormatUrls createRequest(String videoId) {
+        RequestFormatUrls request = new RequestFormatUrls(videoId, itags);
+        if (getProxy() != null) {
+            // credentials stay registered for the proxy address, the proxy is shared as it is
+            request.proxy(getProxy());
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.header(header.getKey(), header.getValue());
+            }
+        }
+        if (getMaxRetries() != null) {
+            request.maxRetries(getMaxRetries());
+        }
+        if (clientTypeSet) {
+            request.clientType(getClientType());
+        }
+        return request;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.List;
 public class RequestPlaylistInfo extends Request<RequestPlaylistInfo, PlaylistInfo> {
 
     private final String playlistId;
+    private int prefetch = 1;
 
     public RequestPlaylistInfo(String playlistId) {
         this.playlistId = playlistId;
@@ -16,4 +17,19 @@ public class RequestPlaylistInfo extends Request<RequestPlaylistInfo, PlaylistIn
     public String getPlaylistId() {
         return playlistId;
     }
+
+    /**
+     * Amount of pages loaded ahead when iterating, see {@link com.github.kiulian.downloader.downloader.response.PagedIterator}.
+     */
+    public RequestPlaylistInfo prefetch(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("prefetch must be positive");
+        }
+        this.prefetch = pages;
+        return this;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
 }
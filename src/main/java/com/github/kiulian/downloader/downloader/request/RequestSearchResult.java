@@ -3,7 +3,9 @@ package com.github.kiulian.downloader.downloader.request;
 import java.util.*;
 
 import com.github.kiulian.downloader.base64.Base64Encoder;
+import com.github.kiulian.downloader.model.Filter;
 import com.github.kiulian.downloader.model.search.SearchResult;
+import com.github.kiulian.downloader.model.search.SearchResultItem;
 import com.github.kiulian.downloader.model.search.field.*;
 
 public class RequestSearchResult extends Request<RequestSearchResult, SearchResult> {
@@ -14,6 +16,9 @@ public class RequestSearchResult extends Request<RequestSearchResult, SearchResu
     private boolean forceExactQuery;
     private Map<Integer, SearchField> filterFields = new HashMap<>();
     private SortField sortField;
+    private int prefetch = 1;
+    private long limit = Long.MAX_VALUE;
+    private Filter<SearchResultItem> stopFilter;
 
     public RequestSearchResult(String query) {
         super();
@@ -112,6 +117,46 @@ public class RequestSearchResult extends Request<RequestSearchResult, SearchResu
         return this;
     }
 
+    /**
+     * Amount of continuations loaded ahead when iterating.
+     */
+    public RequestSearchResult prefetch(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("prefetch must be positive");
+        }
+        this.prefetch = pages;
+        return this;
+    }
+
+    /**
+     * Maximum amount of items returned when iterating, no more continuations are loaded after it.
+     */
+    public RequestSearchResult limit(long limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Iteration ends before the first item matching the filter,
+     * e.g. an item which has been seen by a previous run.
+     */
+    public RequestSearchResult until(Filter<SearchResultItem> stopFilter) {
+        this.stopFilter = stopFilter;
+        return this;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public Filter<SearchResultItem> getStopFilter() {
+        return stopFilter;
+    }
+
     private void put(SearchField field) {
         filterFields.put(field.category(), field);
     }
@@ -1,16 +1,106 @@
 package com.github.kiulian.downloader.downloader.request;
 
+import com.github.kiulian.downloader.downloader.client.ClientScoreboard;
+import com.github.kiulian.downloader.downloader.client.ClientType;
 import com.github.kiulian.downloader.model.videos.VideoInfo;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class RequestVideoInfo extends Request<RequestVideoInfo, VideoInfo> {
 
+    private static final int DEFAULT_RACE_CLIENTS = 3;
+    private static final long DEFAULT_RACE_STAGGER_MILLIS = 300;
+
     private final String videoId;
+    private List<ClientType> raceClients;
+    private int rankedRaceClients;
+    private long raceStaggerMillis;
+    private boolean detailsOnly;
 
     public RequestVideoInfo(String videoId) {
         this.videoId = videoId;
     }
 
+    /**
+     * Race the {@link #DEFAULT_RACE_CLIENTS} best ranked clients.
+     *
+     * @see #race(int, long)
+     */
+    public RequestVideoInfo race() {
+        return race(DEFAULT_RACE_CLIENTS, DEFAULT_RACE_STAGGER_MILLIS);
+    }
+
+    /**
+     * Race the given amount of best ranked clients at the time of the request, see
+     * {@link com.github.kiulian.downloader.Config#getClientScoreboard()}.
+     *
+     * @see #race(List, long)
+     */
+    public RequestVideoInfo race(int clients, long staggerMillis) {
+        if (clients < 1) {
+            throw new IllegalArgumentException("At least one client is required");
+        }
+        this.raceClients = null;
+        this.rankedRaceClients = clients;
+        this.raceStaggerMillis = staggerMillis;
+        return this;
+    }
+
+    /**
+     * Query the player api with several clients instead of a single one. Clients are started
+     * in the given order, each one {@code staggerMillis} after the previous or immediately after
+     * the previous one failed. The first playable response with formats is returned and the
+     * remaining requests are cancelled. The watch page is only used if no client succeeded.
+     *
+     * @param clients       clients in order of preference
+     * @param staggerMillis delay between starting two clients
+     */
+    public RequestVideoInfo race(List<ClientType> clients, long staggerMillis) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one client is required");
+        }
+        this.raceClients = Collections.unmodifiableList(new ArrayList<>(clients));
+        this.rankedRaceClients = 0;
+        this.raceStaggerMillis = staggerMillis;
+        return this;
+    }
+
+    /**
+     * Resolve only {@link com.github.kiulian.downloader.model.videos.VideoDetails}: formats, signature
+     * deciphering (base.js download) and captions are skipped, the returned info has no formats
+     * and no subtitles. Takes precedence over {@link #race()}.
+     */
+    public RequestVideoInfo detailsOnly() {
+        this.detailsOnly = true;
+        return this;
+    }
+
+    public boolean isDetailsOnly() {
+        return detailsOnly;
+    }
+
     public String getVideoId() {
         return videoId;
     }
+
+    public boolean isRace() {
+        return raceClients != null || rankedRaceClients > 0;
+    }
+
+    /**
+     * @return clients given to {@link #race(List, long)}, otherwise the best ranked clients of the scoreboard
+     */
+    public List<ClientType> getRaceClients(ClientScoreboard scoreboard) {
+        if (raceClients != null) {
+            return raceClients;
+        }
+        List<ClientType> ranked = scoreboard.ranked();
+        return ranked.subList(0, Math.min(rankedRaceClients, ranked.size()));
+    }
+
+    public long getRaceStaggerMillis() {
+        return raceStaggerMillis;
+    }
 }
@@ -0,0 +1,94 @@
+package com.github.kiulian.downloader.downloader.request;
+
+import com.github.kiulian.downloader.downloader.client.ClientType;
+import com.github.kiulian.downloader.model.videos.VideoInfo;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Video info for many videos. Proxy, headers, retries and client type of the batch are applied
+ * to the request of every video, the callback is called for every video.
+ */
+public class RequestVideoInfoBatch extends Request<RequestVideoInfoBatch, VideoInfo> {
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    private final Iterator<String> videoIds;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private boolean clientTypeSet;
+    private Consumer<RequestVideoInfo> customizer;
+
+    public RequestVideoInfoBatch(Iterable<String> videoIds) {
+        this(videoIds.iterator());
+    }
+
+    public RequestVideoInfoBatch(Stream<String> videoIds) {
+        this(videoIds.iterator());
+    }
+
+    public RequestVideoInfoBatch(Iterator<String> videoIds) {
+        this.videoIds = videoIds;
+    }
+
+    /**
+     * @param concurrency maximum amount of videos resolved at the same time
+     */
+    public RequestVideoInfoBatch concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param customizer applied to the request of every video, e.g. {@code r -> r.race()}
+     */
+    public RequestVideoInfoBatch customize(Consumer<RequestVideoInfo> customizer) {
+        this.customizer = customizer;
+        return this;
+    }
+
+    @Override
+    public RequestVideoInfoBatch clientType(ClientType client) {
+        this.clientTypeSet = true;
+        return super.clientType(client);
+    }
+
+    public Iterator<String> getVideoIds() {
+        return videoIds;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return request for a single video of this batch
+     */
+    public RequestVideoInfo createRequest(String videoId) {
+        RequestVideoInfo request = new RequestVideoInfo(videoId);
+        if (getProxy() != null) {
+            // credentials stay registered for the proxy address, the proxy is shared as it is
+            request.proxy(getProxy());
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.header(header.getKey(), header.getValue());
+            }
+        }
+        if (getMaxRetries() != null) {
+            request.maxRetries(getMaxRetries());
+        }
+        if (clientTypeSet) {
+            request.clientType(getClientType());
+        }
+        if (customizer != null) {
+            customizer.accept(request);
+        }
+        return request;
+    }
+}
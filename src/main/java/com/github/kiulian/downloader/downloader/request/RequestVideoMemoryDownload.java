@@ -0,0 +1,39 @@
+package com.github.kiulian.downloader.downloader.request;
+
+import com.github.kiulian.downloader.downloader.response.DownloadedBytes;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+
+/**
+ * Downloads a format to memory. With a known length the content is read into one presized buffer,
+ * otherwise into pooled chunks. Meant for small media such as short audio clips.
+ */
+public class RequestVideoMemoryDownload extends Request<RequestVideoMemoryDownload, DownloadedBytes> {
+
+    private static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    private final Format format;
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    public RequestVideoMemoryDownload(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * @param maxSize download fails if the content is larger, default 256 MB
+     */
+    public RequestVideoMemoryDownload maxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.kiulian.downloader.downloader.request;
+
+import com.github.kiulian.downloader.downloader.storage.StorageSink;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+
+/**
+ * Downloads a format straight into a {@link StorageSink} part by part, without a local copy.
+ * The response is the location of the committed object.
+ */
+public class RequestVideoStorageDownload extends Request<RequestVideoStorageDownload, String> {
+
+    private final Format format;
+    private final StorageSink sink;
+    private final String key;
+    private Integer concurrency;
+
+    public RequestVideoStorageDownload(Format format, StorageSink sink, String key) {
+        this.format = format;
+        this.sink = sink;
+        this.key = key;
+    }
+
+    /**
+     * @param concurrency amount of storage parts downloaded and written in parallel, overrides {@code Config.getDownloadConcurrency()}
+     */
+    public RequestVideoStorageDownload concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public StorageSink getSink() {
+        return sink;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
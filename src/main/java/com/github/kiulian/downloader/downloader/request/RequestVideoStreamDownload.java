@@ -1,19 +1,89 @@
 package com.github.kiulian.downloader.downloader.request;
 
+import com.github.kiulian.downloader.downloader.YoutubeCallback;
 import com.github.kiulian.downloader.model.videos.formats.Format;
 
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RequestVideoStreamDownload extends Request<RequestVideoStreamDownload, Void> {
 
     private final Format format;
     private final OutputStream outputStream;
+    private long clipStartMillis = -1;
+    private long clipEndMillis = -1;
+    private Integer concurrency;
+    private final List<DownloadSink> sinks = new ArrayList<>();
 
     public RequestVideoStreamDownload(Format format, OutputStream outputStream) {
         this.format = format;
         this.outputStream = outputStream;
     }
 
+    /**
+     * Fetches up to {@code concurrency} parts in parallel, the parts are written to the stream in order.
+     * Memory used by parts waiting for their turn is capped by {@code Config.getStreamBufferSize()}.
+     *
+     * @param concurrency amount of parts downloaded in parallel, overrides {@code Config.getDownloadConcurrency()}
+     */
+    public RequestVideoStreamDownload concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Downloads only the segments of the adaptive format covering [startMillis, endMillis),
+     * located with the segment index (mp4 sidx or webm cues). The clip is aligned to segment
+     * boundaries, so it may start a bit earlier and end a bit later than requested.
+     */
+    public RequestVideoStreamDownload clip(long startMillis, long endMillis) {
+        if (startMillis < 0 || endMillis <= startMillis) {
+            throw new IllegalArgumentException("Invalid clip " + startMillis + "-" + endMillis);
+        }
+        this.clipStartMillis = startMillis;
+        this.clipEndMillis = endMillis;
+        return this;
+    }
+
+    public boolean isClip() {
+        return clipStartMillis >= 0;
+    }
+
+    public long getClipStartMillis() {
+        return clipStartMillis;
+    }
+
+    public long getClipEndMillis() {
+        return clipEndMillis;
+    }
+
+    /**
+     * Writes the downloaded bytes to one more destination, e.g. a digest or an upload. Every sink
+     * has a buffer and a writer thread of its own: a slow sink falls behind up to its buffer before
+     * it holds the download back, a failing sink is detached and reported to its callback without
+     * failing the download. Sinks are closed at the end.
+     */
+    public RequestVideoStreamDownload sink(OutputStream outputStream) {
+        return sink(outputStream, null);
+    }
+
+    public RequestVideoStreamDownload sink(OutputStream outputStream, YoutubeCallback<OutputStream> callback) {
+        sinks.add(new DownloadSink(outputStream, callback));
+        return this;
+    }
+
+    public List<DownloadSink> getSinks() {
+        return sinks;
+    }
+
     public Format getFormat() {
         return format;
     }
@@ -1,17 +1,28 @@
 package com.github.kiulian.downloader.downloader.request;
 
+import com.github.kiulian.downloader.downloader.Cancellation;
+
+import java.nio.charset.StandardCharsets;
 
 public class RequestWebpage extends RequestRaw<RequestWebpage> {
 
     protected final String url;
     private final String method;
-    private final String body;
+    private final byte[] body;
+    private Cancellation cancellation;
 
     public RequestWebpage(String url) {
-        this(url, "GET", null);
+        this(url, "GET", (byte[]) null);
     }
 
     public RequestWebpage(String url, String method, String body) {
+        this(url, method, body == null ? null : body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param body utf-8 json body, sent as is
+     */
+    public RequestWebpage(String url, String method, byte[] body) {
         this.url = url;
         this.method = method;
         this.body = body;
@@ -27,6 +38,22 @@ public class RequestWebpage extends RequestRaw<RequestWebpage> {
     }
 
     public String getBody() {
+        return body == null ? null : new String(body, StandardCharsets.UTF_8);
+    }
+
+    public byte[] getBodyBytes() {
         return body;
     }
+
+    /**
+     * @param cancellation stops the http call of this request, also between retries
+     */
+    public RequestWebpage cancellation(Cancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
 }
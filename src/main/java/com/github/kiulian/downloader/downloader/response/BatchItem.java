@@ -0,0 +1,39 @@
+package com.github.kiulian.downloader.downloader.response;
+
+/**
+ * Outcome of a single item of a batch request.
+ */
+public class BatchItem<T> {
+
+    private final String id;
+    private final T data;
+    private final Throwable error;
+
+    public BatchItem(String id, T data, Throwable error) {
+        this.id = id;
+        this.data = data;
+        this.error = error;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return {@code null} if the item failed
+     */
+    public T data() {
+        return data;
+    }
+
+    /**
+     * @return {@code null} if the item succeeded
+     */
+    public Throwable error() {
+        return error;
+    }
+
+    public boolean ok() {
+        return error == null;
+    }
+}
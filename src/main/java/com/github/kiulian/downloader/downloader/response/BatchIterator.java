@@ -0,0 +1,180 @@
+package com.github.kiulian.downloader.downloader.response;
+
+import com.github.kiulian.downloader.YoutubeException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs an item loader for a sequence of ids with at most {@code concurrency} items in flight
+ * and returns results in completion order.
+ * <p>
+ * The window is refilled when results are consumed, so ids are read lazily and memory is
+ * bounded by the window size. Duplicate ids which are already in flight are not loaded again,
+ * they get the result of the running load.
+ * <p>
+ * Not thread-safe, must be consumed from a single thread and closed if not consumed till the end.
+ */
+public class BatchIterator<T> implements Iterator<BatchItem<T>>, AutoCloseable {
+
+    /**
+     * Loads a single item.
+     */
+    public interface ItemLoader<T> {
+
+        T load(String id) throws YoutubeException;
+    }
+
+    private final Iterator<String> ids;
+    private final ItemLoader<T> loader;
+    private final int concurrency;
+    private final CompletionService<BatchItem<T>> completionService;
+    // in flight id -> amount of duplicates waiting for its result
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private final List<Future<BatchItem<T>>> futures = new ArrayList<>();
+    private final Deque<BatchItem<T>> ready = new ArrayDeque<>();
+    private final long startedAt = System.nanoTime();
+    private int running;
+    private long completed;
+    private long failed;
+    private boolean closed;
+
+    /**
+     * @param ids             ids to load, read lazily
+     * @param loader          called from executor threads
+     * @param executorService executor for loads
+     * @param concurrency     maximum amount of concurrent loads
+     */
+    public BatchIterator(Iterator<String> ids, ItemLoader<T> loader, ExecutorService executorService, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.ids = ids;
+        this.loader = loader;
+        this.concurrency = concurrency;
+        this.completionService = new ExecutorCompletionService<>(executorService);
+    }
+
+    private void fill() {
+        while (running < concurrency && ids.hasNext()) {
+            String id = ids.next();
+            Integer duplicates = inFlight.get(id);
+            if (duplicates != null) {
+                inFlight.put(id, duplicates + 1);
+                continue;
+            }
+            inFlight.put(id, 0);
+            running++;
+            futures.add(completionService.submit(() -> {
+                try {
+                    return new BatchItem<>(id, loader.load(id), null);
+                } catch (Exception e) {
+                    return new BatchItem<>(id, null, e);
+                }
+            }));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!ready.isEmpty()) {
+            return true;
+        }
+        fill();
+        if (running == 0) {
+            return false;
+        }
+        BatchItem<T> item;
+        try {
+            Future<BatchItem<T>> future = completionService.take();
+            futures.remove(future);
+            item = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for batch results", e);
+        } catch (ExecutionException e) {
+            // loader exceptions are captured in the item
+            throw new IllegalStateException(e.getCause());
+        }
+        running--;
+        int copies = 1 + inFlight.remove(item.id());
+        for (int i = 0; i < copies; i++) {
+            ready.add(item);
+        }
+        completed += copies;
+        if (!item.ok()) {
+            failed += copies;
+        }
+        return true;
+    }
+
+    @Override
+    public BatchItem<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return ready.poll();
+    }
+
+    /**
+     * @return sequential stream of results in completion order, closing the stream closes this iterator
+     */
+    public Stream<BatchItem<T>> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * @return amount of finished items, including failed and coalesced duplicates
+     */
+    public long completed() {
+        return completed;
+    }
+
+    public long failed() {
+        return failed;
+    }
+
+    /**
+     * @return completed items per second since creation
+     */
+    public double itemsPerSecond() {
+        long elapsed = System.nanoTime() - startedAt;
+        return elapsed <= 0 ? 0 : completed * 1_000_000_000.0 / elapsed;
+    }
+
+    /**
+     * Cancels loads in flight, remaining ids are not read.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<BatchItem<T>> future : futures) {
+            future.cancel(true);
+        }
+        futures.clear();
+        ready.clear();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.kiulian.downloader.downloader.response;
+
+import com.github.kiulian.downloader.downloader.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Content of a format downloaded to memory: a single presized buffer when the length was known,
+ * otherwise a chain of pooled chunks. The views are read-only; {@link #release()} gives pooled
+ * chunks back, the views must not be used afterwards.
+ */
+public class DownloadedBytes implements AutoCloseable {
+
+    private final List<ByteBuffer> chunks;
+    private final List<ByteBuffer> pooled;
+    private final BufferPool pool;
+    private final long size;
+    private boolean released;
+
+    private DownloadedBytes(List<ByteBuffer> chunks, List<ByteBuffer> pooled, BufferPool pool, long size) {
+        this.chunks = chunks;
+        this.pooled = pooled;
+        this.pool = pool;
+        this.size = size;
+    }
+
+    /**
+     * @param buffer flipped buffer holding the whole content
+     */
+    public static DownloadedBytes of(ByteBuffer buffer) {
+        return new DownloadedBytes(Collections.singletonList(buffer.asReadOnlyBuffer()), Collections.emptyList(), null, buffer.remaining());
+    }
+
+    /**
+     * @param chunks flipped buffers acquired from the pool, in order
+     */
+    public static DownloadedBytes ofPooled(List<ByteBuffer> chunks, BufferPool pool) {
+        List<ByteBuffer> views = new ArrayList<>(chunks.size());
+        long size = 0;
+        for (ByteBuffer chunk : chunks) {
+            views.add(chunk.asReadOnlyBuffer());
+            size += chunk.remaining();
+        }
+        return new DownloadedBytes(Collections.unmodifiableList(views), new ArrayList<>(chunks), pool, size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return read-only views of the content, in order
+     */
+    public List<ByteBuffer> chunks() {
+        checkNotReleased();
+        return chunks;
+    }
+
+    /**
+     * @return read-only view of the whole content, chained content is copied into a new buffer
+     */
+    public ByteBuffer buffer() {
+        checkNotReleased();
+        if (chunks.size() == 1) {
+            return chunks.get(0).duplicate();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Content of " + size + " bytes does not fit into a single buffer");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        for (ByteBuffer chunk : chunks) {
+            buffer.put(chunk.duplicate());
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public byte[] toByteArray() {
+        ByteBuffer buffer = buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Gives pooled chunks back, repeated calls have no effect.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (pool != null) {
+            for (ByteBuffer chunk : pooled) {
+                pool.release(chunk);
+            }
+        }
+    }
+
+    public synchronized boolean isReleased() {
+        return released;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    private synchronized void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Buffers have been released");
+        }
+    }
+}
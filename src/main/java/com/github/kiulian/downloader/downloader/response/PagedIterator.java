@@ -0,0 +1,221 @@
+package com.github.kiulian.downloader.downloader.response;
+
+import com.github.kiulian.downloader.YoutubeException;
+import com.github.kiulian.downloader.model.Filter;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over paged results (playlist videos, search items, ...) page by page.
+ * <p>
+ * Pages are loaded by a background task, which stays at most {@code prefetch} pages ahead of
+ * the consumer, so the next continuation is downloaded while the current page is processed.
+ * Memory is bounded by {@code prefetch + 2} pages: the queued ones, the one being consumed and
+ * the one the loader waits to queue.
+ * Errors are rethrown from {@link #hasNext()}, {@link YoutubeException}s wrapped into
+ * {@link PageException}, unchecked exceptions and errors as they are.
+ * The iterator must be closed if it is not consumed till the end, a closed iterator has no
+ * more elements.
+ */
+public class PagedIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private static final Object END = new Object();
+
+    /**
+     * Loads pages one after another.
+     */
+    public interface PageLoader<T> {
+
+        /**
+         * @return items of the next page or {@code null} if there are no more pages
+         */
+        List<T> nextPage() throws YoutubeException;
+    }
+
+    /**
+     * Thrown by the iterator if a page could not be loaded.
+     */
+    public static class PageException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public PageException(YoutubeException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized YoutubeException getCause() {
+            return (YoutubeException) super.getCause();
+        }
+    }
+
+    private final BlockingQueue<Object> pages;
+    private final Future<?> loader;
+    private Iterator<T> current = Collections.emptyIterator();
+    private boolean finished;
+    private volatile boolean closed;
+
+    /**
+     * @param pageLoader      source of pages, called from a background thread
+     * @param executorService executor for the background task
+     * @param prefetch        amount of pages loaded ahead of the consumer, at least 1
+     */
+    public PagedIterator(PageLoader<T> pageLoader, ExecutorService executorService, int prefetch) {
+        this(pageLoader, executorService, prefetch, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Stops loading pages as soon as {@code limit} items are loaded or an item matches {@code stop}.
+     *
+     * @param pageLoader      source of pages, called from a background thread
+     * @param executorService executor for the background task
+     * @param prefetch        amount of pages loaded ahead of the consumer, at least 1
+     * @param limit           maximum amount of items
+     * @param stop            nullable, iteration ends before the first matching item
+     */
+    public PagedIterator(PageLoader<T> pageLoader, ExecutorService executorService, int prefetch, long limit, Filter<T> stop) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("prefetch must be positive");
+        }
+        this.pages = new ArrayBlockingQueue<>(prefetch);
+        PageLoader<T> source = limit == Long.MAX_VALUE && stop == null ? pageLoader : new BoundedPageLoader<>(pageLoader, limit, stop);
+        this.loader = executorService.submit(() -> load(source));
+    }
+
+    private static class BoundedPageLoader<T> implements PageLoader<T> {
+        private final PageLoader<T> pageLoader;
+        private final Filter<T> stop;
+        private long remaining;
+
+        BoundedPageLoader(PageLoader<T> pageLoader, long limit, Filter<T> stop) {
+            this.pageLoader = pageLoader;
+            this.remaining = limit;
+            this.stop = stop;
+        }
+
+        @Override
+        public List<T> nextPage() throws YoutubeException {
+            if (remaining <= 0) {
+                return null;
+            }
+            List<T> page = pageLoader.nextPage();
+            if (page == null) {
+                return null;
+            }
+            int end = (int) Math.min(page.size(), remaining);
+            if (stop != null) {
+                for (int i = 0; i < end; i++) {
+                    if (stop.test(page.get(i))) {
+                        end = i;
+                        remaining = 0;
+                        break;
+                    }
+                }
+            }
+            if (end < page.size()) {
+                page = page.subList(0, end);
+                remaining = 0;
+            } else {
+                remaining -= end;
+            }
+            return page;
+        }
+    }
+
+    // always ends with END or the failure, a consumer waiting in hasNext() is never left behind
+    private void load(PageLoader<T> pageLoader) {
+        Object last = END;
+        try {
+            List<T> page;
+            while (!closed && (page = pageLoader.nextPage()) != null) {
+                if (!page.isEmpty()) {
+                    pages.put(page);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed by consumer
+            return;
+        } catch (YoutubeException e) {
+            last = new PageException(e);
+        } catch (Throwable e) {
+            last = e;
+        }
+        try {
+            pages.put(last);
+        } catch (InterruptedException ignored) {
+            // closed by consumer
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished || closed) {
+                return false;
+            }
+            Object page;
+            try {
+                page = pages.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for the next page", e);
+            }
+            if (page == END) {
+                finished = true;
+                return false;
+            }
+            if (page instanceof Throwable) {
+                finished = true;
+                if (page instanceof Error) {
+                    throw (Error) page;
+                }
+                throw page instanceof RuntimeException ? (RuntimeException) page : new IllegalStateException((Throwable) page);
+            }
+            current = ((List<T>) page).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * @return sequential ordered stream of remaining items, closing the stream closes this iterator
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Stops loading further pages.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        loader.cancel(true);
+        pages.clear();
+        current = Collections.emptyIterator();
+    }
+}
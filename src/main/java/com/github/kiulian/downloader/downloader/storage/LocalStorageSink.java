@@ -0,0 +1,120 @@
+package com.github.kiulian.downloader.downloader.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stores objects as files of a directory. Parts are written at their positions into a hidden temp
+ * file next to the target, which is moved into place on commit.
+ */
+public class LocalStorageSink implements StorageSink {
+
+    private static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    private final File directory;
+    private final long partSize;
+
+    public LocalStorageSink(File directory) {
+        this(directory, DEFAULT_PART_SIZE);
+    }
+
+    public LocalStorageSink(File directory, long partSize) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("partSize must be positive");
+        }
+        this.directory = directory;
+        this.partSize = partSize;
+    }
+
+    @Override
+    public StorageUpload begin(String key, long contentLength) throws IOException {
+        Path root = directory.getAbsoluteFile().toPath().normalize();
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("Key " + key + " resolves outside of " + directory);
+        }
+        File target = path.toFile();
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        File temp = new File(parent, "." + target.getName() + "." + UUID.randomUUID() + ".part");
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        if (contentLength > 0) {
+            file.setLength(contentLength);
+        }
+        return new LocalUpload(target, temp, file);
+    }
+
+    private class LocalUpload implements StorageUpload {
+        private final File target;
+        private final File temp;
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private boolean finished;
+
+        LocalUpload(File target, File temp, RandomAccessFile file) {
+            this.target = target;
+            this.temp = temp;
+            this.file = file;
+            this.channel = file.getChannel();
+        }
+
+        @Override
+        public long partSize() {
+            return partSize;
+        }
+
+        @Override
+        public void writePart(int partNumber, long position, List<ByteBuffer> data) throws IOException {
+            for (ByteBuffer buffer : data) {
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+
+        @Override
+        public synchronized String commit() throws IOException {
+            if (finished) {
+                throw new IllegalStateException("Upload of " + target + " is already finished");
+            }
+            finished = true;
+            try {
+                channel.force(false);
+                file.close();
+                try {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            return target.getAbsolutePath();
+        }
+
+        @Override
+        public synchronized void abort() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.github.kiulian.downloader.downloader.storage;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores objects in a bucket of an S3 compatible service. Objects up to one part are sent with a
+ * single PUT on commit, larger ones with a multipart upload completed on commit. Requests are
+ * signed with AWS signature version 4.
+ */
+public class S3StorageSink implements StorageSink {
+
+    private static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_PARTS = 10000;
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    private static final MediaType XML = MediaType.parse("application/xml");
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    private static final Pattern ERROR = Pattern.compile("<Error>.*?<Code>([^<]*)</Code>", Pattern.DOTALL);
+
+    private final String endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+    private final boolean pathStyle;
+    private final long partSize;
+    private final OkHttpClient httpClient;
+
+    private S3StorageSink(Builder builder) {
+        String endpoint = builder.endpoint;
+        while (endpoint.endsWith("/")) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        this.endpoint = endpoint;
+        this.region = builder.region;
+        this.bucket = builder.bucket;
+        this.accessKey = builder.accessKey;
+        this.secretKey = builder.secretKey;
+        this.pathStyle = builder.pathStyle;
+        this.partSize = builder.partSize;
+        this.httpClient = builder.httpClient != null ? builder.httpClient : new OkHttpClient.Builder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(5, TimeUnit.MINUTES)
+                .writeTimeout(5, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Override
+    public StorageUpload begin(String key, long contentLength) throws IOException {
+        if (contentLength >= 0 && contentLength <= partSize) {
+            return new SingleUpload(key);
+        }
+        // S3 allows up to 10000 parts
+        long size = contentLength > 0 ? Math.max(partSize, (contentLength + MAX_PARTS - 1) / MAX_PARTS) : partSize;
+        String body = execute("POST", key, query("uploads", ""), null);
+        Matcher matcher = UPLOAD_ID.matcher(body);
+        if (!matcher.find()) {
+            throw new IOException("No upload id in the response of " + key);
+        }
+        return new MultipartUpload(key, unescapeXml(matcher.group(1)), size);
+    }
+
+    private class SingleUpload implements StorageUpload {
+        private final String key;
+        private byte[] data;
+        private boolean finished;
+
+        SingleUpload(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public long partSize() {
+            return partSize;
+        }
+
+        @Override
+        public synchronized void writePart(int partNumber, long position, List<ByteBuffer> data) throws IOException {
+            if (partNumber != 1 || position != 0) {
+                throw new IllegalArgumentException("Object " + key + " has a single part, got part " + partNumber);
+            }
+            // kept until commit, the buffers are not
+            byte[] bytes = new byte[(int) remaining(data)];
+            int offset = 0;
+            for (ByteBuffer buffer : data) {
+                int length = buffer.remaining();
+                buffer.get(bytes, offset, length);
+                offset += length;
+            }
+            this.data = bytes;
+        }
+
+        @Override
+        public synchronized String commit() throws IOException {
+            if (finished) {
+                throw new IllegalStateException("Upload of " + key + " is already finished");
+            }
+            finished = true;
+            execute("PUT", key, new TreeMap<>(), data != null ? data : new byte[0]);
+            data = null;
+            return objectUrl(key);
+        }
+
+        @Override
+        public synchronized void abort() {
+            finished = true;
+            data = null;
+        }
+    }
+
+    private class MultipartUpload implements StorageUpload {
+        private final String key;
+        private final String uploadId;
+        private final long size;
+        private final Map<Integer, String> etags = new ConcurrentSkipListMap<>();
+        private volatile boolean finished;
+
+        MultipartUpload(String key, String uploadId, long size) {
+            this.key = key;
+            this.uploadId = uploadId;
+            this.size = size;
+        }
+
+        @Override
+        public long partSize() {
+            return size;
+        }
+
+        @Override
+        public void writePart(int partNumber, long position, List<ByteBuffer> data) throws IOException {
+            if (partNumber < 1 || partNumber > MAX_PARTS || position != (partNumber - 1) * size) {
+                throw new IllegalArgumentException("Part " + partNumber + " at " + position + " is not aligned to parts of " + size + " bytes");
+            }
+            TreeMap<String, String> query = query("partNumber", String.valueOf(partNumber));
+            query.put("uploadId", uploadId);
+            etags.put(partNumber, executeForEtag(key, query, new BuffersBody(data)));
+        }
+
+        @Override
+        public synchronized String commit() throws IOException {
+            if (finished) {
+                throw new IllegalStateException("Upload of " + key + " is already finished");
+            }
+            if (etags.isEmpty()) {
+                // empty content of unknown length, a multipart upload needs at least one part
+                abort();
+                execute("PUT", key, new TreeMap<>(), new byte[0]);
+                return objectUrl(key);
+            }
+            StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+            int expected = 1;
+            for (Map.Entry<Integer, String> part : etags.entrySet()) {
+                if (part.getKey() != expected++) {
+                    throw new IOException("Part " + (expected - 1) + " of " + key + " is missing");
+                }
+                xml.append("<Part><PartNumber>").append(part.getKey()).append("</PartNumber><ETag>")
+                        .append(escapeXml(part.getValue())).append("</ETag></Part>");
+            }
+            xml.append("</CompleteMultipartUpload>");
+            execute("POST", key, query("uploadId", uploadId), xml.toString().getBytes(StandardCharsets.UTF_8));
+            finished = true;
+            return objectUrl(key);
+        }
+
+        @Override
+        public synchronized void abort() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                execute("DELETE", key, query("uploadId", uploadId), null);
+            } catch (IOException ignored) {
+                // parts of incomplete uploads are usually removed by a lifecycle rule
+            }
+        }
+    }
+
+    private static TreeMap<String, String> query(String name, String value) {
+        TreeMap<String, String> query = new TreeMap<>();
+        query.put(name, value);
+        return query;
+    }
+
+    private String execute(String method, String key, TreeMap<String, String> query, byte[] body) throws IOException {
+        try (Response response = httpClient.newCall(signedRequest(method, key, query, body)).execute()) {
+            String content = response.body() != null ? response.body().string() : "";
+            checkResponse(method, key, response, content);
+            return content;
+        }
+    }
+
+    private String executeForEtag(String key, TreeMap<String, String> query, BuffersBody body) throws IOException {
+        try (Response response = httpClient.newCall(signedRequest("PUT", key, query, body, hex(body.sha256()))).execute()) {
+            String content = response.body() != null ? response.body().string() : "";
+            checkResponse("PUT", key, response, content);
+            String etag = response.header("ETag");
+            if (etag == null) {
+                throw new IOException("No ETag in the response of part " + query.get("partNumber") + " of " + key);
+            }
+            return etag;
+        }
+    }
+
+    private static void checkResponse(String method, String key, Response response, String content) throws IOException {
+        // CompleteMultipartUpload may fail with 200 and an error document
+        Matcher error = ERROR.matcher(content);
+        if (!response.isSuccessful() || error.find()) {
+            String code = error.reset().find() ? error.group(1) : "";
+            throw new IOException(method + " " + key + " failed: HTTP " + response.code() + " " + code);
+        }
+    }
+
+    private Request signedRequest(String method, String key, TreeMap<String, String> query, byte[] body) throws IOException {
+        RequestBody requestBody = null;
+        if (body != null) {
+            requestBody = RequestBody.create(body, "POST".equals(method) ? XML : OCTET_STREAM);
+        } else if ("POST".equals(method) || "PUT".equals(method)) {
+            requestBody = RequestBody.create(new byte[0], null);
+        }
+        return signedRequest(method, key, query, requestBody, body != null ? hex(sha256(body)) : EMPTY_SHA256);
+    }
+
+    private Request signedRequest(String method, String key, TreeMap<String, String> query, RequestBody requestBody, String payloadHash) throws IOException {
+        String url = objectUrl(key);
+        String host = url.substring(url.indexOf("://") + 3, url.indexOf('/', url.indexOf("://") + 3));
+        String path = url.substring(url.indexOf('/', url.indexOf("://") + 3));
+
+        StringBuilder canonicalQuery = new StringBuilder();
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            if (canonicalQuery.length() > 0) {
+                canonicalQuery.append('&');
+            }
+            canonicalQuery.append(encode(parameter.getKey(), true)).append('=').append(encode(parameter.getValue(), true));
+        }
+
+        String amzDate = ZonedDateTime.now(ZoneOffset.UTC).format(AMZ_DATE);
+        String date = amzDate.substring(0, 8);
+        String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+        String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery + "\n"
+                + "host:" + host + "\n"
+                + "x-amz-content-sha256:" + payloadHash + "\n"
+                + "x-amz-date:" + amzDate + "\n"
+                + "\n" + signedHeaders + "\n" + payloadHash;
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n"
+                + hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        return new Request.Builder()
+                .url(canonicalQuery.length() > 0 ? url + "?" + canonicalQuery : url)
+                .header("Host", host)
+                .header("x-amz-content-sha256", payloadHash)
+                .header("x-amz-date", amzDate)
+                .header("Authorization", ALGORITHM + " Credential=" + accessKey + "/" + scope
+                        + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature)
+                .method(method, requestBody)
+                .build();
+    }
+
+    private String objectUrl(String key) {
+        String encodedKey = encode(key, false);
+        if (pathStyle) {
+            return endpoint + "/" + encode(bucket, true) + "/" + encodedKey;
+        }
+        int schemeEnd = endpoint.indexOf("://") + 3;
+        return endpoint.substring(0, schemeEnd) + bucket + "." + endpoint.substring(schemeEnd) + "/" + encodedKey;
+    }
+
+    // RFC 3986 encoding required by the signature, '/' is kept in object keys
+    private static String encode(String value, boolean encodeSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xf, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String unescapeXml(String value) {
+        return value.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    private static long remaining(List<ByteBuffer> data) {
+        long remaining = 0;
+        for (ByteBuffer buffer : data) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    private static byte[] sha256(byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    // Part content sent straight from the buffers of the caller, which are left untouched for retries
+    private static class BuffersBody extends RequestBody {
+        private final List<ByteBuffer> data;
+        private final long length;
+
+        BuffersBody(List<ByteBuffer> data) {
+            this.data = data;
+            this.length = remaining(data);
+        }
+
+        byte[] sha256() throws IOException {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (ByteBuffer buffer : data) {
+                    digest.update(buffer.duplicate());
+                }
+                return digest.digest();
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            for (ByteBuffer buffer : data) {
+                ByteBuffer content = buffer.duplicate();
+                while (content.hasRemaining()) {
+                    sink.write(content);
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+        private String endpoint = "https://s3.amazonaws.com";
+        private String region = "us-east-1";
+        private String bucket;
+        private String accessKey;
+        private String secretKey;
+        private boolean pathStyle;
+        private long partSize = DEFAULT_PART_SIZE;
+        private OkHttpClient httpClient;
+
+        /**
+         * @param endpoint base url of the service, e.g. {@code http://localhost:9000}
+         */
+        public Builder endpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder bucket(String bucket) {
+            this.bucket = bucket;
+            return this;
+        }
+
+        public Builder credentials(String accessKey, String secretKey) {
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            return this;
+        }
+
+        /**
+         * @param pathStyle address the bucket in the path instead of the host name, required by most self-hosted services
+         */
+        public Builder pathStyle(boolean pathStyle) {
+            this.pathStyle = pathStyle;
+            return this;
+        }
+
+        /**
+         * @param partSize size of the parts of multipart uploads, at least 5 MB
+         */
+        public Builder partSize(long partSize) {
+            this.partSize = partSize;
+            return this;
+        }
+
+        public Builder httpClient(OkHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        public S3StorageSink build() {
+            if (endpoint == null || !endpoint.contains("://")) {
+                throw new IllegalArgumentException("Invalid endpoint " + endpoint);
+            }
+            if (bucket == null || accessKey == null || secretKey == null) {
+                throw new IllegalArgumentException("bucket and credentials are required");
+            }
+            if (partSize < MIN_PART_SIZE) {
+                throw new IllegalArgumentException("partSize must be at least " + MIN_PART_SIZE);
+            }
+            return new S3StorageSink(this);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.kiulian.downloader.downloader.storage;
+
+import java.io.IOException;
+
+/**
+ * Destination of downloads written part by part, e.g. a local directory or an object storage bucket.
+ */
+public interface StorageSink {
+
+    /**
+     * @param key           name of the object, may contain '/'
+     * @param contentLength length of the object or -1 if unknown
+     * @return upload, nothing is visible under the key before {@link StorageUpload#commit()}
+     */
+    StorageUpload begin(String key, long contentLength) throws IOException;
+}
@@ -0,0 +1,36 @@
+package com.github.kiulian.downloader.downloader.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Object being written. The content is split into parts of {@link #partSize()} bytes, the last one
+ * may be shorter; parts can be written concurrently and in any order.
+ */
+public interface StorageUpload {
+
+    /**
+     * @return length of every part but the last one
+     */
+    long partSize();
+
+    /**
+     * @param partNumber number of the part starting from 1
+     * @param position   offset of the part in the object, {@code (partNumber - 1) * partSize()}
+     * @param data       content of the part as consecutive buffers, consumed before the method returns
+     */
+    void writePart(int partNumber, long position, List<ByteBuffer> data) throws IOException;
+
+    /**
+     * Makes the object visible under its key at once.
+     *
+     * @return location of the object
+     */
+    String commit() throws IOException;
+
+    /**
+     * Discards the written parts, no effect once committed.
+     */
+    void abort();
+}
@@ -2,7 +2,6 @@ package com.github.kiulian.downloader.extractor;
 
 
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.github.kiulian.downloader.YoutubeException;
@@ -17,15 +16,8 @@ import java.util.regex.Pattern;
 public class ExtractorImpl implements Extractor {
     private static final String DEFAULT_CLIENT_VERSION = "2.20200720.00.02";
 
-    private static final List<Pattern> YT_PLAYER_CONFIG_PATTERNS = Arrays.asList(
-            Pattern.compile(";ytplayer\\.config = (\\{.*?\\})\\;ytplayer"),
-            Pattern.compile(";ytplayer\\.config = (\\{.*?\\})\\;"),
-            Pattern.compile("ytInitialPlayerResponse\\s*=\\s*(\\{.+?\\})\\s*\\;")
-    );
-    private static final List<Pattern> YT_INITIAL_DATA_PATTERNS = Arrays.asList(
-            Pattern.compile("window\\[\"ytInitialData\"\\] = (\\{.*?\\});"),
-            Pattern.compile("ytInitialData = (\\{.*?\\});")
-    );
+    private static final String[] YT_PLAYER_CONFIG_ANCHORS = {"ytplayer.config", "ytInitialPlayerResponse"};
+    private static final String YT_INITIAL_DATA_ANCHOR = "ytInitialData";
 
     private static final Pattern SUBTITLES_LANG_CODE_PATTERN = Pattern.compile("lang_code=\"(.{2,3})\"");
     private static final Pattern TEXT_NUMBER_REGEX = Pattern.compile("[0-9]+[0-9, ']*");
@@ -40,19 +32,12 @@ public class ExtractorImpl implements Extractor {
 
     @Override
     public JSONObject extractInitialDataFromHtml(String html) throws YoutubeException {
-        String ytInitialData = null;
-
-        for (Pattern pattern : YT_INITIAL_DATA_PATTERNS) {
-            Matcher matcher = pattern.matcher(html);
-            if (matcher.find()) {
-                ytInitialData = matcher.group(1);
-            }
-        }
-        if (ytInitialData == null) {
+        int[] bounds = JsonScanner.findAssignedObject(html, YT_INITIAL_DATA_ANCHOR);
+        if (bounds == null) {
             throw new YoutubeException.BadPageException("Could not find initial data on web page");
         }
         try {
-            return JSON.parseObject(ytInitialData);
+            return JsonScanner.parseObject(html, bounds[0], bounds[1]);
         } catch (Exception e) {
             throw new YoutubeException.BadPageException("Initial data contains invalid json");
         }
@@ -60,21 +45,19 @@ public class ExtractorImpl implements Extractor {
 
     @Override
     public JSONObject extractPlayerConfigFromHtml(String html) throws YoutubeException {
-        String ytPlayerConfig = null;
-        for (Pattern pattern : YT_PLAYER_CONFIG_PATTERNS) {
-            Matcher matcher = pattern.matcher(html);
-
-            if (matcher.find()) {
-                ytPlayerConfig = matcher.group(1);
+        int[] bounds = null;
+        for (String anchor : YT_PLAYER_CONFIG_ANCHORS) {
+            bounds = JsonScanner.findAssignedObject(html, anchor);
+            if (bounds != null) {
                 break;
             }
         }
-        if (ytPlayerConfig == null) {
+        if (bounds == null) {
             throw new YoutubeException.BadPageException("Could not find player config on web page");
         }
 
         try {
-            JSONObject config = JSON.parseObject(ytPlayerConfig);
+            JSONObject config = JsonScanner.parseObject(html, bounds[0], bounds[1]);
             if (config.containsKey("args")) {
                 return config;
             } else {
@@ -0,0 +1,213 @@
+package com.github.kiulian.downloader.extractor;
+
+
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.JSONReader;
+
+import java.io.Reader;
+import java.util.Set;
+
+/**
+ * Locates JSON objects embedded into html/js without regular expressions.
+ * <p>
+ * An object is found by its assignment anchor ({@code name = {...}}), its end is found by
+ * counting braces outside of string literals, so a {@code "};"} inside a string does not
+ * truncate it. The object is parsed directly from the source string, without copying
+ * the slice.
+ */
+public final class JsonScanner {
+
+    private JsonScanner() {
+    }
+
+    /**
+     * Finds the object assigned to {@code name}, e.g. {@code var name = {...}},
+     * {@code window["name"] = {...}} or {@code name={...}}.
+     *
+     * @return {@code [start, end)} bounds of the object or {@code null} if not found
+     */
+    public static int[] findAssignedObject(String source, String name) {
+        int from = 0;
+        int index;
+        while ((index = source.indexOf(name, from)) >= 0) {
+            from = index + 1;
+            int i = index + name.length();
+            while (i < source.length() && (source.charAt(i) == '"' || source.charAt(i) == '\'' || source.charAt(i) == ']')) {
+                i++;
+            }
+            i = skipWhitespace(source, i);
+            if (i >= source.length() || source.charAt(i) != '=') {
+                continue;
+            }
+            i = skipWhitespace(source, i + 1);
+            if (i >= source.length() || source.charAt(i) != '{') {
+                continue;
+            }
+            int end = findObjectEnd(source, i);
+            if (end > 0) {
+                return new int[]{i, end};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param source source text
+     * @param start  index of the opening brace
+     * @return index after the matching closing brace, or -1 if the object is not terminated
+     */
+    public static int findObjectEnd(CharSequence source, int start) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses {@code source[start, end)} as a json object.
+     */
+    public static JSONObject parseObject(String source, int start, int end) {
+        try (JSONReader reader = new JSONReader(new StringSliceReader(source, start, end))) {
+            return reader.readObject(JSONObject.class);
+        }
+    }
+
+    /**
+     * Parses only the given top level keys of the json object in {@code source}. Values of
+     * other keys are skipped by the brace scanner without building any objects for them, the
+     * values of the selected keys are parsed into fastjson trees as a full parse would do.
+     *
+     * @param source json object text, leading whitespace is allowed
+     * @param keys   top level keys to keep
+     * @return object with the selected keys
+     * @throws IllegalArgumentException if source is not a well-formed json object
+     */
+    public static JSONObject parseObject(String source, Set<String> keys) {
+        JSONObject result = new JSONObject(keys.size());
+        int i = skipWhitespace(source, 0);
+        if (i >= source.length() || source.charAt(i) != '{') {
+            throw new IllegalArgumentException("Not a json object");
+        }
+        i = skipWhitespace(source, i + 1);
+        while (i < source.length() && source.charAt(i) != '}') {
+            if (source.charAt(i) != '"') {
+                throw new IllegalArgumentException("Unexpected character at " + i);
+            }
+            int keyEnd = findStringEnd(source, i);
+            String key = source.substring(i + 1, keyEnd - 1);
+            i = skipWhitespace(source, keyEnd);
+            if (i >= source.length() || source.charAt(i) != ':') {
+                throw new IllegalArgumentException("Expected ':' at " + i);
+            }
+            int valueStart = skipWhitespace(source, i + 1);
+            int valueEnd = findValueEnd(source, valueStart);
+            if (keys.contains(key)) {
+                try (JSONReader reader = new JSONReader(new StringSliceReader(source, valueStart, valueEnd))) {
+                    result.put(key, reader.readObject());
+                }
+            }
+            i = skipWhitespace(source, valueEnd);
+            if (i < source.length() && source.charAt(i) == ',') {
+                i = skipWhitespace(source, i + 1);
+            }
+        }
+        if (i >= source.length()) {
+            throw new IllegalArgumentException("Json object is not terminated");
+        }
+        return result;
+    }
+
+    private static int findValueEnd(String source, int start) {
+        if (start >= source.length()) {
+            throw new IllegalArgumentException("Value expected at " + start);
+        }
+        char c = source.charAt(start);
+        int end;
+        if (c == '{' || c == '[') {
+            end = findObjectEnd(source, start);
+        } else if (c == '"') {
+            end = findStringEnd(source, start);
+        } else {
+            end = start;
+            while (end < source.length() && source.charAt(end) != ',' && source.charAt(end) != '}'
+                    && !Character.isWhitespace(source.charAt(end))) {
+                end++;
+            }
+        }
+        if (end <= start) {
+            throw new IllegalArgumentException("Value is not terminated at " + start);
+        }
+        return end;
+    }
+
+    /**
+     * @return index after the closing quote of the string starting at {@code start}
+     */
+    private static int findStringEnd(String source, int start) {
+        for (int i = start + 1; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("String is not terminated at " + start);
+    }
+
+    private static int skipWhitespace(String source, int i) {
+        while (i < source.length() && Character.isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static class StringSliceReader extends Reader {
+        private final String source;
+        private final int end;
+        private int position;
+
+        StringSliceReader(String source, int start, int end) {
+            this.source = source;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position >= end) {
+                return -1;
+            }
+            int count = Math.min(length, end - position);
+            source.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int read() {
+            return position < end ? source.charAt(position++) : -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
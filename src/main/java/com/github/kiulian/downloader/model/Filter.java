@@ -1,6 +1,6 @@
 package com.github.kiulian.downloader.model;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 @FunctionalInterface
@@ -9,7 +9,7 @@ public interface Filter<T> {
     boolean test(T element);
 
     default List<T> select(List<T> elements) {
-        List<T> filtered = new LinkedList<>();
+        List<T> filtered = new ArrayList<>();
         for (T element : elements) {
             if (test(element)) {
                 filtered.add(element);
@@ -0,0 +1,195 @@
+package com.github.kiulian.downloader.model.videos;
+
+import com.github.kiulian.downloader.model.videos.formats.AudioFormat;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+import com.github.kiulian.downloader.model.videos.formats.VideoFormat;
+import com.github.kiulian.downloader.model.videos.formats.VideoWithAudioFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable index of the formats of a video, built once.
+ * <p>
+ * Lookups by itag are O(1), best formats are the heads of presorted lists and range lookups
+ * (e.g. height at most 1080) are binary searches returning sublist views. Sorting is stable,
+ * formats with equal keys keep the order of the player response.
+ */
+public class FormatCatalog {
+
+    private static final Comparator<VideoFormat> BY_VIDEO_QUALITY =
+            (o1, o2) -> o2.videoQuality().compare(o1.videoQuality());
+    private static final Comparator<AudioFormat> BY_AUDIO_QUALITY =
+            (o1, o2) -> o2.audioQuality().compare(o1.audioQuality());
+    private static final Comparator<VideoFormat> BY_HEIGHT =
+            (o1, o2) -> Integer.compare(height(o2), height(o1));
+    private static final Comparator<VideoFormat> BY_FPS =
+            (o1, o2) -> Integer.compare(o2.fps(), o1.fps());
+    private static final Comparator<Format> BY_BITRATE =
+            (o1, o2) -> Integer.compare(bitrate(o2), bitrate(o1));
+
+    private final Format[] byItag;
+    private final List<VideoFormat> videoFormats;
+    private final List<VideoWithAudioFormat> videoWithAudioFormats;
+    private final List<AudioFormat> audioFormats;
+    // in the order of the player response
+    private final List<VideoFormat> listedVideoFormats;
+    private final List<VideoWithAudioFormat> listedVideoWithAudioFormats;
+    private final List<AudioFormat> listedAudioFormats;
+    private final List<VideoFormat> videoFormatsByHeight;
+    private final List<VideoFormat> videoFormatsByFps;
+    private final List<Format> formatsByBitrate;
+
+    FormatCatalog(List<Format> formats) {
+        int maxItag = -1;
+        for (Format format : formats) {
+            maxItag = Math.max(maxItag, format.itagId());
+        }
+        this.byItag = new Format[maxItag + 1];
+
+        ArrayList<VideoFormat> video = new ArrayList<>(formats.size());
+        ArrayList<VideoWithAudioFormat> videoWithAudio = new ArrayList<>();
+        ArrayList<AudioFormat> audio = new ArrayList<>();
+        for (Format format : formats) {
+            int itag = format.itagId();
+            if (itag >= 0 && byItag[itag] == null) {
+                byItag[itag] = format;
+            }
+            if (format instanceof VideoFormat) {
+                video.add((VideoFormat) format);
+                if (format instanceof VideoWithAudioFormat) {
+                    videoWithAudio.add((VideoWithAudioFormat) format);
+                }
+            } else if (format instanceof AudioFormat) {
+                audio.add((AudioFormat) format);
+            }
+        }
+
+        this.listedVideoFormats = listed(video);
+        this.listedVideoWithAudioFormats = listed(videoWithAudio);
+        this.listedAudioFormats = listed(audio);
+        this.videoFormats = sorted(new ArrayList<>(video), BY_VIDEO_QUALITY);
+        this.videoWithAudioFormats = sorted(new ArrayList<>(videoWithAudio), BY_VIDEO_QUALITY);
+        this.audioFormats = sorted(new ArrayList<>(audio), BY_AUDIO_QUALITY);
+        this.videoFormatsByHeight = sorted(new ArrayList<>(video), BY_HEIGHT);
+        this.videoFormatsByFps = sorted(new ArrayList<>(video), BY_FPS);
+        this.formatsByBitrate = sorted(new ArrayList<>(formats), BY_BITRATE);
+    }
+
+    private static <T> List<T> listed(ArrayList<T> list) {
+        list.trimToSize();
+        return Collections.unmodifiableList(list);
+    }
+
+    private static <T> List<T> sorted(ArrayList<T> list, Comparator<? super T> comparator) {
+        list.sort(comparator);
+        list.trimToSize();
+        return Collections.unmodifiableList(list);
+    }
+
+    private static int height(VideoFormat format) {
+        return format.height() != null ? format.height() : 0;
+    }
+
+    private static int bitrate(Format format) {
+        return format.bitrate() != null ? format.bitrate() : 0;
+    }
+
+    /**
+     * @return first format with the itag or {@code null}
+     */
+    public Format byItag(int itag) {
+        return itag >= 0 && itag < byItag.length ? byItag[itag] : null;
+    }
+
+    /**
+     * @return video formats (including video with audio) from best to worst quality
+     */
+    public List<VideoFormat> videoFormats() {
+        return videoFormats;
+    }
+
+    /**
+     * @return video with audio formats from best to worst quality
+     */
+    public List<VideoWithAudioFormat> videoWithAudioFormats() {
+        return videoWithAudioFormats;
+    }
+
+    /**
+     * @return audio only formats from best to worst quality
+     */
+    public List<AudioFormat> audioFormats() {
+        return audioFormats;
+    }
+
+    List<VideoFormat> listedVideoFormats() {
+        return listedVideoFormats;
+    }
+
+    List<VideoWithAudioFormat> listedVideoWithAudioFormats() {
+        return listedVideoWithAudioFormats;
+    }
+
+    List<AudioFormat> listedAudioFormats() {
+        return listedAudioFormats;
+    }
+
+    /**
+     * @return video formats from highest to lowest height
+     */
+    public List<VideoFormat> videoFormatsByHeight() {
+        return videoFormatsByHeight;
+    }
+
+    /**
+     * @return video formats from highest to lowest fps
+     */
+    public List<VideoFormat> videoFormatsByFps() {
+        return videoFormatsByFps;
+    }
+
+    /**
+     * @return all formats from highest to lowest bitrate
+     */
+    public List<Format> formatsByBitrate() {
+        return formatsByBitrate;
+    }
+
+    /**
+     * @return view of video formats with height &lt;= maxHeight, highest first
+     */
+    public List<VideoFormat> videoFormatsWithMaxHeight(int maxHeight) {
+        // first index with height <= maxHeight in a list sorted by descending height
+        int low = 0;
+        int high = videoFormatsByHeight.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (height(videoFormatsByHeight.get(middle)) > maxHeight) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return videoFormatsByHeight.subList(low, videoFormatsByHeight.size());
+    }
+
+    /**
+     * @return view of formats with bitrate &lt;= maxBitrate, highest first
+     */
+    public List<Format> formatsWithMaxBitrate(int maxBitrate) {
+        int low = 0;
+        int high = formatsByBitrate.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (bitrate(formatsByBitrate.get(middle)) > maxBitrate) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return formatsByBitrate.subList(low, formatsByBitrate.size());
+    }
+}
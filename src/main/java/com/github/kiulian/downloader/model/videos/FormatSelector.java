@@ -0,0 +1,451 @@
+package com.github.kiulian.downloader.model.videos;
+
+import com.github.kiulian.downloader.model.Filter;
+import com.github.kiulian.downloader.model.videos.formats.AudioFormat;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+import com.github.kiulian.downloader.model.videos.formats.VideoFormat;
+import com.github.kiulian.downloader.model.videos.formats.VideoWithAudioFormat;
+import com.github.kiulian.downloader.model.videos.quality.AudioQuality;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiled format selector expression, e.g. {@code bestvideo[height<=1080][ext=mp4]+bestaudio/best}.
+ * <pre>
+ * expression  := alternative ('/' alternative)*      first alternative which matches wins
+ * alternative := term ('+' term)*                    all terms must match, e.g. video + audio
+ * term        := base? ('[' field op value ']')*
+ * base        := best | worst | bestvideo | worstvideo | bestaudio | worstaudio | &lt;itag&gt;
+ * op          := = | != | &lt; | &lt;= | &gt; | &gt;= | ^= (starts with) | *= (contains)
+ * </pre>
+ * {@code best}/{@code worst} pick formats with video and audio, {@code bestvideo}/{@code worstvideo}
+ * video only formats, {@code bestaudio}/{@code worstaudio} audio only formats. A term without base means {@code best}.
+ * <p>
+ * Fields: height, width, fps, bitrate, abr (average bitrate), asr (audio sample rate), filesize, duration,
+ * itag, ext, mime, codecs. A filter on a field the format does not have never matches.
+ * <p>
+ * Formats of equal quality (video quality, height and fps for video, audio quality for audio) are ranked
+ * by their expected size, the smallest one wins.
+ * <p>
+ * Selectors are immutable and can be shared between threads.
+ */
+public final class FormatSelector {
+
+    private enum Kind {
+        AV, VIDEO, AUDIO, ITAG
+    }
+
+    private static final Comparator<Format> BY_QUALITY = (o1, o2) -> {
+        int result = 0;
+        if (o1 instanceof VideoFormat && o2 instanceof VideoFormat) {
+            VideoFormat v1 = (VideoFormat) o1;
+            VideoFormat v2 = (VideoFormat) o2;
+            result = v1.videoQuality().compare(v2.videoQuality());
+            if (result == 0) result = Integer.compare(intValue(v1.height()), intValue(v2.height()));
+            if (result == 0) result = Integer.compare(v1.fps(), v2.fps());
+        }
+        if (result == 0) {
+            result = audioQuality(o1).compare(audioQuality(o2));
+        }
+        return result;
+    };
+
+    private final String expression;
+    private final List<List<Term>> alternatives;
+
+    private FormatSelector(String expression, List<List<Term>> alternatives) {
+        this.expression = expression;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static FormatSelector compile(String expression) {
+        return new Compiler(expression).compile();
+    }
+
+    /**
+     * @return formats of the first matching alternative, one per term, or an empty list
+     */
+    public List<Format> select(VideoInfo video) {
+        return select(video.catalog());
+    }
+
+    public List<Format> select(FormatCatalog catalog) {
+        for (List<Term> terms : alternatives) {
+            List<Format> selected = new ArrayList<>(terms.size());
+            for (Term term : terms) {
+                Format format = term.select(catalog);
+                if (format == null) {
+                    selected = null;
+                    break;
+                }
+                selected.add(format);
+            }
+            if (selected != null) {
+                return selected;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return first selected format or {@code null}
+     */
+    public Format selectOne(VideoInfo video) {
+        List<Format> selected = select(video.catalog());
+        return selected.isEmpty() ? null : selected.get(0);
+    }
+
+    public String expression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static int intValue(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    private static AudioQuality audioQuality(Format format) {
+        AudioQuality quality = null;
+        if (format instanceof AudioFormat) {
+            quality = ((AudioFormat) format).audioQuality();
+        } else if (format instanceof VideoWithAudioFormat) {
+            quality = ((VideoWithAudioFormat) format).audioQuality();
+        }
+        return quality != null ? quality : AudioQuality.noAudio;
+    }
+
+    // formats of unknown size lose the tie-break
+    private static long comparableSize(Format format) {
+        long size = format.expectedSize();
+        return size > 0 ? size : Long.MAX_VALUE;
+    }
+
+    private static final class Term {
+        private final Kind kind;
+        private final boolean best;
+        private final int itag;
+        private final Filter<Format> filter;
+
+        Term(Kind kind, boolean best, int itag, Filter<Format> filter) {
+            this.kind = kind;
+            this.best = best;
+            this.itag = itag;
+            this.filter = filter;
+        }
+
+        Format select(FormatCatalog catalog) {
+            List<? extends Format> candidates;
+            switch (kind) {
+                case ITAG:
+                    Format format = catalog.byItag(itag);
+                    return format != null && filter.test(format) ? format : null;
+                case AUDIO:
+                    candidates = catalog.audioFormats();
+                    break;
+                case AV:
+                    candidates = catalog.videoWithAudioFormats();
+                    break;
+                default:
+                    candidates = catalog.videoFormats();
+            }
+
+            Format selected = null;
+            long selectedSize = 0;
+            for (Format candidate : candidates) {
+                if (kind == Kind.VIDEO && candidate instanceof VideoWithAudioFormat) {
+                    continue;
+                }
+                if (!filter.test(candidate)) {
+                    continue;
+                }
+                long size = comparableSize(candidate);
+                if (selected == null) {
+                    selected = candidate;
+                    selectedSize = size;
+                    continue;
+                }
+                int result = BY_QUALITY.compare(candidate, selected);
+                if ((best ? result > 0 : result < 0) || (result == 0 && size < selectedSize)) {
+                    selected = candidate;
+                    selectedSize = size;
+                }
+            }
+            return selected;
+        }
+    }
+
+    private static final class Compiler {
+        private final String source;
+        private int pos;
+
+        Compiler(String source) {
+            if (source == null) {
+                throw new IllegalArgumentException("Selector expression is null");
+            }
+            this.source = source;
+        }
+
+        FormatSelector compile() {
+            List<List<Term>> alternatives = new ArrayList<>();
+            do {
+                List<Term> terms = new ArrayList<>();
+                do {
+                    terms.add(term());
+                } while (accept('+'));
+                alternatives.add(Collections.unmodifiableList(terms));
+            } while (accept('/'));
+            skipSpaces();
+            if (pos < source.length()) {
+                throw error("Unexpected '" + source.charAt(pos) + "'");
+            }
+            return new FormatSelector(source, Collections.unmodifiableList(alternatives));
+        }
+
+        private Term term() {
+            skipSpaces();
+            int start = pos;
+            while (pos < source.length() && Character.isLetterOrDigit(source.charAt(pos))) {
+                pos++;
+            }
+            String base = source.substring(start, pos);
+
+            Kind kind;
+            boolean best = true;
+            int itag = 0;
+            switch (base) {
+                case "":
+                case "best":
+                    kind = Kind.AV;
+                    break;
+                case "worst":
+                    kind = Kind.AV;
+                    best = false;
+                    break;
+                case "bestvideo":
+                    kind = Kind.VIDEO;
+                    break;
+                case "worstvideo":
+                    kind = Kind.VIDEO;
+                    best = false;
+                    break;
+                case "bestaudio":
+                    kind = Kind.AUDIO;
+                    break;
+                case "worstaudio":
+                    kind = Kind.AUDIO;
+                    best = false;
+                    break;
+                default:
+                    try {
+                        itag = Integer.parseInt(base);
+                    } catch (NumberFormatException e) {
+                        pos = start;
+                        throw error("Unknown format '" + base + "'");
+                    }
+                    kind = Kind.ITAG;
+            }
+
+            Filter<Format> filter = format -> true;
+            boolean filtered = false;
+            while (accept('[')) {
+                filtered = true;
+                Filter<Format> previous = filter;
+                Filter<Format> next = condition();
+                filter = format -> previous.test(format) && next.test(format);
+                expect(']');
+            }
+            if (base.isEmpty() && !filtered) {
+                throw error("Format expected");
+            }
+            return new Term(kind, best, itag, filter);
+        }
+
+        private Filter<Format> condition() {
+            skipSpaces();
+            int start = pos;
+            while (pos < source.length() && Character.isLetter(source.charAt(pos))) {
+                pos++;
+            }
+            String field = source.substring(start, pos);
+            skipSpaces();
+            start = pos;
+            while (pos < source.length() && "=!<>^*".indexOf(source.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String op = source.substring(start, pos);
+            skipSpaces();
+            start = pos;
+            while (pos < source.length() && source.charAt(pos) != ']') {
+                pos++;
+            }
+            String value = source.substring(start, pos).trim();
+            if (value.isEmpty()) {
+                throw error("Value expected");
+            }
+
+            switch (field) {
+                case "ext":
+                    return stringCondition(op, value, format -> format.extension() != null ? format.extension().value() : null);
+                case "mime":
+                    return stringCondition(op, value, Format::mimeType);
+                case "codecs":
+                    return stringCondition(op, value, Compiler::codecs);
+                case "height":
+                    return numberCondition(op, value, format -> format instanceof VideoFormat ? toLong(((VideoFormat) format).height()) : null);
+                case "width":
+                    return numberCondition(op, value, format -> format instanceof VideoFormat ? toLong(((VideoFormat) format).width()) : null);
+                case "fps":
+                    return numberCondition(op, value, format -> format instanceof VideoFormat ? Long.valueOf(((VideoFormat) format).fps()) : null);
+                case "bitrate":
+                    return numberCondition(op, value, format -> toLong(format.bitrate()));
+                case "abr":
+                    return numberCondition(op, value, format -> format instanceof AudioFormat ? toLong(((AudioFormat) format).averageBitrate()) : null);
+                case "asr":
+                    return numberCondition(op, value, format -> format instanceof AudioFormat ? toLong(((AudioFormat) format).audioSampleRate()) : null);
+                case "filesize":
+                    return numberCondition(op, value, Format::contentLength);
+                case "duration":
+                    return numberCondition(op, value, Format::duration);
+                case "itag":
+                    return numberCondition(op, value, format -> (long) format.itagId());
+                default:
+                    throw error("Unknown field '" + field + "'");
+            }
+        }
+
+        private Filter<Format> stringCondition(String op, String value, Getter<String> getter) {
+            switch (op) {
+                case "=":
+                    return format -> value.equals(getter.get(format));
+                case "!=":
+                    return format -> {
+                        String actual = getter.get(format);
+                        return actual != null && !value.equals(actual);
+                    };
+                case "^=":
+                    return format -> {
+                        String actual = getter.get(format);
+                        return actual != null && actual.startsWith(value);
+                    };
+                case "*=":
+                    return format -> {
+                        String actual = getter.get(format);
+                        return actual != null && actual.contains(value);
+                    };
+                default:
+                    throw error("Operator '" + op + "' is not supported for text fields");
+            }
+        }
+
+        private Filter<Format> numberCondition(String op, String text, Getter<Long> getter) {
+            long value = parseNumber(text);
+            switch (op) {
+                case "=":
+                    return format -> {
+                        Long actual = getter.get(format);
+                        return actual != null && actual == value;
+                    };
+                case "!=":
+                    return format -> {
+                        Long actual = getter.get(format);
+                        return actual != null && actual != value;
+                    };
+                case "<":
+                    return format -> {
+                        Long actual = getter.get(format);
+                        return actual != null && actual < value;
+                    };
+                case "<=":
+                    return format -> {
+                        Long actual = getter.get(format);
+                        return actual != null && actual <= value;
+                    };
+                case ">":
+                    return format -> {
+                        Long actual = getter.get(format);
+                        return actual != null && actual > value;
+                    };
+                case ">=":
+                    return format -> {
+                        Long actual = getter.get(format);
+                        return actual != null && actual >= value;
+                    };
+                default:
+                    throw error("Operator '" + op + "' is not supported for numeric fields");
+            }
+        }
+
+        // accepts k/m/g suffixes (powers of 1024) as in filesize<=50m
+        private long parseNumber(String text) {
+            long multiplier = 1;
+            char last = Character.toLowerCase(text.charAt(text.length() - 1));
+            if (last == 'k' || last == 'm' || last == 'g') {
+                multiplier = last == 'k' ? 1L << 10 : last == 'm' ? 1L << 20 : 1L << 30;
+                text = text.substring(0, text.length() - 1);
+            }
+            try {
+                return Long.parseLong(text) * multiplier;
+            } catch (NumberFormatException e) {
+                throw error("Number expected, got '" + text + "'");
+            }
+        }
+
+        private static Long toLong(Integer value) {
+            return value != null ? Long.valueOf(value) : null;
+        }
+
+        private static String codecs(Format format) {
+            String mimeType = format.mimeType();
+            if (mimeType == null) {
+                return null;
+            }
+            int start = mimeType.indexOf("codecs=\"");
+            if (start < 0) {
+                return null;
+            }
+            start += 8;
+            int end = mimeType.indexOf('"', start);
+            return end > start ? mimeType.substring(start, end) : null;
+        }
+
+        private boolean accept(char c) {
+            skipSpaces();
+            if (pos < source.length() && source.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw error("'" + c + "' expected");
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < source.length() && source.charAt(pos) == ' ') {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in format selector: " + source);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Getter<T> {
+        T get(Format format);
+    }
+}
@@ -10,7 +10,8 @@ import com.github.kiulian.downloader.model.videos.formats.Format;
 import com.github.kiulian.downloader.model.videos.formats.VideoFormat;
 import com.github.kiulian.downloader.model.subtitles.SubtitlesInfo;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class VideoInfo {
@@ -18,11 +19,13 @@ public class VideoInfo {
     private final VideoDetails videoDetails;
     private final List<Format> formats;
     private final List<SubtitlesInfo> subtitlesInfo;
+    private final FormatCatalog catalog;
 
     public VideoInfo(VideoDetails videoDetails, List<Format> formats, List<SubtitlesInfo> subtitlesInfo) {
         this.videoDetails = videoDetails;
-        this.formats = formats;
+        this.formats = Collections.unmodifiableList(new ArrayList<>(formats));
         this.subtitlesInfo = subtitlesInfo;
+        this.catalog = new FormatCatalog(this.formats);
     }
 
     public VideoDetails details() {
@@ -33,6 +36,13 @@ public class VideoInfo {
         return formats;
     }
 
+    /**
+     * @return index of the formats, built when this object was created
+     */
+    public FormatCatalog catalog() {
+        return catalog;
+    }
+
     public List<SubtitlesInfo> subtitlesInfo() {
         return subtitlesInfo;
     }
@@ -41,89 +51,58 @@ public class VideoInfo {
         return filter.select(formats);
     }
 
+    /**
+     * @return formats picked by the selector, see {@link FormatSelector}
+     */
+    public List<Format> selectFormats(FormatSelector selector) {
+        return selector.select(catalog);
+    }
+
+    /**
+     * Compiles the expression on every call, prefer {@link #selectFormats(FormatSelector)} for repeated use.
+     */
+    public List<Format> selectFormats(String expression) {
+        return FormatSelector.compile(expression).select(catalog);
+    }
+
     public Format findFormatByItag(int itag) {
-        for (Format format : formats) {
-            if (format.itag().id() == itag)
-                return format;
-        }
-        return null;
+        return catalog.byItag(itag);
     }
 
+    /**
+     * @return unmodifiable list in the order of the response, see {@link FormatCatalog#videoWithAudioFormats()} for best quality first
+     */
     public List<VideoWithAudioFormat> videoWithAudioFormats() {
-        List<VideoWithAudioFormat> find = new LinkedList<>();
-
-        for (Format format : formats) {
-            if (format instanceof VideoWithAudioFormat) {
-                find.add((VideoWithAudioFormat) format);
-            }
-        }
-        return find;
+        return catalog.listedVideoWithAudioFormats();
     }
 
     public VideoFormat bestVideoWithAudioFormat() {
-        VideoFormat bestFormat = null;
-        for (Format format : formats) {
-            if (!(format instanceof VideoWithAudioFormat)) {
-                continue;
-            }
-            VideoFormat videoFormat = (VideoFormat) format;
-            if (bestFormat == null || videoFormat.videoQuality().compare(bestFormat.videoQuality()) > 0) {
-                bestFormat = videoFormat;
-            }
-        }
-        return bestFormat;
+        List<VideoWithAudioFormat> formats = catalog.videoWithAudioFormats();
+        return formats.isEmpty() ? null : formats.get(0);
     }
 
+    /**
+     * @return unmodifiable list in the order of the response, see {@link FormatCatalog#videoFormats()} for best quality first
+     */
     public List<VideoFormat> videoFormats() {
-        List<VideoFormat> find = new LinkedList<>();
-
-        for (Format format : formats) {
-            if (format instanceof VideoFormat) {
-                find.add((VideoFormat) format);
-            }
-        }
-        return find;
+        return catalog.listedVideoFormats();
     }
 
     public VideoFormat bestVideoFormat() {
-        VideoFormat bestFormat = null;
-        for (Format format : formats) {
-            if (!(format instanceof VideoFormat)) {
-                continue;
-            }
-            VideoFormat videoFormat = (VideoFormat) format;
-            if (bestFormat == null || videoFormat.videoQuality().compare(bestFormat.videoQuality()) > 0) {
-                bestFormat = videoFormat;
-            }
-        }
-        return bestFormat;
+        List<VideoFormat> formats = catalog.videoFormats();
+        return formats.isEmpty() ? null : formats.get(0);
     }
 
+    /**
+     * @return unmodifiable list in the order of the response, see {@link FormatCatalog#audioFormats()} for best quality first
+     */
     public List<AudioFormat> audioFormats() {
-        List<AudioFormat> find = new LinkedList<>();
-
-        for (Format format : formats) {
-            if (!(format instanceof AudioFormat)) {
-                continue;
-            }
-            find.add((AudioFormat) format);
-        }
-        return find;
+        return catalog.listedAudioFormats();
     }
 
     public AudioFormat bestAudioFormat() {
-        AudioFormat bestFormat = null;
-        for (Format format : formats) {
-            if (!(format instanceof AudioFormat)) {
-                continue;
-            }
-            AudioFormat audioFormat = (AudioFormat) format;
-            if (bestFormat == null || audioFormat.audioQuality().compare(bestFormat.audioQuality()) > 0) {
-                bestFormat = audioFormat;
-            }
-        }
-        return bestFormat;
+        List<AudioFormat> formats = catalog.audioFormats();
+        return formats.isEmpty() ? null : formats.get(0);
     }
 
-
 }
@@ -37,7 +37,7 @@ public class AudioFormat extends Format {
     }
 
     public AudioQuality audioQuality() {
-        return audioQuality != null ? audioQuality : itag.audioQuality();
+        return audioQuality != null ? audioQuality : ItagRegistry.audioQuality(itagId);
     }
 
     public Integer audioSampleRate() {
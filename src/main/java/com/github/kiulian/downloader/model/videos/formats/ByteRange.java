@@ -0,0 +1,56 @@
+package com.github.kiulian.downloader.model.videos.formats;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * Inclusive range of bytes of a stream, e.g. location of the initialization segment or of the
+ * segment index of an adaptive format.
+ */
+public class ByteRange {
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid range " + start + "-" + end);
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param json {"start": "0", "end": "219"}, nullable
+     * @return range or {@code null} if json is missing or malformed
+     */
+    static ByteRange fromJson(JSONObject json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return new ByteRange(Long.parseLong(json.getString("start")), Long.parseLong(json.getString("end")));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public long start() {
+        return start;
+    }
+
+    public long end() {
+        return end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * @return value for the "range" url parameter, e.g. "0-219"
+     */
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
@@ -2,13 +2,9 @@ package com.github.kiulian.downloader.model.videos.formats;
 
 import com.alibaba.fastjson.JSONObject;
 import com.github.kiulian.downloader.model.Extension;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 public abstract class Format {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(Format.class);
-
     public static final String AUDIO = "audio";
     public static final String VIDEO = "video";
     public static final String AUDIO_VIDEO = "audio/video";
@@ -16,7 +12,9 @@ public abstract class Format {
     private final boolean isAdaptive;
 
     protected final Itag itag;
+    protected final int itagId;
     protected final String url;
+    protected final StreamUrl streamUrl;
     protected final String mimeType;
     protected final Extension extension;
     protected final Integer bitrate;
@@ -24,27 +22,26 @@ public abstract class Format {
     protected final Long lastModified;
     protected final Long approxDurationMs;
     protected final String clientVersion;
+    protected final ByteRange initRange;
+    protected final ByteRange indexRange;
 
     protected Format(JSONObject json, boolean isAdaptive, String clientVersion) {
         this.isAdaptive = isAdaptive;
         this.clientVersion = clientVersion;
 
-        Itag itag;
-        try {
-            itag = Itag.valueOf("i" + json.getInteger("itag"));
-        } catch (IllegalArgumentException e) {
-            LOGGER.error("Format init failed", e);
-            itag = Itag.unknown;
-            itag.setId(json.getIntValue("itag"));
-        }
-        this.itag = itag;
+        itagId = json.getIntValue("itag");
+        Itag itag = Itag.find(itagId);
+        this.itag = itag != null ? itag : Itag.unknown;
 
         url = json.getString("url").replace("\\u0026", "&");
+        streamUrl = StreamUrl.parse(url);
         mimeType = json.getString("mimeType");
         bitrate = json.getInteger("bitrate");
         contentLength = json.getLong("contentLength");
         lastModified = json.getLong("lastModified");
         approxDurationMs = json.getLong("approxDurationMs");
+        initRange = ByteRange.fromJson(json.getJSONObject("initRange"));
+        indexRange = ByteRange.fromJson(json.getJSONObject("indexRange"));
 
         if (mimeType == null || mimeType.isEmpty()) {
             extension = Extension.UNKNOWN;
@@ -77,10 +74,20 @@ public abstract class Format {
         return clientVersion;
     }
 
+    /**
+     * @return itag constant, {@link Itag#unknown} for ids missing from {@link Itag}
+     */
     public Itag itag() {
         return itag;
     }
 
+    /**
+     * @return itag id, also for ids missing from {@link Itag}
+     */
+    public int itagId() {
+        return itagId;
+    }
+
     public Integer bitrate() {
         return bitrate;
     }
@@ -93,6 +100,13 @@ public abstract class Format {
         return url;
     }
 
+    /**
+     * @return parsed url
+     */
+    public StreamUrl streamUrl() {
+        return streamUrl;
+    }
+
     public Long contentLength() {
         return contentLength;
     }
@@ -105,7 +119,34 @@ public abstract class Format {
         return approxDurationMs;
     }
 
+    /**
+     * @return content length if known, otherwise estimated from bitrate and duration, -1 if it can't be estimated
+     */
+    public long expectedSize() {
+        if (contentLength != null) {
+            return contentLength;
+        }
+        if (bitrate == null || approxDurationMs == null || approxDurationMs <= 0) {
+            return -1;
+        }
+        return bitrate * approxDurationMs / 8000;
+    }
+
     public Extension extension() {
         return extension;
     }
+
+    /**
+     * @return range of the initialization segment (adaptive formats only) or {@code null}
+     */
+    public ByteRange initRange() {
+        return initRange;
+    }
+
+    /**
+     * @return range of the segment index (sidx, cues), adaptive formats only, or {@code null}
+     */
+    public ByteRange indexRange() {
+        return indexRange;
+    }
 }
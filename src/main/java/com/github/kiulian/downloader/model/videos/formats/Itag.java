@@ -150,6 +150,22 @@ public enum Itag {
     i779(VideoQuality.large),
     i780(VideoQuality.large);
 
+    // constants indexed by id, unknown excluded
+    private static final Itag[] BY_ID;
+
+    static {
+        int max = 0;
+        for (Itag itag : values()) {
+            max = Math.max(max, itag.id);
+        }
+        BY_ID = new Itag[max + 1];
+        for (Itag itag : values()) {
+            if (itag != unknown) {
+                BY_ID[itag.id] = itag;
+            }
+        }
+    }
+
     protected int id;
     private VideoQuality videoQuality;
     private AudioQuality audioQuality;
@@ -177,6 +193,15 @@ public enum Itag {
         this.isVRor3D = isVRor3D;
     }
 
+    /**
+     * Lookup by id without building the constant name, ids registered in {@link ItagRegistry} are not covered.
+     *
+     * @return constant with the id or {@code null}
+     */
+    public static Itag find(int id) {
+        return id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+
     public void setId(int id) {
         this.id = id;
     }
@@ -193,6 +218,10 @@ public enum Itag {
         return audioQuality;
     }
 
+    public boolean isVRor3D() {
+        return isVRor3D;
+    }
+
     public boolean isVideo() {
         return this != unknown && videoQuality != VideoQuality.noVideo;
     }
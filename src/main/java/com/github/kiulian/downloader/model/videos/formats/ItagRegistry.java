@@ -0,0 +1,97 @@
+package com.github.kiulian.downloader.model.videos.formats;
+
+import com.github.kiulian.downloader.model.videos.quality.AudioQuality;
+import com.github.kiulian.downloader.model.videos.quality.VideoQuality;
+
+/**
+ * Itags missing from {@link Itag}, added at runtime so formats using them are parsed instead of skipped.
+ * <p>
+ * Constants of {@link Itag} and ids registered once are never replaced. Formats of registered ids keep
+ * {@link Itag#unknown} as {@link Format#itag()}, their id is given by {@link Format#itagId()}.
+ */
+public final class ItagRegistry {
+
+    private static final Object LOCK = new Object();
+    // copy on write, indexed by id
+    private static volatile Entry[] extra = new Entry[0];
+
+    private ItagRegistry() {
+    }
+
+    /**
+     * @return false if the id is a constant of {@link Itag} or was registered before, nothing is changed then
+     */
+    public static boolean register(int id, VideoQuality videoQuality, AudioQuality audioQuality) {
+        if (id <= 0 || videoQuality == null || audioQuality == null) {
+            throw new IllegalArgumentException("Invalid itag " + id);
+        }
+        if (Itag.find(id) != null) {
+            return false;
+        }
+        synchronized (LOCK) {
+            Entry[] current = extra;
+            if (id < current.length && current[id] != null) {
+                return false;
+            }
+            Entry[] updated = new Entry[Math.max(current.length, id + 1)];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[id] = new Entry(videoQuality, audioQuality);
+            extra = updated;
+        }
+        return true;
+    }
+
+    /**
+     * @return true for constants of {@link Itag} and registered ids
+     */
+    public static boolean isSupported(int id) {
+        return Itag.find(id) != null || entry(id) != null;
+    }
+
+    /**
+     * @return video quality of the itag, {@link VideoQuality#unknown} for unsupported ids
+     */
+    public static VideoQuality videoQuality(int id) {
+        Itag itag = Itag.find(id);
+        if (itag != null) {
+            return itag.videoQuality();
+        }
+        Entry entry = entry(id);
+        return entry != null ? entry.videoQuality : VideoQuality.unknown;
+    }
+
+    /**
+     * @return audio quality of the itag, {@link AudioQuality#unknown} for unsupported ids
+     */
+    public static AudioQuality audioQuality(int id) {
+        Itag itag = Itag.find(id);
+        if (itag != null) {
+            return itag.audioQuality();
+        }
+        Entry entry = entry(id);
+        return entry != null ? entry.audioQuality : AudioQuality.unknown;
+    }
+
+    public static boolean isVideo(int id) {
+        return isSupported(id) && videoQuality(id) != VideoQuality.noVideo;
+    }
+
+    public static boolean isAudio(int id) {
+        return isSupported(id) && audioQuality(id) != AudioQuality.noAudio;
+    }
+
+    private static Entry entry(int id) {
+        Entry[] current = extra;
+        return id > 0 && id < current.length ? current[id] : null;
+    }
+
+    private static final class Entry {
+        private final VideoQuality videoQuality;
+        private final AudioQuality audioQuality;
+
+        Entry(VideoQuality videoQuality, AudioQuality audioQuality) {
+            this.videoQuality = videoQuality;
+            this.audioQuality = audioQuality;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.kiulian.downloader.model.videos.formats;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * Ready to fetch stream url of a single format, without the rest of video info.
+ */
+public class ResolvedFormat {
+
+    private final String videoId;
+    private final int itag;
+    private final String url;
+    private final StreamUrl streamUrl;
+    private final String mimeType;
+    private final boolean isAdaptive;
+    private final Long contentLength;
+    private final Long expiresAt;
+    private final ByteRange initRange;
+    private final ByteRange indexRange;
+
+    public ResolvedFormat(String videoId, JSONObject json, boolean isAdaptive) {
+        this.videoId = videoId;
+        this.itag = json.getIntValue("itag");
+        this.url = json.getString("url").replace("\\u0026", "&");
+        this.mimeType = json.getString("mimeType");
+        this.isAdaptive = isAdaptive;
+        this.streamUrl = StreamUrl.parse(url);
+        Long contentLength = json.getLong("contentLength");
+        if (contentLength == null && streamUrl.contentLength() >= 0) {
+            contentLength = streamUrl.contentLength();
+        }
+        this.contentLength = contentLength;
+        this.expiresAt = streamUrl.expiresAt() >= 0 ? streamUrl.expiresAt() : null;
+        this.initRange = ByteRange.fromJson(json.getJSONObject("initRange"));
+        this.indexRange = ByteRange.fromJson(json.getJSONObject("indexRange"));
+    }
+
+    public String videoId() {
+        return videoId;
+    }
+
+    public int itag() {
+        return itag;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public StreamUrl streamUrl() {
+        return streamUrl;
+    }
+
+    public String mimeType() {
+        return mimeType;
+    }
+
+    public boolean isAdaptive() {
+        return isAdaptive;
+    }
+
+    /**
+     * @return size in bytes or {@code null} if unknown
+     */
+    public Long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return unix time in seconds after which the url is not valid anymore, {@code null} if unknown
+     */
+    public Long expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return range of the initialization segment (adaptive formats only) or {@code null}
+     */
+    public ByteRange initRange() {
+        return initRange;
+    }
+
+    /**
+     * @return range of the segment index (sidx, cues), adaptive formats only, or {@code null}
+     */
+    public ByteRange indexRange() {
+        return indexRange;
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.kiulian.downloader.model.videos.formats;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable stream url split into base and query parameters once. Values are kept url encoded,
+ * the typed accessors are computed at parse time.
+ */
+public final class StreamUrl {
+
+    private final String url;
+    private final String base;
+    private final Map<String, String> parameters;
+    private final long expiresAt;
+    private final long contentLength;
+    private final long durationMillis;
+
+    private StreamUrl(String url, String base, Map<String, String> parameters) {
+        this.url = url;
+        this.base = base;
+        this.parameters = parameters;
+        this.expiresAt = parseLong(parameters.get("expire"));
+        this.contentLength = parseLong(parameters.get("clen"));
+        String dur = parameters.get("dur");
+        long durationMillis = -1;
+        if (dur != null) {
+            try {
+                durationMillis = (long) (Double.parseDouble(dur) * 1000);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        this.durationMillis = durationMillis;
+    }
+
+    public static StreamUrl parse(String url) {
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return new StreamUrl(url, url, Collections.emptyMap());
+        }
+        Map<String, String> parameters = new LinkedHashMap<>();
+        int start = query + 1;
+        while (start < url.length()) {
+            int end = url.indexOf('&', start);
+            if (end < 0) {
+                end = url.length();
+            }
+            int equals = url.indexOf('=', start);
+            if (equals < 0 || equals > end) {
+                parameters.put(url.substring(start, end), "");
+            } else {
+                parameters.put(url.substring(start, equals), url.substring(equals + 1, end));
+            }
+            start = end + 1;
+        }
+        return new StreamUrl(url, url.substring(0, query), Collections.unmodifiableMap(parameters));
+    }
+
+    private static long parseLong(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return scheme, host and path
+     */
+    public String base() {
+        return base;
+    }
+
+    /**
+     * @return url encoded query parameters in their original order
+     */
+    public Map<String, String> parameters() {
+        return parameters;
+    }
+
+    /**
+     * @return url encoded value or {@code null}
+     */
+    public String parameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * @return decoded value or {@code null}
+     */
+    public String decodedParameter(String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    /**
+     * @return unix time in seconds from the "expire" parameter, -1 if unknown
+     */
+    public long expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return whether the url expires within the given time, false if the expiry is unknown
+     */
+    public boolean expiresWithin(long millis) {
+        return expiresAt > 0 && expiresAt * 1000 <= System.currentTimeMillis() + millis;
+    }
+
+    /**
+     * @return length in bytes from the "clen" parameter, -1 if unknown
+     */
+    public long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return duration from the "dur" parameter, -1 if unknown
+     */
+    public long durationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return decoded "mime" parameter, e.g. video/mp4, or {@code null}
+     */
+    public String mimeType() {
+        return decodedParameter("mime");
+    }
+
+    /**
+     * @return whether the url carries a signature
+     */
+    public boolean isSigned() {
+        return parameters.containsKey("sig") || parameters.containsKey("signature") || parameters.containsKey("lsig");
+    }
+
+    /**
+     * @return copy with the parameter replaced or appended, the value is url encoded
+     */
+    public StreamUrl with(String name, String value) {
+        String encoded;
+        try {
+            encoded = URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        Map<String, String> parameters = new LinkedHashMap<>(this.parameters);
+        parameters.put(name, encoded);
+
+        StringBuilder sb = new StringBuilder(url.length() + name.length() + encoded.length() + 2).append(base);
+        char separator = '?';
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            sb.append(separator).append(parameter.getKey()).append('=').append(parameter.getValue());
+            separator = '&';
+        }
+        return new StreamUrl(sb.toString(), base, Collections.unmodifiableMap(parameters));
+    }
+
+    /**
+     * Builds the url of a part of the stream, first..last inclusive, in a single allocation.
+     */
+    public String rangeUrl(String clientVersion, long first, long last, int partNumber) {
+        StringBuilder sb = new StringBuilder(url.length() + 64).append(url);
+        sb.append(parameters.isEmpty() ? '?' : '&');
+        if (clientVersion != null) {
+            sb.append("cver=").append(clientVersion).append('&');
+        }
+        sb.append("range=").append(first).append('-').append(last);
+        if (partNumber > 0) {
+            sb.append("&rn=").append(partNumber);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
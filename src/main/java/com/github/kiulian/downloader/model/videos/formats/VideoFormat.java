@@ -46,7 +46,7 @@ public class VideoFormat extends Format {
     }
 
     public VideoQuality videoQuality() {
-        return videoQuality != null ? videoQuality : itag.videoQuality();
+        return videoQuality != null ? videoQuality : ItagRegistry.videoQuality(itagId);
     }
 
     public String qualityLabel() {
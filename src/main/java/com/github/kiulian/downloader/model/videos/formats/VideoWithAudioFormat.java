@@ -39,7 +39,7 @@ public class VideoWithAudioFormat extends VideoFormat {
     }
 
     public AudioQuality audioQuality() {
-        return audioQuality != null ? audioQuality : itag.audioQuality();
+        return audioQuality != null ? audioQuality : ItagRegistry.audioQuality(itagId);
     }
 
     public Integer audioSampleRate() {
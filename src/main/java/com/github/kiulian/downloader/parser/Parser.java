@@ -3,11 +3,16 @@ package com.github.kiulian.downloader.parser;
 import java.util.List;
 
 import com.github.kiulian.downloader.downloader.request.*;
+import com.github.kiulian.downloader.downloader.response.BatchIterator;
+import com.github.kiulian.downloader.downloader.response.PagedIterator;
 import com.github.kiulian.downloader.downloader.response.Response;
 import com.github.kiulian.downloader.model.playlist.PlaylistInfo;
+import com.github.kiulian.downloader.model.playlist.PlaylistVideoDetails;
 import com.github.kiulian.downloader.model.search.SearchResult;
+import com.github.kiulian.downloader.model.search.SearchResultItem;
 import com.github.kiulian.downloader.model.subtitles.SubtitlesInfo;
 import com.github.kiulian.downloader.model.videos.VideoInfo;
+import com.github.kiulian.downloader.model.videos.formats.ResolvedFormat;
 
 public interface Parser {
 
@@ -15,14 +20,26 @@ public interface Parser {
 
     Response<VideoInfo> parseVideo(RequestVideoInfo request);
 
+    BatchIterator<VideoInfo> parseVideoBatch(RequestVideoInfoBatch request);
+
+    /* Format urls */
+
+    Response<List<ResolvedFormat>> resolveFormatUrls(RequestFormatUrls request);
+
+    BatchIterator<List<ResolvedFormat>> resolveFormatUrlsBatch(RequestFormatUrlsBatch request);
+
     /* Playlist */
 
     Response<PlaylistInfo> parsePlaylist(RequestPlaylistInfo request);
 
+    PagedIterator<PlaylistVideoDetails> iteratePlaylist(RequestPlaylistInfo request);
+
     /* Channel uploads */
 
     Response<PlaylistInfo> parseChannelsUploads(RequestChannelUploads request);
 
+    PagedIterator<PlaylistVideoDetails> iterateChannelUploads(RequestChannelUploads request);
+
     /* Subtitles */
 
     Response<List<SubtitlesInfo>> parseSubtitlesInfo(RequestSubtitlesInfo request);
@@ -33,6 +50,8 @@ public interface Parser {
 
     Response<SearchResult> parseSearchContinuation(RequestSearchContinuation request);
 
+    PagedIterator<SearchResultItem> iterateSearchResult(RequestSearchResult request);
+
     Response<SearchResult> parseSearcheable(RequestSearchable request);
 
 }
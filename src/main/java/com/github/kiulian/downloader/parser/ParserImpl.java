@@ -9,13 +9,18 @@ import com.github.kiulian.downloader.YoutubeException.BadPageException;
 import com.github.kiulian.downloader.cipher.Cipher;
 import com.github.kiulian.downloader.cipher.CipherFactory;
 import com.github.kiulian.downloader.cipher.CipherFunction;
+import com.github.kiulian.downloader.cipher.ThrottlingCipher;
+import com.github.kiulian.downloader.downloader.Cancellation;
 import com.github.kiulian.downloader.downloader.Downloader;
 import com.github.kiulian.downloader.downloader.YoutubeCallback;
 import com.github.kiulian.downloader.downloader.client.ClientType;
 import com.github.kiulian.downloader.downloader.request.*;
+import com.github.kiulian.downloader.downloader.response.BatchIterator;
+import com.github.kiulian.downloader.downloader.response.PagedIterator;
 import com.github.kiulian.downloader.downloader.response.Response;
 import com.github.kiulian.downloader.downloader.response.ResponseImpl;
 import com.github.kiulian.downloader.extractor.Extractor;
+import com.github.kiulian.downloader.extractor.JsonScanner;
 import com.github.kiulian.downloader.model.playlist.PlaylistDetails;
 import com.github.kiulian.downloader.model.playlist.PlaylistInfo;
 import com.github.kiulian.downloader.model.playlist.PlaylistVideoDetails;
@@ -26,14 +31,14 @@ import com.github.kiulian.downloader.model.videos.VideoDetails;
 import com.github.kiulian.downloader.model.videos.VideoInfo;
 import com.github.kiulian.downloader.model.videos.formats.*;
 
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,9 +47,23 @@ public class ParserImpl implements Parser {
     private static final String BASE_API_URL = "https://www.youtube.com/youtubei/v1";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ParserImpl.class);
+    // the rest of the player response (ads, storyboards, microformat, ...) is never read, so it is
+    // skipped instead of parsed; the kept subtrees are still JSONObjects the model classes are built from
+    private static final Set<String> PLAYER_RESPONSE_KEYS = new HashSet<>(Arrays.asList(
+            "videoDetails", "streamingData", "captions", "playabilityStatus", "responseContext"));
+    private static final Set<String> PLAYER_RESPONSE_FORMATS_KEYS = new HashSet<>(Arrays.asList(
+            "streamingData", "playabilityStatus"));
+    private static final Set<String> PLAYER_RESPONSE_DETAILS_KEYS = new HashSet<>(Arrays.asList(
+            "videoDetails", "playabilityStatus"));
 
     private static class DelegatedCipherFactory implements CipherFactory {
+        // players are rolled out several times a day, an older transform is likely to be wrong
+        private static final long THROTTLING_CIPHER_MAX_AGE_MILLIS = 60 * 60 * 1000;
+
         Cipher lastCipher;
+        ThrottlingCipher lastThrottlingCipher;
+        String lastThrottlingJsUrl;
+        long lastThrottlingCipherAt;
         final CipherFactory factory;
 
         DelegatedCipherFactory(CipherFactory factory) {
@@ -61,6 +80,22 @@ public class ParserImpl implements Parser {
 
         }
 
+        /**
+         * Without a js url the cipher of the last seen player is returned, but only for
+         * {@link #THROTTLING_CIPHER_MAX_AGE_MILLIS} after that player was seen, null afterwards.
+         */
+        @Override
+        public ThrottlingCipher createThrottlingCipher(String jsUrl) throws YoutubeException {
+            synchronized (factory) {
+                if (jsUrl == null)
+                    return getFallbackThrottlingCipher();
+                lastThrottlingCipher = factory.createThrottlingCipher(jsUrl);
+                lastThrottlingJsUrl = jsUrl;
+                lastThrottlingCipherAt = System.currentTimeMillis();
+                return lastThrottlingCipher;
+            }
+        }
+
         @Override
         public void addInitialFunctionPattern(int priority, String regex) {
             factory.addInitialFunctionPattern(priority, regex);
@@ -77,6 +112,21 @@ public class ParserImpl implements Parser {
             }
         }
 
+        ThrottlingCipher getFallbackThrottlingCipher() {
+            synchronized (factory) {
+                if (lastThrottlingCipher == null) {
+                    return null;
+                }
+                if (System.currentTimeMillis() - lastThrottlingCipherAt > THROTTLING_CIPHER_MAX_AGE_MILLIS) {
+                    LOGGER.debug("Throttling cipher of {} expired", lastThrottlingJsUrl);
+                    lastThrottlingCipher = null;
+                    lastThrottlingJsUrl = null;
+                    return null;
+                }
+                return lastThrottlingCipher;
+            }
+        }
+
         void invalidateLastCipher() {
             this.lastCipher = null;
         }
@@ -86,6 +136,8 @@ public class ParserImpl implements Parser {
     private final Downloader downloader;
     private final Extractor extractor;
     private final DelegatedCipherFactory cipherFactory;
+    // visitor id of the last player response, sent back like a browser session does
+    private volatile String visitorData;
 
 
     public ParserImpl(Config config, Downloader downloader, Extractor extractor, CipherFactory cipherFactory) {
@@ -101,18 +153,33 @@ public class ParserImpl implements Parser {
     public Response<VideoInfo> parseVideo(RequestVideoInfo request) {
         if (request.isAsync()) {
             ExecutorService executorService = config.getExecutorService();
-            Future<VideoInfo> result = executorService.submit(() -> parseVideo(request.getVideoId(), request.getCallback(), request.getClientType(), request));
+            Future<VideoInfo> result = executorService.submit(() -> parseVideo(request.getVideoId(), request.getCallback(), request.getClientType(config.getClientScoreboard()), request));
             return ResponseImpl.fromFuture(result);
         }
         try {
-            VideoInfo result = parseVideo(request.getVideoId(), request.getCallback(), request.getClientType(), request);
+            VideoInfo result = parseVideo(request.getVideoId(), request.getCallback(), request.getClientType(config.getClientScoreboard()), request);
             return ResponseImpl.from(result);
         } catch (YoutubeException e) {
             return ResponseImpl.error(e);
         }
     }
 
+    @Override
+    public BatchIterator<VideoInfo> parseVideoBatch(RequestVideoInfoBatch request) {
+        YoutubeCallback<VideoInfo> callback = request.getCallback();
+        return new BatchIterator<>(request.getVideoIds(), videoId -> {
+            RequestVideoInfo videoRequest = request.createRequest(videoId);
+            return parseVideo(videoId, callback, videoRequest.getClientType(config.getClientScoreboard()), videoRequest);
+        }, config.getExecutorService(), request.getConcurrency());
+    }
+
     private VideoInfo parseVideo(String videoId, YoutubeCallback<VideoInfo> callback, ClientType client, RequestVideoInfo originalRequest) throws YoutubeException {
+        if (originalRequest.isDetailsOnly()) {
+            return parseVideoDetailsOnly(videoId, callback, client, originalRequest);
+        }
+        if (originalRequest.isRace()) {
+            return parseVideoRace(videoId, callback, originalRequest);
+        }
         // try to spoof android
         // workaround for issue https://github.com/sealedtx/java-youtube-downloader/issues/97
         VideoInfo videoInfo = parseVideoAndroid(videoId, callback, client, originalRequest);
@@ -125,11 +192,252 @@ public class ParserImpl implements Parser {
         return videoInfo;
     }
 
-    private VideoInfo parseVideoAndroid(String videoId, YoutubeCallback<VideoInfo> callback, ClientType client, RequestVideoInfo originalRequest) throws YoutubeException {
+    /**
+     * Runs {@link #parseVideoAndroid} for the request clients, staggered by the request delay,
+     * and returns the first playable result with formats.
+     * Losing requests are cancelled, their http calls are cancelled as well, so they don't keep
+     * a worker busy until a response or timeout; their results are discarded.
+     */
+    private VideoInfo parseVideoRace(String videoId, YoutubeCallback<VideoInfo> callback, RequestVideoInfo originalRequest) throws YoutubeException {
+        List<ClientType> clients = originalRequest.getRaceClients(config.getClientScoreboard());
+        CompletionService<VideoInfo> completionService = new ExecutorCompletionService<>(config.getWorkerExecutorService());
+        List<Future<VideoInfo>> attempts = new ArrayList<>(clients.size());
+        List<Cancellation> cancellations = new ArrayList<>(clients.size());
+        VideoInfo unplayable = null;
+        VideoInfo winner = null;
+        int finished = 0;
+        try {
+            attempts.add(submitRaceAttempt(completionService, videoId, clients.get(0), originalRequest, cancellations));
+            while (winner == null && finished < attempts.size()) {
+                boolean pending = attempts.size() < clients.size();
+                Future<VideoInfo> done = pending
+                        ? completionService.poll(originalRequest.getRaceStaggerMillis(), TimeUnit.MILLISECONDS)
+                        : completionService.take();
+                if (done == null) {
+                    // no answer within the stagger delay, hedge with the next client
+                    attempts.add(submitRaceAttempt(completionService, videoId, clients.get(attempts.size()), originalRequest, cancellations));
+                    continue;
+                }
+                finished++;
+                VideoInfo videoInfo = null;
+                try {
+                    videoInfo = done.get();
+                } catch (ExecutionException e) {
+                    LOGGER.debug("Race attempt for {} failed: {}", videoId, e.getCause() == null ? e : e.getCause().getMessage());
+                }
+                if (videoInfo != null && videoInfo.details().isDownloadable() && !videoInfo.formats().isEmpty()) {
+                    winner = videoInfo;
+                } else {
+                    if (videoInfo != null && unplayable == null) {
+                        unplayable = videoInfo;
+                    }
+                    if (pending) {
+                        // failed early, don't wait for the stagger delay
+                        attempts.add(submitRaceAttempt(completionService, videoId, clients.get(attempts.size()), originalRequest, cancellations));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            YoutubeException ex = new YoutubeException.DownloadException("Interrupted while racing clients for " + videoId);
+            if (callback != null) {
+                callback.onError(ex);
+            }
+            throw ex;
+        } finally {
+            for (Future<VideoInfo> attempt : attempts) {
+                attempt.cancel(true);
+            }
+            for (Cancellation cancellation : cancellations) {
+                cancellation.cancel();
+            }
+        }
+
+        if (winner == null) {
+            winner = unplayable != null ? unplayable : parseVideoWeb(videoId, callback, originalRequest);
+        }
+        if (callback != null) {
+            callback.onFinished(winner);
+        }
+        return winner;
+    }
+
+    /**
+     * Only the videoDetails subtree of the player response is parsed, formats, signature
+     * deciphering and captions are skipped. The watch page is used only if the api call failed.
+     */
+    private VideoInfo parseVideoDetailsOnly(String videoId, YoutubeCallback<VideoInfo> callback, ClientType client, RequestVideoInfo originalRequest) throws YoutubeException {
+        RequestWebpage request = createPlayerRequest(videoId, client, originalRequest);
+        long startedAt = System.currentTimeMillis();
+        Response<String> response = downloader.downloadWebpage(request);
+        long latency = System.currentTimeMillis() - startedAt;
+
+        JSONObject playerResponse = null;
+        if (response.ok()) {
+            try {
+                playerResponse = JsonScanner.parseObject(response.data(), PLAYER_RESPONSE_DETAILS_KEYS);
+            } catch (Exception e) {
+                LOGGER.debug("Could not parse player response of {}: {}", videoId, e.getMessage());
+            }
+        }
+        boolean hasDetails = playerResponse != null && playerResponse.containsKey("videoDetails");
+        if (!hasDetails) {
+            // details alone don't tell whether the client gets playable formats, only failures are recorded
+            recordClient(client, false, latency, 0, 0);
+        }
+
+        if (!hasDetails) {
+            JSONObject playerConfig = downloadPlayerConfig(videoId, callback, originalRequest);
+            playerResponse = playerConfig.getJSONObject("args").getJSONObject("player_response");
+            if (!playerResponse.containsKey("videoDetails")) {
+                YoutubeException e = badResponse("videoDetails not found. ", playerResponse);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+                throw e;
+            }
+        }
+
+        VideoInfo videoInfo = new VideoInfo(new VideoDetails(playerResponse.getJSONObject("videoDetails"), null),
+                Collections.emptyList(), Collections.emptyList());
+        if (callback != null) {
+            callback.onFinished(videoInfo);
+        }
+        return videoInfo;
+    }
+
+    @Override
+    public Response<List<ResolvedFormat>> resolveFormatUrls(RequestFormatUrls request) {
+        if (request.isAsync()) {
+            ExecutorService executorService = config.getExecutorService();
+            Future<List<ResolvedFormat>> result = executorService.submit(() -> resolveFormatUrls(request.getVideoId(), request.getItags(), request.getCallback(), request.getClientType(config.getClientScoreboard()), request));
+            return ResponseImpl.fromFuture(result);
+        }
+        try {
+            List<ResolvedFormat> result = resolveFormatUrls(request.getVideoId(), request.getItags(), request.getCallback(), request.getClientType(config.getClientScoreboard()), request);
+            return ResponseImpl.from(result);
+        } catch (YoutubeException e) {
+            return ResponseImpl.error(e);
+        }
+    }
+
+    @Override
+    public BatchIterator<List<ResolvedFormat>> resolveFormatUrlsBatch(RequestFormatUrlsBatch request) {
+        YoutubeCallback<List<ResolvedFormat>> callback = request.getCallback();
+        return new BatchIterator<>(request.getVideoIds(), videoId -> {
+            RequestFormatUrls formatsRequest = request.createRequest(videoId);
+            return resolveFormatUrls(videoId, formatsRequest.getItags(), callback, formatsRequest.getClientType(config.getClientScoreboard()), formatsRequest);
+        }, config.getExecutorService(), request.getConcurrency());
+    }
+
+    /**
+     * Reads only streamingData of the player response and deciphers only the requested formats.
+     * Falls back to the player response of the watch page if the api call failed.
+     */
+    private List<ResolvedFormat> resolveFormatUrls(String videoId, int[] itags, YoutubeCallback<List<ResolvedFormat>> callback, ClientType client, RequestFormatUrls originalRequest) throws YoutubeException {
+        try {
+            RequestWebpage request = createPlayerRequest(videoId, client, originalRequest);
+            long startedAt = System.currentTimeMillis();
+            Response<String> response = downloader.downloadWebpage(request);
+            long latency = System.currentTimeMillis() - startedAt;
+
+            JSONObject playerResponse = null;
+            if (response.ok()) {
+                try {
+                    playerResponse = JsonScanner.parseObject(response.data(), PLAYER_RESPONSE_FORMATS_KEYS);
+                } catch (Exception e) {
+                    LOGGER.debug("Could not parse player response of {}: {}", videoId, e.getMessage());
+                }
+            }
+
+            String jsUrl = null;
+            JSONObject playerConfig = null;
+            if (playerResponse == null || !playerResponse.containsKey("streamingData")) {
+                recordClient(client, false, latency, 0, 0);
+                playerConfig = downloadPlayerConfig(videoId, null, originalRequest);
+                playerResponse = playerConfig.getJSONObject("args").getJSONObject("player_response");
+                if (!playerResponse.containsKey("streamingData")) {
+                    throw badResponse("streamingData not found. ", playerResponse);
+                }
+                jsUrl = extractor.extractJsUrlFromConfig(playerConfig, videoId);
+            }
+
+            List<ResolvedFormat> formats;
+            try {
+                formats = resolveFormats(videoId, playerResponse.getJSONObject("streamingData"), itags, jsUrl);
+            } catch (YoutubeException.InvalidJsUrlException e) {
+                if (playerConfig == null) {
+                    playerConfig = downloadPlayerConfig(videoId, null, originalRequest);
+                }
+                jsUrl = extractor.extractJsUrlFromConfig(playerConfig, videoId);
+                formats = resolveFormats(videoId, playerResponse.getJSONObject("streamingData"), itags, jsUrl);
+            }
+            if (jsUrl == null) {
+                recordClient(client, !formats.isEmpty(), latency, 0, 0);
+            }
+            if (callback != null) {
+                callback.onFinished(formats);
+            }
+            return formats;
+        } catch (YoutubeException e) {
+            if (callback != null) {
+                callback.onError(e);
+            }
+            throw e;
+        }
+    }
+
+    private List<ResolvedFormat> resolveFormats(String videoId, JSONObject streamingData, int[] itags, String jsUrl) throws YoutubeException {
+        JSONArray formats = streamingData.getJSONArray("formats");
+        JSONArray adaptiveFormats = streamingData.getJSONArray("adaptiveFormats");
+        List<ResolvedFormat> resolved = new ArrayList<>(itags.length);
+        for (int itag : itags) {
+            boolean isAdaptive = false;
+            JSONObject json = findFormatJson(formats, itag);
+            if (json == null) {
+                isAdaptive = true;
+                json = findFormatJson(adaptiveFormats, itag);
+            }
+            if (json == null) {
+                continue;
+            }
+            try {
+                resolveFormatUrl(json, jsUrl);
+                resolved.add(new ResolvedFormat(videoId, json, isAdaptive));
+            } catch (YoutubeException.CipherException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.warn("Could not resolve url of itag {} for {}: {}", itag, videoId, e.getMessage());
+            }
+        }
+        return resolved;
+    }
+
+    private static JSONObject findFormatJson(JSONArray formats, int itag) {
+        if (formats == null) {
+            return null;
+        }
+        for (int i = 0; i < formats.size(); i++) {
+            JSONObject json = formats.getJSONObject(i);
+            if (json.getIntValue("itag") == itag && !"FORMAT_STREAM_TYPE_OTF".equals(json.getString("type"))) {
+                return json;
+            }
+        }
+        return null;
+    }
+
+    private Future<VideoInfo> submitRaceAttempt(CompletionService<VideoInfo> completionService, String videoId, ClientType client,
+                                                RequestVideoInfo originalRequest, List<Cancellation> cancellations) {
+        Cancellation cancellation = new Cancellation();
+        cancellations.add(cancellation);
+        return completionService.submit(() -> parseVideoAndroid(videoId, null, client, originalRequest, cancellation));
+    }
+
+    private RequestWebpage createPlayerRequest(String videoId, ClientType client, Request<?, ?> originalRequest) {
         String url = BASE_API_URL + "/player?key=" + ANDROID_APIKEY;
 
 
-        RequestWebpage request = new RequestWebpage(url, "POST", client.getBody().fluentPut("videoId", videoId).toJSONString())
+        RequestWebpage request = new RequestWebpage(url, "POST", client.createBody(videoId, null, null, visitorData))
             .header("Content-Type", "application/json");
 
         // 传递原始请求的代理设置
@@ -170,22 +478,51 @@ public class ParserImpl implements Parser {
                 request.header(entry.getKey(), entry.getValue());
             }
         }
+        return request;
+    }
+
+    private VideoInfo parseVideoAndroid(String videoId, YoutubeCallback<VideoInfo> callback, ClientType client, RequestVideoInfo originalRequest) throws YoutubeException {
+        return parseVideoAndroid(videoId, callback, client, originalRequest, null);
+    }
 
+    /**
+     * @param cancellation nullable, cancels the player api call of a race attempt
+     */
+    private VideoInfo parseVideoAndroid(String videoId, YoutubeCallback<VideoInfo> callback, ClientType client, RequestVideoInfo originalRequest,
+                                        Cancellation cancellation) throws YoutubeException {
+        RequestWebpage request = createPlayerRequest(videoId, client, originalRequest).cancellation(cancellation);
+
+        long startedAt = System.currentTimeMillis();
         Response<String> response = downloader.downloadWebpage(request);
+        long latency = System.currentTimeMillis() - startedAt;
         if (!response.ok()) {
+            // a cancelled attempt says nothing about the client
+            boolean cancelled = cancellation != null && cancellation.isCancelled();
+            if (!cancelled && !(response.error() instanceof InterruptedIOException)) {
+                recordClient(client, false, latency, 0, 0);
+            }
             return null;
         }
 
         JSONObject playerResponse;
         try {
-            playerResponse = JSONObject.parseObject(response.data());
+            playerResponse = JsonScanner.parseObject(response.data(), PLAYER_RESPONSE_KEYS);
         } catch (Exception ignore) {
+            recordClient(client, false, latency, 0, 0);
             return null;
         }
+        JSONObject playabilityStatus = playerResponse.getJSONObject("playabilityStatus");
+        boolean playable = playabilityStatus == null || "OK".equals(playabilityStatus.getString("status"));
+        // private or removed videos can't be played by any client
+        boolean clientHealthy = playable || isVideoUnavailable(playabilityStatus);
+
+        JSONObject context = playerResponse.getJSONObject("responseContext");
+        if (context != null && context.getString("visitorData") != null) {
+            visitorData = context.getString("visitorData");
+        }
 
         VideoDetails videoDetails = parseVideoDetails(videoId, playerResponse);
         if (videoDetails.isDownloadable()) {
-            JSONObject context = playerResponse.getJSONObject("responseContext");
             String clientVersion = extractor.extractClientVersionFromContext(context);
             List<Format> formats;
             try {
@@ -197,27 +534,76 @@ public class ParserImpl implements Parser {
                     jsUrl = extractor.extractJsUrlFromConfig(playerConfig, videoId);
                     formats = parseFormats(playerResponse, jsUrl, clientVersion);
                 } catch (YoutubeException ex) {
+                    recordClient(client, false, latency, countSupportedFormats(playerResponse), 0);
                     if (callback != null) {
                         callback.onError(ex);
                     }
                     throw ex;
                 }
             } catch (YoutubeException e) {
+                recordClient(client, false, latency, countSupportedFormats(playerResponse), 0);
                 if (callback != null) {
                     callback.onError(e);
                 }
                 throw e;
             }
+            recordClient(client, clientHealthy && !formats.isEmpty(), latency, countSupportedFormats(playerResponse), formats.size());
 
             List<SubtitlesInfo> subtitlesInfo = parseCaptions(playerResponse);
             return new VideoInfo(videoDetails, formats, subtitlesInfo);
         } else {
+            recordClient(client, clientHealthy, latency, 0, 0);
             return new VideoInfo(videoDetails, Collections.emptyList(), Collections.emptyList());
         }
 
     }
 
-    private JSONObject downloadPlayerConfig(String videoId, YoutubeCallback<VideoInfo> callback, RequestVideoInfo originalRequest) throws YoutubeException {
+    /**
+     * Race attempts are cancelled by an interrupt, whatever they observed afterwards says nothing
+     * about the client, so it is not recorded.
+     */
+    private void recordClient(ClientType client, boolean success, long latencyMillis, int formats, int usableFormats) {
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        config.getClientScoreboard().record(client, success, latencyMillis, formats, usableFormats);
+    }
+
+    private static boolean isVideoUnavailable(JSONObject playabilityStatus) {
+        if (playabilityStatus == null) {
+            return false;
+        }
+        String reason = playabilityStatus.getString("reason");
+        return "ERROR".equals(playabilityStatus.getString("status"))
+                || (reason != null && reason.toLowerCase(Locale.ROOT).contains("private"));
+    }
+
+    /**
+     * @return amount of formats which {@link #populateFormats} would try to use: known itags, no otf streams
+     */
+    private static int countSupportedFormats(JSONObject playerResponse) {
+        JSONObject streamingData = playerResponse.getJSONObject("streamingData");
+        if (streamingData == null) {
+            return 0;
+        }
+        return countSupportedFormats(streamingData.getJSONArray("formats")) + countSupportedFormats(streamingData.getJSONArray("adaptiveFormats"));
+    }
+
+    private static int countSupportedFormats(JSONArray jsonFormats) {
+        if (jsonFormats == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < jsonFormats.size(); i++) {
+            JSONObject json = jsonFormats.getJSONObject(i);
+            if (!"FORMAT_STREAM_TYPE_OTF".equals(json.getString("type")) && ItagRegistry.isSupported(json.getIntValue("itag"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private JSONObject downloadPlayerConfig(String videoId, YoutubeCallback<?> callback, Request<?, ?> originalRequest) throws YoutubeException {
         String htmlUrl = "https://www.youtube.com/watch?v=" + videoId;
 
         RequestWebpage request = new RequestWebpage(htmlUrl);
@@ -369,21 +755,18 @@ public class ParserImpl implements Parser {
                 continue; // unsupported otf formats which cause 404 not found
 
             int itagValue = json.getIntValue("itag");
-            Itag itag;
-            try {
-                itag = Itag.valueOf("i" + itagValue);
-            } catch (IllegalArgumentException e) {
-                System.err.println("Error parsing format: unknown itag " + itagValue);
+            if (!ItagRegistry.isSupported(itagValue)) {
+                LOGGER.warn("Error parsing format: unknown itag {}", itagValue);
                 continue;
             }
 
             try {
-                Format format = parseFormat(json, jsUrl, itag, isAdaptive, clientVersion);
+                Format format = parseFormat(json, jsUrl, itagValue, isAdaptive, clientVersion);
                 formats.add(format);
             } catch (YoutubeException.CipherException e) {
                 throw e;
             } catch (YoutubeException e) {
-                System.err.println("Error " + e.getMessage() + " parsing format: " + json);
+                LOGGER.warn("Error {} parsing format: {}", e.getMessage(), json);
             } catch (Exception e) {
                 LOGGER.error("populateFormats error", e);
             }
@@ -391,7 +774,23 @@ public class ParserImpl implements Parser {
     }
 
 
-    private Format parseFormat(JSONObject json, String jsUrl, Itag itag, boolean isAdaptive, String clientVersion) throws YoutubeException {
+    private Format parseFormat(JSONObject json, String jsUrl, int itag, boolean isAdaptive, String clientVersion) throws YoutubeException {
+        resolveFormatUrl(json, jsUrl);
+
+        boolean hasVideo = ItagRegistry.isVideo(itag) || json.containsKey("size") || json.containsKey("width");
+        boolean hasAudio = ItagRegistry.isAudio(itag) || json.containsKey("audioQuality");
+
+        if (hasVideo && hasAudio)
+            return new VideoWithAudioFormat(json, isAdaptive, clientVersion);
+        else if (hasVideo)
+            return new VideoFormat(json, isAdaptive, clientVersion);
+        return new AudioFormat(json, isAdaptive, clientVersion);
+    }
+
+    /**
+     * Puts the deciphered, ready to fetch url of the format json into its "url" field.
+     */
+    private void resolveFormatUrl(JSONObject json, String jsUrl) throws YoutubeException {
         if (json.containsKey("signatureCipher")) {
             JSONObject jsonCipher = new JSONObject();
             String[] cipherData = json.getString("signatureCipher").replace("\\u0026", "&").split("&");
@@ -411,7 +810,8 @@ public class ParserImpl implements Parser {
 
             if (urlWithSig.contains("signature")
                 || (!jsonCipher.containsKey("s") && (urlWithSig.contains("&sig=") || urlWithSig.contains("&lsig=")))) {
-                // do nothing, this is pre-signed videos with signature
+                // pre-signed videos with signature
+                json.put("url", urlWithSig);
             } else if (jsUrl != null || cipherFactory.getLastCipher() != null) {
                 String s = jsonCipher.getString("s");
                 try {
@@ -431,14 +831,46 @@ public class ParserImpl implements Parser {
             }
         }
 
-        boolean hasVideo = itag.isVideo() || json.containsKey("size") || json.containsKey("width");
-        boolean hasAudio = itag.isAudio() || json.containsKey("audioQuality");
+        transformThrottlingParameter(json, jsUrl);
+    }
+
+    /**
+     * Streaming urls carry an "n" parameter which has to be transformed by the player script,
+     * otherwise the download speed is throttled.
+     * <p>
+     * Responses of the mobile clients carry no js url, the transform of the last seen player is used
+     * for them as long as it is recent. Otherwise {@link YoutubeException.InvalidJsUrlException} is
+     * thrown so that the caller fetches the watch page for the current player, which happens for the
+     * first video and then at most once per {@code THROTTLING_CIPHER_MAX_AGE_MILLIS}.
+     */
+    private void transformThrottlingParameter(JSONObject json, String jsUrl) throws YoutubeException {
+        String url = json.getString("url");
+        if (url == null) {
+            return;
+        }
+        StreamUrl streamUrl = StreamUrl.parse(url);
+        String n = streamUrl.decodedParameter("n");
+        if (n == null) {
+            return;
+        }
+
+        ThrottlingCipher throttlingCipher;
+        try {
+            throttlingCipher = cipherFactory.createThrottlingCipher(jsUrl);
+            if (throttlingCipher == null) {
+                throw new YoutubeException.InvalidJsUrlException("n parameter transform is required but no recent js url");
+            }
+        } catch (YoutubeException.InvalidJsUrlException e) {
+            throw e;
+        } catch (YoutubeException e) {
+            LOGGER.warn("n parameter is not transformed, download may be throttled: {}", e.getMessage());
+            return;
+        }
 
-        if (hasVideo && hasAudio)
-            return new VideoWithAudioFormat(json, isAdaptive, clientVersion);
-        else if (hasVideo)
-            return new VideoFormat(json, isAdaptive, clientVersion);
-        return new AudioFormat(json, isAdaptive, clientVersion);
+        String transformed = throttlingCipher.transformN(n);
+        if (!n.equals(transformed)) {
+            json.put("url", streamUrl.with("n", transformed).toString());
+        }
     }
 
     private List<SubtitlesInfo> parseCaptions(JSONObject playerResponse) {
@@ -476,11 +908,11 @@ public class ParserImpl implements Parser {
     public Response<PlaylistInfo> parsePlaylist(RequestPlaylistInfo request) {
         if (request.isAsync()) {
             ExecutorService executorService = config.getExecutorService();
-            Future<PlaylistInfo> result = executorService.submit(() -> parsePlaylist(request.getPlaylistId(), request.getCallback(), request.getClientType()));
+            Future<PlaylistInfo> result = executorService.submit(() -> parsePlaylist(request.getPlaylistId(), request.getCallback(), request.getClientType(config.getClientScoreboard())));
             return ResponseImpl.fromFuture(result);
         }
         try {
-            PlaylistInfo result = parsePlaylist(request.getPlaylistId(), request.getCallback(), request.getClientType());
+            PlaylistInfo result = parsePlaylist(request.getPlaylistId(), request.getCallback(), request.getClientType(config.getClientScoreboard()));
             return ResponseImpl.from(result);
         } catch (YoutubeException e) {
             return ResponseImpl.error(e);
@@ -489,6 +921,23 @@ public class ParserImpl implements Parser {
     }
 
     private PlaylistInfo parsePlaylist(String playlistId, YoutubeCallback<PlaylistInfo> callback, ClientType client) throws YoutubeException {
+        JSONObject initialData = downloadPlaylistInitialData(playlistId, callback);
+
+        PlaylistDetails playlistDetails = parsePlaylistDetails(playlistId, initialData);
+
+        List<PlaylistVideoDetails> videos;
+        try {
+            videos = parsePlaylistVideos(initialData, playlistDetails.videoCount(), client);
+        } catch (YoutubeException e) {
+            if (callback != null) {
+                callback.onError(e);
+            }
+            throw e;
+        }
+        return new PlaylistInfo(playlistDetails, videos);
+    }
+
+    private JSONObject downloadPlaylistInitialData(String playlistId, YoutubeCallback<?> callback) throws YoutubeException {
         String htmlUrl = "https://www.youtube.com/playlist?list=" + playlistId;
 
         Response<String> response = downloader.downloadWebpage(new RequestWebpage(htmlUrl));
@@ -514,19 +963,7 @@ public class ParserImpl implements Parser {
         if (!initialData.containsKey("metadata")) {
             throw new YoutubeException.BadPageException("Invalid initial data json");
         }
-
-        PlaylistDetails playlistDetails = parsePlaylistDetails(playlistId, initialData);
-
-        List<PlaylistVideoDetails> videos;
-        try {
-            videos = parsePlaylistVideos(initialData, playlistDetails.videoCount(), client);
-        } catch (YoutubeException e) {
-            if (callback != null) {
-                callback.onError(e);
-            }
-            throw e;
-        }
-        return new PlaylistInfo(playlistDetails, videos);
+        return initialData;
     }
 
     private PlaylistDetails parsePlaylistDetails(String playlistId, JSONObject initialData) {
@@ -557,10 +994,24 @@ public class ParserImpl implements Parser {
     }
 
     private List<PlaylistVideoDetails> parsePlaylistVideos(JSONObject initialData, int videoCount, ClientType client) throws YoutubeException {
-        JSONObject content;
+        List<PlaylistVideoDetails> videos;
+        if (videoCount > 0) {
+            videos = new ArrayList<>(videoCount);
+        } else {
+            videos = new ArrayList<>();
+        }
+
+        JSONObject content = getPlaylistContent(initialData);
+        while (content != null) {
+            PlaylistContinuation continuation = populatePlaylist(content, videos);
+            content = continuation == null ? null : loadPlaylistContinuation(continuation, client);
+        }
+        return videos;
+    }
 
+    private JSONObject getPlaylistContent(JSONObject initialData) throws YoutubeException {
         try {
-            content = initialData.getJSONObject("contents")
+            return initialData.getJSONObject("contents")
                 .getJSONObject("twoColumnBrowseResultsRenderer")
                 .getJSONArray("tabs").getJSONObject(0)
                 .getJSONObject("tabRenderer")
@@ -573,20 +1024,24 @@ public class ParserImpl implements Parser {
         } catch (NullPointerException e) {
             throw new YoutubeException.BadPageException("Playlist initial data not found");
         }
+    }
 
-        List<PlaylistVideoDetails> videos;
-        if (videoCount > 0) {
-            videos = new ArrayList<>(videoCount);
-        } else {
-            videos = new LinkedList<>();
-        }
-
+    private static final class PlaylistContinuation {
+        final String token;
+        final String clickTrackingParams;
 
-        populatePlaylist(content, videos, client);
-        return videos;
+        PlaylistContinuation(String token, String clickTrackingParams) {
+            this.token = token;
+            this.clickTrackingParams = clickTrackingParams;
+        }
     }
 
-    private void populatePlaylist(JSONObject content, List<PlaylistVideoDetails> videos, ClientType client) throws YoutubeException {
+    /**
+     * Adds videos of the page to the list.
+     *
+     * @return continuation of the next page or {@code null} if this is the last page
+     */
+    private PlaylistContinuation populatePlaylist(JSONObject content, List<PlaylistVideoDetails> videos) throws YoutubeException {
         JSONArray contents;
         if (content.containsKey("contents")) { // parse first items (up to 100)
             contents = content.getJSONArray("contents");
@@ -598,12 +1053,12 @@ public class ParserImpl implements Parser {
                 .getJSONObject("nextContinuationData");
             String continuation = nextContinuationData.getString("continuation");
             String ctp = nextContinuationData.getString("clickTrackingParams");
-            loadPlaylistContinuation(continuation, ctp, videos, client);
-            return;
+            return new PlaylistContinuation(continuation, ctp);
         } else { // nothing found
-            return;
+            return null;
         }
 
+        PlaylistContinuation next = null;
         for (int i = 0; i < contents.size(); i++) {
             JSONObject contentsItem = contents.getJSONObject(i);
             if (contentsItem.containsKey("playlistVideoRenderer")) {
@@ -629,22 +1084,19 @@ public class ParserImpl implements Parser {
                                 () -> new YoutubeException.BadPageException("Could not find continuation token"));
 
                     String ctp = continuationEndpoint.getString("clickTrackingParams");
-                    loadPlaylistContinuation(continuation, ctp, videos, client);
+                    next = new PlaylistContinuation(continuation, ctp);
                 }
             }
         }
+        return next;
     }
 
-    private void loadPlaylistContinuation(String continuation, String ctp, List<PlaylistVideoDetails> videos, ClientType client) throws YoutubeException {
-        JSONObject content;
+    private JSONObject loadPlaylistContinuation(PlaylistContinuation continuation, ClientType client) throws YoutubeException {
         String url = BASE_API_URL + "/browse?key=" + ANDROID_APIKEY;
-        JSONObject body = client.getBody()
-            .fluentPut("continuation", continuation)
-            .fluentPut("clickTracking", new JSONObject()
-                .fluentPut("clickTrackingParams", ctp));
+        byte[] body = client.createBody(null, continuation.token, continuation.clickTrackingParams, visitorData);
 
 
-        RequestWebpage request = new RequestWebpage(url, "POST", body.toJSONString())
+        RequestWebpage request = new RequestWebpage(url, "POST", body)
             .header("X-YouTube-Client-Name", "1")
             .header("X-YouTube-Client-Version", client.getVersion())
             .header("Content-Type", "application/json");
@@ -659,31 +1111,77 @@ public class ParserImpl implements Parser {
             JSONObject jsonResponse = JSON.parseObject(html);
 
             if (jsonResponse.containsKey("continuationContents")) {
-                content = jsonResponse
+                return jsonResponse
                     .getJSONObject("continuationContents")
                     .getJSONObject("playlistVideoListContinuation");
             } else {
-                content = jsonResponse.getJSONArray("onResponseReceivedActions")
+                return jsonResponse.getJSONArray("onResponseReceivedActions")
                     .getJSONObject(0)
                     .getJSONObject("appendContinuationItemsAction");
             }
-            populatePlaylist(content, videos, client);
-        } catch (YoutubeException e) {
-            throw e;
         } catch (Exception e) {
             throw new YoutubeException.BadPageException("Could not parse playlist continuation json");
         }
     }
 
+    @Override
+    public PagedIterator<PlaylistVideoDetails> iteratePlaylist(RequestPlaylistInfo request) {
+        return new PagedIterator<>(new PlaylistPageLoader(request.getPlaylistId(), null, request.getClientType(config.getClientScoreboard())),
+                config.getExecutorService(), request.getPrefetch());
+    }
+
+    @Override
+    public PagedIterator<PlaylistVideoDetails> iterateChannelUploads(RequestChannelUploads request) {
+        return new PagedIterator<>(new PlaylistPageLoader(null, request.getChannelId(), request.getClientType(config.getClientScoreboard())),
+                config.getExecutorService(), request.getPrefetch());
+    }
+
+    /**
+     * Loads videos of a playlist page by page. For channel uploads the playlist id is looked up
+     * along with the first page.
+     */
+    private class PlaylistPageLoader implements PagedIterator.PageLoader<PlaylistVideoDetails> {
+        private final String playlistId;
+        private final String channelId;
+        private final ClientType client;
+        // null - initial page is not loaded yet
+        private PlaylistContinuation continuation;
+        private boolean done;
+
+        PlaylistPageLoader(String playlistId, String channelId, ClientType client) {
+            this.playlistId = playlistId;
+            this.channelId = channelId;
+            this.client = client;
+        }
+
+        @Override
+        public List<PlaylistVideoDetails> nextPage() throws YoutubeException {
+            if (done) {
+                return null;
+            }
+            JSONObject content;
+            if (continuation == null) {
+                String id = playlistId != null ? playlistId : findUploadsPlaylistId(channelId, null);
+                content = getPlaylistContent(downloadPlaylistInitialData(id, null));
+            } else {
+                content = loadPlaylistContinuation(continuation, client);
+            }
+            List<PlaylistVideoDetails> videos = new ArrayList<>();
+            continuation = populatePlaylist(content, videos);
+            done = continuation == null;
+            return videos;
+        }
+    }
+
     @Override
     public Response<PlaylistInfo> parseChannelsUploads(RequestChannelUploads request) {
         if (request.isAsync()) {
             ExecutorService executorService = config.getExecutorService();
-            Future<PlaylistInfo> result = executorService.submit(() -> parseChannelsUploads(request.getChannelId(), request.getCallback(), request.getClientType()));
+            Future<PlaylistInfo> result = executorService.submit(() -> parseChannelsUploads(request.getChannelId(), request.getCallback(), request.getClientType(config.getClientScoreboard())));
             return ResponseImpl.fromFuture(result);
         }
         try {
-            PlaylistInfo result = parseChannelsUploads(request.getChannelId(), request.getCallback(), request.getClientType());
+            PlaylistInfo result = parseChannelsUploads(request.getChannelId(), request.getCallback(), request.getClientType(config.getClientScoreboard()));
             return ResponseImpl.from(result);
         } catch (YoutubeException e) {
             return ResponseImpl.error(e);
@@ -691,6 +1189,11 @@ public class ParserImpl implements Parser {
     }
 
     private PlaylistInfo parseChannelsUploads(String channelId, YoutubeCallback<PlaylistInfo> callback, ClientType client) throws YoutubeException {
+        String playlistId = findUploadsPlaylistId(channelId, callback);
+        return parsePlaylist(playlistId, callback, client);
+    }
+
+    private String findUploadsPlaylistId(String channelId, YoutubeCallback<?> callback) throws YoutubeException {
         String playlistId = null;
         if (channelId.length() == 24 && channelId.startsWith("UC")) { // channel id pattern
             playlistId = "UU" + channelId.substring(2); // replace "UC" with "UU"
@@ -724,7 +1227,7 @@ public class ParserImpl implements Parser {
             }
             throw e;
         }
-        return parsePlaylist(playlistId, callback, client);
+        return playlistId;
     }
 
     @Override
@@ -793,17 +1296,39 @@ public class ParserImpl implements Parser {
     public Response<SearchResult> parseSearchContinuation(RequestSearchContinuation request) {
         if (request.isAsync()) {
             ExecutorService executorService = config.getExecutorService();
-            Future<SearchResult> result = executorService.submit(() -> parseSearchContinuation(request.continuation(), request.getCallback(), request.getClientType()));
+            Future<SearchResult> result = executorService.submit(() -> parseSearchContinuation(request.continuation(), request.getCallback(), request.getClientType(config.getClientScoreboard())));
             return ResponseImpl.fromFuture(result);
         }
         try {
-            SearchResult result = parseSearchContinuation(request.continuation(), request.getCallback(), request.getClientType());
+            SearchResult result = parseSearchContinuation(request.continuation(), request.getCallback(), request.getClientType(config.getClientScoreboard()));
             return ResponseImpl.from(result);
         } catch (YoutubeException e) {
             return ResponseImpl.error(e);
         }
     }
 
+    @Override
+    public PagedIterator<SearchResultItem> iterateSearchResult(RequestSearchResult request) {
+        String query = request.query();
+        String parameters = request.encodeParameters();
+        ClientType client = request.getClientType(config.getClientScoreboard());
+        return new PagedIterator<>(new PagedIterator.PageLoader<SearchResultItem>() {
+            private SearchResult last;
+
+            @Override
+            public List<SearchResultItem> nextPage() throws YoutubeException {
+                if (last == null) {
+                    last = parseSearchResult(query, parameters, null);
+                } else if (last.hasContinuation()) {
+                    last = parseSearchContinuation(((ContinuatedSearchResult) last).continuation(), null, client);
+                } else {
+                    return null;
+                }
+                return last.items();
+            }
+        }, config.getExecutorService(), request.getPrefetch(), request.getLimit(), request.getStopFilter());
+    }
+
     @Override
     public Response<SearchResult> parseSearcheable(RequestSearchable request) {
         if (request.isAsync()) {
@@ -881,13 +1406,10 @@ public class ParserImpl implements Parser {
 
     private SearchResult parseSearchContinuation(SearchContinuation continuation, YoutubeCallback<SearchResult> callback, ClientType client) throws YoutubeException {
         String url = BASE_API_URL + "/search?key=" + ANDROID_APIKEY + "&prettyPrint=false";
-        JSONObject body = client.getBody()
-            .fluentPut("continuation", continuation.token())
-            .fluentPut("clickTracking", new JSONObject()
-                .fluentPut("clickTrackingParams", continuation.clickTrackingParameters()));
+        byte[] body = client.createBody(null, continuation.token(), continuation.clickTrackingParameters(), visitorData);
 
 
-        RequestWebpage request = new RequestWebpage(url, "POST", body.toJSONString())
+        RequestWebpage request = new RequestWebpage(url, "POST", body)
             .header("X-YouTube-Client-Name", "1")
             .header("X-YouTube-Client-Version", continuation.clientVersion())
             .header("Content-Type", "application/json");
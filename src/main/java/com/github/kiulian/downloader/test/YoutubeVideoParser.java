@@ -114,7 +114,7 @@ public class YoutubeVideoParser {
 
                     if (!video.formats().isEmpty()) {
                         Format format = video.formats().get(0);
-                        System.out.println("\n[步骤3] 开始下载: " + getExtension(format) + " (itag:" + format.itag().id() + ")");
+                        System.out.println("\n[步骤3] 开始下载: " + getExtension(format) + " (itag:" + format.itagId() + ")");
                         System.out.println(format.url());
 
                         downloadVideoWithOkHttp(format, video.details().title(), host, port, username, password, false);
@@ -220,7 +220,7 @@ public class YoutubeVideoParser {
      */
     public static void downloadVideoWithOkHttp(Format format, String title, String proxyHost, int proxyPort, String username, String password, boolean fullDownload) {
         try {
-            String fileName = "test_video_" + format.itag().id() + ".mp4";
+            String fileName = "test_video_" + format.itagId() + ".mp4";
             File outputFile = new File(fileName);
 
             // 创建OkHttpClient
@@ -398,8 +398,8 @@ public class YoutubeVideoParser {
                 return format.extension().value();
             }
             // 根据itag推测格式
-            if (format.itag() != null) {
-                int itag = format.itag().id();
+            if (format.itagId() > 0) {
+                int itag = format.itagId();
                 if (itag == 18 || itag == 22) return "mp4";
                 if (itag >= 243 && itag <= 248) return "webm";
                 if (itag >= 133 && itag <= 160) return "mp4";
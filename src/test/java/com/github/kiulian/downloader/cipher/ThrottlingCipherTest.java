@@ -0,0 +1,113 @@
+package com.github.kiulian.downloader.cipher;
+
+import com.github.kiulian.downloader.Config;
+import com.github.kiulian.downloader.YoutubeException;
+import com.github.kiulian.downloader.downloader.DownloaderImpl;
+import com.github.kiulian.downloader.downloader.request.RequestWebpage;
+import com.github.kiulian.downloader.downloader.response.ResponseImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThrottlingCipherTest {
+
+    private static final String PLAYER_URL = "https://www.youtube.com/s/player/%s/player_ias.vflset/en_US/base.js";
+
+    @Test
+    @DisplayName("transform function found by its call site")
+    void callSite() throws YoutubeException {
+        CachedCipherFactory factory = new CachedCipherFactory(new PlayerDownloader("base_2021.js"));
+        ThrottlingCipher cipher = factory.createThrottlingCipher(playerUrl("2021"));
+        assertEquals("cbadef", cipher.transformN("abcdef"));
+    }
+
+    @Test
+    @DisplayName("transform function held in an array, using a global lookup table behind a typeof guard")
+    void globalLookupTable() throws YoutubeException {
+        CachedCipherFactory factory = new CachedCipherFactory(new PlayerDownloader("base_2024.js"));
+        ThrottlingCipher cipher = factory.createThrottlingCipher(playerUrl("2024"));
+        assertEquals("321cba", cipher.transformN("abc123"));
+    }
+
+    @Test
+    @DisplayName("transform function found by its catch block when the call site is unknown")
+    void marker() throws YoutubeException {
+        CachedCipherFactory factory = new CachedCipherFactory(new PlayerDownloader("base_marker.js"));
+        ThrottlingCipher cipher = factory.createThrottlingCipher(playerUrl("marker"));
+        assertEquals("cdefab", cipher.transformN("abcdef"));
+    }
+
+    @Test
+    @DisplayName("n is left unchanged when the transform fails inside the player script")
+    void failureInsideScript() throws YoutubeException {
+        CachedCipherFactory factory = new CachedCipherFactory(new PlayerDownloader("base_broken.js"));
+        ThrottlingCipher cipher = factory.createThrottlingCipher(playerUrl("broken"));
+        assertEquals("abcdef", cipher.transformN("abcdef"));
+    }
+
+    @Test
+    @DisplayName("transform function is cached per player version")
+    void cachedPerPlayerVersion() throws YoutubeException {
+        PlayerDownloader downloader = new PlayerDownloader("base_2021.js");
+        CachedCipherFactory factory = new CachedCipherFactory(downloader);
+
+        ThrottlingCipher cipher = factory.createThrottlingCipher(playerUrl("2021"));
+        assertSame(cipher, factory.createThrottlingCipher(playerUrl("2021").replace("en_US", "de_DE")));
+        assertEquals(1, downloader.requests.size());
+
+        assertNotSame(cipher, factory.createThrottlingCipher(playerUrl("2022")));
+        assertEquals(2, downloader.requests.size());
+    }
+
+    @Test
+    @DisplayName("a missing transform function fails once, then n is passed through")
+    void missingFunction() throws YoutubeException {
+        PlayerDownloader downloader = new PlayerDownloader(null);
+        CachedCipherFactory factory = new CachedCipherFactory(downloader);
+
+        assertThrows(YoutubeException.CipherException.class, () -> factory.createThrottlingCipher(playerUrl("empty")));
+        assertEquals("abcdef", factory.createThrottlingCipher(playerUrl("empty")).transformN("abcdef"));
+        assertEquals(1, downloader.requests.size());
+    }
+
+    private static String playerUrl(String version) {
+        return String.format(PLAYER_URL, version);
+    }
+
+    private static class PlayerDownloader extends DownloaderImpl {
+        private final String resource;
+        private final List<String> requests = new ArrayList<>();
+
+        PlayerDownloader(String resource) {
+            super(new Config.Builder().build());
+            this.resource = resource;
+        }
+
+        @Override
+        public ResponseImpl<String> downloadWebpage(RequestWebpage request) {
+            requests.add(request.getDownloadUrl());
+            if (resource == null) {
+                return ResponseImpl.from("var _yt_player={};");
+            }
+            try (InputStream is = ThrottlingCipherTest.class.getResourceAsStream("/player/" + resource)) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, read);
+                }
+                return ResponseImpl.from(new String(os.toByteArray(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                return ResponseImpl.error(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.kiulian.downloader.cipher.js;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsInterpreterTest {
+
+    private final JsInterpreter interpreter = new JsInterpreter();
+
+    private String eval(String expression) {
+        return JsInterpreter.toJsString(interpreter.compileFunction("function(){return " + expression + "}").call(null));
+    }
+
+    @Test
+    @DisplayName("operators follow JavaScript precedence and coercion")
+    void operators() {
+        assertEquals("7", eval("1+2*3"));
+        assertEquals("12", eval("\"1\"+2"));
+        assertEquals("-1", eval("\"1\"-2"));
+        assertEquals("-2", eval("-7%5"));
+        assertEquals("-1", eval("~0"));
+        assertEquals("4294967295", eval("-1>>>0"));
+        assertEquals("true", eval("null==undefined"));
+        assertEquals("false", eval("null===undefined"));
+        assertEquals("b", eval("0||\"b\""));
+    }
+
+    @Test
+    @DisplayName("exponent operator is right associative")
+    void exponent() {
+        assertEquals("1024", eval("2**10"));
+        assertEquals("512", eval("2**3**2"));
+        assertEquals("9", eval("(function(){var x=3;x**=2;return x})()"));
+        assertEquals("NaN", eval("1**Infinity"));
+        assertEquals("NaN", eval("Math.pow(1,Infinity)"));
+    }
+
+    @Test
+    @DisplayName("String can be called as a function and has its statics")
+    void stringFunction() {
+        assertEquals("12.5", eval("String(12.5)"));
+        assertEquals("", eval("String()"));
+        assertEquals("undefined", eval("String(undefined)"));
+        assertEquals("n", eval("String.fromCharCode(110)"));
+        assertEquals("function", eval("typeof String"));
+    }
+
+    @Test
+    @DisplayName("numbers are formatted like Number.prototype.toString")
+    void numberFormatting() {
+        assertEquals("0", eval("-0"));
+        assertEquals("0.30000000000000004", eval("0.1+0.2"));
+        assertEquals("9007199254740992", eval("2**53"));
+        assertEquals("123456789012345680000", eval("123456789012345680000"));
+        assertEquals("1e+21", eval("1e21"));
+        assertEquals("1.5e-7", eval("1.5e-7"));
+        assertEquals("-0.000001", eval("-1e-6"));
+        assertEquals("12345678.5", eval("12345678.5"));
+        assertEquals("Infinity", eval("1/0"));
+    }
+
+    @Test
+    @DisplayName("sort is stable, compares strings by default and puts undefined last")
+    void sort() {
+        assertEquals("1,10,2,3", eval("[3,1,10,2].sort().join()"));
+        assertEquals("1,2,3,10", eval("[3,1,10,2].sort(function(a,b){return a-b}).join()"));
+        assertEquals("b1,b2,a1", eval("[\"b1\",\"a1\",\"b2\"].sort(function(a,b){return a[0]<b[0]?1:a[0]>b[0]?-1:0}).join()"));
+        assertEquals("1,2,", eval("[undefined,2,1].sort().join()"));
+    }
+
+    @Test
+    @DisplayName("arrays hold references, closures capture their scope")
+    void arraysAndClosures() {
+        String source = "function(a){var b=a.split(\"\"),c=[function(d){d.reverse()},b,function(d,e){d.push(e)}];"
+                + "c[0](c[1]);c[2](c[1],\"!\");return b.join(\"\")}";
+        assertEquals("cba!", interpreter.compileFunction(source).call(null, "abc"));
+
+        String counter = "function(){var n=0;return function(){return ++n}}";
+        JsCallable next = (JsCallable) interpreter.compileFunction(counter).call(null);
+        next.call(null);
+        assertEquals("2", JsInterpreter.toJsString(next.call(null)));
+    }
+
+    @Test
+    @DisplayName("control flow: switch fall-through, loops and exceptions")
+    void controlFlow() {
+        String source = "function(x){var r=\"\";switch(x){case 1:r+=\"a\";case 2:r+=\"b\";break;default:r+=\"c\"}"
+                + "for(var i=0;i<3;i++){if(i==1)continue;r+=i}"
+                + "try{throw \"e\"}catch(e){r+=e}finally{r+=\"f\"}return r}";
+        JsCallable function = interpreter.compileFunction(source);
+        assertEquals("ab02ef", function.call(null, 1.0));
+        assertEquals("c02ef", function.call(null, 5.0));
+    }
+
+    @Test
+    @DisplayName("declarations of executed programs become globals")
+    void globals() {
+        interpreter.execute("var XY=\"split;join\".split(\";\");function id(a){return a}");
+        assertEquals("a-b", interpreter.compileFunction("function(a){return id(a[XY[0]](\"\")[XY[1]](\"-\"))}").call(null, "ab"));
+    }
+
+    @Test
+    @DisplayName("scripts which never terminate are stopped")
+    void stepLimit() {
+        JsCallable loop = new JsInterpreter(1000).compileFunction("function(){while(true){}}");
+        JsException e = assertThrows(JsException.class, () -> loop.call(null));
+        assertTrue(e.getMessage().contains("step limit"));
+    }
+
+    @Test
+    @DisplayName("unsupported syntax fails to compile")
+    void unsupportedSyntax() {
+        assertThrows(JsException.class, () -> interpreter.compileFunction("function(a){return a.replace(/x/g,\"\")}"));
+        assertThrows(JsException.class, () -> interpreter.compileFunction("1+2"));
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.kiulian.downloader.downloader;
+
+import com.alibaba.fastjson.JSONObject;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+import com.github.kiulian.downloader.model.videos.formats.VideoWithAudioFormat;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthMeterTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Format large = format(18, 4 * MB);
+    private final Format medium = format(22, 2 * MB);
+    private final Format small = format(36, MB);
+    private final Format unknown = format(17, null);
+
+    @Test
+    @DisplayName("observations are averaged per route, short transfers are ignored")
+    void record() {
+        BandwidthMeter meter = new BandwidthMeter(0.5, 60_000, 1);
+        Proxy proxy = new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("proxy", 8080));
+        assertEquals(-1, meter.bytesPerSecond(null));
+
+        meter.record(null, MB, SECOND);
+        assertEquals(MB, meter.bytesPerSecond(null));
+        assertEquals(MB, meter.bytesPerSecond(Proxy.NO_PROXY));
+        meter.record(null, 2 * MB, SECOND / 2);
+        assertEquals(2 * MB + MB / 2, meter.bytesPerSecond(null));
+
+        meter.record(null, BandwidthMeter.MIN_SAMPLE_BYTES - 1, 1);
+        meter.record(null, MB, 0);
+        assertEquals(2 * MB + MB / 2, meter.bytesPerSecond(null));
+
+        assertEquals(-1, meter.bytesPerSecond(proxy));
+        meter.record(proxy, MB, 2 * SECOND);
+        assertEquals(MB / 2, meter.bytesPerSecond(proxy));
+        assertEquals(2 * MB + MB / 2, meter.bytesPerSecond(null));
+
+        meter.reset();
+        assertEquals(-1, meter.bytesPerSecond(null));
+        assertEquals(-1, meter.bytesPerSecond(proxy));
+    }
+
+    @Test
+    @DisplayName("estimates older than the max age are unknown and restart from the next observation")
+    void maxAge() throws InterruptedException {
+        BandwidthMeter meter = new BandwidthMeter(0.5, 50, 1);
+        meter.record(null, MB, SECOND);
+        Thread.sleep(100);
+        assertEquals(-1, meter.bytesPerSecond(null));
+
+        meter.record(null, 4 * MB, SECOND);
+        assertEquals(4 * MB, meter.bytesPerSecond(null));
+    }
+
+    @Test
+    @DisplayName("the first candidate expected to finish before the deadline is selected")
+    void select() {
+        BandwidthMeter meter = new BandwidthMeter(1, 60_000, 1);
+        meter.record(null, MB, SECOND);
+
+        assertSame(large, meter.select(Arrays.asList(large, medium, small), null, 10_000));
+        assertSame(medium, meter.select(Arrays.asList(large, medium, small), null, 2_500));
+        assertSame(small, meter.select(Arrays.asList(large, medium, small), null, 1_000));
+        // nothing fits, the smallest one is the fastest
+        assertSame(small, meter.select(Arrays.asList(large, small, medium), null, 500));
+        assertEquals(2_000, meter.estimateMillis(medium, null));
+    }
+
+    @Test
+    @DisplayName("the deadline is planned with the headroom share of the bandwidth")
+    void headroom() {
+        BandwidthMeter meter = new BandwidthMeter(1, 60_000, 0.5);
+        meter.record(null, MB, SECOND);
+
+        assertSame(small, meter.select(Arrays.asList(large, medium, small), null, 2_500));
+        assertSame(medium, meter.select(Arrays.asList(large, medium, small), null, 4_000));
+        assertEquals(4_000, meter.estimateMillis(medium, null));
+    }
+
+    @Test
+    @DisplayName("unknown bandwidth selects the best candidate, unknown sizes never fit the deadline")
+    void unknowns() {
+        BandwidthMeter meter = new BandwidthMeter(1, 60_000, 1);
+        assertSame(large, meter.select(Arrays.asList(large, medium, small), null, 1));
+        assertEquals(-1, meter.estimateMillis(medium, null));
+        assertNull(meter.select(Collections.<Format>emptyList(), null, 1_000));
+
+        meter.record(null, MB, SECOND);
+        assertSame(medium, meter.select(Arrays.asList(unknown, medium, small), null, 10_000));
+        assertSame(small, meter.select(Arrays.asList(unknown, medium, small), null, 100));
+        assertSame(unknown, meter.select(Arrays.asList(unknown, format(5, null)), null, 10_000));
+        assertEquals(-1, meter.estimateMillis(unknown, null));
+        // a bitrate without duration does not tell the size
+        JSONObject json = new JSONObject();
+        json.put("itag", 43);
+        json.put("url", "https://example.com/videoplayback?itag=43");
+        json.put("fps", 30);
+        json.put("bitrate", 800_000);
+        Format bitrateOnly = new VideoWithAudioFormat(json, false, "2.0");
+        assertEquals(-1, bitrateOnly.expectedSize());
+        assertSame(small, meter.select(Arrays.asList(bitrateOnly, small), null, 10_000));
+        // no estimate for the proxy route yet
+        Proxy proxy = new Proxy(Proxy.Type.SOCKS, InetSocketAddress.createUnresolved("proxy", 1080));
+        assertSame(large, meter.select(Arrays.asList(large, medium, small), proxy, 100));
+    }
+
+    @Test
+    @DisplayName("invalid weights are rejected")
+    void invalid() {
+        assertThrows(IllegalArgumentException.class, () -> new BandwidthMeter(0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new BandwidthMeter(1.5, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new BandwidthMeter(1, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BandwidthMeter(1, 1, 2));
+    }
+
+    private static Format format(int itag, Long contentLength) {
+        JSONObject json = new JSONObject();
+        json.put("itag", itag);
+        json.put("url", "https://example.com/videoplayback?itag=" + itag);
+        json.put("mimeType", "video/mp4");
+        json.put("fps", 30);
+        json.put("contentLength", contentLength);
+        return new VideoWithAudioFormat(json, false, "2.0");
+    }
+}
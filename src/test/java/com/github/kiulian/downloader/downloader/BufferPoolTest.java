@@ -0,0 +1,141 @@
+package com.github.kiulian.downloader.downloader;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    @DisplayName("a released buffer is taken again from the cache of the thread")
+    void threadCache() {
+        BufferPool pool = new BufferPool(1024, 4, 2);
+        ByteBuffer first = pool.acquireHeap();
+        first.put((byte) 1);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquireHeap();
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(1024, second.remaining());
+        assertEquals(2, pool.acquired());
+        assertEquals(1, pool.misses());
+        assertEquals(1, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("buffers released by one thread are reused by another through the shared stripes")
+    void sharedStripes() throws InterruptedException {
+        BufferPool pool = new BufferPool(1024, 16, 0);
+        ByteBuffer released = pool.acquire();
+        pool.release(released);
+
+        AtomicReference<ByteBuffer> taken = new AtomicReference<>();
+        Thread other = new Thread(() -> taken.set(pool.acquire()));
+        other.start();
+        other.join();
+
+        assertSame(released, taken.get());
+        assertEquals(1, pool.misses());
+        assertEquals(0.5, pool.hitRate());
+    }
+
+    @Test
+    @DisplayName("direct and heap buffers are pooled apart")
+    void kinds() throws IOException {
+        BufferPool pool = new BufferPool(1024, 4, 2);
+        ByteBuffer direct = pool.acquire();
+        assertTrue(direct.isDirect());
+        pool.release(direct);
+
+        ByteBuffer heap = pool.acquireHeap();
+        assertFalse(heap.isDirect());
+        assertSame(direct, pool.acquire());
+
+        assertFalse(pool.acquireFor(new ByteArrayOutputStream()).isDirect());
+        File file = File.createTempFile("pool", ".bin");
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            assertTrue(pool.acquireFor(os).isDirect());
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test
+    @DisplayName("a full pool drops buffers, foreign buffers are ignored")
+    void bounds() {
+        BufferPool pool = new BufferPool(1024, 1, 0);
+        ByteBuffer first = pool.acquireHeap();
+        ByteBuffer second = pool.acquireHeap();
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.dropped());
+        assertEquals(0, pool.inUse());
+
+        pool.release(ByteBuffer.allocate(512));
+        pool.release(ByteBuffer.allocate(1024).asReadOnlyBuffer());
+        pool.release(null);
+        assertEquals(2, pool.acquired() - pool.inUse());
+        assertSame(first, pool.acquireHeap());
+    }
+
+    @Test
+    @DisplayName("a buffer released after a failed write is reused")
+    void releaseAfterFailedWrite() {
+        BufferPool pool = new BufferPool(1024, 4, 2);
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+
+        for (ByteBuffer buffer : new ByteBuffer[]{pool.acquireHeap(), pool.acquire()}) {
+            buffer.put("data".getBytes(StandardCharsets.US_ASCII)).flip();
+            try {
+                assertThrows(IOException.class, () -> pool.write(buffer, failing));
+            } finally {
+                pool.release(buffer);
+            }
+        }
+        assertEquals(0, pool.inUse());
+
+        ByteBuffer reused = pool.acquireHeap();
+        assertEquals(0, reused.position());
+        assertEquals(1024, reused.limit());
+        assertEquals(2, pool.misses());
+    }
+
+    @Test
+    @DisplayName("heap buffers are written from their array, direct buffers through the scratch copy")
+    void write() throws IOException {
+        BufferPool pool = new BufferPool(4, 4, 2);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ByteBuffer heap = pool.acquireHeap();
+        heap.put("ab".getBytes(StandardCharsets.US_ASCII)).flip();
+        pool.write(heap, os);
+        ByteBuffer direct = pool.acquire();
+        direct.put("cdef".getBytes(StandardCharsets.US_ASCII)).flip();
+        pool.write(direct, os);
+
+        assertEquals("abcdef", new String(os.toByteArray(), StandardCharsets.US_ASCII));
+        assertFalse(heap.hasRemaining());
+        assertFalse(direct.hasRemaining());
+    }
+}
@@ -0,0 +1,353 @@
+package com.github.kiulian.downloader.downloader;
+
+import com.alibaba.fastjson.JSONObject;
+import com.github.kiulian.downloader.Config;
+import com.github.kiulian.downloader.downloader.request.RequestVideoMemoryDownload;
+import com.github.kiulian.downloader.downloader.request.RequestVideoStreamDownload;
+import com.github.kiulian.downloader.downloader.request.RequestWebpage;
+import com.github.kiulian.downloader.downloader.response.DownloadedBytes;
+import com.github.kiulian.downloader.downloader.response.Response;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+import com.github.kiulian.downloader.model.videos.formats.VideoWithAudioFormat;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloaderImplTest {
+
+    private static final int PART_LENGTH = 2 * 1024 * 1024;
+    private static final int MB = 1024 * 1024;
+
+    private final byte[] data = new byte[5 * 1024 * 1024 + 123];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    // requests of this range start are cut in the middle, as long as the counter is positive
+    private volatile long brokenStart = -1;
+    private final AtomicInteger breaks = new AtomicInteger();
+    // holds answers of /stall until the test is over
+    private final CountDownLatch stall = new CountDownLatch(1);
+    private final CountDownLatch stalled = new CountDownLatch(1);
+    // parts answered at the same time
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long answerDelayMillis;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(7).nextBytes(data);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/videoplayback", this::handle);
+        server.createContext("/page", exchange -> {
+            byte[] page = "<html>\r\nline\rlast".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, page.length);
+            exchange.getResponseBody().write(page);
+            exchange.close();
+        });
+        server.createContext("/stream", exchange -> {
+            // ignores ranges and announces no length
+            exchange.sendResponseHeaders(200, 0);
+            exchange.getResponseBody().write(data);
+            exchange.close();
+        });
+        server.createContext("/stall", exchange -> {
+            stalled.countDown();
+            try {
+                stall.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        stall.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("a retry resumes after the bytes already written instead of starting over")
+    void retryResumes() throws IOException {
+        brokenStart = PART_LENGTH;
+        breaks.set(1);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Response<Void> response = new DownloaderImpl(new Config.Builder().build())
+                .downloadVideoAsStream(new RequestVideoStreamDownload(format(), os).maxRetries(1));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertArrayEquals(data, os.toByteArray());
+        assertEquals("0-2097151", ranges.get(0));
+        assertEquals("2097152-4194303", ranges.get(1));
+        // the broken part delivered half of its bytes, only the rest is requested again
+        assertTrue(ranges.get(2).startsWith((PART_LENGTH + PART_LENGTH / 2) + "-"), ranges.get(2));
+    }
+
+    @Test
+    @DisplayName("a retry through the writer pipeline resumes as well")
+    void retryResumesThroughPipeline() throws IOException {
+        brokenStart = 2 * PART_LENGTH;
+        breaks.set(1);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Config config = new Config.Builder().writerPipeline(new WriterPipeline()).build();
+        Response<Void> response = new DownloaderImpl(config)
+                .downloadVideoAsStream(new RequestVideoStreamDownload(format(), os).maxRetries(1));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertArrayEquals(data, os.toByteArray());
+    }
+
+    @Test
+    @DisplayName("without retries the failure is reported and nothing is written twice")
+    void noRetry() {
+        brokenStart = PART_LENGTH;
+        breaks.set(1);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Response<Void> response = new DownloaderImpl(new Config.Builder().build())
+                .downloadVideoAsStream(new RequestVideoStreamDownload(format(), os).maxRetries(0));
+
+        assertFalse(response.ok());
+        assertTrue(os.size() < PART_LENGTH + PART_LENGTH / 2 + 1);
+    }
+
+    @Test
+    @DisplayName("stream downloads fall back to the configured concurrency")
+    void configuredConcurrency() throws IOException {
+        answerDelayMillis = 200;
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Response<Void> response = new DownloaderImpl(new Config.Builder().downloadConcurrency(3).build())
+                .downloadVideoAsStream(new RequestVideoStreamDownload(format(), os));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertArrayEquals(data, os.toByteArray());
+        assertTrue(maxInFlight.get() > 1, String.valueOf(maxInFlight.get()));
+    }
+
+    @Test
+    @DisplayName("the request concurrency overrides the configured one")
+    void requestConcurrency() throws IOException {
+        answerDelayMillis = 200;
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Response<Void> response = new DownloaderImpl(new Config.Builder().downloadConcurrency(3).build())
+                .downloadVideoAsStream(new RequestVideoStreamDownload(format(), os).concurrency(1));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertArrayEquals(data, os.toByteArray());
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    @DisplayName("content of known length is read into a single presized buffer")
+    void memoryPresized() {
+        BufferPool pool = new BufferPool();
+        Response<DownloadedBytes> response = new DownloaderImpl(new Config.Builder().bufferPool(pool).build())
+                .downloadVideoToMemory(new RequestVideoMemoryDownload(format()));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        try (DownloadedBytes bytes = response.data()) {
+            assertEquals(1, bytes.chunks().size());
+            assertArrayEquals(data, bytes.toByteArray());
+        }
+        assertEquals(0, pool.acquired());
+    }
+
+    @Test
+    @DisplayName("content of unknown length is chained from pooled chunks and given back on release")
+    void memoryChunks() {
+        BufferPool pool = new BufferPool();
+        Response<DownloadedBytes> response = new DownloaderImpl(new Config.Builder().bufferPool(pool).build())
+                .downloadVideoToMemory(new RequestVideoMemoryDownload(streamFormat()));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        DownloadedBytes bytes = response.data();
+        int chunks = (data.length + pool.bufferSize() - 1) / pool.bufferSize();
+        assertEquals(chunks, bytes.chunks().size());
+        assertEquals(data.length, bytes.size());
+        assertEquals(data.length % pool.bufferSize(), bytes.chunks().get(chunks - 1).remaining());
+        assertArrayEquals(data, bytes.toByteArray());
+        assertEquals(chunks, pool.inUse());
+
+        bytes.release();
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("content exceeding the max size fails and gives its chunks back")
+    void memoryMaxSize() {
+        BufferPool pool = new BufferPool();
+        Response<DownloadedBytes> response = new DownloaderImpl(new Config.Builder().bufferPool(pool).build())
+                .downloadVideoToMemory(new RequestVideoMemoryDownload(streamFormat()).maxSize(MB).maxRetries(0));
+
+        assertFalse(response.ok());
+        assertTrue(response.error().getMessage().contains("max size"), response.error().getMessage());
+        assertTrue(pool.acquired() > 0);
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("a failing sink is detached and reported, the download and the other sinks go on")
+    void failingSink() {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("sink full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("sink full");
+            }
+        };
+        Response<Void> response = new DownloaderImpl(new Config.Builder().build())
+                .downloadVideoAsStream(new RequestVideoStreamDownload(format(), os)
+                        .sink(failing, new YoutubeCallback<OutputStream>() {
+                            @Override
+                            public void onFinished(OutputStream data) {
+                            }
+
+                            @Override
+                            public void onError(Throwable throwable) {
+                                errors.add(throwable);
+                            }
+                        })
+                        .sink(copy));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertArrayEquals(data, os.toByteArray());
+        assertArrayEquals(data, copy.toByteArray());
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getMessage().contains("sink full"), errors.get(0).getMessage());
+    }
+
+    @Test
+    @DisplayName("a failed write gives the transfer buffer back to the pool")
+    void failedWriteReleasesBuffer() {
+        BufferPool pool = new BufferPool();
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Response<Void> response = new DownloaderImpl(new Config.Builder().bufferPool(pool).build())
+                .downloadVideoAsStream(new RequestVideoStreamDownload(format(), failing));
+
+        assertFalse(response.ok());
+        assertTrue(pool.acquired() > 0);
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("pages are read line by line, every line ends with \\n")
+    void webpageLines() {
+        Response<String> response = new DownloaderImpl(new Config.Builder().build())
+                .downloadWebpage(new RequestWebpage("http://localhost:" + server.getAddress().getPort() + "/page"));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertEquals("<html>\nline\nlast\n", response.data());
+    }
+
+    @Test
+    @DisplayName("a cancellation stops the http call waiting for an answer")
+    void cancellation() throws InterruptedException {
+        Cancellation cancellation = new Cancellation();
+        RequestWebpage request = new RequestWebpage("http://localhost:" + server.getAddress().getPort() + "/stall")
+                .cancellation(cancellation)
+                .maxRetries(3);
+        Response<String> response = new DownloaderImpl(new Config.Builder().build()).downloadWebpage(request.async());
+
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+        cancellation.cancel();
+        assertTrue(cancellation.isCancelled());
+        assertFalse(assertTimeoutPreemptively(Duration.ofSeconds(2), () -> response.ok()));
+        assertNotNull(response.error());
+    }
+
+    @Test
+    @DisplayName("line terminators are normalized like BufferedReader.readLine does")
+    void terminateLines() {
+        assertEquals("", DownloaderImpl.terminateLines(""));
+        assertEquals("\n", DownloaderImpl.terminateLines("\n"));
+        assertEquals("\n", DownloaderImpl.terminateLines("\r\n"));
+        assertEquals("\n\n", DownloaderImpl.terminateLines("\r\r"));
+        assertEquals("a\n", DownloaderImpl.terminateLines("a"));
+        assertEquals("a\nb\n", DownloaderImpl.terminateLines("a\nb\n"));
+        assertEquals("a\nb\nc\n\nd\n", DownloaderImpl.terminateLines("a\r\nb\rc\n\nd"));
+        assertEquals("a\n\n", DownloaderImpl.terminateLines("a\n\r"));
+    }
+
+    private Format format() {
+        JSONObject json = new JSONObject();
+        json.put("itag", 18);
+        json.put("url", "http://localhost:" + server.getAddress().getPort() + "/videoplayback?id=abc&itag=18");
+        json.put("mimeType", "video/mp4");
+        json.put("fps", 30);
+        json.put("contentLength", data.length);
+        return new VideoWithAudioFormat(json, false, "2.0");
+    }
+
+    // no length in the json nor in the url
+    private Format streamFormat() {
+        JSONObject json = new JSONObject();
+        json.put("itag", 18);
+        json.put("url", "http://localhost:" + server.getAddress().getPort() + "/stream?id=abc&itag=18");
+        json.put("mimeType", "video/mp4");
+        json.put("fps", 30);
+        return new VideoWithAudioFormat(json, false, "2.0");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String range = query.substring(query.indexOf("range=") + 6).split("&")[0];
+        ranges.add(range);
+        int from = Integer.parseInt(range.split("-")[0]);
+        int to = Integer.parseInt(range.split("-")[1]);
+        int length = to - from + 1;
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(answerDelayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        exchange.sendResponseHeaders(200, length);
+        OutputStream os = exchange.getResponseBody();
+        if (from == brokenStart && breaks.getAndDecrement() > 0) {
+            os.write(data, from, length / 2);
+            os.flush();
+            // drops the connection before the announced length
+            exchange.close();
+            return;
+        }
+        os.write(data, from, length);
+        exchange.close();
+    }
+}
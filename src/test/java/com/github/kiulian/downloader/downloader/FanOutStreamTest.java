@@ -0,0 +1,160 @@
+package com.github.kiulian.downloader.downloader;
+
+import com.github.kiulian.downloader.downloader.request.DownloadSink;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FanOutStreamTest {
+
+    private final BufferPool pool = new BufferPool(1024, 16, 0);
+    private final WriterPipeline pipeline = new WriterPipeline(4, 4096);
+    private final byte[] data = new byte[100_000];
+
+    {
+        new Random(3).nextBytes(data);
+    }
+
+    @Test
+    @DisplayName("every sink gets the bytes of the main output and is closed once finished")
+    void copies() throws IOException {
+        ClosingStream main = new ClosingStream();
+        ClosingStream first = new ClosingStream();
+        ClosingStream second = new ClosingStream();
+        Callback firstCallback = new Callback();
+        FanOutStream fanOut = new FanOutStream(main, Arrays.asList(
+                new DownloadSink(first, firstCallback), new DownloadSink(second, null)), pipeline, pool);
+
+        writeData(fanOut);
+        fanOut.finish();
+        fanOut.close();
+
+        assertArrayEquals(data, main.toByteArray());
+        assertArrayEquals(data, first.toByteArray());
+        assertArrayEquals(data, second.toByteArray());
+        assertTrue(main.closed);
+        assertTrue(first.closed);
+        assertTrue(second.closed);
+        assertEquals(Arrays.asList((OutputStream) first), firstCallback.finished);
+        assertTrue(firstCallback.errors.isEmpty());
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("a failing sink is detached without failing the main output or the other sinks")
+    void failingSink() throws IOException {
+        ClosingStream main = new ClosingStream();
+        ClosingStream healthy = new ClosingStream();
+        FailingStream failing = new FailingStream(10_000);
+        Callback healthyCallback = new Callback();
+        Callback failingCallback = new Callback();
+        FanOutStream fanOut = new FanOutStream(main, Arrays.asList(
+                new DownloadSink(failing, failingCallback), new DownloadSink(healthy, healthyCallback)), pipeline, pool);
+
+        writeData(fanOut);
+        fanOut.finish();
+        fanOut.close();
+
+        assertArrayEquals(data, main.toByteArray());
+        assertArrayEquals(data, healthy.toByteArray());
+        assertEquals(1, healthyCallback.finished.size());
+        assertTrue(failingCallback.finished.isEmpty());
+        assertEquals(1, failingCallback.errors.size());
+        assertTrue(failingCallback.errors.get(0).getMessage().contains("sink full"), failingCallback.errors.get(0).getMessage());
+        assertTrue(failing.closed);
+        assertTrue(failing.size() <= 10_000);
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("a failing main output fails the write, abort detaches the sinks with the cause")
+    void failingMain() {
+        ClosingStream sink = new ClosingStream();
+        Callback callback = new Callback();
+        FanOutStream fanOut = new FanOutStream(new FailingStream(0), Arrays.asList(new DownloadSink(sink, callback)), pipeline, pool);
+
+        IOException e = assertThrows(IOException.class, () -> fanOut.write(data, 0, 10));
+        fanOut.abort(e);
+
+        assertEquals(0, sink.size());
+        assertTrue(sink.closed);
+        assertEquals(Arrays.asList((Throwable) e), callback.errors);
+        assertTrue(callback.finished.isEmpty());
+        // nothing is left to finish
+        fanOut.finish();
+        assertTrue(callback.finished.isEmpty());
+        assertEquals(0, pool.inUse());
+    }
+
+    private void writeData(OutputStream os) throws IOException {
+        for (int off = 0; off < data.length; off += 3000) {
+            os.write(data, off, Math.min(3000, data.length - off));
+        }
+    }
+
+    private static class ClosingStream extends ByteArrayOutputStream {
+        volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // accepts up to the limit, fails afterwards
+    private static class FailingStream extends OutputStream {
+        private final int limit;
+        private final ByteArrayOutputStream accepted = new ByteArrayOutputStream();
+        volatile boolean closed;
+
+        FailingStream(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (accepted.size() + len > limit) {
+                throw new IOException("sink full");
+            }
+            accepted.write(b, off, len);
+        }
+
+        synchronized int size() {
+            return accepted.size();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class Callback implements YoutubeCallback<OutputStream> {
+        final List<OutputStream> finished = new CopyOnWriteArrayList<>();
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onFinished(OutputStream data) {
+            finished.add(data);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            errors.add(throwable);
+        }
+    }
+}
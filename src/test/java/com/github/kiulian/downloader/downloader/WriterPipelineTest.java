@@ -0,0 +1,178 @@
+package com.github.kiulian.downloader.downloader;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriterPipelineTest {
+
+    private final BufferPool pool = new BufferPool(4, 16, 0);
+
+    @Test
+    @DisplayName("close writes the queued buffers in order and leaves the stream open")
+    void close() throws IOException {
+        WriterPipeline pipeline = new WriterPipeline(4, 8);
+        RecordingStream os = new RecordingStream();
+        WriterPipeline.Stage stage = pipeline.open(os, pool);
+        for (int i = 0; i < 10; i++) {
+            stage.write(("line" + i + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        stage.close();
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            expected.append("line").append(i).append('\n');
+        }
+        assertEquals(expected.toString(), new String(os.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(expected.length(), pipeline.bytesWritten());
+        assertTrue(os.flushed);
+        assertFalse(os.closed);
+        assertEquals(0, pipeline.queueDepth());
+        assertTrue(pipeline.maxQueueDepth() <= pipeline.queueCapacity());
+        assertEquals(0, pool.inUse());
+
+        // abort after a successful close has no effect
+        stage.abort();
+        stage.close();
+    }
+
+    @Test
+    @DisplayName("a full queue holds the producer back until the writer catches up")
+    void stall() throws IOException, InterruptedException {
+        WriterPipeline pipeline = new WriterPipeline(1, 4);
+        GatedStream os = new GatedStream();
+        WriterPipeline.Stage stage = pipeline.open(os, pool);
+        stage.write("0123".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(os.entered.await(5, TimeUnit.SECONDS));
+
+        Thread opener = new Thread(() -> {
+            sleep(100);
+            os.gate.countDown();
+        });
+        opener.start();
+        // the only slot is taken by the buffer being written
+        stage.write("4567".getBytes(StandardCharsets.US_ASCII));
+        stage.close();
+        opener.join();
+
+        assertEquals(1, pipeline.stalls());
+        assertEquals("01234567", new String(os.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("abort drops the queued buffers, a later close reports the abort")
+    void abort() throws IOException, InterruptedException {
+        WriterPipeline pipeline = new WriterPipeline(8, 4);
+        GatedStream os = new GatedStream();
+        WriterPipeline.Stage stage = pipeline.open(os, pool);
+        stage.write("0123".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(os.entered.await(5, TimeUnit.SECONDS));
+        stage.write("4567".getBytes(StandardCharsets.US_ASCII));
+        stage.write("89".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(3, pool.inUse());
+
+        Thread aborter = new Thread(stage::abort);
+        aborter.start();
+        // abort has flagged the stage and waits for the writer
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (aborter.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        });
+        os.gate.countDown();
+        aborter.join(5000);
+        assertFalse(aborter.isAlive());
+
+        // the buffer being written when aborted is completed, the queued ones are dropped
+        assertEquals("0123", new String(os.toByteArray(), StandardCharsets.US_ASCII));
+        assertFalse(os.flushed);
+        assertFalse(os.closed);
+        assertEquals(0, pool.inUse());
+        IOException e = assertThrows(IOException.class, stage::close);
+        assertTrue(e.getMessage().contains("aborted"), e.getMessage());
+        assertThrows(IOException.class, () -> stage.write(1));
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("a write failure is reported to the producer and on close, buffers are given back")
+    void failure() throws InterruptedException {
+        WriterPipeline pipeline = new WriterPipeline(4, 4);
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        WriterPipeline.Stage stage = pipeline.open(failing, pool);
+        IOException e = assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 1000; i++) {
+                stage.write("0123".getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(1);
+            }
+        });
+        assertTrue(e.getMessage().contains("disk full"), e.getMessage());
+        e = assertThrows(IOException.class, stage::close);
+        assertTrue(e.getMessage().contains("disk full"), e.getMessage());
+        // abort keeps the original failure
+        stage.abort();
+        e = assertThrows(IOException.class, stage::close);
+        assertTrue(e.getMessage().contains("disk full"), e.getMessage());
+        assertEquals(0, pool.inUse());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class RecordingStream extends ByteArrayOutputStream {
+        volatile boolean flushed;
+        volatile boolean closed;
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // the first write waits for the gate
+    private static class GatedStream extends RecordingStream {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            entered.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.kiulian.downloader.downloader.client;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientTypeTest {
+
+    // quotes, backslashes, control characters, non ascii and a supplementary character
+    private static final String ESCAPED = "a\"b\\c/d\n\t\r\b\f\u0001\u001f</script>\u00e9\u4e2d\ud83d\ude00";
+
+    @Test
+    @DisplayName("player body matches the body built with fastjson")
+    void playerBody() {
+        for (ClientType client : new ClientType[]{ClientType.WEB, ClientType.ANDROID, ClientType.IOS}) {
+            JSONObject expected = client.getBody().fluentPut("videoId", ESCAPED);
+            assertEquals(expected, parse(client.createBody(ESCAPED)), client.getName());
+        }
+    }
+
+    @Test
+    @DisplayName("continuation body matches the body built with fastjson")
+    void continuationBody() {
+        JSONObject expected = ClientType.WEB.getBody()
+                .fluentPut("continuation", ESCAPED)
+                .fluentPut("clickTracking", new JSONObject().fluentPut("clickTrackingParams", "ctp\"" + ESCAPED));
+        assertEquals(expected, parse(ClientType.WEB.createContinuationBody(ESCAPED, "ctp\"" + ESCAPED)));
+
+        JSONObject withoutTracking = ClientType.WEB.getBody().fluentPut("continuation", ESCAPED);
+        assertEquals(withoutTracking, parse(ClientType.WEB.createContinuationBody(ESCAPED, null)));
+    }
+
+    @Test
+    @DisplayName("visitor data is written into the client object")
+    void visitorData() {
+        JSONObject expected = ClientType.ANDROID.getBody().fluentPut("videoId", "abc");
+        expected.getJSONObject("context").getJSONObject("client").put("visitorData", ESCAPED);
+        assertEquals(expected, parse(ClientType.ANDROID.createBody("abc", null, null, ESCAPED)));
+    }
+
+    @Test
+    @DisplayName("escaped values are written as fastjson writes them")
+    void escapingMatchesFastjson() {
+        String body = new String(ClientType.WEB.createBody(ESCAPED), StandardCharsets.UTF_8);
+        assertTrue(body.endsWith(",\"videoId\":" + JSON.toJSONString(ESCAPED) + "}"), body);
+
+        String continuation = new String(ClientType.WEB.createContinuationBody(ESCAPED, null), StandardCharsets.UTF_8);
+        assertTrue(continuation.endsWith(",\"continuation\":" + JSON.toJSONString(ESCAPED) + "}"), continuation);
+    }
+
+    private static JSONObject parse(byte[] body) {
+        return JSON.parseObject(new String(body, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.kiulian.downloader.downloader.dash;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static com.github.kiulian.downloader.downloader.dash.SidxParserTest.assertRange;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuesParserTest {
+
+    // cue time and cluster position of every segment
+    private static final long[][] POINTS = {{0, 100}, {4000, 5000}, {8000, 12000}};
+    private static final byte[] UNKNOWN_SIZE = {0x01, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+
+    private static byte[] element(int id, byte[]... children) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            data.write(child, 0, child.length);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeId(bytes, id);
+        int size = data.size();
+        if (size < 0x7f) {
+            bytes.write(0x80 | size);
+        } else {
+            bytes.write(0x40 | (size >> 8));
+            bytes.write(size & 0xff);
+        }
+        bytes.write(data.toByteArray(), 0, size);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] uint(int id, long value) {
+        return element(id, new byte[]{(byte) (value >> 16), (byte) (value >> 8), (byte) value});
+    }
+
+    private static void writeId(ByteArrayOutputStream bytes, int id) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            if ((id >>> shift) != 0) {
+                bytes.write((id >>> shift) & 0xff);
+            }
+        }
+    }
+
+    // EBML header and a live Segment (unknown size) holding Info and Tracks
+    private static byte[] init(Long timecodeScale) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] header = element(0x1A45DFA3, element(0x4282, "webm".getBytes()));
+        bytes.write(header, 0, header.length);
+        writeId(bytes, 0x18538067);
+        bytes.write(UNKNOWN_SIZE, 0, UNKNOWN_SIZE.length);
+        byte[] info = timecodeScale == null ? element(0x1549A966, uint(0x4489, 0)) : element(0x1549A966, uint(0x2AD7B1, timecodeScale));
+        byte[] tracks = element(0x1654AE6B, element(0xAE, uint(0xD7, 1)));
+        bytes.write(info, 0, info.length);
+        bytes.write(tracks, 0, tracks.length);
+        return bytes.toByteArray();
+    }
+
+    private static int segmentDataStart() {
+        return element(0x1A45DFA3, element(0x4282, "webm".getBytes())).length + 4 + UNKNOWN_SIZE.length;
+    }
+
+    private static byte[] cues(long[][] points) {
+        byte[][] cuePoints = new byte[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            cuePoints[i] = element(0xBB, uint(0xB3, points[i][0]), element(0xB7, uint(0xF7, 1), uint(0xF1, points[i][1])));
+        }
+        return element(0x1C53BB6B, cuePoints);
+    }
+
+    @Test
+    @DisplayName("cluster positions are relative to the segment data, times use the timecode scale")
+    void cues() throws IOException {
+        long initOffset = 0;
+        SegmentIndex index = CuesParser.parse(init(500_000L), initOffset, cues(POINTS), 6000, 20000);
+
+        long base = initOffset + segmentDataStart();
+        assertEquals(3, index.size());
+        assertEquals(0, index.startMillis(0));
+        assertEquals(2000, index.startMillis(1));
+        assertEquals(4000, index.startMillis(2));
+        assertEquals(6000, index.endMillis(2));
+        assertRange(base + 100, base + 4999, index.range(0));
+        assertRange(base + 12000, 19999, index.range(2));
+    }
+
+    @Test
+    @DisplayName("timecode scale defaults to one millisecond")
+    void defaultTimecodeScale() throws IOException {
+        SegmentIndex index = CuesParser.parse(init(null), 0, cues(POINTS), 10000, 20000);
+        assertEquals(4000, index.startMillis(1));
+        assertEquals(8000, index.startMillis(2));
+    }
+
+    @Test
+    @DisplayName("malformed indexes are rejected")
+    void malformed() {
+        byte[] init = init(1_000_000L);
+        assertThrows(IOException.class, () -> CuesParser.parse(element(0x1A45DFA3), 0, cues(POINTS), 6000, 20000));
+        assertThrows(IOException.class, () -> CuesParser.parse(init, 0, element(0x1F43B675), 6000, 20000));
+        assertThrows(IOException.class, () -> CuesParser.parse(init, 0, cues(new long[0][]), 6000, 20000));
+        byte[] cues = cues(POINTS);
+        byte[] truncated = new byte[cues.length - 4];
+        System.arraycopy(cues, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> CuesParser.parse(init, 0, truncated, 6000, 20000));
+        byte[] noPosition = element(0x1C53BB6B, element(0xBB, uint(0xB3, 0), element(0xB7, uint(0xF7, 1))));
+        assertThrows(IOException.class, () -> CuesParser.parse(init, 0, noPosition, 6000, 20000));
+    }
+}
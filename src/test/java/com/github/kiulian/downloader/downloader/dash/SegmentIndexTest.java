@@ -0,0 +1,75 @@
+package com.github.kiulian.downloader.downloader.dash;
+
+import com.alibaba.fastjson.JSONObject;
+import com.github.kiulian.downloader.model.videos.formats.AudioFormat;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static com.github.kiulian.downloader.downloader.dash.SidxParserTest.assertRange;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentIndexTest {
+
+    // segments [0, 2000) [2000, 4000) [4000, 5500) at bytes 1000-1099, 1100-1299, 1300-1599
+    private final SegmentIndex index = new SegmentIndex(new long[]{0, 2000, 4000}, new long[]{1000, 1100, 1300}, 5500, 1599);
+
+    @Test
+    @DisplayName("a time maps to the segment containing it")
+    void segmentAt() {
+        assertEquals(0, index.segmentAt(0));
+        assertEquals(0, index.segmentAt(1999));
+        assertEquals(1, index.segmentAt(2000));
+        assertEquals(2, index.segmentAt(5499));
+        assertEquals(-1, index.segmentAt(5500));
+    }
+
+    @Test
+    @DisplayName("a time range maps to the bytes of the covering segments")
+    void rangeOf() {
+        assertRange(1000, 1099, index.rangeOf(0, 1));
+        assertRange(1100, 1599, index.rangeOf(2500, 4500));
+        assertRange(1000, 1299, index.rangeOf(-100, 4000));
+        assertRange(1300, 1599, index.rangeOf(4000, 100_000));
+        assertNull(index.rangeOf(6000, 7000));
+        assertNull(index.rangeOf(3000, 3000));
+    }
+
+    @Test
+    @DisplayName("the container of the format selects the index parser")
+    void parse() throws IOException {
+        byte[] sidx = SidxParserTest.sidx(0, new long[][]{{100, 2000}});
+        SegmentIndex parsed = SegmentIndex.parse(format("audio/mp4; codecs=\"mp4a.40.2\"", sidx.length), new byte[0], sidx);
+        assertRange(632 + sidx.length, 632 + sidx.length + 99, parsed.range(0));
+
+        assertThrows(IOException.class, () -> SegmentIndex.parse(format("audio/webm; codecs=\"opus\"", 10), new byte[0], new byte[0]));
+        Format noIndex = new AudioFormat(json("audio/mp4"), true, null);
+        assertThrows(IOException.class, () -> SegmentIndex.parse(noIndex, new byte[0], sidx));
+    }
+
+    private static Format format(String mimeType, int indexLength) {
+        JSONObject json = json(mimeType);
+        json.put("initRange", range(0, 631));
+        json.put("indexRange", range(632, 632 + indexLength - 1));
+        return new AudioFormat(json, true, null);
+    }
+
+    // webm formats need the content length, it is left out on purpose
+    private static JSONObject json(String mimeType) {
+        JSONObject json = new JSONObject();
+        json.put("itag", 140);
+        json.put("url", "https://rr1---sn-example.googlevideo.com/videoplayback?itag=140");
+        json.put("mimeType", mimeType);
+        json.put("approxDurationMs", "5500");
+        return json;
+    }
+
+    private static JSONObject range(long start, long end) {
+        JSONObject range = new JSONObject();
+        range.put("start", String.valueOf(start));
+        range.put("end", String.valueOf(end));
+        return range;
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.kiulian.downloader.downloader.dash;
+
+import com.github.kiulian.downloader.model.videos.formats.ByteRange;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SidxParserTest {
+
+    private static final long INDEX_OFFSET = 500;
+    // size and duration of every segment
+    private static final long[][] REFERENCES = {{100, 2000}, {200, 2000}, {300, 1500}};
+
+    // 12 bytes of an unrelated box before the sidx box
+    private static byte[] styp() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(12);
+        out.writeBytes("styp");
+        out.writeBytes("msdh");
+        return bytes.toByteArray();
+    }
+
+    static byte[] sidx(int version, long[][] references) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int size = 8 + 4 + 4 + 4 + (version == 0 ? 8 : 16) + 4 + 12 * references.length;
+        out.writeInt(size);
+        out.writeBytes("sidx");
+        out.writeInt(version << 24);
+        out.writeInt(1); // reference id
+        out.writeInt(1000); // timescale
+        if (version == 0) {
+            out.writeInt(0); // earliest presentation time
+            out.writeInt(0); // first offset
+        } else {
+            out.writeLong(0);
+            out.writeLong(0);
+        }
+        out.writeShort(0);
+        out.writeShort(references.length);
+        for (long[] reference : references) {
+            out.writeInt((int) reference[0]); // reference type and size
+            out.writeInt((int) reference[1]); // duration
+            out.writeInt(0x90000000); // starts with SAP
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part, 0, part.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void assertRange(long start, long end, ByteRange range) {
+        assertNotNull(range);
+        assertEquals(start, range.start());
+        assertEquals(end, range.end());
+    }
+
+    @Test
+    @DisplayName("segments follow the sidx box, offsets are absolute")
+    void version0() throws IOException {
+        byte[] sidx = sidx(0, REFERENCES);
+        SegmentIndex index = SidxParser.parse(concat(styp(), sidx), INDEX_OFFSET);
+
+        long anchor = INDEX_OFFSET + 12 + sidx.length;
+        assertEquals(3, index.size());
+        assertRange(anchor, anchor + 99, index.range(0));
+        assertRange(anchor + 100, anchor + 299, index.range(1));
+        assertRange(anchor + 300, anchor + 599, index.range(2));
+        assertEquals(0, index.startMillis(0));
+        assertEquals(4000, index.startMillis(2));
+        assertEquals(5500, index.endMillis(2));
+    }
+
+    @Test
+    @DisplayName("64 bit times and offsets of version 1")
+    void version1() throws IOException {
+        SegmentIndex index = SidxParser.parse(sidx(1, REFERENCES), 0);
+        assertEquals(3, index.size());
+        assertEquals(2000, index.startMillis(1));
+        assertEquals(5500, index.endMillis(2));
+    }
+
+    @Test
+    @DisplayName("malformed indexes are rejected")
+    void malformed() throws IOException {
+        assertThrows(IOException.class, () -> SidxParser.parse(styp(), 0));
+        byte[] sidx = sidx(0, REFERENCES);
+        byte[] truncated = new byte[sidx.length - 6];
+        System.arraycopy(sidx, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> SidxParser.parse(truncated, 0));
+        assertThrows(IOException.class, () -> SidxParser.parse(sidx(0, new long[][]{{0x80000000L | 100, 2000}}), 0));
+        assertThrows(IOException.class, () -> SidxParser.parse(sidx(0, new long[0][]), 0));
+    }
+}
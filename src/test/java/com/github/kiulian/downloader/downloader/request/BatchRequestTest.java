@@ -0,0 +1,27 @@
+package com.github.kiulian.downloader.downloader.request;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchRequestTest {
+
+    @Test
+    @DisplayName("the proxy of a batch is passed to every request as it is")
+    void proxy() {
+        Proxy socks = new Proxy(Proxy.Type.SOCKS, InetSocketAddress.createUnresolved("proxy.local", 1080));
+
+        RequestVideoInfo videoRequest = new RequestVideoInfoBatch(Arrays.asList("a", "b")).proxy(socks).createRequest("a");
+        assertSame(socks, videoRequest.getProxy());
+
+        RequestFormatUrls formatsRequest = new RequestFormatUrlsBatch(Arrays.asList("a", "b"), 18).proxy(socks).createRequest("b");
+        assertSame(socks, formatsRequest.getProxy());
+
+        assertNull(new RequestVideoInfoBatch(Arrays.asList("a", "b")).createRequest("a").getProxy());
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.kiulian.downloader.downloader.response;
+
+import com.github.kiulian.downloader.downloader.BufferPool;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadedBytesTest {
+
+    @Test
+    @DisplayName("a presized buffer is exposed as a single read-only chunk")
+    void single() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put("0123456789".getBytes(StandardCharsets.US_ASCII));
+        buffer.flip();
+        DownloadedBytes bytes = DownloadedBytes.of(buffer);
+
+        assertEquals(10, bytes.size());
+        assertEquals(1, bytes.chunks().size());
+        assertTrue(bytes.chunks().get(0).isReadOnly());
+        assertThrows(ReadOnlyBufferException.class, () -> bytes.buffer().put((byte) 1));
+        assertEquals("0123456789", new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+        // every call returns a fresh view
+        bytes.buffer().get(new byte[5]);
+        assertEquals(10, bytes.buffer().remaining());
+
+        bytes.release();
+        assertTrue(bytes.isReleased());
+        assertThrows(IllegalStateException.class, bytes::chunks);
+    }
+
+    @Test
+    @DisplayName("pooled chunks are chained in order and copied into one buffer on demand")
+    void chained() {
+        BufferPool pool = new BufferPool(4, 8, 0);
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (String part : new String[]{"0123", "4567", "89"}) {
+            ByteBuffer chunk = pool.acquireHeap();
+            chunk.put(part.getBytes(StandardCharsets.US_ASCII));
+            chunk.flip();
+            chunks.add(chunk);
+        }
+        DownloadedBytes bytes = DownloadedBytes.ofPooled(chunks, pool);
+
+        assertEquals(10, bytes.size());
+        assertEquals(3, bytes.chunks().size());
+        assertEquals(2, bytes.chunks().get(2).remaining());
+        assertThrows(UnsupportedOperationException.class, () -> bytes.chunks().remove(0));
+        for (ByteBuffer chunk : bytes.chunks()) {
+            assertTrue(chunk.isReadOnly());
+        }
+        ByteBuffer buffer = bytes.buffer();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(10, buffer.remaining());
+        assertEquals("0123456789", new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+        // copying does not move the chunk views
+        assertEquals(4, bytes.chunks().get(0).remaining());
+        assertEquals(3, pool.inUse());
+    }
+
+    @Test
+    @DisplayName("release gives the chunks back to the pool once, the views can't be used afterwards")
+    void release() {
+        BufferPool pool = new BufferPool(4, 8, 0);
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer chunk = pool.acquireHeap();
+            chunk.put((byte) i);
+            chunk.flip();
+            chunks.add(chunk);
+        }
+
+        try (DownloadedBytes bytes = DownloadedBytes.ofPooled(chunks, pool)) {
+            assertEquals(2, bytes.size());
+            assertEquals(2, pool.inUse());
+            bytes.release();
+            assertEquals(0, pool.inUse());
+            assertThrows(IllegalStateException.class, bytes::chunks);
+            assertThrows(IllegalStateException.class, bytes::buffer);
+            assertThrows(IllegalStateException.class, bytes::toByteArray);
+            assertEquals(2, bytes.size());
+        }
+        // closing after release gives nothing back twice
+        assertEquals(0, pool.inUse());
+        assertEquals(2, pool.acquired());
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.kiulian.downloader.downloader.response;
+
+import com.github.kiulian.downloader.YoutubeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PagedIteratorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void createExecutor() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("items keep the order of the pages, empty pages are skipped")
+    void order() {
+        PagedIterator<Integer> iterator = new PagedIterator<>(pages(
+                Arrays.asList(1, 2, 3), Collections.emptyList(), Arrays.asList(4, 5), Collections.singletonList(6)), executor, 1);
+
+        List<Integer> items = assertTimeoutPreemptively(TIMEOUT, () -> iterator.stream().collect(Collectors.toList()));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), items);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    @DisplayName("limit and stop end the iteration and the loading of pages")
+    void limitAndStop() {
+        AtomicInteger loaded = new AtomicInteger();
+        List<Integer> limited = new ArrayList<>();
+        new PagedIterator<>(counting(loaded, 10), executor, 1, 7, null).forEachRemaining(limited::add);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), limited);
+        assertEquals(3, loaded.get());
+
+        List<Integer> stopped = new ArrayList<>();
+        new PagedIterator<>(counting(new AtomicInteger(), 10), executor, 1, Long.MAX_VALUE, item -> item == 4).forEachRemaining(stopped::add);
+        assertEquals(Arrays.asList(0, 1, 2, 3), stopped);
+    }
+
+    @Test
+    @DisplayName("closing before the end stops the loader and ends the iteration")
+    void closeBeforeDrain() throws InterruptedException {
+        AtomicInteger loaded = new AtomicInteger();
+        PagedIterator<Integer> iterator = new PagedIterator<>(counting(loaded, Integer.MAX_VALUE), executor, 2);
+
+        assertEquals(0, (int) assertTimeoutPreemptively(TIMEOUT, iterator::next));
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        iterator.close();
+
+        // the loader blocked on the full queue is interrupted and does not load any further
+        int afterClose = loaded.get();
+        assertTrue(afterClose <= 4, String.valueOf(afterClose));
+        Thread.sleep(100);
+        assertTrue(loaded.get() <= afterClose + 1);
+    }
+
+    @Test
+    @DisplayName("a failed page is rethrown after the pages loaded before it")
+    void youtubeException() {
+        YoutubeException failure = new YoutubeException.BadPageException("no continuation");
+        PagedIterator<Integer> iterator = new PagedIterator<>(failing(failure), executor, 1);
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(1, (int) iterator.next());
+            assertEquals(2, (int) iterator.next());
+            PagedIterator.PageException e = assertThrows(PagedIterator.PageException.class, iterator::hasNext);
+            assertSame(failure, e.getCause());
+            assertFalse(iterator.hasNext());
+        });
+    }
+
+    @Test
+    @DisplayName("unchecked exceptions and errors of the loader reach the consumer instead of blocking it")
+    void uncheckedFailures() {
+        IllegalStateException exception = new IllegalStateException("broken page");
+        PagedIterator<Integer> withException = new PagedIterator<>(failing(exception), executor, 1);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            withException.next();
+            withException.next();
+            assertSame(exception, assertThrows(IllegalStateException.class, withException::hasNext));
+        });
+
+        AssertionError error = new AssertionError("loader bug");
+        PagedIterator<Integer> withError = new PagedIterator<>(failing(error), executor, 1);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            withError.next();
+            withError.next();
+            assertSame(error, assertThrows(AssertionError.class, withError::hasNext));
+        });
+    }
+
+    @SafeVarargs
+    private static PagedIterator.PageLoader<Integer> pages(List<Integer>... pages) {
+        AtomicInteger next = new AtomicInteger();
+        return () -> next.get() < pages.length ? pages[next.getAndIncrement()] : null;
+    }
+
+    // pages of 3 consecutive numbers
+    private static PagedIterator.PageLoader<Integer> counting(AtomicInteger loaded, int pages) {
+        return () -> {
+            int page = loaded.get();
+            if (page >= pages) {
+                return null;
+            }
+            loaded.incrementAndGet();
+            return Arrays.asList(page * 3, page * 3 + 1, page * 3 + 2);
+        };
+    }
+
+    // one page, then the failure
+    private static PagedIterator.PageLoader<Integer> failing(Throwable failure) {
+        AtomicInteger calls = new AtomicInteger();
+        return () -> {
+            if (calls.getAndIncrement() == 0) {
+                return Arrays.asList(1, 2);
+            }
+            if (failure instanceof YoutubeException) {
+                throw (YoutubeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw (RuntimeException) failure;
+        };
+    }
+}
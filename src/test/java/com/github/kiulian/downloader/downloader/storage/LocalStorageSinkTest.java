@@ -0,0 +1,113 @@
+package com.github.kiulian.downloader.downloader.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalStorageSinkTest {
+
+    private File directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("storage").toFile();
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    @DisplayName("parts are written at their positions and moved into place on commit")
+    void commit() throws IOException {
+        StorageUpload upload = new LocalStorageSink(directory, 4).begin("videos/a.mp4", 10);
+        assertEquals(4, upload.partSize());
+        upload.writePart(3, 8, buffers("89"));
+        upload.writePart(1, 0, buffers("01", "23"));
+        upload.writePart(2, 4, buffers("4567"));
+
+        File target = new File(directory, "videos/a.mp4");
+        assertFalse(target.exists());
+        assertEquals(1, files("videos").size());
+        assertTrue(files("videos").get(0).startsWith(".a.mp4."));
+
+        assertEquals(target.getAbsolutePath(), upload.commit());
+        assertEquals("0123456789", new String(Files.readAllBytes(target.toPath()), StandardCharsets.US_ASCII));
+        assertEquals(Collections.singletonList("a.mp4"), files("videos"));
+        assertThrows(IllegalStateException.class, upload::commit);
+    }
+
+    @Test
+    @DisplayName("commit replaces an existing object")
+    void replace() throws IOException {
+        LocalStorageSink sink = new LocalStorageSink(directory);
+        StorageUpload first = sink.begin("a.mp4", -1);
+        first.writePart(1, 0, buffers("first"));
+        first.commit();
+
+        StorageUpload second = sink.begin("a.mp4", -1);
+        second.writePart(1, 0, buffers("2nd"));
+        second.commit();
+        assertEquals("2nd", new String(Files.readAllBytes(new File(directory, "a.mp4").toPath()), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    @DisplayName("abort removes the temp file and leaves the target untouched")
+    void abort() throws IOException {
+        StorageUpload upload = new LocalStorageSink(directory).begin("a.mp4", 10);
+        upload.writePart(1, 0, buffers("01234"));
+        upload.abort();
+        upload.abort();
+
+        assertTrue(files("").isEmpty());
+        assertThrows(IllegalStateException.class, upload::commit);
+    }
+
+    @Test
+    @DisplayName("keys resolving outside of the directory are rejected")
+    void traversal() throws IOException {
+        LocalStorageSink sink = new LocalStorageSink(new File(directory, "store"));
+        for (String key : Arrays.asList("../x", "../../x", "a/../../x", "a/../..", ".", directory.getAbsolutePath() + "/x")) {
+            assertThrows(IllegalArgumentException.class, () -> sink.begin(key, 1), key);
+        }
+        assertFalse(new File(directory, "x").exists());
+
+        StorageUpload upload = sink.begin("a/../b.mp4", 1);
+        upload.writePart(1, 0, buffers("b"));
+        upload.commit();
+        assertTrue(new File(directory, "store/b.mp4").isFile());
+    }
+
+    private List<String> files(String path) {
+        String[] names = new File(directory, path).list();
+        assertNotNull(names);
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static List<ByteBuffer> buffers(String... parts) {
+        ByteBuffer[] buffers = new ByteBuffer[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            buffers[i] = ByteBuffer.wrap(parts[i].getBytes(StandardCharsets.US_ASCII));
+        }
+        return Arrays.asList(buffers);
+    }
+}
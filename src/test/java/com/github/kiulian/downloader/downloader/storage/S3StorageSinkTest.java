@@ -0,0 +1,307 @@
+package com.github.kiulian.downloader.downloader.storage;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3StorageSinkTest {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+    private static final String REGION = "eu-west-1";
+    private static final String ACCESS_KEY = "AKIDEXAMPLE";
+    private static final String SECRET_KEY = "secret";
+
+    private HttpServer server;
+    private String endpoint;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private volatile String completeBody;
+    private volatile String completeResponse = "<CompleteMultipartUploadResult/>";
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        endpoint = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    @DisplayName("small objects are sent with a single signed PUT on commit")
+    void singlePut() throws IOException {
+        StorageUpload upload = sink(SECRET_KEY).begin("videos/a b.mp4", 10);
+        upload.writePart(1, 0, buffers("01234", "56789"));
+        assertTrue(requests.isEmpty());
+
+        String location = upload.commit();
+        assertEquals(endpoint + "/media/videos/a%20b.mp4", location);
+        assertEquals(Collections.singletonList("PUT /media/videos/a b.mp4"), requests);
+        assertArrayEquals("0123456789".getBytes(StandardCharsets.US_ASCII), objects.get("/media/videos/a b.mp4"));
+        assertThrows(IllegalStateException.class, upload::commit);
+    }
+
+    @Test
+    @DisplayName("large objects are uploaded part by part and completed on commit")
+    void multipart() throws IOException {
+        byte[] data = new byte[2 * PART_SIZE + 1000];
+        new Random(1).nextBytes(data);
+        StorageUpload upload = sink(SECRET_KEY).begin("big.mp4", data.length);
+        assertEquals(PART_SIZE, upload.partSize());
+        assertEquals(Collections.singletonList("POST /media/big.mp4"), requests);
+
+        // any order, the buffers of a part are consecutive
+        for (int part : new int[]{2, 3, 1}) {
+            int first = (part - 1) * PART_SIZE;
+            int last = Math.min(first + PART_SIZE, data.length);
+            List<ByteBuffer> chunks = new ArrayList<>();
+            for (int from = first; from < last; from += 1024 * 1024) {
+                chunks.add(ByteBuffer.wrap(data, from, Math.min(1024 * 1024, last - from)).slice());
+            }
+            upload.writePart(part, first, chunks);
+        }
+        assertEquals(4, requests.size());
+        assertTrue(objects.isEmpty());
+
+        assertEquals(endpoint + "/media/big.mp4", upload.commit());
+        assertArrayEquals(data, objects.get("/media/big.mp4"));
+        assertEquals("<CompleteMultipartUpload>"
+                + "<Part><PartNumber>1</PartNumber><ETag>&quot;etag-1&quot;</ETag></Part>"
+                + "<Part><PartNumber>2</PartNumber><ETag>&quot;etag-2&quot;</ETag></Part>"
+                + "<Part><PartNumber>3</PartNumber><ETag>&quot;etag-3&quot;</ETag></Part>"
+                + "</CompleteMultipartUpload>", completeBody);
+        assertTrue(uploads.isEmpty());
+    }
+
+    @Test
+    @DisplayName("misaligned parts are rejected and missing parts fail the commit")
+    void missingPart() throws IOException {
+        StorageUpload upload = sink(SECRET_KEY).begin("big.mp4", 2L * PART_SIZE + 1);
+        assertThrows(IllegalArgumentException.class, () -> upload.writePart(2, 1, buffers("x")));
+        upload.writePart(2, PART_SIZE, buffers("x"));
+
+        IOException e = assertThrows(IOException.class, upload::commit);
+        assertTrue(e.getMessage().contains("Part 1"), e.getMessage());
+    }
+
+    @Test
+    @DisplayName("abort discards the multipart upload, commit is then refused")
+    void abort() throws IOException {
+        StorageUpload upload = sink(SECRET_KEY).begin("big.mp4", -1);
+        upload.writePart(1, 0, buffers("part"));
+        assertEquals(1, uploads.size());
+
+        upload.abort();
+        upload.abort();
+        assertTrue(uploads.isEmpty());
+        assertTrue(objects.isEmpty());
+        assertEquals("DELETE /media/big.mp4", requests.get(requests.size() - 1));
+        assertEquals(3, requests.size());
+        assertThrows(IllegalStateException.class, upload::commit);
+    }
+
+    @Test
+    @DisplayName("error documents fail the request even with HTTP 200")
+    void errorDocument() throws IOException {
+        completeResponse = "<Error><Code>InternalError</Code><Message>retry</Message></Error>";
+        StorageUpload upload = sink(SECRET_KEY).begin("big.mp4", -1);
+        upload.writePart(1, 0, buffers("part"));
+
+        IOException e = assertThrows(IOException.class, upload::commit);
+        assertEquals("POST big.mp4 failed: HTTP 200 InternalError", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("requests signed with a wrong secret are refused")
+    void wrongSecret() {
+        IOException e = assertThrows(IOException.class, () -> sink("wrong").begin("big.mp4", -1));
+        assertEquals("POST big.mp4 failed: HTTP 403 SignatureDoesNotMatch", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("builder rejects invalid endpoints, missing credentials and small parts")
+    void builder() {
+        assertThrows(IllegalArgumentException.class, () -> new S3StorageSink.Builder().endpoint("localhost").bucket("media").credentials(ACCESS_KEY, SECRET_KEY).build());
+        assertThrows(IllegalArgumentException.class, () -> new S3StorageSink.Builder().bucket("media").build());
+        assertThrows(IllegalArgumentException.class, () -> new S3StorageSink.Builder().bucket("media").credentials(ACCESS_KEY, SECRET_KEY).partSize(1024).build());
+    }
+
+    private S3StorageSink sink(String secretKey) {
+        return new S3StorageSink.Builder()
+                .endpoint(endpoint)
+                .region(REGION)
+                .bucket("media")
+                .credentials(ACCESS_KEY, secretKey)
+                .pathStyle(true)
+                .partSize(PART_SIZE)
+                .build();
+    }
+
+    private static List<ByteBuffer> buffers(String... parts) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (String part : parts) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(part.length());
+            buffer.put(part.getBytes(StandardCharsets.US_ASCII));
+            buffer.flip();
+            buffers.add(buffer);
+        }
+        return buffers;
+    }
+
+    // Minimal S3 stand-in, verifies the payload hash and the signature of every request
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readAll(exchange.getRequestBody());
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getRawPath();
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            String key = URLDecoder.decode(path, "UTF-8");
+            requests.add(method + " " + key);
+
+            Headers headers = exchange.getRequestHeaders();
+            String payloadHash = headers.getFirst("x-amz-content-sha256");
+            assertEquals(hex(MessageDigest.getInstance("SHA-256").digest(body)), payloadHash);
+            if (!expectedAuthorization(method, path, rawQuery, headers).equals(headers.getFirst("Authorization"))) {
+                respond(exchange, 403, "<Error><Code>SignatureDoesNotMatch</Code></Error>");
+                return;
+            }
+
+            Map<String, String> query = new HashMap<>();
+            if (rawQuery != null) {
+                for (String parameter : rawQuery.split("&")) {
+                    String[] nameValue = parameter.split("=", 2);
+                    query.put(nameValue[0], nameValue.length > 1 ? URLDecoder.decode(nameValue[1], "UTF-8") : "");
+                }
+            }
+            String uploadId = query.get("uploadId");
+            if ("POST".equals(method) && query.containsKey("uploads")) {
+                uploadId = "id&" + uploads.size();
+                uploads.put(uploadId, new TreeMap<>());
+                respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + uploadId.replace("&", "&amp;") + "</UploadId></InitiateMultipartUploadResult>");
+            } else if ("PUT".equals(method) && query.containsKey("partNumber")) {
+                Map<Integer, byte[]> parts = uploads.get(uploadId);
+                synchronized (parts) {
+                    parts.put(Integer.parseInt(query.get("partNumber")), body);
+                }
+                exchange.getResponseHeaders().add("ETag", "\"etag-" + query.get("partNumber") + "\"");
+                respond(exchange, 200, "");
+            } else if ("POST".equals(method)) {
+                completeBody = new String(body, StandardCharsets.UTF_8);
+                if (completeResponse.startsWith("<Error>")) {
+                    respond(exchange, 200, completeResponse);
+                    return;
+                }
+                ByteArrayOutputStream object = new ByteArrayOutputStream();
+                for (byte[] part : uploads.remove(uploadId).values()) {
+                    object.write(part);
+                }
+                objects.put(key, object.toByteArray());
+                respond(exchange, 200, completeResponse);
+            } else if ("DELETE".equals(method)) {
+                uploads.remove(uploadId);
+                respond(exchange, 204, "");
+            } else {
+                objects.put(key, body);
+                respond(exchange, 200, "");
+            }
+        } catch (Throwable e) {
+            respond(exchange, 500, "<Error><Code>" + e + "</Code></Error>");
+        }
+    }
+
+    private static String expectedAuthorization(String method, String path, String rawQuery, Headers headers) throws Exception {
+        String canonicalQuery = "";
+        if (rawQuery != null) {
+            String[] parameters = rawQuery.split("&");
+            Arrays.sort(parameters);
+            List<String> normalized = new ArrayList<>();
+            for (String parameter : parameters) {
+                normalized.add(parameter.contains("=") ? parameter : parameter + "=");
+            }
+            canonicalQuery = String.join("&", normalized);
+        }
+        String amzDate = headers.getFirst("x-amz-date");
+        String payloadHash = headers.getFirst("x-amz-content-sha256");
+        String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery + "\n"
+                + "host:" + headers.getFirst("Host") + "\n"
+                + "x-amz-content-sha256:" + payloadHash + "\n"
+                + "x-amz-date:" + amzDate + "\n"
+                + "\nhost;x-amz-content-sha256;x-amz-date\n" + payloadHash;
+        String scope = amzDate.substring(0, 8) + "/" + REGION + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+                + hex(MessageDigest.getInstance("SHA-256").digest(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+        byte[] signingKey = hmac(("AWS4" + SECRET_KEY).getBytes(StandardCharsets.UTF_8), amzDate.substring(0, 8));
+        signingKey = hmac(signingKey, REGION);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        return "AWS4-HMAC-SHA256 Credential=" + ACCESS_KEY + "/" + scope
+                + ", SignedHeaders=host;x-amz-content-sha256;x-amz-date, Signature=" + hex(hmac(signingKey, stringToSign));
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            os.write(buffer, 0, read);
+        }
+        return os.toByteArray();
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
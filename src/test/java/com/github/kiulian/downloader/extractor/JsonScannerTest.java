@@ -0,0 +1,102 @@
+package com.github.kiulian.downloader.extractor;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonScannerTest {
+
+    private static JSONObject assigned(String source, String name) {
+        int[] bounds = JsonScanner.findAssignedObject(source, name);
+        assertNotNull(bounds, "object not found");
+        return JsonScanner.parseObject(source, bounds[0], bounds[1]);
+    }
+
+    @Test
+    @DisplayName("finds objects behind the anchors used by the watch page")
+    void anchors() {
+        assertEquals(1, assigned("var ytInitialPlayerResponse = {\"a\":1};var meta", "ytInitialPlayerResponse").getIntValue("a"));
+        assertEquals(2, assigned("window[\"ytInitialData\"] = {\"a\":2};", "ytInitialData").getIntValue("a"));
+        assertEquals(3, assigned("ytplayer.config={\"a\":3}</script>", "ytplayer.config").getIntValue("a"));
+    }
+
+    @Test
+    @DisplayName("skips mentions of the name which are not assignments")
+    void skipsNonAssignments() {
+        String source = "if (ytInitialData) {} var x = ytInitialData == {}; var ytInitialData = {\"a\":1};";
+        assertEquals(1, assigned(source, "ytInitialData").getIntValue("a"));
+        assertNull(JsonScanner.findAssignedObject("var ytInitialData = [];", "ytInitialData"));
+        assertNull(JsonScanner.findAssignedObject("var other = {};", "ytInitialData"));
+    }
+
+    @Test
+    @DisplayName("braces and escaped quotes inside strings do not end the object")
+    void stringsWithBraces() {
+        String source = "var ytInitialData = {\"title\":\"a};b\",\"quote\":\"x\\\"}\",\"nested\":{\"list\":[{\"b\":\"]\"}]}};var next = {};";
+        JSONObject object = assigned(source, "ytInitialData");
+        assertEquals("a};b", object.getString("title"));
+        assertEquals("x\"}", object.getString("quote"));
+        assertEquals("]", object.getJSONObject("nested").getJSONArray("list").getJSONObject(0).getString("b"));
+    }
+
+    @Test
+    @DisplayName("end of an object is found at its matching brace only")
+    void objectEnd() {
+        String source = "x={\"a\":{\"b\":[1,2]}},{}";
+        assertEquals(source.indexOf("},{}") + 1, JsonScanner.findObjectEnd(source, 2));
+        assertEquals(-1, JsonScanner.findObjectEnd("{\"a\":{\"b\":1}", 0));
+        assertEquals(-1, JsonScanner.findObjectEnd("{\"a\":\"}", 0));
+    }
+
+    @Test
+    @DisplayName("parses only the given slice of the source")
+    void slice() {
+        String source = "prefix {\"a\":\"b\"} suffix";
+        int start = source.indexOf('{');
+        int end = JsonScanner.findObjectEnd(source, start);
+        assertEquals("b", JsonScanner.parseObject(source, start, end).getString("a"));
+    }
+
+    @Test
+    @DisplayName("keeps only the selected top level keys")
+    void selectedKeys() {
+        Set<String> keys = new HashSet<>(Arrays.asList("streamingData", "videoDetails", "flag"));
+        String source = " {\"responseContext\":{\"x\":[1,{\"y\":\"}\"}]},\n"
+                + "\"streamingData\" : {\"formats\":[{\"itag\":18}]},"
+                + "\"skipped\":\"a,b}\",\"number\":-1.5e3,\"flag\":true,\"none\":null,"
+                + "\"videoDetails\":{\"videoId\":\"abc\"}}";
+        JSONObject object = JsonScanner.parseObject(source, keys);
+        assertEquals(keys, object.keySet());
+        assertEquals(18, object.getJSONObject("streamingData").getJSONArray("formats").getJSONObject(0).getIntValue("itag"));
+        assertEquals("abc", object.getJSONObject("videoDetails").getString("videoId"));
+        assertTrue(object.getBooleanValue("flag"));
+    }
+
+    @Test
+    @DisplayName("values of skipped keys are never parsed")
+    void skippedValuesNotParsed() {
+        Set<String> keys = new HashSet<>(Arrays.asList("videoDetails"));
+        String source = "{\"playerAds\":[{not: json, [at all]}],\"videoDetails\":{\"videoId\":\"abc\"},\"storyboards\":{,,}}";
+        JSONObject object = JsonScanner.parseObject(source, keys);
+        assertEquals("abc", object.getJSONObject("videoDetails").getString("videoId"));
+        assertEquals(1, object.size());
+    }
+
+    @Test
+    @DisplayName("missing keys are absent, malformed objects are rejected")
+    void malformed() {
+        Set<String> keys = new HashSet<>(Arrays.asList("a", "b"));
+        assertEquals(1, JsonScanner.parseObject("{\"a\":1}", keys).size());
+        assertTrue(JsonScanner.parseObject("{}", keys).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> JsonScanner.parseObject("[1]", keys));
+        assertThrows(IllegalArgumentException.class, () -> JsonScanner.parseObject("{\"a\" 1}", keys));
+        assertThrows(IllegalArgumentException.class, () -> JsonScanner.parseObject("{\"a\":{\"b\":1}", keys));
+        assertThrows(IllegalArgumentException.class, () -> JsonScanner.parseObject("{\"a\":1,\"b\":\"x}", keys));
+    }
+}
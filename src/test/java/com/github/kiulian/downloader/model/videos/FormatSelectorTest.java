@@ -0,0 +1,141 @@
+package com.github.kiulian.downloader.model.videos;
+
+import com.alibaba.fastjson.JSONObject;
+import com.github.kiulian.downloader.model.videos.formats.AudioFormat;
+import com.github.kiulian.downloader.model.videos.formats.Format;
+import com.github.kiulian.downloader.model.videos.formats.VideoFormat;
+import com.github.kiulian.downloader.model.videos.formats.VideoWithAudioFormat;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormatSelectorTest {
+
+    private final FormatCatalog catalog = new FormatCatalog(Arrays.asList(
+            av(18, "medium", 360, "AUDIO_QUALITY_LOW", 5000L),
+            av(22, "hd720", 720, "AUDIO_QUALITY_MEDIUM", null),
+            video(137, "video/mp4; codecs=\"avc1.640028\"", "hd1080", 1080, 30, 90000L),
+            video(248, "video/webm; codecs=\"vp9\"", "hd1080", 1080, 30, 60000L),
+            video(299, "video/mp4; codecs=\"avc1.64002a\"", "hd1080", 1080, 60, 120000L),
+            video(136, "video/mp4; codecs=\"avc1.4d401f\"", "hd720", 720, 30, 30000L),
+            audio(251, "audio/webm; codecs=\"opus\"", "AUDIO_QUALITY_MEDIUM", null, 160000),
+            audio(140, "audio/mp4; codecs=\"mp4a.40.2\"", "AUDIO_QUALITY_MEDIUM", 1000L, 128000),
+            audio(250, "audio/webm; codecs=\"opus\"", "AUDIO_QUALITY_LOW", 500L, 64000),
+            audio(249, "audio/webm; codecs=\"opus\"", "AUDIO_QUALITY_LOW", 400L, 48000)));
+
+    @Test
+    @DisplayName("best and worst pick by quality within their kind")
+    void bases() {
+        assertEquals(Collections.singletonList(22), select("best"));
+        assertEquals(Collections.singletonList(18), select("worst"));
+        assertEquals(Collections.singletonList(299), select("bestvideo"));
+        assertEquals(Collections.singletonList(136), select("worstvideo"));
+        assertEquals(Collections.singletonList(140), select("bestaudio"));
+        assertEquals(Collections.singletonList(249), select("worstaudio"));
+        assertEquals(Collections.singletonList(137), select("137"));
+        assertEquals(Collections.emptyList(), select("138"));
+    }
+
+    @Test
+    @DisplayName("formats of equal quality are ranked by size, unknown sizes last")
+    void tieBreak() {
+        // 137 and 248 are both 1080p30, 248 is smaller
+        assertEquals(Collections.singletonList(248), select("bestvideo[fps<=30]"));
+        // 140 and 251 are both medium, the size of 251 is unknown
+        assertEquals(Collections.singletonList(140), select("bestaudio"));
+        // 249 and 250 are both low, 249 is smaller
+        assertEquals(Collections.singletonList(249), select("worstaudio"));
+        assertEquals(Collections.singletonList(249), select("bestaudio[asr<=1]/worstaudio"));
+    }
+
+    @Test
+    @DisplayName("filters narrow the candidates, the first alternative which matches wins")
+    void filters() {
+        assertEquals(Arrays.asList(136, 140), select("bestvideo[height<=720]+bestaudio"));
+        assertEquals(Arrays.asList(137, 140), select("bestvideo[fps<=30][ext=mp4]+bestaudio[ext=m4a]"));
+        assertEquals(Collections.singletonList(22), select("bestvideo[height>2000]+bestaudio/best"));
+        assertEquals(Collections.singletonList(136), select("bestvideo[filesize<=50k]"));
+        assertEquals(Collections.singletonList(248), select("bestvideo[codecs^=vp9]"));
+        assertEquals(Collections.singletonList(251), select("bestaudio[mime*=opus]"));
+        assertEquals(Collections.singletonList(250), select("bestaudio[abr>48000][abr<100000]"));
+        assertEquals(Collections.singletonList(140), select("bestaudio[ext!=weba]"));
+        assertEquals(Collections.singletonList(22), select("[height>=720]"));
+        assertEquals(Collections.singletonList(137), select("137[ext=mp4]"));
+        assertEquals(Collections.emptyList(), select("137[ext=webm]"));
+    }
+
+    @Test
+    @DisplayName("a filter on a field the format does not have never matches")
+    void missingField() {
+        assertEquals(Collections.emptyList(), select("bestaudio[height>0]"));
+        assertEquals(Collections.emptyList(), select("best[abr>0]"));
+        assertEquals(Collections.emptyList(), select("best[filesize!=5000][height<=720][height>=720]"));
+        assertEquals(Collections.singletonList(18), select("best[filesize=5000]"));
+    }
+
+    @Test
+    @DisplayName("malformed expressions are rejected when compiled")
+    void malformed() {
+        for (String expression : Arrays.asList("", "bestest", "best[", "best[height<=]", "best[foo=1]",
+                "best[ext<mp4]", "best[height^=1]", "best[height<=abc]", "best]", "best+", "[]")) {
+            assertThrows(IllegalArgumentException.class, () -> FormatSelector.compile(expression), expression);
+        }
+        assertThrows(IllegalArgumentException.class, () -> FormatSelector.compile(null));
+
+        FormatSelector selector = FormatSelector.compile("bestvideo [height <= 1080] + bestaudio / best");
+        assertEquals("bestvideo [height <= 1080] + bestaudio / best", selector.expression());
+        assertEquals(Arrays.asList(299, 140), itags(selector.select(catalog)));
+    }
+
+    private List<Integer> select(String expression) {
+        return itags(FormatSelector.compile(expression).select(catalog));
+    }
+
+    private static List<Integer> itags(List<Format> formats) {
+        List<Integer> itags = new ArrayList<>(formats.size());
+        for (Format format : formats) {
+            itags.add(format.itagId());
+        }
+        return itags;
+    }
+
+    private static JSONObject json(int itag, String mimeType, Long contentLength) {
+        JSONObject json = new JSONObject();
+        json.put("itag", itag);
+        json.put("url", "https://example.com/videoplayback?itag=" + itag);
+        json.put("mimeType", mimeType);
+        json.put("contentLength", contentLength);
+        return json;
+    }
+
+    private static Format av(int itag, String quality, int height, String audioQuality, Long contentLength) {
+        JSONObject json = json(itag, "video/mp4; codecs=\"avc1.42001E, mp4a.40.2\"", contentLength);
+        json.put("quality", quality);
+        json.put("height", height);
+        json.put("fps", 30);
+        json.put("audioQuality", audioQuality);
+        return new VideoWithAudioFormat(json, false, "2.0");
+    }
+
+    private static Format video(int itag, String mimeType, String quality, int height, int fps, Long contentLength) {
+        JSONObject json = json(itag, mimeType, contentLength);
+        json.put("quality", quality);
+        json.put("height", height);
+        json.put("fps", fps);
+        return new VideoFormat(json, true, "2.0");
+    }
+
+    private static Format audio(int itag, String mimeType, String audioQuality, Long contentLength, int averageBitrate) {
+        JSONObject json = json(itag, mimeType, contentLength);
+        json.put("audioQuality", audioQuality);
+        json.put("averageBitrate", averageBitrate);
+        json.put("audioSampleRate", 48000);
+        return new AudioFormat(json, true, "2.0");
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.kiulian.downloader.model.videos.formats;
+
+import com.alibaba.fastjson.JSONObject;
+import com.github.kiulian.downloader.model.videos.quality.AudioQuality;
+import com.github.kiulian.downloader.model.videos.quality.VideoQuality;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItagTest {
+
+    @Test
+    @DisplayName("lookup by id returns the enum constants")
+    void find() {
+        assertSame(Itag.i22, Itag.find(22));
+        assertSame(Itag.i780, Itag.find(780));
+        assertSame(Itag.valueOf("i140"), Itag.find(140));
+        assertNull(Itag.find(0));
+        assertNull(Itag.find(-1));
+        assertNull(Itag.find(1));
+        assertNull(Itag.find(100000));
+
+        EnumMap<Itag, String> names = new EnumMap<>(Itag.class);
+        names.put(Itag.find(18), "mp4");
+        assertEquals("mp4", names.get(Itag.i18));
+    }
+
+    @Test
+    @DisplayName("registering never replaces constants or previous registrations")
+    void register() {
+        assertFalse(ItagRegistry.register(22, VideoQuality.tiny, AudioQuality.low));
+        assertSame(Itag.i22, Itag.find(22));
+        assertEquals(VideoQuality.hd720, ItagRegistry.videoQuality(22));
+
+        assertFalse(ItagRegistry.isSupported(9001));
+        assertTrue(ItagRegistry.register(9001, VideoQuality.hd1080, AudioQuality.noAudio));
+        assertFalse(ItagRegistry.register(9001, VideoQuality.tiny, AudioQuality.low));
+        assertTrue(ItagRegistry.isSupported(9001));
+        assertTrue(ItagRegistry.isVideo(9001));
+        assertFalse(ItagRegistry.isAudio(9001));
+        assertEquals(VideoQuality.hd1080, ItagRegistry.videoQuality(9001));
+        assertNull(Itag.find(9001));
+
+        assertThrows(IllegalArgumentException.class, () -> ItagRegistry.register(0, VideoQuality.tiny, AudioQuality.low));
+    }
+
+    @Test
+    @DisplayName("formats of ids missing from the enum keep their own id")
+    void unknownFormat() {
+        Format first = format(9002);
+        Format second = format(9003);
+        assertSame(Itag.unknown, first.itag());
+        assertEquals(9002, first.itagId());
+        assertEquals(9003, second.itagId());
+        assertEquals(VideoQuality.unknown, ((VideoFormat) first).videoQuality());
+
+        Format known = format(137);
+        assertSame(Itag.i137, known.itag());
+        assertEquals(137, known.itagId());
+        assertEquals(VideoQuality.hd1080, ((VideoFormat) known).videoQuality());
+    }
+
+    private static Format format(int itag) {
+        JSONObject json = new JSONObject();
+        json.put("itag", itag);
+        json.put("url", "https://example.com/videoplayback?itag=" + itag);
+        json.put("mimeType", "video/mp4");
+        json.put("fps", 30);
+        return new VideoFormat(json, true, "2.0");
+    }
+}
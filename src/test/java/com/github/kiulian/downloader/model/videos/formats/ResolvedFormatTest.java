@@ -0,0 +1,60 @@
+package com.github.kiulian.downloader.model.videos.formats;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResolvedFormatTest {
+
+    @Test
+    @DisplayName("size and expiry come from the url when the json has none")
+    void fromUrl() {
+        JSONObject json = JSON.parseObject("{\"itag\":251,\"mimeType\":\"audio/webm\","
+                + "\"url\":\"https://example.com/videoplayback?expire=1700000000\\\\u0026clen=3456\"}");
+        ResolvedFormat format = new ResolvedFormat("abc", json, true);
+
+        assertEquals("https://example.com/videoplayback?expire=1700000000&clen=3456", format.url());
+        assertEquals(Long.valueOf(3456), format.contentLength());
+        assertEquals(Long.valueOf(1700000000), format.expiresAt());
+        assertEquals("audio/webm", format.mimeType());
+        assertNull(format.initRange());
+        assertNull(format.indexRange());
+    }
+
+    @Test
+    @DisplayName("the json size wins over the url, unknown values are null")
+    void fromJson() {
+        JSONObject json = JSON.parseObject("{\"itag\":18,\"mimeType\":\"video/mp4\",\"contentLength\":\"100\","
+                + "\"url\":\"https://example.com/videoplayback?clen=3456\"}");
+        assertEquals(Long.valueOf(100), new ResolvedFormat("abc", json, false).contentLength());
+
+        json = JSON.parseObject("{\"itag\":18,\"url\":\"https://example.com/videoplayback\"}");
+        ResolvedFormat format = new ResolvedFormat("abc", json, false);
+        assertNull(format.contentLength());
+        assertNull(format.expiresAt());
+    }
+
+    @Test
+    @DisplayName("ranges are read from the json, malformed ranges are dropped")
+    void ranges() {
+        JSONObject json = JSON.parseObject("{\"itag\":140,\"url\":\"https://example.com/videoplayback\","
+                + "\"initRange\":{\"start\":\"0\",\"end\":\"631\"},\"indexRange\":{\"start\":\"632\",\"end\":\"x\"}}");
+        ResolvedFormat format = new ResolvedFormat("abc", json, true);
+
+        assertEquals(0, format.initRange().start());
+        assertEquals(631, format.initRange().end());
+        assertEquals(632, format.initRange().length());
+        assertEquals("0-631", format.initRange().toString());
+        assertNull(format.indexRange());
+
+        assertNull(ByteRange.fromJson(null));
+        assertNull(ByteRange.fromJson(JSON.parseObject("{\"start\":\"10\",\"end\":\"9\"}")));
+        assertNull(ByteRange.fromJson(JSON.parseObject("{\"start\":\"-1\",\"end\":\"9\"}")));
+        assertNull(ByteRange.fromJson(JSON.parseObject("{\"end\":\"9\"}")));
+        assertEquals(1, new ByteRange(5, 5).length());
+        assertThrows(IllegalArgumentException.class, () -> new ByteRange(5, 4));
+    }
+}
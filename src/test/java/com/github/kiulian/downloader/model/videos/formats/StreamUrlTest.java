@@ -0,0 +1,84 @@
+package com.github.kiulian.downloader.model.videos.formats;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamUrlTest {
+
+    private static final String URL = "https://rr3---sn-example.googlevideo.com/videoplayback?expire=1700000000&itag=251"
+            + "&mime=audio%2Fwebm&clen=3456789&dur=212.561&n=ab%2Bcd&ratebypass&lsig=AG3C";
+
+    @Test
+    @DisplayName("splits base and parameters, keeps values encoded")
+    void parse() {
+        StreamUrl url = StreamUrl.parse(URL);
+        assertEquals("https://rr3---sn-example.googlevideo.com/videoplayback", url.base());
+        assertEquals(Arrays.asList("expire", "itag", "mime", "clen", "dur", "n", "ratebypass", "lsig"), new ArrayList<>(url.parameters().keySet()));
+        assertEquals("audio%2Fwebm", url.parameter("mime"));
+        assertEquals("audio/webm", url.mimeType());
+        assertEquals("ab+cd", url.decodedParameter("n"));
+        assertEquals("", url.parameter("ratebypass"));
+        assertNull(url.parameter("missing"));
+        assertNull(url.decodedParameter("missing"));
+        assertEquals(URL, url.toString());
+        assertThrows(UnsupportedOperationException.class, () -> url.parameters().put("a", "b"));
+    }
+
+    @Test
+    @DisplayName("typed accessors read expire, clen and dur")
+    void typedAccessors() {
+        StreamUrl url = StreamUrl.parse(URL);
+        assertEquals(1700000000L, url.expiresAt());
+        assertEquals(3456789L, url.contentLength());
+        assertEquals(212561L, url.durationMillis());
+        assertTrue(url.isSigned());
+        assertTrue(url.expiresWithin(0));
+
+        StreamUrl plain = StreamUrl.parse("https://example.com/videoplayback?clen=abc&dur=");
+        assertEquals(-1, plain.expiresAt());
+        assertEquals(-1, plain.contentLength());
+        assertEquals(-1, plain.durationMillis());
+        assertFalse(plain.isSigned());
+        assertFalse(plain.expiresWithin(Long.MAX_VALUE / 2));
+
+        long inOneHour = System.currentTimeMillis() / 1000 + 3600;
+        StreamUrl fresh = StreamUrl.parse("https://example.com/videoplayback?expire=" + inOneHour);
+        assertFalse(fresh.expiresWithin(60_000));
+        assertTrue(fresh.expiresWithin(2 * 3600_000));
+    }
+
+    @Test
+    @DisplayName("urls without a query have no parameters")
+    void noQuery() {
+        StreamUrl url = StreamUrl.parse("https://example.com/videoplayback");
+        assertEquals("https://example.com/videoplayback", url.base());
+        assertTrue(url.parameters().isEmpty());
+        assertEquals("https://example.com/videoplayback?range=0-99", url.rangeUrl(null, 0, 99, 0));
+    }
+
+    @Test
+    @DisplayName("with replaces a parameter in place or appends it, the value is encoded")
+    void with() {
+        StreamUrl url = StreamUrl.parse("https://example.com/videoplayback?a=1&n=old&b=2");
+        StreamUrl replaced = url.with("n", "new/value");
+        assertEquals("https://example.com/videoplayback?a=1&n=new%2Fvalue&b=2", replaced.toString());
+        assertEquals("new/value", replaced.decodedParameter("n"));
+        assertEquals("old", url.parameter("n"));
+
+        assertEquals("https://example.com/videoplayback?a=1&n=old&b=2&c=3", url.with("c", "3").toString());
+        assertEquals("https://example.com/videoplayback?c=3", StreamUrl.parse("https://example.com/videoplayback").with("c", "3").toString());
+    }
+
+    @Test
+    @DisplayName("range urls append the client version, the range and the part number")
+    void rangeUrl() {
+        StreamUrl url = StreamUrl.parse("https://example.com/videoplayback?itag=18");
+        assertEquals("https://example.com/videoplayback?itag=18&cver=19.09.37&range=100-199&rn=2", url.rangeUrl("19.09.37", 100, 199, 2));
+        assertEquals("https://example.com/videoplayback?itag=18&range=0-0", url.rangeUrl(null, 0, 0, 0));
+    }
+}
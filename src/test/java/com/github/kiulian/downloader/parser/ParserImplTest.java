@@ -0,0 +1,366 @@
+package com.github.kiulian.downloader.parser;
+
+import com.alibaba.fastjson.JSON;
+import com.github.kiulian.downloader.Config;
+import com.github.kiulian.downloader.YoutubeException;
+import com.github.kiulian.downloader.cipher.CachedCipherFactory;
+import com.github.kiulian.downloader.downloader.Downloader;
+import com.github.kiulian.downloader.downloader.client.ClientType;
+import com.github.kiulian.downloader.downloader.request.RequestFormatUrls;
+import com.github.kiulian.downloader.downloader.request.RequestSearchResult;
+import com.github.kiulian.downloader.downloader.request.RequestVideoFileDownload;
+import com.github.kiulian.downloader.downloader.request.RequestVideoInfo;
+import com.github.kiulian.downloader.downloader.request.RequestVideoMemoryDownload;
+import com.github.kiulian.downloader.downloader.request.RequestVideoStorageDownload;
+import com.github.kiulian.downloader.downloader.request.RequestVideoStreamDownload;
+import com.github.kiulian.downloader.downloader.request.RequestWebpage;
+import com.github.kiulian.downloader.downloader.response.DownloadedBytes;
+import com.github.kiulian.downloader.downloader.response.PagedIterator;
+import com.github.kiulian.downloader.downloader.response.Response;
+import com.github.kiulian.downloader.downloader.response.ResponseImpl;
+import com.github.kiulian.downloader.extractor.ExtractorImpl;
+import com.github.kiulian.downloader.model.search.SearchResultItem;
+import com.github.kiulian.downloader.model.search.SearchResultVideoDetails;
+import com.github.kiulian.downloader.model.videos.VideoInfo;
+import com.github.kiulian.downloader.model.videos.formats.ResolvedFormat;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParserImplTest {
+
+    static final String PLAYER_RESPONSE = "{\"responseContext\":{\"visitorData\":\"visitor\"},"
+            + "\"playabilityStatus\":{\"status\":\"OK\"},"
+            + "\"videoDetails\":{\"videoId\":\"abc\",\"title\":\"title\",\"lengthSeconds\":\"10\"},"
+            + "\"playerAds\":[{\"skipped\":true}],"
+            + "\"streamingData\":{\"formats\":[{\"itag\":18,\"url\":\"https://example.com/videoplayback?itag=18\",\"mimeType\":\"video/mp4\",\"fps\":30}],"
+            + "\"adaptiveFormats\":[{\"itag\":140,\"url\":\"https://example.com/videoplayback?itag=140\",\"mimeType\":\"audio/mp4\",\"contentLength\":\"1000\","
+            + "\"initRange\":{\"start\":\"0\",\"end\":\"631\"},\"indexRange\":{\"start\":\"632\",\"end\":\"843\"}}]}}";
+
+    enum Behavior {OK, FAIL, STALL}
+
+    @Test
+    @DisplayName("the first playable client wins, stalled losers are cancelled and not recorded")
+    void race() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.behaviors.put(ClientType.IOS.getName(), Behavior.STALL);
+        downloader.behaviors.put(ClientType.ANDROID.getName(), Behavior.FAIL);
+        downloader.behaviors.put(ClientType.WEB.getName(), Behavior.OK);
+        Config config = new Config.Builder().build();
+        ParserImpl parser = parser(config, downloader);
+
+        RequestVideoInfo request = new RequestVideoInfo("abc")
+                .race(Arrays.asList(ClientType.IOS, ClientType.ANDROID, ClientType.WEB), 50);
+        Response<VideoInfo> response = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> parser.parseVideo(request));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertEquals("abc", response.data().details().videoId());
+        assertEquals(2, response.data().formats().size());
+        assertEquals(Arrays.asList("IOS", "ANDROID", "WEB"), downloader.started);
+
+        // the stalled call observes its cancellation instead of waiting for a response
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (!downloader.cancelled.contains("IOS")) {
+                Thread.sleep(10);
+            }
+        });
+        double prior = new com.github.kiulian.downloader.downloader.client.ClientScoreboard().score(ClientType.IOS);
+        assertEquals(prior, config.getClientScoreboard().score(ClientType.IOS));
+        assertTrue(config.getClientScoreboard().score(ClientType.ANDROID) < prior);
+    }
+
+    @Test
+    @DisplayName("a winner found before the stagger delay cancels no one and starts no one else")
+    void raceFirstWins() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.behaviors.put(ClientType.WEB.getName(), Behavior.OK);
+        downloader.behaviors.put(ClientType.IOS.getName(), Behavior.STALL);
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        RequestVideoInfo request = new RequestVideoInfo("abc").race(Arrays.asList(ClientType.WEB, ClientType.IOS), 2000);
+        Response<VideoInfo> response = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> parser.parseVideo(request));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertEquals(Arrays.asList("WEB"), downloader.started);
+    }
+
+    @Test
+    @DisplayName("details only reads the player response without the watch page or base.js")
+    void detailsOnly() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.otherClients = Behavior.OK;
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        Response<VideoInfo> response = parser.parseVideo(new RequestVideoInfo("abc").detailsOnly());
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertEquals("abc", response.data().details().videoId());
+        assertEquals("title", response.data().details().title());
+        assertEquals(10, response.data().details().lengthSeconds());
+        assertTrue(response.data().formats().isEmpty());
+        assertTrue(response.data().subtitlesInfo().isEmpty());
+        assertEquals(1, downloader.urls.size());
+    }
+
+    @Test
+    @DisplayName("details only falls back to the watch page when the api call fails")
+    void detailsOnlyFallback() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.watchPage = "<html><script>var ytInitialPlayerResponse = " + PLAYER_RESPONSE.replace("\"title\":\"title\"", "\"title\":\"watch title\"")
+                + ";</script></html>";
+        Config config = new Config.Builder().build();
+        ParserImpl parser = parser(config, downloader);
+        RequestVideoInfo request = new RequestVideoInfo("abc").detailsOnly();
+        ClientType client = request.getClientType(config.getClientScoreboard());
+        double score = config.getClientScoreboard().score(client);
+
+        Response<VideoInfo> response = parser.parseVideo(request);
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertEquals("watch title", response.data().details().title());
+        assertTrue(response.data().formats().isEmpty());
+        assertEquals(2, downloader.urls.size());
+        assertEquals("https://www.youtube.com/watch?v=abc", downloader.urls.get(1));
+        assertTrue(config.getClientScoreboard().score(client) < score);
+    }
+
+    @Test
+    @DisplayName("details only fails when neither the api nor the watch page has details")
+    void detailsOnlyMissing() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.watchPage = "<html><script>var ytInitialPlayerResponse = {\"playabilityStatus\":{\"status\":\"ERROR\"}};</script></html>";
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        Response<VideoInfo> response = parser.parseVideo(new RequestVideoInfo("abc").detailsOnly());
+
+        assertFalse(response.ok());
+        assertTrue(response.error() instanceof YoutubeException.BadPageException, String.valueOf(response.error()));
+    }
+
+    @Test
+    @DisplayName("format urls are resolved for the requested itags only, in the requested order")
+    void resolveFormatUrls() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.otherClients = Behavior.OK;
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        Response<List<ResolvedFormat>> response = parser.resolveFormatUrls(new RequestFormatUrls("abc", 140, 999, 18));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        List<ResolvedFormat> formats = response.data();
+        assertEquals(2, formats.size());
+        ResolvedFormat audio = formats.get(0);
+        assertEquals(140, audio.itag());
+        assertEquals("abc", audio.videoId());
+        assertTrue(audio.isAdaptive());
+        assertEquals(Long.valueOf(1000), audio.contentLength());
+        assertEquals("0-631", audio.initRange().toString());
+        assertEquals(632, audio.indexRange().start());
+        assertEquals(212, audio.indexRange().length());
+        ResolvedFormat video = formats.get(1);
+        assertEquals(18, video.itag());
+        assertFalse(video.isAdaptive());
+        assertNull(video.contentLength());
+        assertNull(video.initRange());
+        assertEquals(1, downloader.urls.size());
+    }
+
+    @Test
+    @DisplayName("format urls fall back to the watch page when the api call fails")
+    void resolveFormatUrlsFallback() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.watchPage = "<html><script>var ytplayer.config = {\"assets\":{\"js\":\"/s/player/base.js\"},"
+                + "\"args\":{\"player_response\":" + PLAYER_RESPONSE + "}};</script></html>";
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        Response<List<ResolvedFormat>> response = parser.resolveFormatUrls(new RequestFormatUrls("abc", 18));
+
+        assertTrue(response.ok(), String.valueOf(response.error()));
+        assertEquals(1, response.data().size());
+        assertEquals("https://example.com/videoplayback?itag=18", response.data().get(0).url());
+        // plain urls need no deciphering, base.js is not downloaded
+        assertEquals(2, downloader.urls.size());
+        assertEquals("https://www.youtube.com/watch?v=abc", downloader.urls.get(1));
+    }
+
+    @Test
+    @DisplayName("search results are iterated across continuations in order")
+    void iterateSearch() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.searchPages = 3;
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        List<String> ids = videoIds(parser.iterateSearchResult(new RequestSearchResult("query").prefetch(2)));
+
+        assertEquals(Arrays.asList("v1a", "v1b", "v2a", "v2b", "v3a", "v3b"), ids);
+        assertEquals(3, downloader.urls.size());
+        assertTrue(downloader.urls.get(0).startsWith("https://www.youtube.com/results?search_query=query"));
+    }
+
+    @Test
+    @DisplayName("a limit ends the search without loading further continuations")
+    void iterateSearchLimit() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.searchPages = 3;
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        List<String> ids = videoIds(parser.iterateSearchResult(new RequestSearchResult("query").limit(3)));
+
+        assertEquals(Arrays.asList("v1a", "v1b", "v2a"), ids);
+        assertEquals(2, downloader.urls.size());
+    }
+
+    @Test
+    @DisplayName("the stop filter ends the search before the first matching item")
+    void iterateSearchUntil() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.searchPages = 3;
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        List<String> ids = videoIds(parser.iterateSearchResult(new RequestSearchResult("query")
+                .until(item -> "v2b".equals(((SearchResultVideoDetails) item).videoId()))));
+
+        assertEquals(Arrays.asList("v1a", "v1b", "v2a"), ids);
+        assertEquals(2, downloader.urls.size());
+    }
+
+    @Test
+    @DisplayName("a failed continuation is reported after the items loaded before")
+    void iterateSearchFailure() {
+        StubDownloader downloader = new StubDownloader();
+        downloader.searchPages = 3;
+        downloader.failedSearchPage = 2;
+        ParserImpl parser = parser(new Config.Builder().build(), downloader);
+
+        try (PagedIterator<SearchResultItem> iterator = parser.iterateSearchResult(new RequestSearchResult("query"))) {
+            assertEquals("v1a", ((SearchResultVideoDetails) iterator.next()).videoId());
+            assertEquals("v1b", ((SearchResultVideoDetails) iterator.next()).videoId());
+            PagedIterator.PageException e = assertThrows(PagedIterator.PageException.class, iterator::hasNext);
+            assertTrue(e.getCause().getMessage().contains("/search?"), e.getCause().getMessage());
+        }
+    }
+
+    private static List<String> videoIds(PagedIterator<SearchResultItem> iterator) {
+        List<String> ids = new ArrayList<>();
+        try (PagedIterator<SearchResultItem> items = iterator) {
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                while (items.hasNext()) {
+                    ids.add(((SearchResultVideoDetails) items.next()).videoId());
+                }
+            });
+        }
+        return ids;
+    }
+
+    // items "v<page>a" and "v<page>b", followed by the continuation "page<page + 1>" unless last
+    static String searchContents(int page, int pages) {
+        String item = "{\"videoRenderer\":{\"videoId\":\"v%d%s\",\"title\":{\"simpleText\":\"title\"},"
+                + "\"shortBylineText\":{\"runs\":[{\"text\":\"author\"}]}}}";
+        String contents = "[{\"itemSectionRenderer\":{\"contents\":["
+                + String.format(item, page, "a") + "," + String.format(item, page, "b") + "]}}";
+        if (page < pages) {
+            contents += ",{\"continuationItemRenderer\":{\"continuationEndpoint\":{\"clickTrackingParams\":\"ctp\","
+                    + "\"continuationCommand\":{\"token\":\"page" + (page + 1) + "\"}}}}";
+        }
+        return contents + "]";
+    }
+
+    static ParserImpl parser(Config config, Downloader downloader) {
+        return new ParserImpl(config, downloader, new ExtractorImpl(downloader), new CachedCipherFactory(downloader));
+    }
+
+    /**
+     * Answers player api calls by the client name of the body and search pages, other urls fail.
+     */
+    static class StubDownloader implements Downloader {
+        final Map<String, Behavior> behaviors = new ConcurrentHashMap<>();
+        final List<String> started = new CopyOnWriteArrayList<>();
+        final List<String> cancelled = new CopyOnWriteArrayList<>();
+        final List<String> urls = new CopyOnWriteArrayList<>();
+        volatile String playerResponse = PLAYER_RESPONSE;
+
+        volatile Behavior otherClients = Behavior.FAIL;
+        volatile String watchPage;
+        volatile int searchPages;
+        volatile int failedSearchPage;
+
+        @Override
+        public Response<String> downloadWebpage(RequestWebpage request) {
+            String url = request.getDownloadUrl();
+            urls.add(url);
+            if (url.contains("/results?")) {
+                return ResponseImpl.from("<html><script>var ytInitialData = {\"responseContext\":{},\"estimatedResults\":\"6\","
+                        + "\"contents\":{\"twoColumnSearchResultsRenderer\":{\"primaryContents\":{\"sectionListRenderer\":"
+                        + "{\"contents\":" + searchContents(1, searchPages) + "}}}}};</script></html>");
+            }
+            if (url.contains("/watch?v=")) {
+                return watchPage != null ? ResponseImpl.from(watchPage) : ResponseImpl.error(new IOException("HTTP 404"));
+            }
+            if (url.contains("/search?")) {
+                int page = Integer.parseInt(JSON.parseObject(request.getBody()).getString("continuation").substring(4));
+                if (page == failedSearchPage) {
+                    return ResponseImpl.error(new IOException("HTTP 500"));
+                }
+                return ResponseImpl.from("{\"estimatedResults\":\"6\",\"onResponseReceivedCommands\":[{\"appendContinuationItemsAction\":"
+                        + "{\"continuationItems\":" + searchContents(page, searchPages) + "}}]}");
+            }
+            if (request.getBody() == null) {
+                return ResponseImpl.error(new IOException("no page for " + url));
+            }
+            String client = JSON.parseObject(request.getBody()).getJSONObject("context").getJSONObject("client").getString("clientName");
+            started.add(client);
+            Behavior behavior = behaviors.getOrDefault(client, otherClients);
+            if (behavior == Behavior.STALL) {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (System.nanoTime() < deadline) {
+                    if (request.getCancellation() != null && request.getCancellation().isCancelled()) {
+                        cancelled.add(client);
+                        return ResponseImpl.error(new IOException("Canceled"));
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException ignored) {
+                        // a blocking http call does not react to interrupts either
+                    }
+                }
+                return ResponseImpl.error(new IOException("timeout"));
+            }
+            if (behavior == Behavior.FAIL) {
+                return ResponseImpl.error(new IOException("HTTP 403"));
+            }
+            return ResponseImpl.from(playerResponse);
+        }
+
+        @Override
+        public Response<File> downloadVideoAsFile(RequestVideoFileDownload request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Response<Void> downloadVideoAsStream(RequestVideoStreamDownload request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Response<DownloadedBytes> downloadVideoToMemory(RequestVideoMemoryDownload request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Response<String> downloadVideoToStorage(RequestVideoStorageDownload request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+var _yt_player={};(function(g){var window=this;
+var Cy=function(a,b){this.C=a;this.j=b};
+Cy.prototype.get=function(a){return this.j[a]};
+var Dy=function(a){a.C&&(b=a.get("n"))&&(b=Xka(b),a.set("n",b))};
+Xka=function(a){var b=a.split(""),c=[function(d){d.reverse()},function(d,e){e=(e%d.length+d.length)%d.length;d.splice(0,1,d.splice(e,1,d[0])[0])},b,function(d,e){e=(e%d.length+d.length)%d.length;d.splice(-e).reverse().forEach(function(f){d.unshift(f)})},-3,2];try{c[0](c[2]),c[1](c[2],c[5]),c[3](c[2],c[4])}catch(d){return"enhanced_except_"+a}return b.join("")};
+g.Ey=function(a){return Dy(a)};
+})(_yt_player);
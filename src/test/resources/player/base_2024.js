@@ -0,0 +1,6 @@
+'use strict';var XY="split;join;reverse;length".split(";"),Qx;(function(g){var window=this;
+var Yka=[Zka];
+var Dz=function(a){var b,c;(b=String.fromCharCode(110),c=a.get(b))&&(c=Yka[0](c),a.set(b,c))};
+function Zka(a){var b=a[XY[0]](""),c=[b,function(d){d[XY[2]]()}];if(typeof Qx==="undefined")return a;try{c[1](c[0])}catch(d){return"_w8_"+a}return b[XY[1]]("")}
+g.Ez=function(a){return Dz(a)};
+})(_yt_player);
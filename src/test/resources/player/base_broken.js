@@ -0,0 +1,4 @@
+var _yt_player={};(function(g){var window=this;
+var Dy=function(a){a.C&&(b=a.get("n"))&&(b=Xka(b),a.set("n",b))};
+Xka=function(a){var b=a.split(""),c=[b,function(d){d.missing()}];try{c[1](c[0])}catch(d){return"enhanced_except_"+a}return b.join("")};
+})(_yt_player);
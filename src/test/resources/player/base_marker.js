@@ -0,0 +1,4 @@
+var _yt_player={};(function(g){var window=this;
+var Fz=function(a){var b=a.get("n");b&&a.set("n",Gz.call(null,b))};
+Gz=function(a){var b=a.split(""),c=[b,function(d){d.push(d.shift())}];try{c[1](c[0]),c[1](c[0])}catch(d){return"enhanced_except_"+a}return b.join("")};
+})(_yt_player);